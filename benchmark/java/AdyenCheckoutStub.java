@@ -0,0 +1,506 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for the Adyen checkout API, for load and latency tests of the real HTTP path without Adyen.
+ * Answers {@code POST .../payments} and {@code POST .../payments/details} with the JSON the {@code com.adyen.Client}
+ * expects, after a latency drawn from a distribution, with a configurable mix of result codes and injected errors.
+ * Optionally sends the AUTHORISATION webhook of every final result to the application, signed with the HMAC key.
+ * <p>
+ * A RedirectShopper result redirects to the returnUrl of the payment with a {@code redirectResult}, so following the
+ * redirect URL calls {@code /return} of the application, which calls {@code /payments/details} here.
+ *
+ * <pre>
+ * java benchmark/java/AdyenCheckoutStub.java [--option=value ...]
+ * java benchmark/java/AdyenCheckoutStub.java --port=8089 --latency=lognormal:80:0.5 \
+ *     --results=Authorised:80,RedirectShopper:10,Refused:10 --errors=500:0.01,timeout:0.001 \
+ *     --webhook-url=http://localhost:8080/api/webhook/adyen --webhook-user=andraz --webhook-password=odbojka90 \
+ *     --hmac-key=112CC0FBF85B6EA575B25DB0F425900E8F15ACCA024FC63B6ACF4F591158977F
+ * </pre>
+ *
+ * Point the application at it with {@code adyen.checkout.base-url=http://localhost:8089/checkout/v71}.
+ *
+ * <ul>
+ *     <li>--port: default 8089</li>
+ *     <li>--latency: fixed:MS, uniform:MIN:MAX, exp:MEAN or lognormal:MEDIAN:SIGMA, default fixed:50</li>
+ *     <li>--results: result codes of /payments with weights, default Authorised:80,RedirectShopper:10,Refused:10</li>
+ *     <li>--details-results: result codes of /payments/details with weights, default Authorised:90,Refused:10</li>
+ *     <li>--errors: injected errors with their probability, 500, 429 and 422 answer with an Adyen error body,
+ *     timeout holds the request for --hang-millis (default 120000) and reset closes the connection, default none</li>
+ *     <li>--webhook-url, --webhook-user, --webhook-password, --hmac-key: webhook callbacks, off without a URL</li>
+ *     <li>--webhook-delay-millis: delay between the result and its webhook, default 200</li>
+ *     <li>--report-seconds: interval of the printed counters, default 10</li>
+ * </ul>
+ */
+public class AdyenCheckoutStub {
+
+    // Requests are only searched for a few flat fields, no JSON parser needed
+    private static final String STRING_FIELD = "\"(%s)\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"";
+    private static final String NUMBER_FIELD = "\"(%s)\"\\s*:\\s*(-?\\d+)";
+
+    private final Map<String, String> options;
+    private final Latency latency;
+    private final Weighted<String> results;
+    private final Weighted<String> detailsResults;
+    private final Map<String, Double> errors;
+    private final long hangMillis;
+
+    private final String webhookUrl;
+    private final String webhookAuthorization;
+    private final SecretKeySpec hmacKey;
+    private final long webhookDelayMillis;
+    private final HttpClient webhookClient;
+    private final ScheduledExecutorService webhookScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // Payments waiting for the shopper to return, by redirectResult
+    private final Map<String, Payment> redirects = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value, got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new AdyenCheckoutStub(options).start();
+    }
+
+    AdyenCheckoutStub(Map<String, String> options) {
+        this.options = options;
+        this.latency = Latency.parse(option("latency", "fixed:50"));
+        this.results = Weighted.parse(option("results", "Authorised:80,RedirectShopper:10,Refused:10"));
+        this.detailsResults = Weighted.parse(option("details-results", "Authorised:90,Refused:10"));
+        this.errors = parseErrors(option("errors", ""));
+        this.hangMillis = Long.parseLong(option("hang-millis", "120000"));
+
+        this.webhookUrl = option("webhook-url", "");
+        String credentials = option("webhook-user", "") + ":" + option("webhook-password", "");
+        this.webhookAuthorization = option("webhook-user", "").isEmpty() ? null
+                : "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        String hmacHex = option("hmac-key", "");
+        this.hmacKey = hmacHex.isEmpty() ? null : new SecretKeySpec(HexFormat.of().parseHex(hmacHex), "HmacSHA256");
+        this.webhookDelayMillis = Long.parseLong(option("webhook-delay-millis", "200"));
+        this.webhookClient = webhookUrl.isEmpty() ? null : HttpClient.newHttpClient();
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    void start() throws IOException {
+        int port = Integer.parseInt(option("port", "8089"));
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/", this::handle);
+
+        // Every request sleeps for its latency, so one thread per request
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        server.setExecutor(virtual != null ? virtual : Executors.newCachedThreadPool());
+        server.start();
+
+        long reportSeconds = Long.parseLong(option("report-seconds", "10"));
+        webhookScheduler.scheduleAtFixedRate(this::report, reportSeconds, reportSeconds, TimeUnit.SECONDS);
+
+        System.out.printf("Adyen checkout stub on http://localhost:%d/checkout/v71, latency %s, results %s, errors %s, webhooks %s%n",
+                port, option("latency", "fixed:50"), results, errors, webhookUrl.isEmpty() ? "off" : webhookUrl);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+
+            boolean details = path.endsWith("/payments/details");
+            if (!"POST".equals(exchange.getRequestMethod()) || !(details || path.endsWith("/payments"))) {
+                count("notFound");
+                respond(exchange, 404, error(404, "000", "Not found: " + path, "validation"));
+                return;
+            }
+            count(details ? "details" : "payments");
+
+            sleep(latency.nextMillis());
+
+            String injected = nextError();
+            if (injected != null) {
+                count("error." + injected);
+                switch (injected) {
+                    case "timeout" -> {
+                        sleep(hangMillis);
+                        respond(exchange, 500, error(500, "905", "Stub held the request", "internal"));
+                    }
+                    case "reset" -> {
+                        // Closing without a response drops the connection
+                    }
+                    case "429" -> respond(exchange, 429, error(429, "704", "Too many requests", "validation"));
+                    case "422" -> respond(exchange, 422, error(422, "101", "Invalid card number", "validation"));
+                    default -> respond(exchange, 500, error(500, "905", "Injected error", "internal"));
+                }
+                return;
+            }
+
+            respond(exchange, 200, details ? paymentDetails(body) : payment(body));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String payment(String body) {
+        Payment payment = new Payment();
+        payment.pspReference = newPspReference();
+        payment.merchantAccount = stringField(body, "merchantAccount");
+        payment.reference = stringField(body, "reference");
+        payment.currency = stringField(body, "currency");
+        String value = numberField(body, "value");
+        payment.value = value != null ? Long.parseLong(value) : 0;
+
+        String resultCode = results.next();
+        count("result." + resultCode);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("resultCode", resultCode);
+        response.put("merchantReference", payment.reference);
+
+        switch (resultCode) {
+            case "RedirectShopper" -> {
+                String redirectResult = UUID.randomUUID().toString();
+                redirects.put(redirectResult, payment);
+
+                String returnUrl = unescape(stringField(body, "returnUrl"));
+                String url = returnUrl + (returnUrl.contains("?") ? "&" : "?") + "redirectResult="
+                        + URLEncoder.encode(redirectResult, StandardCharsets.UTF_8);
+
+                Map<String, Object> action = new LinkedHashMap<>();
+                action.put("type", "redirect");
+                action.put("paymentMethodType", paymentMethodType(body));
+                action.put("method", "GET");
+                action.put("url", url);
+                response.put("action", action);
+            }
+            case "Refused" -> {
+                response.put("pspReference", payment.pspReference);
+                response.put("refusalReason", "Refused");
+                response.put("refusalReasonCode", "2");
+                sendWebhook(payment, false);
+            }
+            case "Received", "Pending", "PresentToShopper" -> response.put("pspReference", payment.pspReference);
+            default -> {
+                response.put("pspReference", payment.pspReference);
+                sendWebhook(payment, "Authorised".equals(resultCode));
+            }
+        }
+        return toJson(response);
+    }
+
+    private String paymentDetails(String body) {
+        String redirectResult = stringField(body, "redirectResult");
+        Payment payment = redirectResult != null ? redirects.remove(unescape(redirectResult)) : null;
+        if (payment == null) {
+            // Unknown or repeated redirectResult, answer for a payment the stub has not seen
+            payment = new Payment();
+            payment.pspReference = newPspReference();
+            payment.currency = "EUR";
+        }
+
+        String resultCode = detailsResults.next();
+        count("detailsResult." + resultCode);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("resultCode", resultCode);
+        response.put("pspReference", payment.pspReference);
+        response.put("merchantReference", payment.reference);
+        if ("Refused".equals(resultCode)) {
+            response.put("refusalReason", "Refused");
+            response.put("refusalReasonCode", "2");
+        }
+
+        if (payment.merchantAccount != null) {
+            sendWebhook(payment, "Authorised".equals(resultCode));
+        }
+        return toJson(response);
+    }
+
+    private void sendWebhook(Payment payment, boolean success) {
+        if (webhookClient == null) {
+            return;
+        }
+
+        Map<String, Object> amount = new LinkedHashMap<>();
+        amount.put("currency", payment.currency);
+        amount.put("value", payment.value);
+
+        Map<String, Object> item = new LinkedHashMap<>();
+        Map<String, Object> additionalData = new LinkedHashMap<>();
+        if (hmacKey != null) {
+            additionalData.put("hmacSignature", sign(payment, success));
+        }
+        item.put("additionalData", additionalData);
+        item.put("amount", amount);
+        item.put("eventCode", "AUTHORISATION");
+        item.put("eventDate", Instant.now().toString());
+        item.put("merchantAccountCode", payment.merchantAccount);
+        item.put("merchantReference", payment.reference);
+        item.put("pspReference", payment.pspReference);
+        item.put("reason", success ? "" : "Refused");
+        item.put("success", String.valueOf(success));
+
+        Map<String, Object> notification = new LinkedHashMap<>();
+        notification.put("live", "false");
+        notification.put("notificationItems", List.of(Map.of("NotificationRequestItem", item)));
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(webhookUrl))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(toJson(notification)));
+        if (webhookAuthorization != null) {
+            request.header("Authorization", webhookAuthorization);
+        }
+
+        webhookScheduler.schedule(() -> webhookClient.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> count(error != null ? "webhook.error"
+                        : response.statusCode() < 300 ? "webhook.accepted" : "webhook." + response.statusCode())),
+                webhookDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Signing string of Adyen's HMACValidator, see WebhookHmacVerifier
+    private String sign(Payment payment, boolean success) {
+        String data = String.join(":", payment.pspReference, "", nullToEmpty(payment.merchantAccount),
+                nullToEmpty(payment.reference), String.valueOf(payment.value), nullToEmpty(payment.currency),
+                "AUTHORISATION", String.valueOf(success));
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(hmacKey);
+            return Base64.getEncoder().encodeToString(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException("Can not sign webhook: " + e.getMessage(), e);
+        }
+    }
+
+    private String nextError() {
+        double random = ThreadLocalRandom.current().nextDouble();
+        double cumulative = 0;
+        for (Map.Entry<String, Double> error : errors.entrySet()) {
+            cumulative += error.getValue();
+            if (random < cumulative) {
+                return error.getKey();
+            }
+        }
+        return null;
+    }
+
+    private void report() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        System.out.printf("%s %s, waiting redirects %d%n", Instant.now(), snapshot, redirects.size());
+    }
+
+    private void count(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(int status, String errorCode, String message, String errorType) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("status", status);
+        error.put("errorCode", errorCode);
+        error.put("message", message);
+        error.put("errorType", errorType);
+        return toJson(error);
+    }
+
+    private static String paymentMethodType(String body) {
+        int paymentMethod = body.indexOf("\"paymentMethod\"");
+        String type = paymentMethod >= 0 ? stringField(body.substring(paymentMethod), "type") : null;
+        return type != null ? type : "scheme";
+    }
+
+    private static String newPspReference() {
+        return String.format("%016d", ThreadLocalRandom.current().nextLong(1_000_000_000_000_000L, 10_000_000_000_000_000L));
+    }
+
+    private static String stringField(String json, String name) {
+        Matcher matcher = Pattern.compile(String.format(STRING_FIELD, Pattern.quote(name))).matcher(json);
+        return matcher.find() ? matcher.group(2) : null;
+    }
+
+    private static String numberField(String json, String name) {
+        Matcher matcher = Pattern.compile(String.format(NUMBER_FIELD, Pattern.quote(name))).matcher(json);
+        return matcher.find() ? matcher.group(2) : null;
+    }
+
+    // Enough JSON for the flat maps, lists and scalars of the responses above
+    private static String toJson(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        if (value instanceof Map<?, ?> map) {
+            List<String> fields = new ArrayList<>();
+            map.forEach((key, field) -> fields.add(toJson(key) + ":" + toJson(field)));
+            return "{" + String.join(",", fields) + "}";
+        }
+        if (value instanceof List<?> list) {
+            List<String> items = new ArrayList<>();
+            list.forEach(item -> items.add(toJson(item)));
+            return "[" + String.join(",", items) + "]";
+        }
+        return "\"" + value.toString().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String unescape(String value) {
+        return value == null ? "" : value.replace("\\/", "/").replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static Map<String, Double> parseErrors(String spec) {
+        Map<String, Double> errors = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split(":");
+            errors.put(parts[0].trim(), Double.parseDouble(parts[1]));
+        }
+        return errors;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Looked up reflectively, so the stub still runs on JDK 17
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static final class Payment {
+        private String pspReference;
+        private String merchantAccount;
+        private String reference;
+        private String currency;
+        private long value;
+    }
+
+    private interface Latency {
+        long nextMillis();
+
+        static Latency parse(String spec) {
+            String[] parts = spec.split(":");
+            switch (parts[0]) {
+                case "fixed" -> {
+                    long millis = Long.parseLong(parts[1]);
+                    return () -> millis;
+                }
+                case "uniform" -> {
+                    long min = Long.parseLong(parts[1]);
+                    long max = Long.parseLong(parts[2]);
+                    return () -> ThreadLocalRandom.current().nextLong(min, max + 1);
+                }
+                case "exp" -> {
+                    double mean = Double.parseDouble(parts[1]);
+                    return () -> (long) (-mean * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+                }
+                case "lognormal" -> {
+                    double median = Double.parseDouble(parts[1]);
+                    double sigma = Double.parseDouble(parts[2]);
+                    return () -> (long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+                }
+                default -> throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+            }
+        }
+    }
+
+    private static final class Weighted<T> {
+        private final List<T> values = new ArrayList<>();
+        private final List<Integer> cumulativeWeights = new ArrayList<>();
+        private int totalWeight;
+
+        static Weighted<String> parse(String spec) {
+            Weighted<String> weighted = new Weighted<>();
+            for (String entry : spec.split(",")) {
+                String[] parts = entry.split(":");
+                weighted.totalWeight += Integer.parseInt(parts[1]);
+                weighted.values.add(parts[0].trim());
+                weighted.cumulativeWeights.add(weighted.totalWeight);
+            }
+            if (weighted.totalWeight <= 0) {
+                throw new IllegalArgumentException("Weights must add up to more than 0: " + spec);
+            }
+            return weighted;
+        }
+
+        T next() {
+            int random = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (int i = 0; i < values.size(); i++) {
+                if (random < cumulativeWeights.get(i)) {
+                    return values.get(i);
+                }
+            }
+            return values.get(values.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return values.toString();
+        }
+    }
+}
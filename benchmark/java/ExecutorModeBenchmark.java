@@ -0,0 +1,142 @@
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the executors webhook processing can run on with a simulated blocking workload.
+ * Every task holds one of {@code dbPool} "connections" for {@code dbMillis} and then blocks
+ * {@code ioMillis} without a connection (HTTP, logging, ...).
+ *
+ * <pre>
+ * java benchmark/java/ExecutorModeBenchmark.java [tasks] [dbPool] [dbMillis] [ioMillis]
+ * java benchmark/java/ExecutorModeBenchmark.java 20000 20 5 20
+ * </pre>
+ *
+ * <ul>
+ *     <li>legacy-pool: the old taskExecutor bean, 5 core / 10 max threads and a queue of 25, rejects when full</li>
+ *     <li>platform: BoundedTaskExecutor in platform mode, a fixed pool of dbPool threads</li>
+ *     <li>virtual: BoundedTaskExecutor in virtual mode, a virtual thread per task and a semaphore of dbPool permits
+ *     (needs JDK 21, skipped otherwise)</li>
+ *     <li>virtual-x4: virtual threads with 4 * dbPool permits, for tasks that hold a connection only part of the time,
+ *     the connection pool itself is still dbPool</li>
+ * </ul>
+ */
+public class ExecutorModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int dbPool = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long dbMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        long ioMillis = args.length > 3 ? Long.parseLong(args[3]) : 20;
+
+        System.out.printf("tasks=%d dbPool=%d dbMillis=%d ioMillis=%d%n%n", tasks, dbPool, dbMillis, ioMillis);
+        System.out.printf("%-12s %10s %12s %10s %10s %10s%n", "executor", "rejected", "tasks/s", "p50 ms", "p99 ms", "max ms");
+
+        // Warm up the JIT on the cheapest variant
+        run("warmup", new ThreadPoolExecutor(dbPool, dbPool, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(tasks)),
+                null, Math.min(tasks, 2000), dbPool, dbMillis, ioMillis, false);
+
+        run("legacy-pool", new ThreadPoolExecutor(5, 10, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(25)),
+                null, tasks, dbPool, dbMillis, ioMillis, true);
+
+        run("platform", Executors.newFixedThreadPool(dbPool), null, tasks, dbPool, dbMillis, ioMillis, true);
+
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual != null) {
+            run("virtual", virtual, new Semaphore(dbPool, true), tasks, dbPool, dbMillis, ioMillis, true);
+            run("virtual-x4", newVirtualThreadPerTaskExecutor(), new Semaphore(4 * dbPool, true), tasks, dbPool, dbMillis, ioMillis, true);
+        } else {
+            System.out.printf("%-12s skipped, needs JDK 21%n", "virtual");
+        }
+    }
+
+    private static void run(String name, ExecutorService executor, Semaphore permits, int tasks, int dbPool,
+                            long dbMillis, long ioMillis, boolean print) throws InterruptedException {
+        Semaphore connections = new Semaphore(dbPool, true);
+        long[] latencies = new long[tasks];
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            long submitted = System.nanoTime();
+            Runnable task = () -> {
+                try {
+                    if (permits != null) {
+                        permits.acquire();
+                    }
+                    try {
+                        work(connections, dbMillis, ioMillis);
+                    } finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                    latencies[index] = System.nanoTime() - submitted;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            };
+
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                latencies[index] = -1;
+                rejected.incrementAndGet();
+                done.countDown();
+            }
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        if (!print) {
+            return;
+        }
+
+        long[] accepted = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        double throughput = accepted.length / (elapsed / 1_000_000_000.0);
+        System.out.printf("%-12s %10d %12.0f %10.1f %10.1f %10.1f%n", name, rejected.get(), throughput,
+                percentile(accepted, 0.50), percentile(accepted, 0.99), percentile(accepted, 1.0));
+    }
+
+    // Connection is held only for the DB part, like a JDBC call inside a longer webhook task
+    private static void work(Semaphore connections, long dbMillis, long ioMillis) throws InterruptedException {
+        connections.acquire();
+        try {
+            Thread.sleep(dbMillis);
+        } finally {
+            connections.release();
+        }
+        Thread.sleep(ioMillis);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    // Looked up reflectively, so the benchmark still runs the other variants on JDK 17
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
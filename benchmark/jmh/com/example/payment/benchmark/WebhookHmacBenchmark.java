@@ -0,0 +1,89 @@
+package com.example.payment.benchmark;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.example.payment.adyen.validator.WebhookHmacVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-item cost of webhook HMAC verification, Adyen's HMACValidator (key decoded and Mac initialized per call)
+ * against WebhookHmacVerifier, with the signature matching the primary and, during rotation, the secondary key.
+ *
+ * <pre>
+ * mvn -P jmh test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/jmh.classpath
+ * java -cp target/classes:target/test-classes:$(cat target/jmh.classpath) org.openjdk.jmh.Main WebhookHmacBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class WebhookHmacBenchmark {
+
+    private static final String KEY = "112CC0FBF85B6EA575B25DB0F425900E8F15ACCA024FC63B6ACF4F591158977F";
+    private static final String OLD_KEY = "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
+
+    private HMACValidator hmacValidator;
+    private WebhookHmacVerifier verifier;
+    private WebhookHmacVerifier rotatingVerifier;
+    private NotificationRequestItem item;
+
+    @Setup
+    public void setUp() throws Exception {
+        hmacValidator = new HMACValidator();
+        verifier = new WebhookHmacVerifier(KEY);
+
+        // Signed with the new key, configured as secondary, so both keys are tried
+        rotatingVerifier = new WebhookHmacVerifier(OLD_KEY);
+        rotatingVerifier.setSecondaryHmacKey(KEY);
+
+        item = new NotificationRequestItem();
+        item.setPspReference("PSP1234567890123");
+        item.setMerchantAccountCode("TestMerchant");
+        item.setMerchantReference("REF-2025-000123");
+        item.setAmount(new Amount().currency("EUR").value(100000L));
+        item.setEventCode("AUTHORISATION");
+        item.setSuccess(true);
+
+        Map<String, String> additionalData = new HashMap<>();
+        additionalData.put("hmacSignature", hmacValidator.calculateHMAC(item, KEY));
+        item.setAdditionalData(additionalData);
+
+        if (!verifier.verify(item) || !rotatingVerifier.verify(item) || !hmacValidator.validateHMAC(item, KEY)) {
+            throw new IllegalStateException("Signature does not verify");
+        }
+    }
+
+    @Benchmark
+    public boolean adyenHmacValidator() throws Exception {
+        return hmacValidator.validateHMAC(item, KEY);
+    }
+
+    @Benchmark
+    public boolean verifier() {
+        return verifier.verify(item);
+    }
+
+    @Benchmark
+    public boolean verifierSecondaryKey() {
+        return rotatingVerifier.verify(item);
+    }
+}
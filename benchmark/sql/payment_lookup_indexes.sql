@@ -0,0 +1,91 @@
+-- Lookup latency benchmark for the V3 payment indexes.
+--
+-- Seeds a scratch copy of the payment table, measures findByPspReference / findByReference
+-- style lookups without indexes, builds the V3 indexes and measures again.
+-- Nothing outside the payment_bench table is touched.
+--
+-- Usage:
+--   psql -h localhost -U paymentAdmin -d payment_system -v rows=5000000 -v lookups=2000 \
+--        -f benchmark/sql/payment_lookup_indexes.sql
+
+\set ON_ERROR_STOP on
+\if :{?rows}
+\else
+\set rows 5000000
+\endif
+\if :{?lookups}
+\else
+\set lookups 2000
+\endif
+
+DROP TABLE IF EXISTS payment_bench;
+CREATE TABLE payment_bench (LIKE payment INCLUDING DEFAULTS);
+
+\echo 'Seeding' :rows 'rows'
+\timing on
+INSERT INTO payment_bench (id, merchant_reference, psp_reference, amount, currency, reference,
+                           payment_method, status, auth_code, create_at, update_at)
+SELECT g,
+       'GRANAccountECOM',
+       CASE WHEN g % 10 = 0 THEN NULL ELSE 'PSP' || lpad(g::text, 12, '0') END,
+       (g % 10000) + 1,
+       'EUR',
+       'REF' || g,
+       CASE WHEN g % 2 = 0 THEN 'scheme' ELSE 'ideal' END,
+       'Success',
+       'Authorised',
+       now() - (g % 365) * interval '1 day',
+       now()
+FROM generate_series(1, :rows) AS g;
+\timing off
+ANALYZE payment_bench;
+
+-- Runs :lookups random lookups of the given kind and reports the average latency in ms
+CREATE OR REPLACE FUNCTION pg_temp.bench_lookup(kind text, total_rows bigint, lookups int)
+RETURNS TABLE (lookup text, avg_ms numeric, max_ms numeric) AS $$
+DECLARE
+    started timestamptz;
+    elapsed numeric;
+    total numeric := 0;
+    worst numeric := 0;
+    key bigint;
+    found bigint;
+BEGIN
+    FOR i IN 1..lookups LOOP
+        key := 1 + floor(random() * total_rows)::bigint;
+        started := clock_timestamp();
+        IF kind = 'psp_reference' THEN
+            SELECT id INTO found FROM payment_bench WHERE psp_reference = 'PSP' || lpad(key::text, 12, '0');
+        ELSE
+            SELECT id INTO found FROM payment_bench WHERE reference = 'REF' || key;
+        END IF;
+        elapsed := extract(epoch FROM clock_timestamp() - started) * 1000;
+        total := total + elapsed;
+        worst := greatest(worst, elapsed);
+    END LOOP;
+    RETURN QUERY SELECT kind, round(total / lookups, 4), round(worst, 4);
+END;
+$$ LANGUAGE plpgsql;
+
+\echo 'Before indexes (sequential scans, keep lookups low for large row counts)'
+SELECT * FROM pg_temp.bench_lookup('psp_reference', :rows, least(:lookups, 20));
+SELECT * FROM pg_temp.bench_lookup('reference', :rows, least(:lookups, 20));
+EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM payment_bench WHERE psp_reference = 'PSP000000001234';
+
+\echo 'Building V3 indexes'
+\timing on
+CREATE UNIQUE INDEX CONCURRENTLY ux_payment_bench_psp_reference
+    ON payment_bench (psp_reference)
+    WHERE psp_reference IS NOT NULL;
+CREATE UNIQUE INDEX CONCURRENTLY ux_payment_bench_reference_merchant_reference
+    ON payment_bench (reference, merchant_reference);
+\timing off
+ANALYZE payment_bench;
+
+\echo 'After indexes'
+SELECT * FROM pg_temp.bench_lookup('psp_reference', :rows, :lookups);
+SELECT * FROM pg_temp.bench_lookup('reference', :rows, :lookups);
+EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM payment_bench WHERE psp_reference = 'PSP000000001234';
+EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM payment_bench WHERE reference = 'REF1234';
+
+DROP TABLE payment_bench;
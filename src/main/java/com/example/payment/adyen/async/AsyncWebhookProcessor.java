@@ -2,26 +2,218 @@ package com.example.payment.adyen.async;
 
 import com.adyen.model.notification.NotificationRequest;
 import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.adyen.cache.WebhookKeyCache;
+import com.example.payment.adyen.dto.NotificationItemDTO;
 import com.example.payment.adyen.service.PaymentService;
 import com.example.payment.logging.MyLogger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 public class AsyncWebhookProcessor {
 
     private final MyLogger logger = new MyLogger(LoggerFactory.getLogger(AsyncWebhookProcessor.class));
     private final PaymentService paymentService;
+    private WebhookKeyCache webhookKeyCache;
+    private WebhookRetryScheduler retryScheduler;
+
+    private boolean batchEnabled = false;
+    private int batchSize = 50;
 
     public AsyncWebhookProcessor(PaymentService paymentService) {
         this.paymentService = paymentService;
     }
 
+    /**
+     * Optional set of recently applied webhook keys, items found in it are skipped without a transaction.
+     * Keys are added after {@link PaymentService} returned, i.e. after its transaction committed.
+     */
+    public void setWebhookKeyCache(WebhookKeyCache webhookKeyCache) {
+        this.webhookKeyCache = webhookKeyCache;
+    }
+
+    /**
+     * Optional scheduler for items that fail. Without it a failing item fails the whole {@link #process} call,
+     * so the inbox row is retried, items applied before are skipped then as redeliveries.
+     */
+    public void setRetryScheduler(WebhookRetryScheduler retryScheduler) {
+        this.retryScheduler = retryScheduler;
+    }
+
+    public void setBatchEnabled(boolean batchEnabled) {
+        this.batchEnabled = batchEnabled;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be greater then 0");
+        }
+        this.batchSize = batchSize;
+    }
+
     public void process(NotificationRequest request) {
+        List<NotificationItemDTO> items = new ArrayList<>();
         for (NotificationRequestItem item : request.getNotificationItems()) {
-            logger.info("Processing webhook for notification request item.", item);
+            items.add(new NotificationItemDTO(item, null));
+        }
+
+        process(items);
+    }
 
-            paymentService.handleNotification(item);
+    public void process(List<NotificationItemDTO> items) {
+        items = withoutCachedDuplicates(items);
+        items = withoutItemsWaitingForRetries(items);
+
+        if (batchEnabled && items.size() > 1) {
+            for (int from = 0; from < items.size(); from += batchSize) {
+                processChunk(items.subList(from, Math.min(from + batchSize, items.size())));
+            }
+        } else {
+            processItems(items);
         }
 
         logger.info("Done with processing webhook");
     }
+
+    private void processChunk(List<NotificationItemDTO> chunk) {
+        logger.info(String.format("Processing webhook batch of %d notification request items.", chunk.size()));
+
+        List<NotificationItemDTO> fallbackItems;
+        try {
+            fallbackItems = paymentService.handleNotificationBatch(chunk);
+            rememberKeys(chunk, fallbackItems);
+        } catch (Exception e) {
+            // Whole chunk was rolled back, apply every item in its own transaction
+            logger.error("Error on webhook batch, falling back to single items: " + e.getMessage());
+            fallbackItems = chunk;
+        }
+
+        processItems(fallbackItems);
+    }
+
+    /**
+     * Applies items one by one, each in its own transaction. A failed item holds back the later items of the
+     * same payment and the other payments go on. With a retry scheduler the held back items are handed to it,
+     * without one the first error is thrown at the end, so later chunks are not applied before them.
+     */
+    private void processItems(List<NotificationItemDTO> items) {
+        Map<String, List<NotificationItemDTO>> failedItems = new LinkedHashMap<>();
+        Map<String, RuntimeException> errors = new HashMap<>();
+
+        for (NotificationItemDTO item : items) {
+            String pspReference = item.getItem().getPspReference();
+            List<NotificationItemDTO> waitingItems = failedItems.get(pspReference);
+            if (waitingItems != null) {
+                waitingItems.add(item);
+                continue;
+            }
+
+            logger.info("Processing webhook for notification request item.", item.getItem());
+            try {
+                paymentService.handleNotification(item);
+                rememberKey(item);
+            } catch (RuntimeException e) {
+                failedItems.put(pspReference, new ArrayList<>(List.of(item)));
+                errors.put(pspReference, e);
+            }
+        }
+
+        if (failedItems.isEmpty()) {
+            return;
+        }
+
+        if (retryScheduler == null) {
+            Map.Entry<String, List<NotificationItemDTO>> failed = failedItems.entrySet().iterator().next();
+            logger.error(String.format("Error on processing webhook, %d items of %d payments not applied.",
+                    failedItems.values().stream().mapToInt(List::size).sum(), failedItems.size()), failed.getValue().get(0).getItem());
+            throw errors.get(failed.getKey());
+        }
+
+        for (Map.Entry<String, List<NotificationItemDTO>> failed : failedItems.entrySet()) {
+            retryScheduler.schedule(failed.getValue(), errors.get(failed.getKey()));
+        }
+    }
+
+    private List<NotificationItemDTO> withoutCachedDuplicates(List<NotificationItemDTO> items) {
+        if (webhookKeyCache == null) {
+            return items;
+        }
+
+        List<NotificationItemDTO> newItems = new ArrayList<>(items.size());
+        for (NotificationItemDTO item : items) {
+            if (webhookKeyCache.contains(item.getItem())) {
+                logger.info("Skipping duplicate notification request item.", item.getItem());
+            } else {
+                newItems.add(item);
+            }
+        }
+        return newItems;
+    }
+
+    /**
+     * Items of payments that still have items waiting in the retry table go behind them, otherwise a new event
+     * could be applied before an older one that failed on an earlier webhook.
+     */
+    private List<NotificationItemDTO> withoutItemsWaitingForRetries(List<NotificationItemDTO> items) {
+        if (retryScheduler == null || items.isEmpty()) {
+            return items;
+        }
+
+        Set<String> pspReferences = new HashSet<>();
+        for (NotificationItemDTO item : items) {
+            if (item.getItem().getPspReference() != null) {
+                pspReferences.add(item.getItem().getPspReference());
+            }
+        }
+
+        Map<String, Timestamp> waiting = retryScheduler.findWaiting(pspReferences);
+        if (waiting.isEmpty()) {
+            return items;
+        }
+
+        List<NotificationItemDTO> newItems = new ArrayList<>(items.size());
+        Map<String, List<NotificationItemDTO>> waitingItems = new LinkedHashMap<>();
+        for (NotificationItemDTO item : items) {
+            String pspReference = item.getItem().getPspReference();
+            if (pspReference != null && waiting.containsKey(pspReference)) {
+                waitingItems.computeIfAbsent(pspReference, key -> new ArrayList<>()).add(item);
+            } else {
+                newItems.add(item);
+            }
+        }
+
+        for (Map.Entry<String, List<NotificationItemDTO>> entry : waitingItems.entrySet()) {
+            retryScheduler.scheduleBehind(entry.getValue(), waiting.get(entry.getKey()));
+        }
+        return newItems;
+    }
+
+    private void rememberKeys(List<NotificationItemDTO> chunk, List<NotificationItemDTO> fallbackItems) {
+        if (webhookKeyCache == null) {
+            return;
+        }
+
+        Set<NotificationItemDTO> notApplied = Collections.newSetFromMap(new IdentityHashMap<>());
+        notApplied.addAll(fallbackItems);
+        for (NotificationItemDTO item : chunk) {
+            if (!notApplied.contains(item)) {
+                webhookKeyCache.add(item.getItem());
+            }
+        }
+    }
+
+    private void rememberKey(NotificationItemDTO item) {
+        if (webhookKeyCache != null) {
+            webhookKeyCache.add(item.getItem());
+        }
+    }
 }
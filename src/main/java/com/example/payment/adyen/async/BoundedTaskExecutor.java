@@ -0,0 +1,121 @@
+package com.example.payment.adyen.async;
+
+import com.example.payment.helper.ExecutorModeEnum;
+import com.example.payment.logging.MyLogger;
+import com.example.payment.metrics.MetricsSource;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs blocking tasks (JDBC, HTTP) on a fixed platform thread pool or on one virtual thread per task.
+ * In both modes at most {@code maxConcurrency} tasks run at the same time, the rest wait for a permit.
+ * Keep it at or below the connection pool size, so virtual threads queue here instead of on Hikari.
+ * Virtual mode needs JDK 21.
+ */
+public class BoundedTaskExecutor implements TaskExecutor, MetricsSource, DisposableBean {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(BoundedTaskExecutor.class));
+
+    private final String name;
+    private final ExecutorModeEnum mode;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+
+    private final ExecutorService platformExecutor;
+    private final VirtualThreadTaskExecutor virtualExecutor;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public BoundedTaskExecutor(String name, String mode, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be greater then 0");
+        }
+
+        this.name = name;
+        this.mode = ExecutorModeEnum.fromValue(mode);
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+
+        if (this.mode == ExecutorModeEnum.VIRTUAL) {
+            this.virtualExecutor = new VirtualThreadTaskExecutor(name + "-");
+            this.platformExecutor = null;
+        } else {
+            this.platformExecutor = Executors.newFixedThreadPool(maxConcurrency, new CustomizableThreadFactory(name + "-"));
+            this.virtualExecutor = null;
+        }
+
+        logger.info(String.format("Executor %s runs on %s threads, max concurrency %d.", name, this.mode, maxConcurrency));
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        submitted.incrementAndGet();
+
+        Runnable bounded = () -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.incrementAndGet();
+                return;
+            }
+
+            try {
+                task.run();
+                completed.incrementAndGet();
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                throw e;
+            } finally {
+                permits.release();
+            }
+        };
+
+        if (virtualExecutor != null) {
+            virtualExecutor.execute(bounded);
+        } else {
+            platformExecutor.execute(bounded);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (platformExecutor != null) {
+            platformExecutor.shutdown();
+            if (!platformExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                platformExecutor.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("mode", mode.getValue());
+        metrics.put("maxConcurrency", maxConcurrency);
+        metrics.put("running", maxConcurrency - permits.availablePermits());
+        metrics.put("waiting", permits.getQueueLength());
+        metrics.put("submitted", submitted.get());
+        metrics.put("completed", completed.get());
+        metrics.put("failed", failed.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.payment.adyen.async;
+
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentStatusDTO;
+import com.example.payment.logging.MyLogger;
+import com.example.payment.metrics.MetricsSource;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * In-process notification of payment status changes for clients waiting on /status. A waiter is only a listener
+ * in a map keyed by payment id, no thread is held while it waits. {@link com.example.payment.adyen.dao.PaymentDao}
+ * publishes every status update, inside a transaction only after it committed. Other instances are not notified,
+ * their waiters read the stored status when they time out.
+ */
+public class PaymentStatusNotifier implements MetricsSource {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(PaymentStatusNotifier.class));
+
+    private final ConcurrentHashMap<Long, Set<Consumer<PaymentStatusDTO>>> listenersByPaymentId = new ConcurrentHashMap<>();
+
+    private long maxWaitMillis = 30000;
+    private long streamTimeoutMillis = 300000;
+    private Executor streamExecutor = Runnable::run;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+
+    /**
+     * Longest long-poll on /status, a request asking for more waits this long.
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        if (maxWaitMillis < 1) {
+            throw new IllegalArgumentException("Max wait must be greater then 0");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Time after which a /status event stream is closed, the client reconnects if the payment is still open.
+     */
+    public void setStreamTimeoutMillis(long streamTimeoutMillis) {
+        if (streamTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Stream timeout must be greater then 0");
+        }
+        this.streamTimeoutMillis = streamTimeoutMillis;
+    }
+
+    public long getStreamTimeoutMillis() {
+        return streamTimeoutMillis;
+    }
+
+    /**
+     * Executor writing /status events to the clients, so listeners only queue them on the publishing thread.
+     * Without one (tests) events are written by the caller.
+     */
+    public void setStreamExecutor(Executor streamExecutor) {
+        if (streamExecutor == null) {
+            throw new IllegalArgumentException("Stream executor must not be null");
+        }
+        this.streamExecutor = streamExecutor;
+    }
+
+    public Executor getStreamExecutor() {
+        return streamExecutor;
+    }
+
+    /**
+     * Calls {@code listener} with every published status of the payment until the returned handle is run.
+     * The listener runs on the publishing thread and must not block.
+     */
+    public Runnable subscribe(Long paymentId, Consumer<PaymentStatusDTO> listener) {
+        listenersByPaymentId.compute(paymentId, (id, listeners) -> {
+            Set<Consumer<PaymentStatusDTO>> result = listeners != null ? listeners : ConcurrentHashMap.newKeySet();
+            if (result.add(listener)) {
+                waiting.incrementAndGet();
+            }
+            return result;
+        });
+
+        return () -> listenersByPaymentId.computeIfPresent(paymentId, (id, listeners) -> {
+            if (listeners.remove(listener)) {
+                waiting.decrementAndGet();
+            }
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    /**
+     * Notifies the waiters of the payment about its current status, after commit when called inside a transaction.
+     */
+    public void publish(PaymentDTO payment) {
+        if (payment.getId() == null || payment.getStatus() == null) {
+            return;
+        }
+
+        PaymentStatusDTO status = PaymentStatusDTO.of(payment);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deliver(status);
+                }
+            });
+        } else {
+            deliver(status);
+        }
+    }
+
+    private void deliver(PaymentStatusDTO status) {
+        published.increment();
+
+        Set<Consumer<PaymentStatusDTO>> listeners = listenersByPaymentId.get(status.getId());
+        if (listeners == null) {
+            return;
+        }
+
+        for (Consumer<PaymentStatusDTO> listener : listeners) {
+            try {
+                listener.accept(status);
+                delivered.increment();
+            } catch (RuntimeException e) {
+                logger.error(String.format("Error on notifying status of payment %d: %s", status.getId(), e.getMessage()));
+            }
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "paymentStatus";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("waiting", waiting.get());
+        metrics.put("payments", listenersByPaymentId.size());
+        metrics.put("published", published.sum());
+        metrics.put("delivered", delivered.sum());
+        metrics.put("maxWaitMillis", maxWaitMillis);
+        metrics.put("streamTimeoutMillis", streamTimeoutMillis);
+        return metrics;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.payment.adyen.async;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timer wheel. Deadlines are rounded up to whole ticks and kept in {@code wheelSize} slots, so adding a
+ * timer and expiring the timers of a tick costs the same however many timers are pending. A deadline more than
+ * one turn of the wheel ahead stays in its slot until the remaining turns have passed. Not thread safe.
+ */
+public class TimerWheel<T> {
+
+    private final long tickMillis;
+    private final List<ArrayDeque<Timer<T>>> slots;
+    private long currentTick;
+    private int size;
+
+    public TimerWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("Tick and wheel size must be greater then 0");
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            slots.add(new ArrayDeque<>());
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    public void add(T value, long deadlineMillis) {
+        // A deadline in the past expires on the next tick
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        slots.get((int) (tick % slots.size())).add(new Timer<>(tick, value));
+        size++;
+    }
+
+    /**
+     * Moves the wheel to {@code nowMillis} and returns the values of all timers that expired on the way.
+     */
+    public List<T> advance(long nowMillis) {
+        long targetTick = nowMillis / tickMillis;
+        if (targetTick <= currentTick) {
+            return List.of();
+        }
+
+        List<T> expired = new ArrayList<>();
+        // After a long pause every slot is visited once, the tick check catches everything that is due
+        long steps = Math.min(targetTick - currentTick, slots.size());
+        for (long step = 1; step <= steps; step++) {
+            Iterator<Timer<T>> timers = slots.get((int) ((currentTick + step) % slots.size())).iterator();
+            while (timers.hasNext()) {
+                Timer<T> timer = timers.next();
+                if (timer.tick <= targetTick) {
+                    expired.add(timer.value);
+                    timers.remove();
+                }
+            }
+        }
+
+        currentTick = targetTick;
+        size -= expired.size();
+        return expired;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static final class Timer<T> {
+        private final long tick;
+        private final T value;
+
+        Timer(long tick, T value) {
+            this.tick = tick;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.payment.adyen.async;
+
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.WebhookHandler;
+import com.example.payment.adyen.dao.WebhookInboxDao;
+import com.example.payment.adyen.dto.NotificationItemDTO;
+import com.example.payment.adyen.dto.WebhookInboxDTO;
+import com.example.payment.helper.NotificationJsonHelper;
+import com.example.payment.helper.WebhookInboxStatusEnum;
+import com.example.payment.logging.MyLogger;
+import com.example.payment.metrics.MetricsSource;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies webhooks stored in the webhook_inbox table. Every worker thread claims a few rows at a time with
+ * {@code FOR UPDATE SKIP LOCKED}, so any number of threads and application instances can share the inbox
+ * without processing a row twice. Rows of a worker that dies are claimed again once their lease expires.
+ */
+public class WebhookInboxWorker implements MetricsSource {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(WebhookInboxWorker.class));
+
+    private final WebhookInboxDao webhookInboxDao;
+    private final AsyncWebhookProcessor webhookProcessor;
+    private final WebhookHandler webhookHandler;
+    private final ThreadPoolTaskExecutor executor;
+    private WebhookLaneDispatcher laneDispatcher;
+
+    private int workers = 4;
+    private int claimSize = 10;
+    private long pollIntervalMillis = 500;
+    private long leaseMillis = 300000;
+    private int maxAttempts = 5;
+    private long retryDelayMillis = 1000;
+    private long maxRetryDelayMillis = 60000;
+    private long retentionMillis = 7L * 24 * 60 * 60 * 1000;
+
+    // Held from claim until the rows are queued on the lanes, so rows of this instance reach a lane in id order
+    private final Object dispatchLock = new Object();
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private volatile boolean running;
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public WebhookInboxWorker(WebhookInboxDao webhookInboxDao, AsyncWebhookProcessor webhookProcessor,
+                              WebhookHandler webhookHandler, ThreadPoolTaskExecutor executor) {
+        this.webhookInboxDao = webhookInboxDao;
+        this.webhookProcessor = webhookProcessor;
+        this.webhookHandler = webhookHandler;
+        this.executor = executor;
+    }
+
+    /**
+     * Optional dispatcher that applies the rows of one claim in parallel, keeping the order of events per
+     * pspReference. Without it every worker applies its rows one after another.
+     */
+    public void setLaneDispatcher(WebhookLaneDispatcher laneDispatcher) {
+        this.laneDispatcher = laneDispatcher;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public void setClaimSize(int claimSize) {
+        this.claimSize = claimSize;
+    }
+
+    /**
+     * How long an idle worker waits before looking at the inbox again, unless {@link #wakeUp()} is called.
+     */
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * How long a claimed row stays with its worker. Must be longer than processing of one claim takes.
+     */
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Delay before a released row is claimed again, doubled per attempt up to {@code maxRetryDelayMillis}.
+     */
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        if (retryDelayMillis <= 0) {
+            throw new IllegalArgumentException("Retry delay must be greater then 0");
+        }
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    public void setMaxRetryDelayMillis(long maxRetryDelayMillis) {
+        if (maxRetryDelayMillis <= 0) {
+            throw new IllegalArgumentException("Max retry delay must be greater then 0");
+        }
+        this.maxRetryDelayMillis = maxRetryDelayMillis;
+    }
+
+    public void setRetentionMillis(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    public void start() {
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::runLoop);
+        }
+        logger.info(String.format("Started %d webhook inbox workers.", workers));
+    }
+
+    public void stop() {
+        running = false;
+        wakeUps.release(workers);
+    }
+
+    /**
+     * Lets one idle worker look at the inbox right away, called after a webhook is stored.
+     */
+    public void wakeUp() {
+        if (wakeUps.availablePermits() < workers) {
+            wakeUps.release();
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            int claimedCount = 0;
+            try {
+                claimedCount = processNext();
+            } catch (Exception e) {
+                logger.error("Error on claiming webhook inbox rows: " + e.getMessage());
+            }
+
+            // A full claim means there is probably more waiting
+            if (claimedCount < claimSize) {
+                waitForWork();
+            }
+        }
+    }
+
+    /**
+     * Claims and processes one set of inbox rows, returns the number of claimed rows.
+     */
+    public int processNext() {
+        if (laneDispatcher == null) {
+            List<WebhookInboxDTO> entries = claim();
+            for (WebhookInboxDTO entry : entries) {
+                processEntry(entry);
+            }
+            return entries.size();
+        }
+
+        // Workers claim and queue one after another, otherwise a newer claim could reach a lane before an older one.
+        // Waiting for the rows happens outside the lock, so the next claim is queued behind them meanwhile
+        List<WebhookInboxDTO> entries;
+        List<CompletableFuture<Void>> futures;
+        synchronized (dispatchLock) {
+            entries = claim();
+            futures = dispatchEntries(entries);
+        }
+        awaitEntries(entries, futures);
+        return entries.size();
+    }
+
+    private List<WebhookInboxDTO> claim() {
+        List<WebhookInboxDTO> entries = webhookInboxDao.claim(claimSize, leaseMillis);
+        claimed.addAndGet(entries.size());
+        return entries;
+    }
+
+    private void processEntry(WebhookInboxDTO entry) {
+        try {
+            webhookProcessor.process(parseEntry(entry));
+            markDone(entry);
+        } catch (Exception e) {
+            markError(entry, e);
+        }
+    }
+
+    private List<CompletableFuture<Void>> dispatchEntries(List<WebhookInboxDTO> entries) {
+        // Rows are claimed in id order, dispatching them in that order keeps the order of events per payment
+        List<CompletableFuture<Void>> futures = new ArrayList<>(entries.size());
+        for (WebhookInboxDTO entry : entries) {
+            try {
+                futures.add(laneDispatcher.dispatch(parseEntry(entry)));
+            } catch (Exception e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        return futures;
+    }
+
+    private void awaitEntries(List<WebhookInboxDTO> entries, List<CompletableFuture<Void>> futures) {
+        // This worker claims again only after all rows of this claim, so no row outlives its lease on it
+        for (int i = 0; i < entries.size(); i++) {
+            WebhookInboxDTO entry = entries.get(i);
+            try {
+                futures.get(i).join();
+                markDone(entry);
+            } catch (CompletionException e) {
+                markError(entry, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            } catch (Exception e) {
+                markError(entry, e);
+            }
+        }
+    }
+
+    private List<NotificationItemDTO> parseEntry(WebhookInboxDTO entry) throws IOException {
+        String payload = entry.getPayload();
+        NotificationRequest notificationRequest = webhookHandler.handleNotificationJson(payload);
+        return toNotificationItems(notificationRequest, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void markDone(WebhookInboxDTO entry) {
+        webhookInboxDao.markDone(entry.getId());
+        processed.incrementAndGet();
+    }
+
+    private void markError(WebhookInboxDTO entry, Exception e) {
+        if (entry.getAttempts() >= maxAttempts) {
+            logger.error(String.format("Webhook inbox row %d failed after %d attempts: %s", entry.getId(), entry.getAttempts(), e.getMessage()));
+            webhookInboxDao.markFailed(entry.getId(), e.getMessage());
+            failed.incrementAndGet();
+        } else {
+            long delay = getRetryDelayMillis(entry.getAttempts());
+            logger.error(String.format("Error on webhook inbox row %d, attempt %d, retrying in %d ms: %s",
+                    entry.getId(), entry.getAttempts(), delay, e.getMessage()));
+            webhookInboxDao.release(entry.getId(), e.getMessage(), new Timestamp(System.currentTimeMillis() + delay));
+            released.incrementAndGet();
+        }
+    }
+
+    long getRetryDelayMillis(int attempts) {
+        int doublings = Math.min(Math.max(attempts - 1, 0), 30);
+        return Math.min(maxRetryDelayMillis, retryDelayMillis << doublings);
+    }
+
+    private List<NotificationItemDTO> toNotificationItems(NotificationRequest notificationRequest, byte[] body) {
+        List<NotificationRequestItem> items = notificationRequest.getNotificationItems();
+
+        List<String> rawItems;
+        try {
+            rawItems = NotificationJsonHelper.extractRawItems(body);
+        } catch (IOException e) {
+            logger.error("Error on reading raw notification items: " + e.getMessage());
+            rawItems = Collections.emptyList();
+        }
+
+        // Without a matching raw item the item is serialized again when stored
+        boolean hasRawItems = rawItems.size() == items.size();
+
+        List<NotificationItemDTO> notificationItems = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            notificationItems.add(new NotificationItemDTO(items.get(i), hasRawItems ? rawItems.get(i) : null));
+        }
+        return notificationItems;
+    }
+
+    /**
+     * Deletes processed rows older than the retention, failed rows are kept for inspection.
+     */
+    public void purge() {
+        try {
+            int deleted = webhookInboxDao.deleteDoneBefore(new Timestamp(System.currentTimeMillis() - retentionMillis));
+            if (deleted > 0) {
+                logger.info(String.format("Deleted %d processed webhook inbox rows.", deleted));
+            }
+        } catch (Exception e) {
+            logger.error("Error on purging webhook inbox: " + e.getMessage());
+        }
+    }
+
+    private void waitForWork() {
+        try {
+            wakeUps.tryAcquire(pollIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "webhookInbox";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("workers", workers);
+        metrics.put("claimed", claimed.get());
+        metrics.put("processed", processed.get());
+        metrics.put("released", released.get());
+        metrics.put("failed", failed.get());
+        try {
+            metrics.put("pending", webhookInboxDao.countByStatus(WebhookInboxStatusEnum.PENDING));
+            metrics.put("processing", webhookInboxDao.countByStatus(WebhookInboxStatusEnum.PROCESSING));
+            metrics.put("failedRows", webhookInboxDao.countByStatus(WebhookInboxStatusEnum.FAILED));
+        } catch (Exception e) {
+            logger.error("Error on reading webhook inbox counts: " + e.getMessage());
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.payment.adyen.async;
+
+import com.example.payment.adyen.dto.NotificationItemDTO;
+import com.example.payment.logging.MyLogger;
+import com.example.payment.metrics.MetricsSource;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads notification items over a fixed number of lanes by pspReference. A lane runs one task at a time in
+ * submission order, so all events of one payment are applied one after another, while different lanes run in
+ * parallel on the executor.
+ */
+public class WebhookLaneDispatcher implements MetricsSource {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(WebhookLaneDispatcher.class));
+
+    // Tasks a lane runs before giving its executor thread back, so busy lanes do not starve the others
+    private static final int MAX_TASKS_PER_RUN = 16;
+
+    private final AsyncWebhookProcessor webhookProcessor;
+    private final TaskExecutor executor;
+    private final Lane[] lanes;
+
+    public WebhookLaneDispatcher(AsyncWebhookProcessor webhookProcessor, TaskExecutor executor, int laneCount) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("Lane count must be greater then 0");
+        }
+
+        this.webhookProcessor = webhookProcessor;
+        this.executor = executor;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Queues the items on their lanes, keeping their order within every lane. The returned future completes
+     * when all items are processed, or exceptionally if any lane failed on its part.
+     */
+    public CompletableFuture<Void> dispatch(List<NotificationItemDTO> items) {
+        Map<Integer, List<NotificationItemDTO>> itemsByLane = new LinkedHashMap<>();
+        for (NotificationItemDTO item : items) {
+            int lane = laneFor(item.getItem().getPspReference(), lanes.length);
+            itemsByLane.computeIfAbsent(lane, key -> new ArrayList<>()).add(item);
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(itemsByLane.size());
+        for (Map.Entry<Integer, List<NotificationItemDTO>> laneItems : itemsByLane.entrySet()) {
+            List<NotificationItemDTO> laneList = laneItems.getValue();
+            futures.add(lanes[laneItems.getKey()].submit(() -> webhookProcessor.process(laneList)));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    static int laneFor(String pspReference, int laneCount) {
+        if (pspReference == null) {
+            return 0;
+        }
+
+        // Spread the high bits, String hash codes of similar references differ mostly in the low bits
+        int hash = pspReference.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), laneCount);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "webhookLanes";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("lanes", lanes.length);
+
+        int totalDepth = 0;
+        List<Map<String, Object>> laneMetrics = new ArrayList<>(lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            int depth = lane.depth();
+            totalDepth += depth;
+
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("lane", i);
+            values.put("depth", depth);
+            values.put("maxDepth", lane.maxDepth);
+            values.put("processed", lane.processed.get());
+            values.put("failed", lane.failed.get());
+            laneMetrics.add(values);
+        }
+
+        metrics.put("depth", totalDepth);
+        metrics.put("perLane", laneMetrics);
+        return metrics;
+    }
+
+    private final class Lane {
+        private final ArrayDeque<LaneTask> queue = new ArrayDeque<>();
+        private boolean scheduled;
+        private volatile int maxDepth;
+
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        CompletableFuture<Void> submit(Runnable task) {
+            LaneTask laneTask = new LaneTask(task);
+
+            boolean schedule;
+            synchronized (this) {
+                queue.add(laneTask);
+                maxDepth = Math.max(maxDepth, queue.size());
+                schedule = !scheduled;
+                scheduled = true;
+            }
+
+            if (schedule) {
+                schedule();
+            }
+            return laneTask.future;
+        }
+
+        synchronized int depth() {
+            return queue.size();
+        }
+
+        private void run() {
+            boolean completed = false;
+            try {
+                for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+                    LaneTask laneTask;
+                    synchronized (this) {
+                        laneTask = queue.poll();
+                        if (laneTask == null) {
+                            scheduled = false;
+                            completed = true;
+                            return;
+                        }
+                    }
+
+                    try {
+                        laneTask.task.run();
+                        processed.incrementAndGet();
+                        laneTask.future.complete(null);
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        laneTask.future.completeExceptionally(e);
+                    } catch (Error e) {
+                        failed.incrementAndGet();
+                        laneTask.future.completeExceptionally(e);
+                        throw e;
+                    }
+                }
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // An Error left the loop, the lane is still marked scheduled and would stall without a new run
+                    boolean reschedule;
+                    synchronized (this) {
+                        reschedule = !queue.isEmpty();
+                        if (!reschedule) {
+                            scheduled = false;
+                        }
+                    }
+                    if (reschedule) {
+                        schedule();
+                    }
+                }
+            }
+
+            // More work may be waiting, continue in a new executor task
+            schedule();
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this::run);
+            } catch (RuntimeException e) {
+                logger.error("Error on scheduling webhook lane: " + e.getMessage());
+
+                // Nothing would run the queued tasks anymore, fail them so their rows are retried
+                List<LaneTask> dropped;
+                synchronized (this) {
+                    dropped = new ArrayList<>(queue);
+                    queue.clear();
+                    scheduled = false;
+                }
+                for (LaneTask laneTask : dropped) {
+                    failed.incrementAndGet();
+                    laneTask.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private static final class LaneTask {
+        private final Runnable task;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        LaneTask(Runnable task) {
+            this.task = task;
+        }
+    }
+}
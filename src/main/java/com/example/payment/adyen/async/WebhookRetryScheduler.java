@@ -0,0 +1,384 @@
+package com.example.payment.adyen.async;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.adyen.dao.WebhookRetryDao;
+import com.example.payment.adyen.dto.NotificationItemDTO;
+import com.example.payment.adyen.dto.WebhookRetryDTO;
+import com.example.payment.adyen.service.PaymentService;
+import com.example.payment.helper.NotificationJsonHelper;
+import com.example.payment.logging.MyLogger;
+import com.example.payment.metrics.MetricsSource;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries notification items that failed while being applied. Failed items are stored in the webhook_retry
+ * table and retried with exponential backoff and jitter. Items that fail {@code maxAttempts} times are moved to
+ * the webhook_dead_letter table, from where {@link #replayDeadLetters} puts them back.
+ * <p>
+ * Deadlines of the rows stored by this instance are kept on a {@link TimerWheel} that one thread advances every
+ * {@code tickMillis}. Rows of other or restarted instances are picked up by a sweep every
+ * {@code sweepIntervalMillis}. Rows are leased when claimed, so every retry runs on one instance only.
+ */
+public class WebhookRetryScheduler implements MetricsSource {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(WebhookRetryScheduler.class));
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    static final String WAITING_ERROR = "Waiting for an earlier notification of the same payment";
+
+    private final WebhookRetryDao webhookRetryDao;
+    private final PaymentService paymentService;
+    private final ThreadPoolTaskExecutor executor;
+
+    private int maxAttempts = 8;
+    private long baseDelayMillis = 1000;
+    private long maxDelayMillis = 600000;
+    private long tickMillis = 100;
+    private int wheelSize = 512;
+    private int claimSize = 50;
+    private long leaseMillis = 60000;
+    private long sweepIntervalMillis = 60000;
+
+    private TimerWheel<Long> timerWheel;
+    private final Semaphore wakeUps = new Semaphore(0);
+    private volatile boolean running;
+    private volatile boolean sweepRequested = true;
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong rescheduled = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    public WebhookRetryScheduler(WebhookRetryDao webhookRetryDao, PaymentService paymentService, ThreadPoolTaskExecutor executor) {
+        this.webhookRetryDao = webhookRetryDao;
+        this.paymentService = paymentService;
+        this.executor = executor;
+    }
+
+    /**
+     * Attempts per item, including the one that failed first. The item is dead-lettered after the last one.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public void setTickMillis(long tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+    public void setWheelSize(int wheelSize) {
+        this.wheelSize = wheelSize;
+    }
+
+    public void setClaimSize(int claimSize) {
+        this.claimSize = claimSize;
+    }
+
+    /**
+     * How long a claimed row stays with this instance. Must be longer than one retry takes.
+     */
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    public void setSweepIntervalMillis(long sweepIntervalMillis) {
+        this.sweepIntervalMillis = sweepIntervalMillis;
+    }
+
+    public void start() {
+        synchronized (this) {
+            timerWheel = new TimerWheel<>(tickMillis, wheelSize, System.currentTimeMillis());
+        }
+        running = true;
+        executor.execute(this::runLoop);
+        logger.info("Started webhook retry scheduler.");
+    }
+
+    public void stop() {
+        running = false;
+        wakeUps.release();
+    }
+
+    /**
+     * Stores a failed item together with the items of the same payment that came after it and were not
+     * applied. All of them are due at the same time and are retried in the given order. Throws when the items
+     * can not be stored, so the caller can fall back to its own retry.
+     */
+    public void schedule(List<NotificationItemDTO> items, Exception error) {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        List<WebhookRetryDTO> retries = store(items, System.currentTimeMillis() + backoffMillis(1), errorMessage(error));
+        logger.error(String.format("Scheduled %d notification items of pspReference %s for retry: %s",
+                retries.size(), retries.get(0).getPspReference(), retries.get(0).getLastError()));
+    }
+
+    /**
+     * Returns the latest next attempt of the stored rows per given pspReference, for payments that have rows
+     * waiting. New events of those payments have to go behind them, see {@link #scheduleBehind}.
+     */
+    public Map<String, Timestamp> findWaiting(Collection<String> pspReferences) {
+        return webhookRetryDao.findNextAttemptAt(pspReferences);
+    }
+
+    /**
+     * Stores items of one payment behind its rows that are already waiting, due together with them at
+     * {@code nextAttemptAt}, so they are retried after them in id order. Throws when the items can not be stored.
+     */
+    public void scheduleBehind(List<NotificationItemDTO> items, Timestamp nextAttemptAt) {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        List<WebhookRetryDTO> retries = store(items, nextAttemptAt.getTime(), null);
+        logger.info(String.format("Queued %d notification items of pspReference %s behind its pending retries.",
+                retries.size(), retries.get(0).getPspReference()));
+    }
+
+    // Without an error every item is waiting, otherwise the first item is the one that failed
+    private List<WebhookRetryDTO> store(List<NotificationItemDTO> items, long nextAttemptAt, String error) {
+        List<WebhookRetryDTO> retries = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            NotificationRequestItem item = items.get(i).getItem();
+            boolean failed = i == 0 && error != null;
+
+            WebhookRetryDTO retry = new WebhookRetryDTO();
+            retry.setPspReference(item.getPspReference());
+            retry.setEventCode(item.getEventCode());
+            retry.setNotification(toJson(items.get(i)));
+            retry.setAttempts(failed ? 1 : 0);
+            retry.setNextAttemptAt(new Timestamp(nextAttemptAt));
+            retry.setLastError(failed ? error : WAITING_ERROR);
+            retries.add(retry);
+        }
+
+        List<Long> ids = webhookRetryDao.insert(retries);
+        for (Long id : ids) {
+            addTimer(id, nextAttemptAt);
+        }
+        scheduled.addAndGet(ids.size());
+        return retries;
+    }
+
+    /**
+     * Moves up to {@code limit} dead letters back to the retry table, {@code claimSize} rows per transaction,
+     * oldest first. They are retried on the next tick with a fresh set of attempts. Returns the number of
+     * replayed items.
+     */
+    public int replayDeadLetters(int limit) {
+        int total = 0;
+        while (total < limit) {
+            int moved = webhookRetryDao.replayDeadLetters(Math.min(claimSize, limit - total));
+            total += moved;
+            if (moved < claimSize) {
+                break;
+            }
+        }
+
+        if (total > 0) {
+            replayed.addAndGet(total);
+            logger.info(String.format("Replaying %d dead-lettered notification items.", total));
+            sweepRequested = true;
+            wakeUps.release();
+        }
+        return total;
+    }
+
+    private void runLoop() {
+        long nextSweepAt = 0;
+        while (running) {
+            try {
+                long now = System.currentTimeMillis();
+                // Payments blocked by a failed row stay blocked for all chunks of this tick and its sweep
+                Map<String, Long> waitingUntil = new HashMap<>();
+                List<Long> dueIds = expireTimers(now);
+                for (int from = 0; from < dueIds.size(); from += claimSize) {
+                    processRetries(webhookRetryDao.claim(dueIds.subList(from, Math.min(from + claimSize, dueIds.size())), leaseMillis), waitingUntil);
+                }
+
+                if (sweepRequested || now >= nextSweepAt) {
+                    sweepRequested = false;
+                    nextSweepAt = now + sweepIntervalMillis;
+                    sweep(waitingUntil);
+                }
+            } catch (Exception e) {
+                // Rows whose timers expired here are found again by the next sweep
+                logger.error("Error on webhook retries: " + e.getMessage());
+            }
+
+            waitForTick();
+        }
+    }
+
+    /**
+     * Claims and retries all due rows, including rows scheduled by other instances.
+     */
+    public void sweep() {
+        sweep(new HashMap<>());
+    }
+
+    private void sweep(Map<String, Long> waitingUntil) {
+        List<WebhookRetryDTO> retries;
+        do {
+            retries = webhookRetryDao.claimDue(claimSize, leaseMillis);
+            processRetries(retries, waitingUntil);
+        } while (retries.size() == claimSize && running);
+    }
+
+    /**
+     * Retries claimed rows in id order. After a failed row, the later rows of the same payment are moved to
+     * its next attempt without being tried, so the events of a payment are still applied in order.
+     * {@code waitingUntil} holds the next attempt of every payment with a failed row and is shared by all
+     * chunks of one tick or sweep, so a later row in another chunk waits as well.
+     */
+    void processRetries(List<WebhookRetryDTO> retries, Map<String, Long> waitingUntil) {
+        for (WebhookRetryDTO retry : retries) {
+            Long blockedUntil = retry.getPspReference() != null ? waitingUntil.get(retry.getPspReference()) : null;
+            if (blockedUntil != null) {
+                webhookRetryDao.reschedule(retry.getId(), retry.getAttempts(), new Timestamp(blockedUntil), WAITING_ERROR);
+                addTimer(retry.getId(), blockedUntil);
+                rescheduled.incrementAndGet();
+                continue;
+            }
+
+            retried.incrementAndGet();
+            try {
+                paymentService.handleNotification(toNotificationItem(retry));
+                webhookRetryDao.delete(retry.getId());
+                succeeded.incrementAndGet();
+            } catch (Exception e) {
+                int attempts = retry.getAttempts() + 1;
+                String lastError = errorMessage(e);
+
+                if (attempts >= maxAttempts) {
+                    logger.error(String.format("Notification item %d (pspReference %s) failed after %d attempts: %s",
+                            retry.getId(), retry.getPspReference(), attempts, lastError));
+                    webhookRetryDao.moveToDeadLetter(retry.getId(), attempts, lastError);
+                    deadLettered.incrementAndGet();
+                } else {
+                    long nextAttemptAt = System.currentTimeMillis() + backoffMillis(attempts);
+                    logger.error(String.format("Error on retry of notification item %d, attempt %d: %s", retry.getId(), attempts, lastError));
+                    webhookRetryDao.reschedule(retry.getId(), attempts, new Timestamp(nextAttemptAt), lastError);
+                    addTimer(retry.getId(), nextAttemptAt);
+                    rescheduled.incrementAndGet();
+                    if (retry.getPspReference() != null) {
+                        waitingUntil.put(retry.getPspReference(), nextAttemptAt);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Delay before the next attempt after {@code attempts} failed ones: {@code baseDelayMillis} doubled per
+     * attempt up to {@code maxDelayMillis}, of which the upper half is random. Items that failed together,
+     * e.g. while the database was down, spread out instead of coming back at the same moment.
+     */
+    long backoffMillis(int attempts) {
+        int doublings = Math.min(Math.max(attempts - 1, 0), 30);
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << doublings);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    private NotificationItemDTO toNotificationItem(WebhookRetryDTO retry) throws IOException {
+        return new NotificationItemDTO(NotificationJsonHelper.readNotificationItem(retry.getNotification()), retry.getNotification());
+    }
+
+    private String toJson(NotificationItemDTO item) {
+        if (item.getRawNotification() != null) {
+            return item.getRawNotification();
+        }
+        try {
+            return objectMapper.writeValueAsString(item.getItem());
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // PaymentService wraps the actual error for the rollback
+    private static String errorMessage(Exception e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private synchronized void addTimer(Long id, long deadlineMillis) {
+        // Before start the row is left to the first sweep
+        if (timerWheel != null) {
+            timerWheel.add(id, deadlineMillis);
+        }
+    }
+
+    private synchronized List<Long> expireTimers(long nowMillis) {
+        List<Long> ids = new ArrayList<>(timerWheel.advance(nowMillis));
+        ids.sort(null);
+        return ids;
+    }
+
+    private synchronized int pendingTimers() {
+        return timerWheel != null ? timerWheel.size() : 0;
+    }
+
+    private void waitForTick() {
+        try {
+            if (wakeUps.tryAcquire(tickMillis, TimeUnit.MILLISECONDS)) {
+                wakeUps.drainPermits();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "webhookRetry";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("scheduled", scheduled.get());
+        metrics.put("retried", retried.get());
+        metrics.put("succeeded", succeeded.get());
+        metrics.put("rescheduled", rescheduled.get());
+        metrics.put("deadLettered", deadLettered.get());
+        metrics.put("replayed", replayed.get());
+        metrics.put("pendingTimers", pendingTimers());
+        try {
+            metrics.put("retryRows", webhookRetryDao.countRetries());
+            metrics.put("deadLetterRows", webhookRetryDao.countDeadLetters());
+        } catch (Exception e) {
+            logger.error("Error on reading webhook retry counts: " + e.getMessage());
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.payment.adyen.cache;
+
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.metrics.MetricsSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-process cache of payments, keyed by id with secondary lookups by reference and pspReference.
+ * Least recently used entries are evicted above {@code maxSize} and entries expire after {@code ttlMillis}.
+ * Callers always get a copy, so changing a returned payment never changes the cached one.
+ */
+public class PaymentCache implements MetricsSource {
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<Long, Entry> entriesById;
+    private final Map<String, Long> idsByReference = new HashMap<>();
+    private final Map<String, Long> idsByPspReference = new HashMap<>();
+    private long invalidationStamp = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public PaymentCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entriesById = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > PaymentCache.this.maxSize) {
+                    removeSecondaryKeys(eldest.getValue().payment);
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Optional<PaymentDTO> getById(Long id) {
+        synchronized (lock) {
+            return lookup(id);
+        }
+    }
+
+    public Optional<PaymentDTO> getByReference(String reference) {
+        synchronized (lock) {
+            return lookup(idsByReference.get(reference));
+        }
+    }
+
+    public Optional<PaymentDTO> getByPspReference(String pspReference) {
+        synchronized (lock) {
+            return lookup(idsByPspReference.get(pspReference));
+        }
+    }
+
+    /**
+     * Stamp to take before reading a payment from the database. {@link #put(PaymentDTO, long)} drops the
+     * payment if anything was invalidated in between, so a slow read can not put back an outdated row.
+     */
+    public long stamp() {
+        synchronized (lock) {
+            return invalidationStamp;
+        }
+    }
+
+    /**
+     * Caches a payment read from the database. Inside a transaction it is cached only after commit, a row the
+     * transaction inserted or read after its own update is not seen by other threads if it rolls back.
+     */
+    public void put(PaymentDTO payment, long stamp) {
+        if (maxSize <= 0 || payment == null || payment.getId() == null) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            PaymentDTO committed = copy(payment);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    store(committed, stamp);
+                }
+            });
+            return;
+        }
+
+        store(payment, stamp);
+    }
+
+    private void store(PaymentDTO payment, long stamp) {
+        synchronized (lock) {
+            if (stamp != invalidationStamp) {
+                return;
+            }
+
+            Entry previous = entriesById.remove(payment.getId());
+            if (previous != null) {
+                removeSecondaryKeys(previous.payment);
+            }
+
+            entriesById.put(payment.getId(), new Entry(copy(payment), System.nanoTime() + ttlNanos));
+            if (payment.getReference() != null) {
+                idsByReference.put(payment.getReference(), payment.getId());
+            }
+            if (payment.getPspReference() != null) {
+                idsByPspReference.put(payment.getPspReference(), payment.getId());
+            }
+        }
+    }
+
+    /**
+     * Removes the payment now and, when called inside a transaction, once more after it completes so a
+     * read of the old row by another thread before commit does not stay cached.
+     */
+    public void invalidate(Long id) {
+        if (id == null) {
+            return;
+        }
+
+        remove(id);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(id);
+                }
+            });
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entriesById.clear();
+            idsByReference.clear();
+            idsByPspReference.clear();
+            invalidationStamp++;
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "paymentCache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (lock) {
+            metrics.put("size", entriesById.size());
+        }
+        metrics.put("maxSize", maxSize);
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("evictions", evictions.sum());
+        metrics.put("expirations", expirations.sum());
+        metrics.put("invalidations", invalidations.sum());
+        return metrics;
+    }
+
+    private void remove(Long id) {
+        synchronized (lock) {
+            invalidationStamp++;
+            Entry entry = entriesById.remove(id);
+            if (entry != null) {
+                removeSecondaryKeys(entry.payment);
+                invalidations.increment();
+            }
+        }
+    }
+
+    private Optional<PaymentDTO> lookup(Long id) {
+        Entry entry = id == null ? null : entriesById.get(id);
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+
+        if (entry.expiresAtNanos - System.nanoTime() <= 0) {
+            entriesById.remove(id);
+            removeSecondaryKeys(entry.payment);
+            expirations.increment();
+            misses.increment();
+            return Optional.empty();
+        }
+
+        hits.increment();
+        return Optional.of(copy(entry.payment));
+    }
+
+    private void removeSecondaryKeys(PaymentDTO payment) {
+        if (payment.getReference() != null) {
+            idsByReference.remove(payment.getReference(), payment.getId());
+        }
+        if (payment.getPspReference() != null) {
+            idsByPspReference.remove(payment.getPspReference(), payment.getId());
+        }
+    }
+
+    private static PaymentDTO copy(PaymentDTO payment) {
+        PaymentDTO copy = new PaymentDTO();
+        copy.setId(payment.getId());
+        copy.setMerchantReference(payment.getMerchantReference());
+        copy.setPspReference(payment.getPspReference());
+        copy.setAmount(payment.getAmount());
+        copy.setCurrency(payment.getCurrency());
+        copy.setReference(payment.getReference());
+        copy.setPaymentMethod(payment.getPaymentMethod());
+        copy.setStatus(payment.getStatus());
+        copy.setAuthCode(payment.getAuthCode());
+        copy.setFailureMessage(payment.getFailureMessage());
+        copy.setCreateAt(payment.getCreateAt());
+        copy.setUpdateAt(payment.getUpdateAt());
+        return copy;
+    }
+
+    private static final class Entry {
+        private final PaymentDTO payment;
+        private final long expiresAtNanos;
+
+        private Entry(PaymentDTO payment, long expiresAtNanos) {
+            this.payment = payment;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.payment.adyen.cache;
+
+import com.example.payment.adyen.dto.PaymentIdempotencyDTO;
+import com.example.payment.helper.PaymentIdempotencyStatusEnum;
+import com.example.payment.metrics.MetricsSource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-process cache of completed /pay outcomes by idempotency key, least recently used entries are
+ * evicted above {@code maxSize}. A completed outcome never changes, so entries need no expiry or invalidation.
+ * A miss proves nothing, the payment_idempotency table stays the authority.
+ */
+public class PaymentIdempotencyCache implements MetricsSource {
+
+    private final int maxSize;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, PaymentIdempotencyDTO> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PaymentIdempotencyCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PaymentIdempotencyDTO> eldest) {
+                if (size() > PaymentIdempotencyCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Optional<PaymentIdempotencyDTO> get(String idempotencyKey) {
+        if (maxSize <= 0) {
+            return Optional.empty();
+        }
+
+        synchronized (lock) {
+            PaymentIdempotencyDTO idempotency = entries.get(idempotencyKey);
+            if (idempotency != null) {
+                hits.increment();
+                return Optional.of(idempotency);
+            }
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Only completed outcomes are kept, anything else is ignored.
+     */
+    public void put(PaymentIdempotencyDTO idempotency) {
+        if (maxSize <= 0 || idempotency.getStatus() != PaymentIdempotencyStatusEnum.COMPLETED) {
+            return;
+        }
+
+        synchronized (lock) {
+            entries.put(idempotency.getIdempotencyKey(), idempotency);
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "paymentIdempotencyCache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (lock) {
+            metrics.put("size", entries.size());
+        }
+        metrics.put("maxSize", maxSize);
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("evictions", evictions.sum());
+        return metrics;
+    }
+}
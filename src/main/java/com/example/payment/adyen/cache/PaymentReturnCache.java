@@ -0,0 +1,145 @@
+package com.example.payment.adyen.cache;
+
+import com.example.payment.metrics.MetricsSource;
+import org.springframework.http.ResponseEntity;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache of /return responses by payment id and redirectResult, so a refreshed or double-submitted
+ * return does not check the payment with Adyen again. Concurrent returns with the same key wait for the one
+ * that is running and get its response. Responses are kept for {@code ttlMillis}, least recently used entries are
+ * evicted above {@code maxSize}. 5xx responses are shared with the waiting returns but not kept, the next return
+ * checks again.
+ */
+public class PaymentReturnCache implements MetricsSource {
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public PaymentReturnCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > PaymentReturnCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Response of the return with this payment id and redirectResult: the kept one, the one of the return
+     * running now, or else the one {@code loader} creates on the calling thread.
+     */
+    public ResponseEntity<?> get(Long paymentId, String redirectResult, Supplier<ResponseEntity<?>> loader) {
+        if (maxSize <= 0) {
+            return loader.get();
+        }
+
+        String key = paymentId + ":" + redirectResult;
+        Entry entry;
+        boolean loading = false;
+
+        synchronized (lock) {
+            entry = entries.get(key);
+            if (entry != null && entry.response.isDone() && entry.expiresAtNanos - System.nanoTime() <= 0) {
+                entries.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                loading = true;
+                misses.increment();
+            } else if (entry.response.isDone()) {
+                hits.increment();
+            } else {
+                coalesced.increment();
+            }
+        }
+
+        if (!loading) {
+            try {
+                return entry.response.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+            }
+        }
+
+        ResponseEntity<?> response;
+        try {
+            response = loader.get();
+        } catch (RuntimeException e) {
+            remove(key, entry);
+            entry.response.completeExceptionally(e);
+            throw e;
+        }
+
+        if (response.getStatusCode().is5xxServerError()) {
+            remove(key, entry);
+        } else {
+            entry.expiresAtNanos = System.nanoTime() + ttlNanos;
+        }
+        entry.response.complete(response);
+        return response;
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "paymentReturnCache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (lock) {
+            metrics.put("size", entries.size());
+        }
+        metrics.put("maxSize", maxSize);
+        metrics.put("hits", hits.sum());
+        metrics.put("coalesced", coalesced.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("evictions", evictions.sum());
+        metrics.put("expirations", expirations.sum());
+        return metrics;
+    }
+
+    private void remove(String key, Entry entry) {
+        synchronized (lock) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<ResponseEntity<?>> response = new CompletableFuture<>();
+        private volatile long expiresAtNanos;
+    }
+}
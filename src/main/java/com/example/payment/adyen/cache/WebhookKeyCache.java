@@ -0,0 +1,96 @@
+package com.example.payment.adyen.cache;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.metrics.MetricsSource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-process set of recently applied webhook keys (pspReference, eventCode, success, eventDate),
+ * least recently seen keys are evicted above {@code maxSize}. A hit means the item is a redelivery and can
+ * be acknowledged without a database round trip. A miss proves nothing, the payment_webhook_key table
+ * stays the authority. Keys must only be added once the transaction that recorded them has committed.
+ */
+public class WebhookKeyCache implements MetricsSource {
+
+    private final int maxSize;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Boolean> keys;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public WebhookKeyCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                if (size() > WebhookKeyCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static String keyOf(NotificationRequestItem item) {
+        long eventDate = item.getEventDate() != null ? item.getEventDate().getTime() : 0;
+        return item.getPspReference() + '|' + item.getEventCode() + '|' + item.isSuccess() + '|' + eventDate;
+    }
+
+    public boolean contains(NotificationRequestItem item) {
+        if (maxSize <= 0) {
+            return false;
+        }
+
+        String key = keyOf(item);
+        synchronized (lock) {
+            if (keys.get(key) != null) {
+                hits.increment();
+                return true;
+            }
+        }
+        misses.increment();
+        return false;
+    }
+
+    public void add(NotificationRequestItem item) {
+        if (maxSize <= 0) {
+            return;
+        }
+
+        String key = keyOf(item);
+        synchronized (lock) {
+            keys.put(key, Boolean.TRUE);
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            keys.clear();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "webhookKeyCache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (lock) {
+            metrics.put("size", keys.size());
+        }
+        metrics.put("maxSize", maxSize);
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("evictions", evictions.sum());
+        return metrics;
+    }
+}
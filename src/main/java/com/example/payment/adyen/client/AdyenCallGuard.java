@@ -0,0 +1,296 @@
+package com.example.payment.adyen.client;
+
+import com.adyen.service.exception.ApiException;
+import com.example.payment.exceptions.AdyenUnavailableException;
+import com.example.payment.helper.CircuitBreakerStateEnum;
+import com.example.payment.logging.MyLogger;
+import com.example.payment.metrics.MetricsSource;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulkhead and circuit breaker around PaymentsApi calls. At most {@code maxConcurrency} calls run at a time, a call
+ * waits up to {@code maxWaitMillis} for a slot and then fails without being sent.
+ * The breaker keeps the outcomes of the last {@code windowSize} calls. An I/O error (HTTP timeouts included), an Adyen
+ * 5xx or 429 and any call slower than {@code slowCallMillis} count as failed. Once {@code minimumCalls} are recorded
+ * and {@code failureRateThreshold} percent of them failed, the breaker opens and calls fail at once for
+ * {@code openMillis}. Then {@code halfOpenCalls} trial calls are let through, if all of them succeed the breaker
+ * closes, a single failure opens it again. Rejected calls fail with {@link AdyenUnavailableException}.
+ */
+public class AdyenCallGuard implements MetricsSource {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(AdyenCallGuard.class));
+
+    @FunctionalInterface
+    public interface AdyenCall<T> {
+        T call() throws IOException, ApiException;
+    }
+
+    private final String name;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+
+    private long maxWaitMillis;
+    private int minimumCalls = 10;
+    private int failureRateThreshold = 50;
+    private long slowCallMillis;
+    private long openMillis = 30000;
+    private int halfOpenCalls = 3;
+
+    // Breaker state, guarded by this. The generation changes on every transition, outcomes of calls
+    // started in an earlier generation are not recorded
+    private CircuitBreakerStateEnum state = CircuitBreakerStateEnum.CLOSED;
+    private long generation;
+    private long stateSinceMillis = System.currentTimeMillis();
+    private boolean[] window = new boolean[20];
+    private int windowNext;
+    private int windowCalls;
+    private int windowFailures;
+    private int halfOpenPermitted;
+    private int halfOpenSucceeded;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder slowCalls = new LongAdder();
+    private final LongAdder rejectedOpen = new LongAdder();
+    private final LongAdder rejectedBulkhead = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder halfOpened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+
+    public AdyenCallGuard(String name, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be greater then 0");
+        }
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * How long a call waits for a free slot, 0 to fail at once when all slots are taken.
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Max wait must not be negative");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public synchronized void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be greater then 0");
+        }
+        this.window = new boolean[windowSize];
+        resetWindow();
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        if (minimumCalls < 1) {
+            throw new IllegalArgumentException("Minimum calls must be greater then 0");
+        }
+        this.minimumCalls = minimumCalls;
+    }
+
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        if (failureRateThreshold < 1 || failureRateThreshold > 100) {
+            throw new IllegalArgumentException("Failure rate threshold must be between 1 and 100");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * Calls that take at least this long count as failed even if they succeed, 0 to ignore call times.
+     */
+    public void setSlowCallMillis(long slowCallMillis) {
+        if (slowCallMillis < 0) {
+            throw new IllegalArgumentException("Slow call time must not be negative");
+        }
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    public void setOpenMillis(long openMillis) {
+        if (openMillis < 1) {
+            throw new IllegalArgumentException("Open time must be greater then 0");
+        }
+        this.openMillis = openMillis;
+    }
+
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls < 1) {
+            throw new IllegalArgumentException("Half open calls must be greater then 0");
+        }
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    public synchronized CircuitBreakerStateEnum getState() {
+        return state;
+    }
+
+    public <T> T call(AdyenCall<T> call) throws IOException, ApiException {
+        long callGeneration = acquirePermission();
+
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releasePermission(callGeneration);
+            throw new InterruptedIOException("Interrupted while waiting for a free Adyen call slot");
+        }
+        if (!acquired) {
+            rejectedBulkhead.increment();
+            releasePermission(callGeneration);
+            throw new AdyenUnavailableException("Too many concurrent Adyen calls", Math.max(maxWaitMillis, 1000));
+        }
+
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } catch (ApiException e) {
+            failed = e.getStatusCode() >= 500 || e.getStatusCode() == 429 || e.getStatusCode() <= 0;
+            throw e;
+        } finally {
+            permits.release();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            onResult(callGeneration, failed, slowCallMillis > 0 && elapsedMillis >= slowCallMillis);
+        }
+    }
+
+    private synchronized long acquirePermission() throws AdyenUnavailableException {
+        long now = System.currentTimeMillis();
+        if (state == CircuitBreakerStateEnum.OPEN && now - stateSinceMillis >= openMillis) {
+            transition(CircuitBreakerStateEnum.HALF_OPEN, now);
+        }
+
+        if (state == CircuitBreakerStateEnum.OPEN) {
+            rejectedOpen.increment();
+            throw new AdyenUnavailableException("Adyen circuit breaker is open", stateSinceMillis + openMillis - now);
+        }
+        if (state == CircuitBreakerStateEnum.HALF_OPEN) {
+            if (halfOpenPermitted >= halfOpenCalls) {
+                rejectedOpen.increment();
+                throw new AdyenUnavailableException("Adyen circuit breaker is half open, trial calls are running", 1000);
+            }
+            halfOpenPermitted++;
+        }
+        return generation;
+    }
+
+    // A call that was not sent gives its trial slot back
+    private synchronized void releasePermission(long callGeneration) {
+        if (callGeneration == generation && state == CircuitBreakerStateEnum.HALF_OPEN) {
+            halfOpenPermitted--;
+        }
+    }
+
+    private synchronized void onResult(long callGeneration, boolean failed, boolean slow) {
+        calls.increment();
+        if (failed) {
+            failures.increment();
+        }
+        if (slow) {
+            slowCalls.increment();
+        }
+
+        if (callGeneration != generation) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean bad = failed || slow;
+        if (state == CircuitBreakerStateEnum.CLOSED) {
+            record(bad);
+            if (windowCalls >= minimumCalls && windowFailures * 100 >= failureRateThreshold * windowCalls) {
+                transition(CircuitBreakerStateEnum.OPEN, now);
+            }
+        } else if (state == CircuitBreakerStateEnum.HALF_OPEN) {
+            if (bad) {
+                transition(CircuitBreakerStateEnum.OPEN, now);
+            } else if (++halfOpenSucceeded >= halfOpenCalls) {
+                transition(CircuitBreakerStateEnum.CLOSED, now);
+            }
+        }
+    }
+
+    private void record(boolean bad) {
+        if (windowCalls == window.length) {
+            if (window[windowNext]) {
+                windowFailures--;
+            }
+        } else {
+            windowCalls++;
+        }
+        window[windowNext] = bad;
+        if (bad) {
+            windowFailures++;
+        }
+        windowNext = (windowNext + 1) % window.length;
+    }
+
+    private void resetWindow() {
+        Arrays.fill(window, false);
+        windowNext = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+    }
+
+    private void transition(CircuitBreakerStateEnum newState, long now) {
+        logger.info(String.format("Circuit breaker %s: %s -> %s, %d of last %d calls failed.",
+                name, state, newState, windowFailures, windowCalls));
+
+        state = newState;
+        stateSinceMillis = now;
+        generation++;
+        halfOpenPermitted = 0;
+        halfOpenSucceeded = 0;
+
+        switch (newState) {
+            case OPEN -> opened.increment();
+            case HALF_OPEN -> halfOpened.increment();
+            case CLOSED -> {
+                closed.increment();
+                resetWindow();
+            }
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (this) {
+            metrics.put("state", state.getValue());
+            metrics.put("stateSinceMillis", stateSinceMillis);
+            metrics.put("windowCalls", windowCalls);
+            metrics.put("windowFailures", windowFailures);
+        }
+        metrics.put("maxConcurrency", maxConcurrency);
+        metrics.put("running", maxConcurrency - permits.availablePermits());
+        metrics.put("waiting", permits.getQueueLength());
+        metrics.put("calls", calls.sum());
+        metrics.put("failures", failures.sum());
+        metrics.put("slowCalls", slowCalls.sum());
+        metrics.put("rejectedOpen", rejectedOpen.sum());
+        metrics.put("rejectedBulkhead", rejectedBulkhead.sum());
+        metrics.put("opened", opened.sum());
+        metrics.put("halfOpened", halfOpened.sum());
+        metrics.put("closed", closed.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.payment.adyen.client;
+
+import com.adyen.Client;
+import com.adyen.Config;
+import com.adyen.constants.ApiConstants;
+import com.adyen.httpclient.ClientInterface;
+import com.adyen.httpclient.HTTPClientException;
+import com.adyen.model.RequestOptions;
+import com.example.payment.logging.MyLogger;
+import com.example.payment.metrics.MetricsSource;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transport of the Adyen {@link Client} on one shared, pooled Apache HttpClient, so PaymentsApi calls reuse kept-alive
+ * connections instead of opening a connection (and a TLS handshake) per call like the library's default client.
+ * At most {@code maxConnections} connections are open, {@code maxPerRoute} per host. A call waits up to
+ * {@code connectionRequestTimeoutMillis} for a free connection, idle connections are closed after
+ * {@code keepAliveMillis}. Connect and response timeout of a call are the ones of the client {@link Config},
+ * {@code connectTimeoutMillis} is the connect timeout when the Config has none.
+ * Sends the same headers as the library's client and fails non-2xx responses with {@link HTTPClientException},
+ * which the library turns into an ApiException.
+ */
+public class PooledAdyenHttpClient implements ClientInterface, MetricsSource, DisposableBean {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(PooledAdyenHttpClient.class));
+
+    private final int maxConnections;
+    private final int maxPerRoute;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final RequestConfig defaultRequestConfig;
+    private final CloseableHttpClient httpClient;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder httpErrors = new LongAdder();
+    private final LongAdder ioErrors = new LongAdder();
+
+    public PooledAdyenHttpClient(int maxConnections, int maxPerRoute, long connectTimeoutMillis,
+                                 long connectionRequestTimeoutMillis, long keepAliveMillis) {
+        if (maxConnections < 1 || maxPerRoute < 1) {
+            throw new IllegalArgumentException("Max connections and max per route must be greater then 0");
+        }
+        this.maxConnections = maxConnections;
+        this.maxPerRoute = maxPerRoute;
+
+        TimeValue keepAlive = TimeValue.ofMilliseconds(keepAliveMillis);
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMillis))
+                        // A connection idle for a while may have been closed by the server, check it before reuse
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+
+        this.defaultRequestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectionRequestTimeoutMillis))
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(defaultRequestConfig)
+                .setKeepAliveStrategy((response, context) -> keepAlive)
+                .evictIdleConnections(keepAlive)
+                .build();
+
+        logger.info(String.format("Adyen HTTP pool of %d connections, %d per route, keep-alive %d ms.",
+                maxConnections, maxPerRoute, keepAliveMillis));
+    }
+
+    @Override
+    public String request(String endpoint, String json, Config config) throws IOException, HTTPClientException {
+        return request(endpoint, json, config, false, null);
+    }
+
+    @Override
+    public String request(String endpoint, String json, Config config, boolean isApiKeyRequired)
+            throws IOException, HTTPClientException {
+        return request(endpoint, json, config, isApiKeyRequired, null);
+    }
+
+    @Override
+    public String request(String endpoint, String json, Config config, boolean isApiKeyRequired, RequestOptions requestOptions)
+            throws IOException, HTTPClientException {
+        return request(endpoint, json, config, isApiKeyRequired, requestOptions, ApiConstants.HttpMethod.POST);
+    }
+
+    @Override
+    public String request(String endpoint, String json, Config config, boolean isApiKeyRequired, RequestOptions requestOptions,
+                          ApiConstants.HttpMethod httpMethod) throws IOException, HTTPClientException {
+        return request(endpoint, json, config, isApiKeyRequired, requestOptions, httpMethod, null);
+    }
+
+    @Override
+    public String request(String endpoint, String json, Config config, boolean isApiKeyRequired, RequestOptions requestOptions,
+                          ApiConstants.HttpMethod httpMethod, Map<String, String> params) throws IOException, HTTPClientException {
+        HttpUriRequestBase request = createRequest(endpoint, json, config, isApiKeyRequired, requestOptions, httpMethod, params);
+
+        requests.increment();
+        Response response;
+        try {
+            response = httpClient.execute(request, httpResponse -> new Response(httpResponse.getCode(), httpResponse.getHeaders(),
+                    httpResponse.getEntity() != null ? EntityUtils.toByteArray(httpResponse.getEntity()) : new byte[0]));
+        } catch (IOException e) {
+            ioErrors.increment();
+            throw e;
+        }
+
+        if (response.code < 200 || response.code >= 300) {
+            httpErrors.increment();
+            throw new HTTPClientException("HTTP Exception", response.code, response.headers, new String(response.body, StandardCharsets.UTF_8));
+        }
+        return new String(response.body, StandardCharsets.UTF_8);
+    }
+
+    private HttpUriRequestBase createRequest(String endpoint, String json, Config config, boolean isApiKeyRequired,
+                                             RequestOptions requestOptions, ApiConstants.HttpMethod httpMethod,
+                                             Map<String, String> params) throws IOException {
+        HttpUriRequestBase request = new HttpUriRequestBase(httpMethod.name(), toUri(endpoint, params));
+        request.setConfig(toRequestConfig(config));
+
+        if (json != null && httpMethod != ApiConstants.HttpMethod.GET && httpMethod != ApiConstants.HttpMethod.DELETE) {
+            request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        }
+
+        request.setHeader("Content-Type", ContentType.APPLICATION_JSON.getMimeType());
+        request.setHeader("Accept-Charset", StandardCharsets.UTF_8.name());
+        String libraryAgent = Client.LIB_NAME + "/" + Client.LIB_VERSION;
+        request.setHeader("User-Agent", StringUtils.isEmpty(config.getApplicationName())
+                ? libraryAgent : config.getApplicationName() + " " + libraryAgent);
+        request.setHeader("adyen-library-name", Client.LIB_NAME);
+        request.setHeader("adyen-library-version", Client.LIB_VERSION);
+
+        // Api key if required or configured, basic auth otherwise, like the library's client
+        String apiKey = config.getApiKey();
+        if (isApiKeyRequired || StringUtils.isNotEmpty(apiKey)) {
+            if (StringUtils.isNotEmpty(apiKey)) {
+                request.setHeader("x-api-key", apiKey);
+            }
+        } else if (StringUtils.isNotEmpty(config.getUsername())) {
+            String credentials = config.getUsername() + ":" + config.getPassword();
+            request.setHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        if (requestOptions != null) {
+            if (StringUtils.isNotEmpty(requestOptions.getIdempotencyKey())) {
+                request.setHeader("Idempotency-Key", requestOptions.getIdempotencyKey());
+            }
+            if (requestOptions.getAdditionalServiceHeaders() != null) {
+                requestOptions.getAdditionalServiceHeaders().forEach(request::setHeader);
+            }
+        }
+        return request;
+    }
+
+    // Query parameters are percent-encoded by URIBuilder like in the library's client
+    private static URI toUri(String endpoint, Map<String, String> params) throws IOException {
+        try {
+            URIBuilder uriBuilder = new URIBuilder(endpoint);
+            if (params != null) {
+                params.forEach(uriBuilder::addParameter);
+            }
+            return uriBuilder.build();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid Adyen endpoint " + endpoint, e);
+        }
+    }
+
+    // Timeouts of the Config apply per request like in the library's client, the pool's connect timeout
+    // is only used for a Config without one
+    @SuppressWarnings("deprecation")
+    private RequestConfig toRequestConfig(Config config) {
+        RequestConfig.Builder requestConfig = RequestConfig.copy(defaultRequestConfig);
+        if (config.getReadTimeoutMillis() > 0) {
+            requestConfig.setResponseTimeout(Timeout.ofMilliseconds(config.getReadTimeoutMillis()));
+        }
+        if (config.getConnectionTimeoutMillis() > 0) {
+            requestConfig.setConnectTimeout(Timeout.ofMilliseconds(config.getConnectionTimeoutMillis()));
+        }
+        return requestConfig.build();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        httpClient.close();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "adyenHttp";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        PoolStats stats = connectionManager.getTotalStats();
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("maxConnections", maxConnections);
+        metrics.put("maxPerRoute", maxPerRoute);
+        metrics.put("leased", stats.getLeased());
+        metrics.put("available", stats.getAvailable());
+        metrics.put("pending", stats.getPending());
+        metrics.put("routes", connectionManager.getRoutes().size());
+        metrics.put("requests", requests.sum());
+        metrics.put("httpErrors", httpErrors.sum());
+        metrics.put("ioErrors", ioErrors.sum());
+        return metrics;
+    }
+
+    private static final class Response {
+        private final int code;
+        private final Map<String, List<String>> headers = new LinkedHashMap<>();
+        private final byte[] body;
+
+        Response(int code, Header[] headers, byte[] body) {
+            this.code = code;
+            this.body = body;
+            for (Header header : headers) {
+                this.headers.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(header.getValue());
+            }
+        }
+    }
+}
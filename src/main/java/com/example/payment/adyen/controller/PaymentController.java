@@ -3,22 +3,41 @@ package com.example.payment.adyen.controller;
 import com.adyen.model.ApiError;
 import com.adyen.model.checkout.*;
 import com.adyen.service.exception.ApiException;
+import com.example.payment.adyen.cache.PaymentReturnCache;
+import com.example.payment.adyen.dto.PaymentBatchRequestDTO;
 import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentIdempotencyDTO;
 import com.example.payment.adyen.service.PaymentService;
 import com.example.payment.adyen.dto.PaymentRequestDTO;
 import com.example.payment.adyen.validator.PaymentValidator;
+import com.example.payment.exceptions.AdyenUnavailableException;
+import com.example.payment.helper.PaymentIdempotencyStatusEnum;
 import com.example.payment.helper.PaymentMethodHelper;
+import com.example.payment.helper.PaymentStatusEnum;
 import com.example.payment.helper.RequestJsonParser;
 import com.example.payment.logging.MyLogger;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/api/payments/adyen")
@@ -26,22 +45,33 @@ public class PaymentController {
 
     private final PaymentService paymentService;
     private final PaymentValidator paymentValidator;
+    private final PaymentReturnCache paymentReturnCache;
 
     private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(PaymentController.class));
+    private static final ObjectMapper objectMapper = new ObjectMapper();
 
-    public PaymentController(PaymentService paymentService, PaymentValidator paymentValidator) {
+    public PaymentController(PaymentService paymentService, PaymentValidator paymentValidator, PaymentReturnCache paymentReturnCache) {
         this.paymentService = paymentService;
         this.paymentValidator = paymentValidator;
+        this.paymentReturnCache = paymentReturnCache;
     }
 
+    /**
+     * Validates the request on the request thread, the payment insert, the Adyen call and the status update
+     * run through the async methods of {@link PaymentService}, so in async mode the request thread is released
+     * while they run. A timed out Adyen call is handled like any other failed call. While Adyen is unavailable
+     * (see {@link com.example.payment.adyen.client.AdyenCallGuard}) the payment is not sent, it gets status Unavailable
+     * and the response is 503 with Retry-After. A repeated request with the
+     * same reference number gets the stored response of the first one, see {@link #processClaimedPayment}.
+     */
     @PostMapping("/pay")
-    public ResponseEntity<?> processingPayment(HttpServletRequest request) {
+    public CompletableFuture<ResponseEntity<?>> processingPayment(HttpServletRequest request) {
         PaymentRequestDTO paymentRequestDTO;
         try {
             paymentRequestDTO = RequestJsonParser.parse(request, PaymentRequestDTO.class);
         } catch (IOException e) {
             logger.error("Invalid request payload: " + e.getMessage());
-            return ResponseEntity.badRequest().body("Invalid request payload: " + e.getMessage());
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Invalid request payload: " + e.getMessage()));
         }
 
         logger.info("New payment request with data:", paymentRequestDTO);
@@ -50,23 +80,261 @@ public class PaymentController {
         List<String> errorsOnValidate = paymentValidator.validateOnPay(paymentRequestDTO);
         if (!errorsOnValidate.isEmpty()) {
             logger.error("Validate error on request new payment.", errorsOnValidate);
-            return ResponseEntity.badRequest().body(Map.of("errors", errorsOnValidate));
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("errors", errorsOnValidate)));
         }
 
+        String paymentType = PaymentMethodHelper.getTypeFromPaymentMethod(paymentRequestDTO.getPaymentMethodDetails());
+        String idempotencyKey = paymentService.getPaymentIdempotencyKey(paymentRequestDTO.getReferenceNumber());
+        String requestFingerprint = paymentService.getPaymentRequestFingerprint(paymentRequestDTO, paymentType);
+
+        return paymentService.claimPaymentAsync(idempotencyKey, requestFingerprint)
+                .thenCompose(idempotency -> idempotency.isClaimed()
+                        ? processClaimedPayment(idempotency, paymentRequestDTO, paymentType)
+                        : CompletableFuture.completedFuture(getStoredResponseEntity(idempotency, requestFingerprint)))
+                .exceptionally(e -> {
+                    Throwable cause = unwrap(e);
+                    logger.error("Error on payment controller: " + cause);
+                    return ResponseEntity.badRequest().body(getErrorMessage(cause.getMessage()));
+                });
+    }
+
+    /**
+     * Runs a payment whose idempotency key this request holds and stores the response for retries. Without a
+     * definite answer from Adyen the key is released, the next retry sends the same request again.
+     */
+    private CompletableFuture<ResponseEntity<?>> processClaimedPayment(PaymentIdempotencyDTO idempotency, PaymentRequestDTO paymentRequestDTO,
+                                                                       String paymentType) {
+        return paymentService.createPaymentAsync(paymentRequestDTO, paymentType, idempotency)
+                .thenCompose(payment -> sendClaimedPayment(idempotency, payment, paymentRequestDTO))
+                .whenCompleteAsync((response, error) -> {
+                    if (error != null) {
+                        paymentService.releasePaymentIdempotency(idempotency);
+                    }
+                }, paymentService.getIoExecutor());
+    }
+
+    private CompletableFuture<ResponseEntity<?>> sendClaimedPayment(PaymentIdempotencyDTO idempotency, PaymentDTO payment,
+                                                                    PaymentRequestDTO paymentRequestDTO) {
         Object paymentMethodObject = paymentRequestDTO.getPaymentMethodDetails();
-        String amount = paymentRequestDTO.getAmount();
-        String currency = paymentRequestDTO.getCurrency();
         String referenceNumber = paymentRequestDTO.getReferenceNumber();
         String returnURL = paymentRequestDTO.getReturnURL();
-        String paymentType = PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethodObject);
+
+        // A timeout completes the call on the timer thread, storing the outcome runs on the I/O executor
+        return paymentService.makePaymentAsync(payment, paymentMethodObject, referenceNumber, returnURL)
+                .<ResponseEntity<?>>handleAsync((paymentResponse, error) -> {
+                    ResponseEntity<?> response = getPaymentResponseEntity(payment, paymentResponse, error);
+                    if (error != null && isRetryable(unwrap(error))) {
+                        paymentService.releasePaymentIdempotency(idempotency);
+                    } else {
+                        paymentService.completePaymentIdempotency(idempotency, response.getStatusCode().value(), toStoredBody(response.getBody()));
+                    }
+                    return response;
+                }, paymentService.getIoExecutor());
+    }
+
+    /**
+     * Submits many payments, e.g. the sub-payments of a marketplace settlement, in one request. All payments are
+     * validated before any is stored, the new ones are inserted in one JDBC batch and sent to Adyen at most
+     * payment.batch.max-concurrency at a time. Each payment is idempotent by its reference number like /pay.
+     * The response is NDJSON, one line per payment as soon as it completes (not in request order) with its
+     * index, reference number, status and the body /pay would have answered.
+     */
+    @PostMapping("/pay/batch")
+    public ResponseEntity<ResponseBodyEmitter> processingPaymentBatch(HttpServletRequest request) {
+        PaymentBatchRequestDTO paymentBatchRequestDTO;
+        try {
+            paymentBatchRequestDTO = RequestJsonParser.parse(request, PaymentBatchRequestDTO.class);
+        } catch (IOException e) {
+            logger.error("Invalid request payload: " + e.getMessage());
+            return getBatchErrorsResponseEntity(List.of("Invalid request payload: " + e.getMessage()));
+        }
+
+        // Validate all request data
+        List<String> errorsOnValidate = paymentValidator.validateOnPayBatch(paymentBatchRequestDTO);
+        if (!errorsOnValidate.isEmpty()) {
+            logger.error("Validate error on request new payment batch.", errorsOnValidate);
+            return getBatchErrorsResponseEntity(errorsOnValidate);
+        }
+
+        List<PaymentRequestDTO> paymentRequestDTOs = paymentBatchRequestDTO.getPayments();
+        logger.info(String.format("New payment batch request with %d payments.", paymentRequestDTOs.size()));
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(paymentService.getBatchTimeoutMillis(paymentRequestDTOs.size()));
+
+        List<String> paymentTypes = new ArrayList<>(paymentRequestDTOs.size());
+        List<String> requestFingerprints = new ArrayList<>(paymentRequestDTOs.size());
+        List<CompletableFuture<PaymentIdempotencyDTO>> claims = new ArrayList<>(paymentRequestDTOs.size());
+        for (int i = 0; i < paymentRequestDTOs.size(); i++) {
+            int index = i;
+            PaymentRequestDTO paymentRequestDTO = paymentRequestDTOs.get(i);
+            String paymentType = PaymentMethodHelper.getTypeFromPaymentMethod(paymentRequestDTO.getPaymentMethodDetails());
+            String requestFingerprint = paymentService.getPaymentRequestFingerprint(paymentRequestDTO, paymentType);
+            paymentTypes.add(paymentType);
+            requestFingerprints.add(requestFingerprint);
+
+            claims.add(paymentService.claimPaymentAsync(paymentService.getPaymentIdempotencyKey(paymentRequestDTO.getReferenceNumber()), requestFingerprint)
+                    .exceptionally(e -> {
+                        Throwable cause = unwrap(e);
+                        logger.error("Error on payment batch claim: " + cause);
+                        sendBatchResult(emitter, index, paymentRequestDTO, ResponseEntity.badRequest().body(getErrorMessage(cause.getMessage())));
+                        return null;
+                    }));
+        }
+
+        CompletableFuture.allOf(claims.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(claimed -> {
+                    List<Integer> claimedIndexes = new ArrayList<>();
+                    List<PaymentIdempotencyDTO> claimedIdempotencies = new ArrayList<>();
+                    for (int i = 0; i < claims.size(); i++) {
+                        PaymentIdempotencyDTO idempotency = claims.get(i).join();
+                        if (idempotency == null) {
+                            continue;
+                        }
+                        if (idempotency.isClaimed()) {
+                            claimedIndexes.add(i);
+                            claimedIdempotencies.add(idempotency);
+                        } else {
+                            sendBatchResult(emitter, i, paymentRequestDTOs.get(i), getStoredResponseEntity(idempotency, requestFingerprints.get(i)));
+                        }
+                    }
+                    return processClaimedPaymentBatch(emitter, paymentRequestDTOs, paymentTypes, claimedIndexes, claimedIdempotencies);
+                })
+                .whenComplete((done, error) -> {
+                    if (error != null) {
+                        logger.error("Error on payment batch: " + unwrap(error));
+                    }
+                    emitter.complete();
+                });
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    /**
+     * Inserts the claimed payments of a batch together and sends them, see {@link PaymentService#runBatchAsync}.
+     * If the insert fails, all their keys are released, the retry reuses payments inserted before the failure.
+     */
+    private CompletableFuture<Void> processClaimedPaymentBatch(ResponseBodyEmitter emitter, List<PaymentRequestDTO> paymentRequestDTOs,
+                                                               List<String> paymentTypes, List<Integer> claimedIndexes,
+                                                               List<PaymentIdempotencyDTO> claimedIdempotencies) {
+        List<PaymentRequestDTO> claimedRequests = claimedIndexes.stream().map(paymentRequestDTOs::get).toList();
+        List<String> claimedTypes = claimedIndexes.stream().map(paymentTypes::get).toList();
+
+        return paymentService.createPaymentsAsync(claimedRequests, claimedTypes, claimedIdempotencies)
+                .handle((payments, error) -> {
+                    if (error != null) {
+                        Throwable cause = unwrap(error);
+                        logger.error("Error on payment batch insert: " + cause);
+                        for (int i = 0; i < claimedIndexes.size(); i++) {
+                            paymentService.releasePaymentIdempotency(claimedIdempotencies.get(i));
+                            sendBatchResult(emitter, claimedIndexes.get(i), claimedRequests.get(i),
+                                    ResponseEntity.badRequest().body(getErrorMessage(cause.getMessage())));
+                        }
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+
+                    return paymentService.runBatchAsync(payments.size(), i -> {
+                        // Only this payment fails, its reference belongs to a payment that was already sent
+                        if (payments.get(i) == null) {
+                            paymentService.releasePaymentIdempotency(claimedIdempotencies.get(i));
+                            sendBatchResult(emitter, claimedIndexes.get(i), claimedRequests.get(i), ResponseEntity.badRequest()
+                                    .body(getErrorMessage("Payment with reference number " + claimedRequests.get(i).getReferenceNumber() + " already exists")));
+                            return CompletableFuture.completedFuture(null);
+                        }
+
+                        return sendClaimedPayment(claimedIdempotencies.get(i), payments.get(i), claimedRequests.get(i))
+                                .handleAsync((response, sendError) -> {
+                                    if (sendError != null) {
+                                        Throwable cause = unwrap(sendError);
+                                        logger.error("Error on payment batch: " + cause);
+                                        paymentService.releasePaymentIdempotency(claimedIdempotencies.get(i));
+                                        response = ResponseEntity.badRequest().body(getErrorMessage(cause.getMessage()));
+                                    }
+                                    sendBatchResult(emitter, claimedIndexes.get(i), claimedRequests.get(i), response);
+                                    return response;
+                                }, paymentService.getIoExecutor());
+                    });
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Writes the result of one batch payment as an NDJSON line. A client that went away does not stop the batch,
+     * the payments still complete and keep their stored responses.
+     */
+    private void sendBatchResult(ResponseBodyEmitter emitter, int index, PaymentRequestDTO paymentRequestDTO, ResponseEntity<?> response) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", index);
+        result.put("referenceNumber", paymentRequestDTO.getReferenceNumber());
+        result.put("status", response.getStatusCode().value());
+        result.put("body", response.getBody());
 
         try {
-            PaymentResponse paymentResponse;
+            emitter.send(objectMapper.writeValueAsString(result) + "\n", MediaType.APPLICATION_NDJSON);
+        } catch (IOException | IllegalStateException e) {
+            logger.error(String.format("Result of batch payment %d not sent: %s", index, e.getMessage()));
+        }
+    }
+
+    private ResponseEntity<ResponseBodyEmitter> getBatchErrorsResponseEntity(List<String> errors) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        try {
+            emitter.send(Map.of("errors", errors), MediaType.APPLICATION_JSON);
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(emitter);
+    }
+
+    private ResponseEntity<?> getStoredResponseEntity(PaymentIdempotencyDTO idempotency, String requestFingerprint) {
+        if (!requestFingerprint.equals(idempotency.getRequestFingerprint())) {
+            logger.error("Reference number was already used for a different payment, idempotency key " + idempotency.getIdempotencyKey());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("errors", List.of("Reference number was already used for a different payment")));
+        }
+
+        if (idempotency.getStatus() == PaymentIdempotencyStatusEnum.COMPLETED) {
+            logger.info("Repeated payment request, returning stored response of idempotency key " + idempotency.getIdempotencyKey());
+            return ResponseEntity.status(idempotency.getResponseStatus()).body(fromStoredBody(idempotency.getResponseBody()));
+        }
 
-            PaymentDTO payment = paymentService.createPayment(paymentRequestDTO, paymentType);
-            try {
-                paymentResponse = paymentService.makePayment(payment, paymentMethodObject, amount, currency, referenceNumber, returnURL);
-            } catch (ApiException apiException) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("errors", List.of("Payment with this reference number is already in process")));
+    }
+
+    // Stored responses are JSON, so a repeated request gets a text or an errors map back as it was answered
+    private String toStoredBody(Object body) {
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Object fromStoredBody(String responseBody) {
+        if (responseBody == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(responseBody, Object.class);
+        } catch (JsonProcessingException e) {
+            // Plain text stored before responses were stored as JSON
+            return responseBody;
+        }
+    }
+
+    // Adyen rejected the request itself, sending it again gets the same answer
+    private boolean isRetryable(Throwable error) {
+        return !(error instanceof ApiException apiException && apiException.getStatusCode() >= 400 && apiException.getStatusCode() < 500);
+    }
+
+    private ResponseEntity<?> getPaymentResponseEntity(PaymentDTO payment, PaymentResponse paymentResponse, Throwable error) {
+        if (error != null) {
+            Throwable cause = unwrap(error);
+            if (cause instanceof AdyenUnavailableException unavailableException) {
+                logger.error("Payment not sent to adyen: " + cause.getMessage());
+                paymentService.updatePaymentUnavailable(payment, getErrorMessage(cause.getMessage()));
+                return getUnavailableResponseEntity(unavailableException);
+            }
+            if (cause instanceof ApiException apiException) {
                 ApiError apiError = apiException.getError();
                 String errorMessage = apiError.getMessage();
                 String errorType = apiError.getErrorType();
@@ -74,30 +342,31 @@ public class PaymentController {
                 logger.error("Error on api call to make payment adyen.", apiError);
                 paymentService.updatePaymentFailure(payment, errorMessage, errorType);
                 return ResponseEntity.badRequest().body(errorMessage);
-            } catch (Exception e) {
-                logger.error("Error on make payment: " + e.getMessage());
-                paymentService.updatePaymentFailure(payment, getErrorMessage(e.getMessage()));
-                return ResponseEntity.badRequest().body(getErrorMessage(e.getMessage()));
             }
 
-            PaymentResponse.ResultCodeEnum resultCode = paymentResponse.getResultCode();
-            String authCode = resultCode.getValue();
-
-
-            return switch (resultCode) {
-                case AUTHORISED -> getStringResponseEntityAuthorised(paymentResponse, payment, authCode);
-                case REDIRECTSHOPPER -> getStringResponseEntityRedirectShopper(paymentResponse, payment, authCode);
-                case RECEIVED, PENDING, PRESENTTOSHOPPER ->
-                        getStringResponseEntityIntermediateResult(paymentResponse, payment, authCode);
-                case CANCELLED, ERROR, REFUSED -> getStringResponseEntityError(paymentResponse, payment, authCode);
-                default -> throw new IllegalArgumentException("Unknown result code: " + authCode);
-            };
-        } catch (Exception e) {
-            logger.error("Error on payment controller: " + e);
-            return ResponseEntity.badRequest().body(getErrorMessage(e.getMessage()));
+            logger.error("Error on make payment: " + cause.getMessage());
+            paymentService.updatePaymentFailure(payment, getErrorMessage(cause.getMessage()));
+            return ResponseEntity.badRequest().body(getErrorMessage(cause.getMessage()));
         }
+
+        PaymentResponse.ResultCodeEnum resultCode = paymentResponse.getResultCode();
+        String authCode = resultCode.getValue();
+
+        return switch (resultCode) {
+            case AUTHORISED -> getStringResponseEntityAuthorised(paymentResponse, payment, authCode);
+            case REDIRECTSHOPPER -> getStringResponseEntityRedirectShopper(paymentResponse, payment, authCode);
+            case RECEIVED, PENDING, PRESENTTOSHOPPER ->
+                    getStringResponseEntityIntermediateResult(paymentResponse, payment, authCode);
+            case CANCELLED, ERROR, REFUSED -> getStringResponseEntityError(paymentResponse, payment, authCode);
+            default -> throw new IllegalArgumentException("Unknown result code: " + authCode);
+        };
     }
 
+    /**
+     * Refreshed or double-submitted returns with the same payment_id and redirectResult share one Adyen call and
+     * get its response, see {@link PaymentReturnCache}. A payment already in a final status is answered from its
+     * stored status without calling Adyen.
+     */
     @GetMapping("/return")
     public ResponseEntity<?> processingCheckout(HttpServletRequest request) {
 
@@ -117,7 +386,15 @@ public class PaymentController {
 
         logger.info("New return request with data:", requestedLogData);
 
+        return paymentReturnCache.get(paymentId, redirectResult, () -> checkPaymentReturn(paymentId, redirectResult));
+    }
+
+    private ResponseEntity<?> checkPaymentReturn(Long paymentId, String redirectResult) {
         PaymentDTO payment = paymentService.getPaymentByID(paymentId);
+        if (payment != null && payment.getStatus() != null && payment.getStatus().isFinal()) {
+            return getFinalStatusResponseEntity(payment);
+        }
+
         PaymentDetailsResponse paymentDetailsResponse;
 
         try {
@@ -165,6 +442,10 @@ public class PaymentController {
             }
 
             return response;
+        } catch (AdyenUnavailableException unavailableException) {
+            // Payment keeps its status, the shopper can return again once Adyen answers
+            logger.error("Payment details not requested from adyen: " + unavailableException.getMessage());
+            return getUnavailableResponseEntity(unavailableException);
         } catch (ApiException apiException) {
             ApiError apiError = apiException.getError();
             String errorMessage = apiError.getMessage();
@@ -180,6 +461,18 @@ public class PaymentController {
         }
     }
 
+    private ResponseEntity<String> getFinalStatusResponseEntity(PaymentDTO payment) {
+        logger.info(String.format("Payment %d already has final status %s.", payment.getId(), payment.getStatus()));
+
+        if (payment.getStatus() == PaymentStatusEnum.FAILED) {
+            return ResponseEntity.badRequest().body("Payment failed: " + payment.getFailureMessage());
+        }
+        if (PaymentDetailsResponse.ResultCodeEnum.CANCELLED.getValue().equals(payment.getAuthCode())) {
+            return ResponseEntity.ok("Payment was canceled. Continue with order or change different payment method");
+        }
+        return ResponseEntity.ok("Payment successfully processed");
+    }
+
     private ResponseEntity<String> getStringResponseEntityIntermediateResult(PaymentResponse paymentResponse, PaymentDTO payment, String authCode) {
         String pspReference = paymentResponse.getPspReference();
         paymentService.updatePaymentPending(payment, authCode, pspReference);
@@ -213,6 +506,17 @@ public class PaymentController {
         return ResponseEntity.ok("The payment successfully processed");
     }
 
+    private ResponseEntity<String> getUnavailableResponseEntity(AdyenUnavailableException unavailableException) {
+        long retryAfterSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(unavailableException.getRetryAfterMillis() + 999));
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(getErrorMessage(unavailableException.getMessage()));
+    }
+
+    private Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
     private String getErrorMessage(String errorMessage) {
         return String.format("Error: %s", errorMessage);
     }
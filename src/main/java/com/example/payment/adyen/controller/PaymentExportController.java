@@ -0,0 +1,107 @@
+package com.example.payment.adyen.controller;
+
+import com.example.payment.adyen.dto.PaymentExportFilterDTO;
+import com.example.payment.adyen.service.PaymentExportService;
+import com.example.payment.adyen.validator.PaymentValidator;
+import com.example.payment.helper.DateTimeHelper;
+import com.example.payment.helper.PaymentExportFormatEnum;
+import com.example.payment.helper.PaymentStatusEnum;
+import com.example.payment.logging.MyLogger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+@RestController
+@RequestMapping("/api/payments/adyen")
+public class PaymentExportController {
+
+    private final PaymentExportService paymentExportService;
+    private final PaymentValidator paymentValidator;
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(PaymentExportController.class));
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public PaymentExportController(PaymentExportService paymentExportService, PaymentValidator paymentValidator) {
+        this.paymentExportService = paymentExportService;
+        this.paymentValidator = paymentValidator;
+    }
+
+    /**
+     * Streams payments as NDJSON (default) or CSV. Optional filters: status, currency, from (inclusive) and
+     * to (exclusive) on create_at in UTC. The export times out after payment.export.timeout-millis.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportPayments(HttpServletRequest request) {
+
+        // Validate all request data
+        List<String> errorsOnValidate = paymentValidator.validateOnExport(request);
+        if (!errorsOnValidate.isEmpty()) {
+            logger.error("Validate error on payment export.", errorsOnValidate);
+            // Only a declared StreamingResponseBody is streamed, so errors are written as one too
+            StreamingResponseBody errors = outputStream -> objectMapper.writeValue(outputStream, Map.of("errors", errorsOnValidate));
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(errors);
+        }
+
+        String format = request.getParameter("format");
+        String status = request.getParameter("status");
+        String from = request.getParameter("from");
+        String to = request.getParameter("to");
+
+        PaymentExportFormatEnum exportFormat = format != null ? PaymentExportFormatEnum.fromValue(format) : PaymentExportFormatEnum.NDJSON;
+
+        PaymentExportFilterDTO filter = new PaymentExportFilterDTO();
+        filter.setStatus(status != null ? PaymentStatusEnum.fromValue(status) : null);
+        filter.setCurrency(request.getParameter("currency"));
+        filter.setCreatedFrom(from != null ? DateTimeHelper.parseDateTime(from) : null);
+        filter.setCreatedTo(to != null ? DateTimeHelper.parseDateTime(to) : null);
+
+        HashMap<String, String> requestedLogData = new HashMap<>();
+        requestedLogData.put("format", exportFormat.getValue());
+        requestedLogData.put("status", status);
+        requestedLogData.put("currency", filter.getCurrency());
+        requestedLogData.put("from", from);
+        requestedLogData.put("to", to);
+
+        logger.info("New payment export request with data:", requestedLogData);
+
+        StreamingResponseBody body = outputStream -> paymentExportService.export(filter, exportFormat, outputStream);
+        setExportTimeout(request, paymentExportService.getTimeoutMillis());
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"payments." + exportFormat.getValue() + "\"")
+                .body(body);
+    }
+
+    /**
+     * A streamed body gets the default async request timeout (spring.mvc.async.request-timeout), the export
+     * sets its own timeout before the async processing of the body starts.
+     */
+    private void setExportTimeout(HttpServletRequest request, long timeoutMillis) {
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(PaymentExportController.class.getName(),
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                        if (webRequest instanceof AsyncWebRequest asyncWebRequest) {
+                            asyncWebRequest.setTimeout(timeoutMillis);
+                        }
+                    }
+                });
+    }
+}
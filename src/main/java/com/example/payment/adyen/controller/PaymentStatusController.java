@@ -0,0 +1,259 @@
+package com.example.payment.adyen.controller;
+
+import com.example.payment.adyen.async.PaymentStatusNotifier;
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentStatusDTO;
+import com.example.payment.adyen.service.PaymentService;
+import com.example.payment.adyen.validator.PaymentValidator;
+import com.example.payment.helper.PaymentStatusEnum;
+import com.example.payment.logging.MyLogger;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RestController
+@RequestMapping("/api/payments/adyen")
+public class PaymentStatusController {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(PaymentStatusController.class));
+
+    private final PaymentService paymentService;
+    private final PaymentValidator paymentValidator;
+    private final PaymentStatusNotifier paymentStatusNotifier;
+
+    public PaymentStatusController(PaymentService paymentService, PaymentValidator paymentValidator,
+                                   PaymentStatusNotifier paymentStatusNotifier) {
+        this.paymentService = paymentService;
+        this.paymentValidator = paymentValidator;
+        this.paymentStatusNotifier = paymentStatusNotifier;
+    }
+
+    /**
+     * Current status of the payment. With parameter wait (seconds, capped by payment.status.max-wait-millis) it is
+     * a long-poll: the response is held until the status differs from parameter after (default: the current status)
+     * or is final, and has the status of that moment, also when the wait runs out. A waiting request holds no
+     * thread, it is woken by {@link PaymentStatusNotifier}.
+     */
+    @GetMapping("/{id}/status")
+    public DeferredResult<ResponseEntity<?>> getPaymentStatus(@PathVariable("id") Long paymentId, HttpServletRequest request) {
+
+        // Validate all request data
+        List<String> errorsOnValidate = paymentValidator.validateOnStatus(request);
+        if (!errorsOnValidate.isEmpty()) {
+            DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+            result.setResult(ResponseEntity.badRequest().body(Map.of("errors", errorsOnValidate)));
+            return result;
+        }
+
+        String wait = request.getParameter("wait");
+        String after = request.getParameter("after");
+        long waitMillis = wait != null ? Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(wait)), paymentStatusNotifier.getMaxWaitMillis()) : 0;
+
+        if (waitMillis == 0) {
+            DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+            result.setResult(getStatusResponseEntity(paymentService.getPaymentByID(paymentId)));
+            return result;
+        }
+
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(waitMillis);
+
+        // Subscribe before reading the status, a change committed in between is either read or delivered
+        AtomicReference<String> knownStatus = new AtomicReference<>();
+        AtomicReference<PaymentStatusDTO> latestStatus = new AtomicReference<>();
+        AtomicReference<Runnable> unsubscribe = new AtomicReference<>();
+        unsubscribe.set(paymentStatusNotifier.subscribe(paymentId, status -> {
+            latestStatus.set(status);
+            if (isChanged(status, knownStatus.get()) && result.setResult(ResponseEntity.ok(status))) {
+                unsubscribe.get().run();
+            }
+        }));
+        result.onCompletion(() -> unsubscribe.get().run());
+        result.onTimeout(() -> result.setResult(getStatusResponseEntity(paymentService.getPaymentByID(paymentId))));
+
+        PaymentDTO payment = paymentService.getPaymentByID(paymentId);
+        if (payment == null) {
+            unsubscribe.get().run();
+            result.setResult(ResponseEntity.notFound().build());
+            return result;
+        }
+
+        PaymentStatusDTO current = PaymentStatusDTO.of(payment);
+        String known = after != null ? PaymentStatusEnum.fromValue(after).getValue() : current.getStatus();
+        if (isChanged(current, known)) {
+            unsubscribe.get().run();
+            result.setResult(ResponseEntity.ok(current));
+            return result;
+        }
+
+        knownStatus.set(known);
+        PaymentStatusDTO latest = latestStatus.get();
+        if (latest != null && isChanged(latest, known) && result.setResult(ResponseEntity.ok(latest))) {
+            unsubscribe.get().run();
+        }
+        return result;
+    }
+
+    /**
+     * Server-Sent Events of the payment status: a status event with the current status, then one for every change.
+     * The stream ends after a final status or after payment.status.stream-timeout-millis.
+     */
+    @GetMapping(value = "/{id}/status", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamPaymentStatus(@PathVariable("id") Long paymentId) {
+        SseEmitter emitter = new SseEmitter(paymentStatusNotifier.getStreamTimeoutMillis());
+        StatusStream statusStream = new StatusStream(paymentId, emitter, paymentStatusNotifier.getStreamExecutor());
+
+        Runnable unsubscribe = paymentStatusNotifier.subscribe(paymentId, statusStream::update);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(error -> unsubscribe.run());
+
+        PaymentDTO payment = paymentService.getPaymentByID(paymentId);
+        if (payment == null) {
+            unsubscribe.run();
+            return ResponseEntity.notFound().build();
+        }
+
+        statusStream.start(PaymentStatusDTO.of(payment));
+        return ResponseEntity.ok().contentType(MediaType.TEXT_EVENT_STREAM).body(emitter);
+    }
+
+    private boolean isChanged(PaymentStatusDTO status, String knownStatus) {
+        return knownStatus != null && (status.isCompleted() || !knownStatus.equals(status.getStatus()));
+    }
+
+    private ResponseEntity<?> getStatusResponseEntity(PaymentDTO payment) {
+        if (payment == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(PaymentStatusDTO.of(payment));
+    }
+
+    /**
+     * Events of one stream in order: changes published before the current status was sent are sent after it,
+     * a status equal to the last sent one is skipped. Events are queued by the caller and written to the client
+     * on the stream executor, one task per stream at a time, so a publishing thread never blocks on the socket.
+     */
+    private static final class StatusStream {
+        private final Long paymentId;
+        private final SseEmitter emitter;
+        private final Executor executor;
+
+        private final Queue<PaymentStatusDTO> queue = new ArrayDeque<>();
+        private boolean started;
+        private boolean sending;
+        private boolean closed;
+        private PaymentStatusDTO pending;
+        private String lastStatus;
+
+        StatusStream(Long paymentId, SseEmitter emitter, Executor executor) {
+            this.paymentId = paymentId;
+            this.emitter = emitter;
+            this.executor = executor;
+        }
+
+        void start(PaymentStatusDTO current) {
+            synchronized (this) {
+                started = true;
+                queue.add(current);
+                if (pending != null) {
+                    queue.add(pending);
+                    pending = null;
+                }
+            }
+            schedule();
+        }
+
+        void update(PaymentStatusDTO status) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (!started) {
+                    pending = status;
+                    return;
+                }
+                queue.add(status);
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (sending || queue.isEmpty()) {
+                    return;
+                }
+                sending = true;
+            }
+
+            try {
+                executor.execute(this::sendQueued);
+            } catch (RuntimeException e) {
+                logger.error(String.format("Status of payment %d not sent: %s", paymentId, e.getMessage()));
+                close();
+                emitter.completeWithError(e);
+            }
+        }
+
+        private void sendQueued() {
+            while (true) {
+                PaymentStatusDTO status;
+                synchronized (this) {
+                    status = queue.poll();
+                    if (status == null) {
+                        sending = false;
+                        return;
+                    }
+                }
+                if (!send(status)) {
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private synchronized void close() {
+            closed = true;
+            sending = false;
+            queue.clear();
+        }
+
+        /**
+         * Returns false when the stream is done, after a final status or an error.
+         */
+        private boolean send(PaymentStatusDTO status) {
+            if (status.getStatus().equals(lastStatus)) {
+                return true;
+            }
+            lastStatus = status.getStatus();
+
+            try {
+                emitter.send(SseEmitter.event().name("status").data(status, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                logger.error(String.format("Status of payment %d not sent: %s", paymentId, e.getMessage()));
+                return false;
+            }
+
+            if (status.isCompleted()) {
+                emitter.complete();
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.payment.adyen.controller;
+
+import com.example.payment.adyen.async.WebhookRetryScheduler;
+import com.example.payment.adyen.dto.WebhookReplayFilterDTO;
+import com.example.payment.adyen.dto.WebhookReplayProgressDTO;
+import com.example.payment.adyen.service.PaymentService;
+import com.example.payment.adyen.service.WebhookReplayService;
+import com.example.payment.adyen.validator.PaymentValidator;
+import com.example.payment.helper.DateTimeHelper;
+import com.example.payment.logging.MyLogger;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/webhooks")
+public class WebhookAdminController {
+
+    private static final int DEFAULT_REPLAY_LIMIT = 1000;
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(WebhookAdminController.class));
+
+    private final WebhookRetryScheduler webhookRetryScheduler;
+    private final WebhookReplayService webhookReplayService;
+    private final PaymentService paymentService;
+    private final PaymentValidator paymentValidator;
+
+    public WebhookAdminController(WebhookRetryScheduler webhookRetryScheduler, WebhookReplayService webhookReplayService,
+                                  PaymentService paymentService, PaymentValidator paymentValidator) {
+        this.webhookRetryScheduler = webhookRetryScheduler;
+        this.webhookReplayService = webhookReplayService;
+        this.paymentService = paymentService;
+        this.paymentValidator = paymentValidator;
+    }
+
+    /**
+     * Moves dead-lettered notification items back to the retry table, oldest first. Optional parameter
+     * limit (default 1000) caps the number of items.
+     */
+    @PostMapping("/dead-letters/replay")
+    public ResponseEntity<?> replayDeadLetters(HttpServletRequest request) {
+        if (!paymentService.checkBasicAuthValid(request)) {
+            return unauthorized("dead letter replay");
+        }
+
+        String limitParam = request.getParameter("limit");
+
+        int limit = DEFAULT_REPLAY_LIMIT;
+        if (limitParam != null) {
+            try {
+                limit = Integer.parseInt(limitParam);
+            } catch (NumberFormatException e) {
+                limit = 0;
+            }
+            if (limit < 1) {
+                return ResponseEntity.badRequest().body(Map.of("errors", List.of("Limit must be a positive number.")));
+            }
+        }
+
+        try {
+            int replayed = webhookRetryScheduler.replayDeadLetters(limit);
+            return ResponseEntity.ok(Map.of("replayed", replayed));
+        } catch (Exception e) {
+            logger.error("Error on replaying dead letters: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("errors", List.of(e.getMessage())));
+        }
+    }
+
+    /**
+     * Starts a replay of stored payment_webhook rows in the background. Filters: from (inclusive) and to
+     * (exclusive) on received_at, paymentIdFrom and paymentIdTo (both inclusive), at least one is required.
+     * Optional dryRun (default false) and maxPerSecond (default 0, no limit).
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<?> startReplay(HttpServletRequest request) {
+        if (!paymentService.checkBasicAuthValid(request)) {
+            return unauthorized("webhook replay");
+        }
+
+        // Validate all request data
+        List<String> errorsOnValidate = paymentValidator.validateOnWebhookReplay(request);
+        if (!errorsOnValidate.isEmpty()) {
+            logger.error("Validate error on webhook replay.", errorsOnValidate);
+            return ResponseEntity.badRequest().body(Map.of("errors", errorsOnValidate));
+        }
+
+        String from = request.getParameter("from");
+        String to = request.getParameter("to");
+        String paymentIdFrom = request.getParameter("paymentIdFrom");
+        String paymentIdTo = request.getParameter("paymentIdTo");
+        String maxPerSecond = request.getParameter("maxPerSecond");
+
+        WebhookReplayFilterDTO filter = new WebhookReplayFilterDTO();
+        filter.setReceivedFrom(from != null ? DateTimeHelper.parseDateTime(from) : null);
+        filter.setReceivedTo(to != null ? DateTimeHelper.parseDateTime(to) : null);
+        filter.setPaymentIdFrom(paymentIdFrom != null ? Long.valueOf(paymentIdFrom) : null);
+        filter.setPaymentIdTo(paymentIdTo != null ? Long.valueOf(paymentIdTo) : null);
+
+        boolean dryRun = Boolean.parseBoolean(request.getParameter("dryRun"));
+
+        try {
+            WebhookReplayProgressDTO progress = webhookReplayService.start(filter, dryRun, maxPerSecond != null ? Integer.parseInt(maxPerSecond) : 0);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(progress);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("errors", List.of(e.getMessage())));
+        }
+    }
+
+    @GetMapping("/replay")
+    public ResponseEntity<?> getReplayProgress(HttpServletRequest request) {
+        if (!paymentService.checkBasicAuthValid(request)) {
+            return unauthorized("webhook replay progress");
+        }
+
+        WebhookReplayProgressDTO progress = webhookReplayService.getProgress();
+        if (progress == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(progress);
+    }
+
+    /**
+     * Stops the running replay after its current page.
+     */
+    @DeleteMapping("/replay")
+    public ResponseEntity<?> cancelReplay(HttpServletRequest request) {
+        if (!paymentService.checkBasicAuthValid(request)) {
+            return unauthorized("webhook replay cancel");
+        }
+
+        if (!webhookReplayService.cancel()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.accepted().body(webhookReplayService.getProgress());
+    }
+
+    private ResponseEntity<?> unauthorized(String action) {
+        logger.error(String.format("Basic auth is not correct on %s.", action));
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("errors", List.of("Unauthorized")));
+    }
+}
@@ -1,59 +1,76 @@
 package com.example.payment.adyen.controller;
 
 import com.adyen.model.notification.NotificationRequest;
-import com.adyen.notification.WebhookHandler;
-import com.example.payment.adyen.async.AsyncWebhookProcessor;
+import com.example.payment.adyen.async.WebhookInboxWorker;
+import com.example.payment.adyen.dao.WebhookInboxDao;
+import com.example.payment.adyen.dto.WebhookRequestDTO;
 import com.example.payment.adyen.service.PaymentService;
+import com.example.payment.exceptions.PayloadTooLargeException;
+import com.example.payment.helper.WebhookRequestReader;
 import com.example.payment.logging.MyLogger;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.stream.Collectors;
-
 @RestController
 @RequestMapping("/api/webhook/adyen")
 public class WebhookController {
 
     private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(WebhookController.class));
 
-    private final ThreadPoolTaskExecutor taskExecutor;
-    private final AsyncWebhookProcessor webhookProcessor;
+    private final WebhookInboxDao webhookInboxDao;
+    private final WebhookInboxWorker webhookInboxWorker;
     private final PaymentService paymentService;
-    private final WebhookHandler webhookHandler;
+    private final WebhookRequestReader webhookRequestReader;
 
-    public WebhookController(ThreadPoolTaskExecutor taskExecutor, AsyncWebhookProcessor webhookProcessor, PaymentService paymentService, WebhookHandler webhookHandler) {
-        this.taskExecutor = taskExecutor;
-        this.webhookProcessor = webhookProcessor;
+    public WebhookController(WebhookInboxDao webhookInboxDao, WebhookInboxWorker webhookInboxWorker, PaymentService paymentService, WebhookRequestReader webhookRequestReader) {
+        this.webhookInboxDao = webhookInboxDao;
+        this.webhookInboxWorker = webhookInboxWorker;
         this.paymentService = paymentService;
-        this.webhookHandler = webhookHandler;
+        this.webhookRequestReader = webhookRequestReader;
     }
 
      @PostMapping
     public ResponseEntity<String> handleAdyenWebhook(HttpServletRequest request) {
-         NotificationRequest notificationRequest;
-         try {
-             String json = request.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
+         // Basic auth only needs the header, check it before the body is read
+         if (!paymentService.checkBasicAuthValid(request)) {
+             logger.error("Basic auth is not correct on incoming webhook.");
+             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Unauthorized");
+         }
 
-             logger.info("New webhook incoming params.", json);
+         String json;
+         try {
+             WebhookRequestDTO webhookRequest = webhookRequestReader.read(request);
+             json = webhookRequest.getPayload();
+             NotificationRequest notificationRequest = webhookRequest.getNotificationRequest();
 
-             notificationRequest = webhookHandler.handleNotificationJson(json);
+             logger.info(String.format("New webhook incoming with %d items, %d chars.", notificationRequest.getNotificationItems().size(), json.length()));
 
-             if (!paymentService.checkAdyenHMAC(notificationRequest) || !paymentService.checkBasicAuthValid(request)) {
-                 logger.error("HMAC hash or basic auth is not correct on incoming webhook.");
+             if (!paymentService.checkAdyenHMAC(notificationRequest)) {
+                 logger.error("HMAC hash is not correct on incoming webhook.");
                  return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Unauthorized");
              }
+         } catch (PayloadTooLargeException e) {
+             logger.error("Webhook too large: " + e.getMessage());
+             return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body("Payload too large: " + e.getMessage());
          } catch (Exception e) {
              logger.error("Error on webhook: " + e.getMessage());
              return ResponseEntity.badRequest().body("Invalid payload: " + e.getMessage());
          }
 
-        taskExecutor.execute(() -> webhookProcessor.process(notificationRequest));
+         // Accepted only once stored, otherwise Adyen has to retry
+         try {
+             webhookInboxDao.insert(json);
+         } catch (Exception e) {
+             logger.error("Error on storing webhook to inbox: " + e.getMessage());
+             return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Webhook not stored");
+         }
+
+         webhookInboxWorker.wakeUp();
 
         return ResponseEntity.accepted().body("OK");
      }
@@ -0,0 +1,32 @@
+package com.example.payment.adyen.dao;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+
+/**
+ * Calls the partition maintenance functions created by the V4 migration.
+ */
+public class PartitionDao {
+
+    private static final String CREATE_MONTHLY_PARTITIONS_SQL =
+            "SELECT * FROM create_monthly_partitions(:monthsAhead)";
+
+    private static final String ARCHIVE_PARTITIONS_SQL =
+            "SELECT * FROM archive_partitions(:retentionMonths)";
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public PartitionDao(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    public List<String> createMonthlyPartitions(int monthsAhead) {
+        return jdbc.queryForList(CREATE_MONTHLY_PARTITIONS_SQL, new MapSqlParameterSource("monthsAhead", monthsAhead), String.class);
+    }
+
+    public List<String> archivePartitions(int retentionMonths) {
+        return jdbc.queryForList(ARCHIVE_PARTITIONS_SQL, new MapSqlParameterSource("retentionMonths", retentionMonths), String.class);
+    }
+}
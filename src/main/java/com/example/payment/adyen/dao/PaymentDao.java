@@ -1,31 +1,96 @@
 package com.example.payment.adyen.dao;
 
+import com.example.payment.adyen.async.PaymentStatusNotifier;
+import com.example.payment.adyen.cache.PaymentCache;
 import com.example.payment.adyen.dto.PaymentDTO;
 import com.example.payment.helper.PaymentStatusEnum;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class PaymentDao {
 
+    private static final String INSERT_SQL = "INSERT INTO payment (merchant_reference, psp_reference, amount, currency, reference, " +
+            "payment_method, status, auth_code, failure_message, create_at, update_at) " +
+            "VALUES (:merchantReference, :pspReference, :amount, :currency, :reference, :paymentMethod, " +
+            ":status, :authCode, :failureMessage, :createAt, :updateAt)";
+
     private final NamedParameterJdbcTemplate jdbc;
 
+    private boolean returningSupported = true;
+    private PaymentCache paymentCache;
+    private PaymentStatusNotifier paymentStatusNotifier;
+
     public PaymentDao(NamedParameterJdbcTemplate jdbc) {
         this.jdbc = jdbc;
     }
 
+    /**
+     * Postgres supports {@code INSERT ... RETURNING}. Set to false for H2, which gets the inserted
+     * row through {@code SELECT * FROM FINAL TABLE (INSERT ...)} instead.
+     */
+    public void setReturningSupported(boolean returningSupported) {
+        this.returningSupported = returningSupported;
+    }
+
+    /**
+     * Optional read-through cache for {@link #findById}, {@link #findByReference} and {@link #findByPspReference}.
+     * All update methods invalidate the cached payment.
+     */
+    public void setPaymentCache(PaymentCache paymentCache) {
+        this.paymentCache = paymentCache;
+    }
+
+    /**
+     * Optional, all update methods publish the new status of the payment to its waiters.
+     */
+    public void setPaymentStatusNotifier(PaymentStatusNotifier paymentStatusNotifier) {
+        this.paymentStatusNotifier = paymentStatusNotifier;
+    }
+
     public Optional<PaymentDTO> insert(PaymentDTO dto) {
-        String sql = "INSERT INTO payment (merchant_reference, psp_reference, amount, currency, reference, " +
-                "payment_method, status, auth_code, failure_message, create_at, update_at) " +
-                "VALUES (:merchantReference, :pspReference, :amount, :currency, :reference, :paymentMethod, " +
-                ":status, :authCode, :failureMessage, :createAt, :updateAt)";
+        // Inserted row is returned by the same statement, so no second SELECT is needed
+        String sql = returningSupported
+                ? INSERT_SQL + " RETURNING *"
+                : "SELECT * FROM FINAL TABLE (" + INSERT_SQL + ")";
 
-        MapSqlParameterSource params = new MapSqlParameterSource()
+        return queryForPayment(sql, insertParams(dto));
+    }
+
+    /**
+     * Inserts all payments in one JDBC batch and sets the generated ids on them, in list order.
+     */
+    public void insertBatch(List<PaymentDTO> payments) {
+        if (payments.isEmpty()) {
+            return;
+        }
+
+        SqlParameterSource[] batchParams = new SqlParameterSource[payments.size()];
+        for (int i = 0; i < payments.size(); i++) {
+            batchParams[i] = insertParams(payments.get(i));
+        }
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.batchUpdate(INSERT_SQL, batchParams, keyHolder, new String[]{"id"});
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < payments.size(); i++) {
+            payments.get(i).setId(((Number) keys.get(i).get("id")).longValue());
+        }
+    }
+
+    private static MapSqlParameterSource insertParams(PaymentDTO dto) {
+        return new MapSqlParameterSource()
                 .addValue("merchantReference", dto.getMerchantReference())
                 .addValue("pspReference", dto.getPspReference())
                 .addValue("amount", dto.getAmount())
@@ -37,56 +102,65 @@ public class PaymentDao {
                 .addValue("failureMessage", dto.getFailureMessage())
                 .addValue("createAt", dto.getCreateAt())
                 .addValue("updateAt", dto.getUpdateAt());
-
-        KeyHolder keyHolder = new GeneratedKeyHolder();
-
-        jdbc.update(sql, params, keyHolder, new String[] {"id"});
-
-        Number key = keyHolder.getKey();
-        if (key != null) {
-            return findById(key.longValue());
-        } else {
-            return Optional.empty();
-        }
     }
 
     public Optional<PaymentDTO> findById(Long paymentId) {
         String sql = "SELECT * FROM payment WHERE id = :id";
-        try {
-            return Optional.ofNullable(jdbc.queryForObject(
-                    sql,
-                    new MapSqlParameterSource("id", paymentId),
-                    paymentRowMapper()
-            ));
-        } catch (EmptyResultDataAccessException ex) {
-            return Optional.empty();
+        MapSqlParameterSource params = new MapSqlParameterSource("id", paymentId);
+
+        if (paymentCache == null) {
+            return queryForPayment(sql, params);
         }
+        return paymentCache.getById(paymentId).or(() -> queryForPayment(sql, params));
     }
 
     public Optional<PaymentDTO> findByReference(String reference) {
         String sql = "SELECT * FROM payment WHERE reference = :reference";
-        try {
-            return Optional.ofNullable(jdbc.queryForObject(
-                    sql,
-                    new MapSqlParameterSource("reference", reference),
-                    paymentRowMapper()
-            ));
-        } catch (EmptyResultDataAccessException ex) {
-            return Optional.empty();
+        MapSqlParameterSource params = new MapSqlParameterSource("reference", reference);
+
+        if (paymentCache == null) {
+            return queryForPayment(sql, params);
         }
+        return paymentCache.getByReference(reference).or(() -> queryForPayment(sql, params));
     }
 
     public Optional<PaymentDTO> findByPspReference(String pspReference) {
         String sql = "SELECT * FROM payment WHERE psp_reference = :pspReference";
-        try {
-            return Optional.ofNullable(jdbc.queryForObject(
-                    sql,
-                    new MapSqlParameterSource("pspReference", pspReference),
-                    paymentRowMapper()
-            ));
-        } catch (EmptyResultDataAccessException ex) {
-            return Optional.empty();
+        MapSqlParameterSource params = new MapSqlParameterSource("pspReference", pspReference);
+
+        if (paymentCache == null) {
+            return queryForPayment(sql, params);
+        }
+        return paymentCache.getByPspReference(pspReference).or(() -> queryForPayment(sql, params));
+    }
+
+    public List<PaymentDTO> findByReferences(Collection<String> references) {
+        if (references.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        String sql = "SELECT * FROM payment WHERE reference = ANY(:references)";
+
+        return jdbc.query(
+                sql,
+                new MapSqlParameterSource("references", references.toArray(new String[0])),
+                paymentRowMapper()
+        );
+    }
+
+    public List<PaymentDTO> findByPspReferences(Collection<String> pspReferences) {
+        if (pspReferences.isEmpty()) {
+            return Collections.emptyList();
         }
+
+        // One array parameter keeps a single statement shape regardless of how many references are passed
+        String sql = "SELECT * FROM payment WHERE psp_reference = ANY(:pspReferences)";
+
+        return jdbc.query(
+                sql,
+                new MapSqlParameterSource("pspReferences", pspReferences.toArray(new String[0])),
+                paymentRowMapper()
+        );
     }
 
     public  void updatePspReferenceStatusAndCode(PaymentDTO payment) {
@@ -100,6 +174,7 @@ public class PaymentDao {
                 .addValue("paymentId", payment.getId());
 
         jdbc.update(sql, params);
+        statusChanged(payment);
     }
 
     public void updateStatusAndAuth(PaymentDTO payment) {
@@ -112,6 +187,7 @@ public class PaymentDao {
                 .addValue("paymentId", payment.getId());
 
         jdbc.update(sql, params);
+        statusChanged(payment);
     }
 
     public void updateStatusAndSetMessage(PaymentDTO payment) {
@@ -124,6 +200,7 @@ public class PaymentDao {
                 .addValue("paymentId", payment.getId());
 
         jdbc.update(sql, params);
+        statusChanged(payment);
     }
 
     public void updateStatusAuthCodeAndSetMessage(PaymentDTO payment) {
@@ -137,6 +214,38 @@ public class PaymentDao {
                 .addValue("paymentId", payment.getId());
 
         jdbc.update(sql, params);
+        statusChanged(payment);
+    }
+
+    /**
+     * Updates status and auth code of all payments in one JDBC batch, in list order. Failure message is
+     * only written for payments with status {@link PaymentStatusEnum#FAILED}, like
+     * {@link #updateStatusAuthCodeAndSetMessage(PaymentDTO)} does, others keep their current message.
+     */
+    public void updateStatusAuthCodeAndSetMessageBatch(List<PaymentDTO> payments) {
+        if (payments.isEmpty()) {
+            return;
+        }
+
+        String sql = "UPDATE payment SET status = :status, auth_code = :authCode, " +
+                "failure_message = CASE WHEN :setFailureMessage THEN :failureMessage ELSE failure_message END, " +
+                "update_at = now() WHERE id = :paymentId";
+
+        SqlParameterSource[] batchParams = new SqlParameterSource[payments.size()];
+        for (int i = 0; i < payments.size(); i++) {
+            PaymentDTO payment = payments.get(i);
+            batchParams[i] = new MapSqlParameterSource()
+                    .addValue("status", payment.getStatus().getValue())
+                    .addValue("authCode", payment.getAuthCode())
+                    .addValue("setFailureMessage", payment.getStatus() == PaymentStatusEnum.FAILED)
+                    .addValue("failureMessage", payment.getFailureMessage())
+                    .addValue("paymentId", payment.getId());
+        }
+
+        jdbc.batchUpdate(sql, batchParams);
+        for (PaymentDTO payment : payments) {
+            statusChanged(payment);
+        }
     }
 
     public void updateStatus(PaymentDTO payment) {
@@ -147,15 +256,45 @@ public class PaymentDao {
                 .addValue("paymentId", payment.getId());
 
         jdbc.update(sql, params);
+        statusChanged(payment);
+    }
+
+    private Optional<PaymentDTO> queryForPayment(String sql, MapSqlParameterSource params) {
+        long cacheStamp = paymentCache != null ? paymentCache.stamp() : 0;
+
+        Optional<PaymentDTO> payment;
+        try {
+            payment = Optional.ofNullable(jdbc.queryForObject(sql, params, paymentRowMapper()));
+        } catch (EmptyResultDataAccessException ex) {
+            return Optional.empty();
+        }
+
+        if (paymentCache != null) {
+            payment.ifPresent(dto -> paymentCache.put(dto, cacheStamp));
+        }
+        return payment;
+    }
+
+    private void statusChanged(PaymentDTO payment) {
+        invalidate(payment.getId());
+        if (paymentStatusNotifier != null) {
+            paymentStatusNotifier.publish(payment);
+        }
+    }
+
+    private void invalidate(Long paymentId) {
+        if (paymentCache != null) {
+            paymentCache.invalidate(paymentId);
+        }
     }
 
-    private RowMapper<PaymentDTO> paymentRowMapper() {
+    static RowMapper<PaymentDTO> paymentRowMapper() {
         return (rs, rowNum) -> {
             PaymentDTO dto = new PaymentDTO();
             dto.setId(rs.getLong("id"));
             dto.setMerchantReference(rs.getString("merchant_reference"));
             dto.setPspReference(rs.getString("psp_reference"));
-            dto.setAmount(rs.getDouble("amount"));
+            dto.setAmount(rs.getLong("amount"));
             dto.setCurrency(rs.getString("currency"));
             dto.setReference(rs.getString("reference"));
             dto.setPaymentMethod(rs.getString("payment_method"));
@@ -0,0 +1,62 @@
+package com.example.payment.adyen.dao;
+
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentExportFilterDTO;
+import com.example.payment.helper.DateTimeHelper;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.function.Consumer;
+
+/**
+ * Reads payments for export one keyset page at a time. The template should have a fetch size set, so a page
+ * is pulled from the database cursor in fetch-size steps instead of being loaded into memory at once.
+ */
+public class PaymentExportDao {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public PaymentExportDao(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Passes up to {@code limit} payments matching the filter with {@code id > afterId} to the consumer, in id
+     * order, and returns the number of payments read. The last id passed is the {@code afterId} of the next page.
+     */
+    public int streamPage(PaymentExportFilterDTO filter, long afterId, int limit, Consumer<PaymentDTO> consumer) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM payment WHERE id > :afterId");
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterId", afterId)
+                .addValue("limit", limit);
+
+        // Only filters that are set go into the statement, so the planner sees plain predicates
+        if (filter.getStatus() != null) {
+            sql.append(" AND status = :status");
+            params.addValue("status", filter.getStatus().getValue());
+        }
+        if (filter.getCurrency() != null) {
+            sql.append(" AND currency = :currency");
+            params.addValue("currency", filter.getCurrency());
+        }
+        if (filter.getCreatedFrom() != null) {
+            sql.append(" AND create_at >= :createdFrom");
+            params.addValue("createdFrom", DateTimeHelper.toUtcTimestamp(filter.getCreatedFrom()));
+        }
+        if (filter.getCreatedTo() != null) {
+            sql.append(" AND create_at < :createdTo");
+            params.addValue("createdTo", DateTimeHelper.toUtcTimestamp(filter.getCreatedTo()));
+        }
+        sql.append(" ORDER BY id LIMIT :limit");
+
+        RowMapper<PaymentDTO> rowMapper = PaymentDao.paymentRowMapper();
+        int[] count = {0};
+        jdbc.query(sql.toString(), params, (RowCallbackHandler) rs -> {
+            consumer.accept(rowMapper.mapRow(rs, count[0]));
+            count[0]++;
+        });
+        return count[0];
+    }
+}
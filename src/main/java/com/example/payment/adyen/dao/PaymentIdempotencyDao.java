@@ -0,0 +1,170 @@
+package com.example.payment.adyen.dao;
+
+import com.example.payment.adyen.dto.PaymentIdempotencyDTO;
+import com.example.payment.helper.PaymentIdempotencyStatusEnum;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public class PaymentIdempotencyDao {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO payment_idempotency (idempotency_key, request_fingerprint, status, locked_until, created_at, updated_at) " +
+                    "VALUES (:idempotencyKey, :requestFingerprint, :status, :lockedUntil, :now, :now) ON CONFLICT DO NOTHING";
+
+    // Failed rows and rows of a request that did not finish within its lease are taken over by the next request
+    private static final String TAKE_OVER_SQL =
+            "UPDATE payment_idempotency SET status = :status, locked_until = :lockedUntil, updated_at = :now " +
+                    "WHERE idempotency_key = :idempotencyKey AND request_fingerprint = :requestFingerprint " +
+                    "AND (status = :failed OR (status = :status AND locked_until < :now))";
+
+    private static final String SELECT_BY_KEY_SQL =
+            "SELECT * FROM payment_idempotency WHERE idempotency_key = :idempotencyKey";
+
+    private static final String UPDATE_PAYMENT_ID_SQL =
+            "UPDATE payment_idempotency SET payment_id = :paymentId, updated_at = :now WHERE idempotency_key = :idempotencyKey";
+
+    // Only the request holding the key completes or releases it, its lease is the one it claimed the key with
+    private static final String COMPLETE_SQL =
+            "UPDATE payment_idempotency SET status = :status, response_status = :responseStatus, response_body = :responseBody, " +
+                    "locked_until = NULL, updated_at = :now " +
+                    "WHERE idempotency_key = :idempotencyKey AND status = :processing AND locked_until = :lockedUntil";
+
+    private static final String RELEASE_SQL =
+            "UPDATE payment_idempotency SET status = :status, locked_until = NULL, updated_at = :now " +
+                    "WHERE idempotency_key = :idempotencyKey AND status = :processing AND locked_until = :lockedUntil";
+
+    private static final String DELETE_CREATED_BEFORE_SQL =
+            "DELETE FROM payment_idempotency WHERE created_at < :createdBefore";
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public PaymentIdempotencyDao(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Claims the key for {@code leaseMillis}, either as a new row or by taking over a failed or expired one
+     * with the same request fingerprint. The returned row is claimed if this call holds the key, otherwise
+     * it is the row of the request that holds or completed it.
+     */
+    public PaymentIdempotencyDTO claim(String idempotencyKey, String requestFingerprint, long leaseMillis) {
+        long now = System.currentTimeMillis();
+        Timestamp lockedUntil = new Timestamp(now + leaseMillis);
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("idempotencyKey", idempotencyKey)
+                .addValue("requestFingerprint", requestFingerprint)
+                .addValue("status", PaymentIdempotencyStatusEnum.PROCESSING.getValue())
+                .addValue("failed", PaymentIdempotencyStatusEnum.FAILED.getValue())
+                .addValue("lockedUntil", lockedUntil)
+                .addValue("now", new Timestamp(now));
+
+        boolean claimed = jdbc.update(INSERT_SQL, params) > 0 || jdbc.update(TAKE_OVER_SQL, params) > 0;
+
+        PaymentIdempotencyDTO idempotency = findByKey(idempotencyKey)
+                .orElseThrow(() -> new IllegalStateException("Idempotency key " + idempotencyKey + " was deleted while claimed"));
+        idempotency.setClaimed(claimed);
+        if (claimed) {
+            // Identifies this claim on complete and release
+            idempotency.setLockedUntil(lockedUntil);
+        }
+        return idempotency;
+    }
+
+    public Optional<PaymentIdempotencyDTO> findByKey(String idempotencyKey) {
+        List<PaymentIdempotencyDTO> rows = jdbc.query(SELECT_BY_KEY_SQL, new MapSqlParameterSource("idempotencyKey", idempotencyKey),
+                paymentIdempotencyRowMapper());
+        return rows.stream().findFirst();
+    }
+
+    public void updatePaymentId(String idempotencyKey, Long paymentId) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("paymentId", paymentId)
+                .addValue("now", new Timestamp(System.currentTimeMillis()))
+                .addValue("idempotencyKey", idempotencyKey);
+
+        jdbc.update(UPDATE_PAYMENT_ID_SQL, params);
+    }
+
+    /**
+     * {@link #updatePaymentId} for payment ids by idempotency key, in one JDBC batch.
+     */
+    public void updatePaymentIds(Map<String, Long> paymentIdsByKey) {
+        if (paymentIdsByKey.isEmpty()) {
+            return;
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        SqlParameterSource[] batchParams = paymentIdsByKey.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("paymentId", entry.getValue())
+                        .addValue("now", now)
+                        .addValue("idempotencyKey", entry.getKey()))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbc.batchUpdate(UPDATE_PAYMENT_ID_SQL, batchParams);
+    }
+
+    /**
+     * Stores the response on the key claimed with lease {@code lockedUntil}. Returns false if the lease ran out
+     * and another request took the key over, its row is left as it is.
+     */
+    public boolean complete(String idempotencyKey, Date lockedUntil, int responseStatus, String responseBody) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("status", PaymentIdempotencyStatusEnum.COMPLETED.getValue())
+                .addValue("responseStatus", responseStatus)
+                .addValue("responseBody", responseBody)
+                .addValue("now", new Timestamp(System.currentTimeMillis()))
+                .addValue("idempotencyKey", idempotencyKey)
+                .addValue("processing", PaymentIdempotencyStatusEnum.PROCESSING.getValue())
+                .addValue("lockedUntil", toTimestamp(lockedUntil));
+
+        return jdbc.update(COMPLETE_SQL, params) > 0;
+    }
+
+    /**
+     * Marks the key claimed with lease {@code lockedUntil} failed, the next request with the same fingerprint
+     * takes it over. Returns false if another request took the key over already.
+     */
+    public boolean release(String idempotencyKey, Date lockedUntil) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("status", PaymentIdempotencyStatusEnum.FAILED.getValue())
+                .addValue("now", new Timestamp(System.currentTimeMillis()))
+                .addValue("idempotencyKey", idempotencyKey)
+                .addValue("processing", PaymentIdempotencyStatusEnum.PROCESSING.getValue())
+                .addValue("lockedUntil", toTimestamp(lockedUntil));
+
+        return jdbc.update(RELEASE_SQL, params) > 0;
+    }
+
+    public int deleteCreatedBefore(Timestamp createdBefore) {
+        return jdbc.update(DELETE_CREATED_BEFORE_SQL, new MapSqlParameterSource("createdBefore", createdBefore));
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date != null ? new Timestamp(date.getTime()) : null;
+    }
+
+    private RowMapper<PaymentIdempotencyDTO> paymentIdempotencyRowMapper() {
+        return (rs, rowNum) -> {
+            PaymentIdempotencyDTO dto = new PaymentIdempotencyDTO();
+            dto.setIdempotencyKey(rs.getString("idempotency_key"));
+            dto.setRequestFingerprint(rs.getString("request_fingerprint"));
+            dto.setPaymentId(rs.getObject("payment_id") != null ? rs.getLong("payment_id") : null);
+            dto.setStatus(PaymentIdempotencyStatusEnum.fromValue(rs.getString("status")));
+            dto.setResponseStatus(rs.getObject("response_status") != null ? rs.getInt("response_status") : null);
+            dto.setResponseBody(rs.getString("response_body"));
+            dto.setLockedUntil(rs.getTimestamp("locked_until"));
+            dto.setCreatedAt(rs.getTimestamp("created_at"));
+            dto.setUpdatedAt(rs.getTimestamp("updated_at"));
+            return dto;
+        };
+    }
+}
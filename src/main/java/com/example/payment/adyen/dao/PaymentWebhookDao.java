@@ -1,9 +1,12 @@
 package com.example.payment.adyen.dao;
 
 import com.example.payment.adyen.dto.PaymentWebhookDTO;
+import com.example.payment.adyen.dto.WebhookReplayFilterDTO;
+import com.example.payment.helper.DateTimeHelper;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 
 import java.sql.Timestamp;
 import java.time.ZoneId;
@@ -12,13 +15,23 @@ import java.util.List;
 public class PaymentWebhookDao {
     private final NamedParameterJdbcTemplate jdbc;
 
+    private String insertPaymentWebhookSql = INSERT_PAYMENT_WEBHOOK_SQL.formatted("CAST(:rawNotification AS jsonb)");
+
     public PaymentWebhookDao(NamedParameterJdbcTemplate jdbc) {
         this.jdbc = jdbc;
     }
 
+    /**
+     * raw_notification is a JSONB column on Postgres. Set to false for H2, where it is plain text.
+     */
+    public void setJsonbSupported(boolean jsonbSupported) {
+        this.insertPaymentWebhookSql = INSERT_PAYMENT_WEBHOOK_SQL.formatted(
+                jsonbSupported ? "CAST(:rawNotification AS jsonb)" : ":rawNotification");
+    }
+
     private static final String INSERT_PAYMENT_WEBHOOK_SQL =
             "INSERT INTO payment_webhook (payment_id, event_code, success, psp_reference, event_date, received_at, raw_notification) " +
-                    "VALUES (:paymentId, :eventCode, :success, :pspReference, :eventDate, :receivedAt, :rawNotification)";
+                    "VALUES (:paymentId, :eventCode, :success, :pspReference, :eventDate, :receivedAt, %s)";
 
     private static final String SELECT_PAYMENT_WEBHOOK_BY_ID_SQL =
             "SELECT * FROM payment_webhook WHERE id = :id";
@@ -30,13 +43,91 @@ public class PaymentWebhookDao {
             "UPDATE payment_webhook SET event_code = :eventCode, success = :success, psp_reference = :pspReference, " +
                     "event_date = :eventDate, received_at = :receivedAt, raw_notification = :rawNotification WHERE id = :id";
 
+    private static final String INSERT_PAYMENT_WEBHOOK_KEY_SQL =
+            "INSERT INTO payment_webhook_key (psp_reference, event_code, success, event_date, received_at) " +
+                    "VALUES (:pspReference, :eventCode, :success, :eventDate, :receivedAt) ON CONFLICT DO NOTHING";
+
+    private static final String DELETE_PAYMENT_WEBHOOK_KEY_SQL =
+            "DELETE FROM payment_webhook_key WHERE psp_reference = :pspReference AND event_code = :eventCode " +
+                    "AND success = :success AND event_date = :eventDate";
+
+    private static final String DELETE_PAYMENT_WEBHOOK_KEYS_RECEIVED_BEFORE_SQL =
+            "DELETE FROM payment_webhook_key WHERE received_at < :receivedBefore";
+
 
     public void insert(PaymentWebhookDTO paymentWebhookDTO) {
+        jdbc.update(insertPaymentWebhookSql, toInsertParams(paymentWebhookDTO));
+    }
+
+    public void insertBatch(List<PaymentWebhookDTO> paymentWebhooks) {
+        if (paymentWebhooks.isEmpty()) {
+            return;
+        }
+
+        SqlParameterSource[] batchParams = new SqlParameterSource[paymentWebhooks.size()];
+        for (int i = 0; i < paymentWebhooks.size(); i++) {
+            batchParams[i] = toInsertParams(paymentWebhooks.get(i));
+        }
+
+        jdbc.batchUpdate(insertPaymentWebhookSql, batchParams);
+    }
+
+    /**
+     * Records the natural key (pspReference, eventCode, success, eventDate) of a webhook. Returns false if
+     * the key is already recorded, i.e. the webhook is a redelivery.
+     */
+    public boolean insertKey(PaymentWebhookDTO paymentWebhookDTO) {
+        return jdbc.update(INSERT_PAYMENT_WEBHOOK_KEY_SQL, toInsertParams(paymentWebhookDTO)) > 0;
+    }
+
+    /**
+     * Batched {@link #insertKey}, element i of the result is false if webhook i is a redelivery, including
+     * a repeat of an earlier webhook in the same list.
+     */
+    public boolean[] insertKeys(List<PaymentWebhookDTO> paymentWebhooks) {
+        boolean[] inserted = new boolean[paymentWebhooks.size()];
+        if (paymentWebhooks.isEmpty()) {
+            return inserted;
+        }
+
+        SqlParameterSource[] batchParams = new SqlParameterSource[paymentWebhooks.size()];
+        for (int i = 0; i < paymentWebhooks.size(); i++) {
+            batchParams[i] = toInsertParams(paymentWebhooks.get(i));
+        }
+
+        int[] counts = jdbc.batchUpdate(INSERT_PAYMENT_WEBHOOK_KEY_SQL, batchParams);
+        for (int i = 0; i < counts.length; i++) {
+            inserted[i] = counts[i] != 0;
+        }
+        return inserted;
+    }
+
+    public void deleteKeys(List<PaymentWebhookDTO> paymentWebhooks) {
+        if (paymentWebhooks.isEmpty()) {
+            return;
+        }
+
+        SqlParameterSource[] batchParams = new SqlParameterSource[paymentWebhooks.size()];
+        for (int i = 0; i < paymentWebhooks.size(); i++) {
+            batchParams[i] = toInsertParams(paymentWebhooks.get(i));
+        }
+
+        jdbc.batchUpdate(DELETE_PAYMENT_WEBHOOK_KEY_SQL, batchParams);
+    }
+
+    public int deleteKeysReceivedBefore(Timestamp receivedBefore) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("receivedBefore", receivedBefore);
+
+        return jdbc.update(DELETE_PAYMENT_WEBHOOK_KEYS_RECEIVED_BEFORE_SQL, params);
+    }
+
+    private MapSqlParameterSource toInsertParams(PaymentWebhookDTO paymentWebhookDTO) {
         ZoneId zoneId = ZoneId.of("UTC");
         Timestamp timestampEventDate = Timestamp.from(paymentWebhookDTO.getEventDate().toInstant().atZone(zoneId).toInstant());
         Timestamp timestampReceiveAt = Timestamp.from(paymentWebhookDTO.getReceivedAt().toInstant().atZone(zoneId).toInstant());
 
-        MapSqlParameterSource params = new MapSqlParameterSource()
+        return new MapSqlParameterSource()
                 .addValue("paymentId", paymentWebhookDTO.getPaymentId())
                 .addValue("eventCode", paymentWebhookDTO.getEventCode())
                 .addValue("success", paymentWebhookDTO.getSuccess())
@@ -44,8 +135,6 @@ public class PaymentWebhookDao {
                 .addValue("eventDate", timestampEventDate)
                 .addValue("receivedAt", timestampReceiveAt)
                 .addValue("rawNotification", paymentWebhookDTO.getRawNotification());
-
-        jdbc.update(INSERT_PAYMENT_WEBHOOK_SQL, params);
     }
 
     public List<PaymentWebhookDTO> getAllWebhooksByPaymentId(Long paymentId) {
@@ -55,6 +144,38 @@ public class PaymentWebhookDao {
         return jdbc.query(SELECT_ALL_PAYMENT_WEBHOOK_BY_PAYMENT_ID, params, paymentWebhookRowMapper());
     }
 
+    /**
+     * Returns up to {@code limit} webhooks matching the filter with {@code id > afterId}, in id order, i.e. in
+     * the order they were stored. The last id returned is the {@code afterId} of the next page.
+     */
+    public List<PaymentWebhookDTO> findReplayPage(WebhookReplayFilterDTO filter, long afterId, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM payment_webhook WHERE id > :afterId");
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterId", afterId)
+                .addValue("limit", limit);
+
+        // A received_at range lets Postgres skip the monthly partitions outside of it
+        if (filter.getReceivedFrom() != null) {
+            sql.append(" AND received_at >= :receivedFrom");
+            params.addValue("receivedFrom", DateTimeHelper.toUtcTimestamp(filter.getReceivedFrom()));
+        }
+        if (filter.getReceivedTo() != null) {
+            sql.append(" AND received_at < :receivedTo");
+            params.addValue("receivedTo", DateTimeHelper.toUtcTimestamp(filter.getReceivedTo()));
+        }
+        if (filter.getPaymentIdFrom() != null) {
+            sql.append(" AND payment_id >= :paymentIdFrom");
+            params.addValue("paymentIdFrom", filter.getPaymentIdFrom());
+        }
+        if (filter.getPaymentIdTo() != null) {
+            sql.append(" AND payment_id <= :paymentIdTo");
+            params.addValue("paymentIdTo", filter.getPaymentIdTo());
+        }
+        sql.append(" ORDER BY id LIMIT :limit");
+
+        return jdbc.query(sql.toString(), params, paymentWebhookRowMapper());
+    }
+
     private RowMapper<PaymentWebhookDTO> paymentWebhookRowMapper() {
         return (rs, rowNum) -> {
             PaymentWebhookDTO dto = new PaymentWebhookDTO();
@@ -0,0 +1,157 @@
+package com.example.payment.adyen.dao;
+
+import com.example.payment.adyen.dto.WebhookInboxDTO;
+import com.example.payment.helper.WebhookInboxStatusEnum;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+
+public class WebhookInboxDao {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO webhook_inbox (payload, status, attempts, received_at) VALUES (:payload, :status, 0, :receivedAt)";
+
+    // Expired leases belong to workers that died while processing, those rows are claimed again.
+    // Released rows wait for their next_attempt_at
+    private static final String SELECT_CLAIMABLE_SQL =
+            "SELECT * FROM webhook_inbox WHERE (status = :pending AND (next_attempt_at IS NULL OR next_attempt_at <= :now)) " +
+                    "OR (status = :processing AND locked_until < :now) " +
+                    "ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED";
+
+    private static final String CLAIM_SQL =
+            "UPDATE webhook_inbox SET status = :processing, locked_until = :lockedUntil, attempts = attempts + 1 " +
+                    "WHERE id = ANY(:ids)";
+
+    private static final String MARK_DONE_SQL =
+            "UPDATE webhook_inbox SET status = :status, locked_until = NULL, processed_at = :now WHERE id = :id";
+
+    private static final String RELEASE_SQL =
+            "UPDATE webhook_inbox SET status = :status, locked_until = NULL, last_error = :lastError, next_attempt_at = :nextAttemptAt WHERE id = :id";
+
+    private static final String MARK_FAILED_SQL =
+            "UPDATE webhook_inbox SET status = :status, locked_until = NULL, last_error = :lastError, processed_at = :now WHERE id = :id";
+
+    private static final String COUNT_BY_STATUS_SQL =
+            "SELECT COUNT(*) FROM webhook_inbox WHERE status = :status";
+
+    private static final String DELETE_DONE_SQL =
+            "DELETE FROM webhook_inbox WHERE status = :status AND processed_at < :processedBefore";
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public WebhookInboxDao(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    public void insert(String payload) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("payload", payload)
+                .addValue("status", WebhookInboxStatusEnum.PENDING.getValue())
+                .addValue("receivedAt", new Timestamp(System.currentTimeMillis()));
+
+        jdbc.update(INSERT_SQL, params);
+    }
+
+    /**
+     * Locks up to {@code limit} open rows that no other worker holds, marks them as processing for
+     * {@code leaseMillis} and returns them. Must run in a transaction, otherwise the row locks are released
+     * before the rows are marked.
+     */
+    public List<WebhookInboxDTO> claim(int limit, long leaseMillis) {
+        long now = System.currentTimeMillis();
+
+        MapSqlParameterSource selectParams = new MapSqlParameterSource()
+                .addValue("pending", WebhookInboxStatusEnum.PENDING.getValue())
+                .addValue("processing", WebhookInboxStatusEnum.PROCESSING.getValue())
+                .addValue("now", new Timestamp(now))
+                .addValue("limit", limit);
+
+        List<WebhookInboxDTO> entries = jdbc.query(SELECT_CLAIMABLE_SQL, selectParams, webhookInboxRowMapper());
+        if (entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Long[] ids = new Long[entries.size()];
+        Timestamp lockedUntil = new Timestamp(now + leaseMillis);
+        for (int i = 0; i < entries.size(); i++) {
+            WebhookInboxDTO entry = entries.get(i);
+            ids[i] = entry.getId();
+            entry.setStatus(WebhookInboxStatusEnum.PROCESSING);
+            entry.setLockedUntil(lockedUntil);
+            entry.setAttempts(entry.getAttempts() + 1);
+        }
+
+        MapSqlParameterSource claimParams = new MapSqlParameterSource()
+                .addValue("processing", WebhookInboxStatusEnum.PROCESSING.getValue())
+                .addValue("lockedUntil", lockedUntil)
+                .addValue("ids", ids);
+
+        jdbc.update(CLAIM_SQL, claimParams);
+        return entries;
+    }
+
+    public void markDone(Long id) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("status", WebhookInboxStatusEnum.DONE.getValue())
+                .addValue("now", new Timestamp(System.currentTimeMillis()))
+                .addValue("id", id);
+
+        jdbc.update(MARK_DONE_SQL, params);
+    }
+
+    /**
+     * Puts a claimed row back to pending, so any worker can pick it up again from {@code nextAttemptAt} on.
+     */
+    public void release(Long id, String lastError, Timestamp nextAttemptAt) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("status", WebhookInboxStatusEnum.PENDING.getValue())
+                .addValue("lastError", lastError)
+                .addValue("nextAttemptAt", nextAttemptAt)
+                .addValue("id", id);
+
+        jdbc.update(RELEASE_SQL, params);
+    }
+
+    public void markFailed(Long id, String lastError) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("status", WebhookInboxStatusEnum.FAILED.getValue())
+                .addValue("lastError", lastError)
+                .addValue("now", new Timestamp(System.currentTimeMillis()))
+                .addValue("id", id);
+
+        jdbc.update(MARK_FAILED_SQL, params);
+    }
+
+    public long countByStatus(WebhookInboxStatusEnum status) {
+        Long count = jdbc.queryForObject(COUNT_BY_STATUS_SQL, new MapSqlParameterSource("status", status.getValue()), Long.class);
+        return count != null ? count : 0;
+    }
+
+    public int deleteDoneBefore(Timestamp processedBefore) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("status", WebhookInboxStatusEnum.DONE.getValue())
+                .addValue("processedBefore", processedBefore);
+
+        return jdbc.update(DELETE_DONE_SQL, params);
+    }
+
+    private RowMapper<WebhookInboxDTO> webhookInboxRowMapper() {
+        return (rs, rowNum) -> {
+            WebhookInboxDTO dto = new WebhookInboxDTO();
+            dto.setId(rs.getLong("id"));
+            dto.setPayload(rs.getString("payload"));
+            dto.setStatus(WebhookInboxStatusEnum.fromValue(rs.getString("status")));
+            dto.setAttempts(rs.getInt("attempts"));
+            dto.setLockedUntil(rs.getTimestamp("locked_until"));
+            dto.setLastError(rs.getString("last_error"));
+            dto.setReceivedAt(rs.getTimestamp("received_at"));
+            dto.setProcessedAt(rs.getTimestamp("processed_at"));
+            dto.setNextAttemptAt(rs.getTimestamp("next_attempt_at"));
+            return dto;
+        };
+    }
+}
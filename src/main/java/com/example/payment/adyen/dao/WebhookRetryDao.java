@@ -0,0 +1,245 @@
+package com.example.payment.adyen.dao;
+
+import com.example.payment.adyen.dto.WebhookRetryDTO;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WebhookRetryDao {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO webhook_retry (psp_reference, event_code, notification, attempts, next_attempt_at, last_error, created_at) " +
+                    "VALUES (:pspReference, :eventCode, :notification, :attempts, :nextAttemptAt, :lastError, :createdAt)";
+
+    private static final String SELECT_NEXT_ATTEMPT_AT_SQL =
+            "SELECT psp_reference, MAX(next_attempt_at) AS next_attempt_at FROM webhook_retry " +
+                    "WHERE psp_reference IN (:pspReferences) GROUP BY psp_reference";
+
+    private static final String SELECT_DUE_BY_IDS_SQL =
+            "SELECT * FROM webhook_retry WHERE id IN (:ids) AND next_attempt_at <= :now ORDER BY id FOR UPDATE SKIP LOCKED";
+
+    private static final String SELECT_DUE_SQL =
+            "SELECT * FROM webhook_retry WHERE next_attempt_at <= :now ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED";
+
+    // A claimed row is not due again until the lease expires, so no other instance picks it up meanwhile
+    private static final String LEASE_SQL =
+            "UPDATE webhook_retry SET next_attempt_at = :lockedUntil WHERE id IN (:ids)";
+
+    private static final String RESCHEDULE_SQL =
+            "UPDATE webhook_retry SET attempts = :attempts, next_attempt_at = :nextAttemptAt, last_error = :lastError WHERE id = :id";
+
+    private static final String DELETE_SQL =
+            "DELETE FROM webhook_retry WHERE id = :id";
+
+    private static final String INSERT_DEAD_LETTER_SQL =
+            "INSERT INTO webhook_dead_letter (psp_reference, event_code, notification, attempts, last_error, created_at, failed_at) " +
+                    "SELECT psp_reference, event_code, notification, :attempts, :lastError, created_at, :now FROM webhook_retry WHERE id = :id";
+
+    private static final String SELECT_DEAD_LETTER_IDS_SQL =
+            "SELECT id FROM webhook_dead_letter ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED";
+
+    // Attempts start again from 0, the last error stays for reference until the next failure
+    private static final String REPLAY_DEAD_LETTERS_SQL =
+            "INSERT INTO webhook_retry (psp_reference, event_code, notification, attempts, next_attempt_at, last_error, created_at) " +
+                    "SELECT psp_reference, event_code, notification, 0, :now, last_error, created_at FROM webhook_dead_letter " +
+                    "WHERE id IN (:ids) ORDER BY id";
+
+    private static final String DELETE_DEAD_LETTERS_SQL =
+            "DELETE FROM webhook_dead_letter WHERE id IN (:ids)";
+
+    private static final String COUNT_RETRIES_SQL =
+            "SELECT COUNT(*) FROM webhook_retry";
+
+    private static final String COUNT_DEAD_LETTERS_SQL =
+            "SELECT COUNT(*) FROM webhook_dead_letter";
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    private boolean returningSupported = true;
+
+    public WebhookRetryDao(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Postgres supports {@code INSERT ... RETURNING}. Set to false for H2, which gets the inserted
+     * id through {@code SELECT id FROM FINAL TABLE (INSERT ...)} instead.
+     */
+    public void setReturningSupported(boolean returningSupported) {
+        this.returningSupported = returningSupported;
+    }
+
+    /**
+     * Inserts the rows in the given order and sets their ids. Must run in a transaction, so the items
+     * of one payment are stored all or none.
+     */
+    public List<Long> insert(List<WebhookRetryDTO> retries) {
+        String sql = returningSupported
+                ? INSERT_SQL + " RETURNING id"
+                : "SELECT id FROM FINAL TABLE (" + INSERT_SQL + ")";
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Long> ids = new ArrayList<>(retries.size());
+        for (WebhookRetryDTO retry : retries) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("pspReference", retry.getPspReference())
+                    .addValue("eventCode", retry.getEventCode())
+                    .addValue("notification", retry.getNotification())
+                    .addValue("attempts", retry.getAttempts())
+                    .addValue("nextAttemptAt", new Timestamp(retry.getNextAttemptAt().getTime()))
+                    .addValue("lastError", retry.getLastError())
+                    .addValue("createdAt", now);
+
+            Long id = jdbc.queryForObject(sql, params, Long.class);
+            retry.setId(id);
+            retry.setCreatedAt(now);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the latest next_attempt_at of the rows of every given pspReference that has rows.
+     */
+    public Map<String, Timestamp> findNextAttemptAt(Collection<String> pspReferences) {
+        if (pspReferences.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Timestamp> nextAttempts = new HashMap<>();
+        jdbc.query(SELECT_NEXT_ATTEMPT_AT_SQL, new MapSqlParameterSource("pspReferences", pspReferences),
+                (RowCallbackHandler) rs -> nextAttempts.put(rs.getString("psp_reference"), rs.getTimestamp("next_attempt_at")));
+        return nextAttempts;
+    }
+
+    /**
+     * Locks the given rows that are due and no other instance holds, leases them for {@code leaseMillis}
+     * and returns them in id order. Must run in a transaction, like {@link #claimDue}.
+     */
+    public List<WebhookRetryDTO> claim(Collection<Long> ids, long leaseMillis) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        long now = System.currentTimeMillis();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("ids", ids)
+                .addValue("now", new Timestamp(now));
+
+        return lease(jdbc.query(SELECT_DUE_BY_IDS_SQL, params, webhookRetryRowMapper()), now + leaseMillis);
+    }
+
+    /**
+     * Locks up to {@code limit} due rows that no other instance holds, leases them for {@code leaseMillis}
+     * and returns them in id order. Must run in a transaction, otherwise the row locks are released
+     * before the rows are leased.
+     */
+    public List<WebhookRetryDTO> claimDue(int limit, long leaseMillis) {
+        long now = System.currentTimeMillis();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("now", new Timestamp(now))
+                .addValue("limit", limit);
+
+        return lease(jdbc.query(SELECT_DUE_SQL, params, webhookRetryRowMapper()), now + leaseMillis);
+    }
+
+    private List<WebhookRetryDTO> lease(List<WebhookRetryDTO> retries, long lockedUntil) {
+        if (retries.isEmpty()) {
+            return retries;
+        }
+
+        List<Long> ids = new ArrayList<>(retries.size());
+        for (WebhookRetryDTO retry : retries) {
+            ids.add(retry.getId());
+            retry.setNextAttemptAt(new Timestamp(lockedUntil));
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("lockedUntil", new Timestamp(lockedUntil))
+                .addValue("ids", ids);
+
+        jdbc.update(LEASE_SQL, params);
+        return retries;
+    }
+
+    public void reschedule(Long id, int attempts, Timestamp nextAttemptAt, String lastError) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("attempts", attempts)
+                .addValue("nextAttemptAt", nextAttemptAt)
+                .addValue("lastError", lastError)
+                .addValue("id", id);
+
+        jdbc.update(RESCHEDULE_SQL, params);
+    }
+
+    public void delete(Long id) {
+        jdbc.update(DELETE_SQL, new MapSqlParameterSource("id", id));
+    }
+
+    /**
+     * Moves a row to webhook_dead_letter. Must run in a transaction.
+     */
+    public void moveToDeadLetter(Long id, int attempts, String lastError) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("attempts", attempts)
+                .addValue("lastError", lastError)
+                .addValue("now", new Timestamp(System.currentTimeMillis()))
+                .addValue("id", id);
+
+        jdbc.update(INSERT_DEAD_LETTER_SQL, params);
+        jdbc.update(DELETE_SQL, params);
+    }
+
+    /**
+     * Moves up to {@code limit} of the oldest dead letters back to webhook_retry, due right away, and
+     * returns how many were moved. Must run in a transaction.
+     */
+    public int replayDeadLetters(int limit) {
+        List<Long> ids = jdbc.queryForList(SELECT_DEAD_LETTER_IDS_SQL, new MapSqlParameterSource("limit", limit), Long.class);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("now", new Timestamp(System.currentTimeMillis()))
+                .addValue("ids", ids);
+
+        jdbc.update(REPLAY_DEAD_LETTERS_SQL, params);
+        jdbc.update(DELETE_DEAD_LETTERS_SQL, params);
+        return ids.size();
+    }
+
+    public long countRetries() {
+        Long count = jdbc.queryForObject(COUNT_RETRIES_SQL, new MapSqlParameterSource(), Long.class);
+        return count != null ? count : 0;
+    }
+
+    public long countDeadLetters() {
+        Long count = jdbc.queryForObject(COUNT_DEAD_LETTERS_SQL, new MapSqlParameterSource(), Long.class);
+        return count != null ? count : 0;
+    }
+
+    private RowMapper<WebhookRetryDTO> webhookRetryRowMapper() {
+        return (rs, rowNum) -> {
+            WebhookRetryDTO dto = new WebhookRetryDTO();
+            dto.setId(rs.getLong("id"));
+            dto.setPspReference(rs.getString("psp_reference"));
+            dto.setEventCode(rs.getString("event_code"));
+            dto.setNotification(rs.getString("notification"));
+            dto.setAttempts(rs.getInt("attempts"));
+            dto.setNextAttemptAt(rs.getTimestamp("next_attempt_at"));
+            dto.setLastError(rs.getString("last_error"));
+            dto.setCreatedAt(rs.getTimestamp("created_at"));
+            return dto;
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.payment.adyen.dto;
+
+import com.adyen.model.notification.NotificationRequestItem;
+
+/**
+ * Notification item together with its JSON exactly as Adyen sent it.
+ */
+public class NotificationItemDTO {
+    private NotificationRequestItem item;
+    private String rawNotification;
+
+    public NotificationItemDTO() {
+    }
+
+    public NotificationItemDTO(NotificationRequestItem item, String rawNotification) {
+        this.item = item;
+        this.rawNotification = rawNotification;
+    }
+
+    public NotificationRequestItem getItem() {
+        return item;
+    }
+
+    public void setItem(NotificationRequestItem item) {
+        this.item = item;
+    }
+
+    public String getRawNotification() {
+        return rawNotification;
+    }
+
+    public void setRawNotification(String rawNotification) {
+        this.rawNotification = rawNotification;
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.payment.adyen.dto;
+
+import java.util.List;
+
+public class PaymentBatchRequestDTO {
+    // Sub-payments of the batch, each one like a /pay request
+    private List<PaymentRequestDTO> payments;
+
+    // Getters & Setters
+    public List<PaymentRequestDTO> getPayments() { return payments; }
+    public void setPayments(List<PaymentRequestDTO> payments) { this.payments = payments; }
+}
@@ -8,7 +8,8 @@ public class PaymentDTO {
     private Long id;
     private String merchantReference;
     private String pspReference;
-    private Double amount;
+    // Minor units of currency, e.g. cents
+    private long amount;
     private String currency;
     private String reference;
     private String paymentMethod;
@@ -28,8 +29,8 @@ public class PaymentDTO {
     public String getPspReference() { return pspReference; }
     public void setPspReference(String pspReference) { this.pspReference = pspReference; }
 
-    public Double getAmount() { return amount; }
-    public void setAmount(Double amount) { this.amount = amount; }
+    public long getAmount() { return amount; }
+    public void setAmount(long amount) { this.amount = amount; }
 
     public String getCurrency() { return currency; }
     public void setCurrency(String currency) { this.currency = currency; }
@@ -0,0 +1,27 @@
+package com.example.payment.adyen.dto;
+
+import com.example.payment.helper.PaymentStatusEnum;
+
+import java.time.LocalDateTime;
+
+public class PaymentExportFilterDTO {
+    private PaymentStatusEnum status;
+    private String currency;
+    // create_at >= createdFrom
+    private LocalDateTime createdFrom;
+    // create_at < createdTo
+    private LocalDateTime createdTo;
+
+    // Getters & Setters
+    public PaymentStatusEnum getStatus() { return status; }
+    public void setStatus(PaymentStatusEnum status) { this.status = status; }
+
+    public String getCurrency() { return currency; }
+    public void setCurrency(String currency) { this.currency = currency; }
+
+    public LocalDateTime getCreatedFrom() { return createdFrom; }
+    public void setCreatedFrom(LocalDateTime createdFrom) { this.createdFrom = createdFrom; }
+
+    public LocalDateTime getCreatedTo() { return createdTo; }
+    public void setCreatedTo(LocalDateTime createdTo) { this.createdTo = createdTo; }
+}
@@ -0,0 +1,50 @@
+package com.example.payment.adyen.dto;
+
+import com.example.payment.helper.PaymentIdempotencyStatusEnum;
+
+import java.util.Date;
+
+public class PaymentIdempotencyDTO {
+    private String idempotencyKey;
+    private String requestFingerprint;
+    private Long paymentId;
+    private PaymentIdempotencyStatusEnum status;
+    private Integer responseStatus;
+    private String responseBody;
+    private Date lockedUntil;
+    private Date createdAt;
+    private Date updatedAt;
+    // Not stored, true if this request holds the key and has to process the payment
+    private boolean claimed;
+
+    // Getters & Setters
+    public String getIdempotencyKey() { return idempotencyKey; }
+    public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+
+    public String getRequestFingerprint() { return requestFingerprint; }
+    public void setRequestFingerprint(String requestFingerprint) { this.requestFingerprint = requestFingerprint; }
+
+    public Long getPaymentId() { return paymentId; }
+    public void setPaymentId(Long paymentId) { this.paymentId = paymentId; }
+
+    public PaymentIdempotencyStatusEnum getStatus() { return status; }
+    public void setStatus(PaymentIdempotencyStatusEnum status) { this.status = status; }
+
+    public Integer getResponseStatus() { return responseStatus; }
+    public void setResponseStatus(Integer responseStatus) { this.responseStatus = responseStatus; }
+
+    public String getResponseBody() { return responseBody; }
+    public void setResponseBody(String responseBody) { this.responseBody = responseBody; }
+
+    public Date getLockedUntil() { return lockedUntil; }
+    public void setLockedUntil(Date lockedUntil) { this.lockedUntil = lockedUntil; }
+
+    public Date getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Date createdAt) { this.createdAt = createdAt; }
+
+    public Date getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Date updatedAt) { this.updatedAt = updatedAt; }
+
+    public boolean isClaimed() { return claimed; }
+    public void setClaimed(boolean claimed) { this.claimed = claimed; }
+}
@@ -0,0 +1,42 @@
+package com.example.payment.adyen.dto;
+
+public class PaymentStatusDTO {
+    private Long id;
+    private String reference;
+    // Status value as stored, e.g. Pending
+    private String status;
+    private String authCode;
+    private String failureMessage;
+    // True for Success and Failed
+    private boolean completed;
+
+    public static PaymentStatusDTO of(PaymentDTO payment) {
+        PaymentStatusDTO status = new PaymentStatusDTO();
+        status.setId(payment.getId());
+        status.setReference(payment.getReference());
+        status.setStatus(payment.getStatus() != null ? payment.getStatus().getValue() : null);
+        status.setAuthCode(payment.getAuthCode());
+        status.setFailureMessage(payment.getFailureMessage());
+        status.setCompleted(payment.getStatus() != null && payment.getStatus().isFinal());
+        return status;
+    }
+
+    // Getters & Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getReference() { return reference; }
+    public void setReference(String reference) { this.reference = reference; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getAuthCode() { return authCode; }
+    public void setAuthCode(String authCode) { this.authCode = authCode; }
+
+    public String getFailureMessage() { return failureMessage; }
+    public void setFailureMessage(String failureMessage) { this.failureMessage = failureMessage; }
+
+    public boolean isCompleted() { return completed; }
+    public void setCompleted(boolean completed) { this.completed = completed; }
+}
@@ -0,0 +1,45 @@
+package com.example.payment.adyen.dto;
+
+import com.example.payment.helper.WebhookInboxStatusEnum;
+
+import java.util.Date;
+
+public class WebhookInboxDTO {
+    private Long id;
+    private String payload;
+    private WebhookInboxStatusEnum status;
+    private int attempts;
+    private Date lockedUntil;
+    private String lastError;
+    private Date receivedAt;
+    private Date processedAt;
+    private Date nextAttemptAt;
+
+    // Getters & Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getPayload() { return payload; }
+    public void setPayload(String payload) { this.payload = payload; }
+
+    public WebhookInboxStatusEnum getStatus() { return status; }
+    public void setStatus(WebhookInboxStatusEnum status) { this.status = status; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public Date getLockedUntil() { return lockedUntil; }
+    public void setLockedUntil(Date lockedUntil) { this.lockedUntil = lockedUntil; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public Date getReceivedAt() { return receivedAt; }
+    public void setReceivedAt(Date receivedAt) { this.receivedAt = receivedAt; }
+
+    public Date getProcessedAt() { return processedAt; }
+    public void setProcessedAt(Date processedAt) { this.processedAt = processedAt; }
+
+    public Date getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(Date nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+}
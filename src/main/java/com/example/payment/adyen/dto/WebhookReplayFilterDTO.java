@@ -0,0 +1,27 @@
+package com.example.payment.adyen.dto;
+
+import java.time.LocalDateTime;
+
+public class WebhookReplayFilterDTO {
+    // received_at >= receivedFrom
+    private LocalDateTime receivedFrom;
+    // received_at < receivedTo
+    private LocalDateTime receivedTo;
+    // payment_id >= paymentIdFrom
+    private Long paymentIdFrom;
+    // payment_id <= paymentIdTo
+    private Long paymentIdTo;
+
+    // Getters & Setters
+    public LocalDateTime getReceivedFrom() { return receivedFrom; }
+    public void setReceivedFrom(LocalDateTime receivedFrom) { this.receivedFrom = receivedFrom; }
+
+    public LocalDateTime getReceivedTo() { return receivedTo; }
+    public void setReceivedTo(LocalDateTime receivedTo) { this.receivedTo = receivedTo; }
+
+    public Long getPaymentIdFrom() { return paymentIdFrom; }
+    public void setPaymentIdFrom(Long paymentIdFrom) { this.paymentIdFrom = paymentIdFrom; }
+
+    public Long getPaymentIdTo() { return paymentIdTo; }
+    public void setPaymentIdTo(Long paymentIdTo) { this.paymentIdTo = paymentIdTo; }
+}
@@ -0,0 +1,54 @@
+package com.example.payment.adyen.dto;
+
+import com.example.payment.helper.WebhookReplayStatusEnum;
+
+import java.util.Date;
+
+public class WebhookReplayProgressDTO {
+    private WebhookReplayStatusEnum status;
+    private boolean dryRun;
+    private int maxPerSecond;
+    private Date startedAt;
+    private Date finishedAt;
+    // Highest payment_webhook id read so far
+    private long lastId;
+    private long read;
+    private long applied;
+    private long skipped;
+    private long failed;
+    private String error;
+
+    // Getters & Setters
+    public WebhookReplayStatusEnum getStatus() { return status; }
+    public void setStatus(WebhookReplayStatusEnum status) { this.status = status; }
+
+    public boolean isDryRun() { return dryRun; }
+    public void setDryRun(boolean dryRun) { this.dryRun = dryRun; }
+
+    public int getMaxPerSecond() { return maxPerSecond; }
+    public void setMaxPerSecond(int maxPerSecond) { this.maxPerSecond = maxPerSecond; }
+
+    public Date getStartedAt() { return startedAt; }
+    public void setStartedAt(Date startedAt) { this.startedAt = startedAt; }
+
+    public Date getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(Date finishedAt) { this.finishedAt = finishedAt; }
+
+    public long getLastId() { return lastId; }
+    public void setLastId(long lastId) { this.lastId = lastId; }
+
+    public long getRead() { return read; }
+    public void setRead(long read) { this.read = read; }
+
+    public long getApplied() { return applied; }
+    public void setApplied(long applied) { this.applied = applied; }
+
+    public long getSkipped() { return skipped; }
+    public void setSkipped(long skipped) { this.skipped = skipped; }
+
+    public long getFailed() { return failed; }
+    public void setFailed(long failed) { this.failed = failed; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
@@ -0,0 +1,35 @@
+package com.example.payment.adyen.dto;
+
+import com.adyen.model.notification.NotificationRequest;
+
+/**
+ * Parsed webhook request together with its body as received, which is stored in the inbox.
+ */
+public class WebhookRequestDTO {
+    private String payload;
+    private NotificationRequest notificationRequest;
+
+    public WebhookRequestDTO() {
+    }
+
+    public WebhookRequestDTO(String payload, NotificationRequest notificationRequest) {
+        this.payload = payload;
+        this.notificationRequest = notificationRequest;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public NotificationRequest getNotificationRequest() {
+        return notificationRequest;
+    }
+
+    public void setNotificationRequest(NotificationRequest notificationRequest) {
+        this.notificationRequest = notificationRequest;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.payment.adyen.dto;
+
+import java.util.Date;
+
+public class WebhookRetryDTO {
+    private Long id;
+    private String pspReference;
+    private String eventCode;
+    private String notification;
+    private int attempts;
+    private Date nextAttemptAt;
+    private String lastError;
+    private Date createdAt;
+
+    // Getters & Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getPspReference() { return pspReference; }
+    public void setPspReference(String pspReference) { this.pspReference = pspReference; }
+
+    public String getEventCode() { return eventCode; }
+    public void setEventCode(String eventCode) { this.eventCode = eventCode; }
+
+    public String getNotification() { return notification; }
+    public void setNotification(String notification) { this.notification = notification; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public Date getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(Date nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public Date getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Date createdAt) { this.createdAt = createdAt; }
+}
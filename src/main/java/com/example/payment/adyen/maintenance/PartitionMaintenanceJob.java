@@ -0,0 +1,122 @@
+package com.example.payment.adyen.maintenance;
+
+import com.example.payment.adyen.dao.PartitionDao;
+import com.example.payment.adyen.dao.PaymentIdempotencyDao;
+import com.example.payment.adyen.dao.PaymentWebhookDao;
+import com.example.payment.logging.MyLogger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps monthly partitions of payment_webhook created ahead of time and moves partitions
+ * older than the retention period to the archive schema. Also deletes webhook dedupe keys older than the
+ * redelivery window and stored /pay outcomes older than their retention. Runs on startup and then on schedule.
+ */
+public class PartitionMaintenanceJob {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(PartitionMaintenanceJob.class));
+
+    private final PartitionDao partitionDao;
+    private final int monthsAhead;
+    private final int retentionMonths;
+
+    private PaymentWebhookDao paymentWebhookDao;
+    private int webhookKeyRetentionDays = 0;
+
+    private PaymentIdempotencyDao paymentIdempotencyDao;
+    private int paymentIdempotencyRetentionDays = 0;
+
+    public PartitionMaintenanceJob(PartitionDao partitionDao, int monthsAhead, int retentionMonths) {
+        this.partitionDao = partitionDao;
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+    }
+
+    public void setPaymentWebhookDao(PaymentWebhookDao paymentWebhookDao) {
+        this.paymentWebhookDao = paymentWebhookDao;
+    }
+
+    /**
+     * How long keys in payment_webhook_key are kept, must cover Adyen's redelivery window. 0 or less keeps all.
+     */
+    public void setWebhookKeyRetentionDays(int webhookKeyRetentionDays) {
+        this.webhookKeyRetentionDays = webhookKeyRetentionDays;
+    }
+
+    public void setPaymentIdempotencyDao(PaymentIdempotencyDao paymentIdempotencyDao) {
+        this.paymentIdempotencyDao = paymentIdempotencyDao;
+    }
+
+    /**
+     * How long /pay outcomes in payment_idempotency are kept, must cover client retries. 0 or less keeps all.
+     */
+    public void setPaymentIdempotencyRetentionDays(int paymentIdempotencyRetentionDays) {
+        this.paymentIdempotencyRetentionDays = paymentIdempotencyRetentionDays;
+    }
+
+    public void run() {
+        maintainPartitions();
+        purgeWebhookKeys();
+        purgePaymentIdempotency();
+    }
+
+    private void maintainPartitions() {
+        try {
+            List<String> created = partitionDao.createMonthlyPartitions(monthsAhead);
+            if (!created.isEmpty()) {
+                logger.info("Created partitions.", created);
+            }
+        } catch (Exception e) {
+            logger.error("Error on creating partitions: " + e.getMessage());
+        }
+
+        // 0 or less keeps every partition attached
+        if (retentionMonths <= 0) {
+            return;
+        }
+
+        try {
+            List<String> archived = partitionDao.archivePartitions(retentionMonths);
+            if (!archived.isEmpty()) {
+                logger.info("Detached partitions to archive schema.", archived);
+            }
+        } catch (Exception e) {
+            logger.error("Error on archiving partitions: " + e.getMessage());
+        }
+    }
+
+    private void purgeWebhookKeys() {
+        if (paymentWebhookDao == null || webhookKeyRetentionDays <= 0) {
+            return;
+        }
+
+        try {
+            long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(webhookKeyRetentionDays);
+            int deleted = paymentWebhookDao.deleteKeysReceivedBefore(new Timestamp(cutoff));
+            if (deleted > 0) {
+                logger.info(String.format("Deleted %d webhook keys.", deleted));
+            }
+        } catch (Exception e) {
+            logger.error("Error on deleting webhook keys: " + e.getMessage());
+        }
+    }
+
+    private void purgePaymentIdempotency() {
+        if (paymentIdempotencyDao == null || paymentIdempotencyRetentionDays <= 0) {
+            return;
+        }
+
+        try {
+            long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(paymentIdempotencyRetentionDays);
+            int deleted = paymentIdempotencyDao.deleteCreatedBefore(new Timestamp(cutoff));
+            if (deleted > 0) {
+                logger.info(String.format("Deleted %d payment idempotency keys.", deleted));
+            }
+        } catch (Exception e) {
+            logger.error("Error on deleting payment idempotency keys: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.payment.adyen.service;
+
+import com.example.payment.adyen.dao.PaymentExportDao;
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentExportFilterDTO;
+import com.example.payment.helper.PaymentExportFormatEnum;
+import com.example.payment.logging.MyLogger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+public class PaymentExportService {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(PaymentExportService.class));
+
+    private static final String CSV_HEADER = "id,merchant_reference,psp_reference,amount,currency,reference," +
+            "payment_method,status,auth_code,failure_message,create_at,update_at";
+
+    private final PaymentExportDao paymentExportDao;
+    private final ObjectMapper objectMapper;
+
+    private int pageSize = 1000;
+    private long timeoutMillis = 3600000;
+
+    public PaymentExportService(PaymentExportDao paymentExportDao) {
+        this.paymentExportDao = paymentExportDao;
+
+        // ISO-8601 UTC dates and status values as stored, same as in CSV
+        this.objectMapper = new ObjectMapper()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .enable(SerializationFeature.WRITE_ENUMS_USING_TO_STRING)
+                .setDateFormat(isoDateFormat());
+    }
+
+    /**
+     * Number of payments read per keyset page. Every page is a separate short query, so no transaction or
+     * cursor stays open for the whole export.
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Async request timeout of an export, exports take far longer than other async requests.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("Export timeout must be greater then 0");
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Writes all payments matching the filter to the output stream in id order, flushing after every page.
+     * Returns the number of exported payments.
+     */
+    public long export(PaymentExportFilterDTO filter, PaymentExportFormatEnum format, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        SimpleDateFormat dateFormat = isoDateFormat();
+
+        if (format == PaymentExportFormatEnum.CSV) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+
+        long exported = 0;
+        long[] lastId = {0};
+        int read;
+        try {
+            do {
+                read = paymentExportDao.streamPage(filter, lastId[0], pageSize, payment -> {
+                    writePayment(writer, format, dateFormat, payment);
+                    lastId[0] = payment.getId();
+                });
+                exported += read;
+                writer.flush();
+            } while (read == pageSize);
+        } catch (UncheckedIOException e) {
+            // Client closed the connection, the cause is what the caller needs to see
+            throw e.getCause();
+        }
+
+        logger.info("Exported " + exported + " payments as " + format);
+        return exported;
+    }
+
+    private void writePayment(Writer writer, PaymentExportFormatEnum format, SimpleDateFormat dateFormat, PaymentDTO payment) {
+        try {
+            if (format == PaymentExportFormatEnum.CSV) {
+                writer.write(toCsvLine(payment, dateFormat));
+            } else {
+                writer.write(objectMapper.writeValueAsString(payment));
+            }
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String toCsvLine(PaymentDTO payment, SimpleDateFormat dateFormat) {
+        return String.join(",",
+                String.valueOf(payment.getId()),
+                csvValue(payment.getMerchantReference()),
+                csvValue(payment.getPspReference()),
+                String.valueOf(payment.getAmount()),
+                csvValue(payment.getCurrency()),
+                csvValue(payment.getReference()),
+                csvValue(payment.getPaymentMethod()),
+                payment.getStatus() != null ? csvValue(payment.getStatus().getValue()) : "",
+                csvValue(payment.getAuthCode()),
+                csvValue(payment.getFailureMessage()),
+                csvDate(payment.getCreateAt(), dateFormat),
+                csvDate(payment.getUpdateAt(), dateFormat));
+    }
+
+    private String csvDate(Date date, SimpleDateFormat dateFormat) {
+        return date != null ? dateFormat.format(date) : "";
+    }
+
+    // RFC 4180: quote values containing a separator, quote or line break and double the quotes inside
+    private String csvValue(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value;
+    }
+
+    private static SimpleDateFormat isoDateFormat() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+}
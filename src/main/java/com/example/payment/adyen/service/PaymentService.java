@@ -7,15 +7,21 @@ import com.adyen.model.notification.NotificationRequest;
 import com.adyen.model.notification.NotificationRequestItem;
 import com.adyen.service.checkout.PaymentsApi;
 import com.adyen.service.exception.ApiException;
-import com.adyen.util.HMACValidator;
+import com.example.payment.adyen.cache.PaymentIdempotencyCache;
+import com.example.payment.adyen.client.AdyenCallGuard;
 import com.example.payment.adyen.dao.PaymentDao;
+import com.example.payment.adyen.dao.PaymentIdempotencyDao;
 import com.example.payment.adyen.dao.PaymentWebhookDao;
+import com.example.payment.adyen.dto.NotificationItemDTO;
 import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentIdempotencyDTO;
 import com.example.payment.adyen.dto.PaymentRequestDTO;
 import com.example.payment.adyen.dto.PaymentWebhookDTO;
+import com.example.payment.adyen.validator.WebhookHmacVerifier;
 import com.example.payment.adyen.validator.WebhookValidator;
 import com.example.payment.config.AdyenConfig;
 import com.example.payment.exceptions.PaymentNotFoundException;
+import com.example.payment.helper.PaymentIdempotencyStatusEnum;
 import com.example.payment.helper.PaymentMethodHelper;
 import com.example.payment.helper.PaymentStatusEnum;
 import com.example.payment.logging.MyLogger;
@@ -23,23 +29,44 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpHeaders;
 
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 public class PaymentService {
 
     private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(PaymentService.class));
+    private static final ObjectMapper objectMapper = new ObjectMapper();
 
     private final PaymentsApi paymentsApi;
     private final AdyenConfig adyenConfig;
     private final PaymentDao paymentDao;
     private final PaymentWebhookDao paymentWebhookDao;
 
-    private HMACValidator hmacValidator;
+    private WebhookHmacVerifier hmacVerifier;
+    private AdyenCallGuard adyenCallGuard;
+
+    private Executor ioExecutor = Runnable::run;
+    private boolean asyncEnabled;
+    private long apiTimeoutMillis;
+
+    private PaymentIdempotencyDao paymentIdempotencyDao;
+    private PaymentIdempotencyCache paymentIdempotencyCache;
+    private long idempotencyLeaseMillis = 60000;
+
+    private int batchMaxConcurrency = 10;
 
     public PaymentService(PaymentsApi paymentsApi, AdyenConfig adyenConfig, PaymentDao paymentDao, PaymentWebhookDao paymentWebhookDao) {
         this.paymentsApi = paymentsApi;
@@ -48,16 +75,367 @@ public class PaymentService {
         this.paymentWebhookDao = paymentWebhookDao;
     }
 
-    public void setHmacValidator(HMACValidator hmacValidator) {
-        this.hmacValidator = hmacValidator;
+    public void setHmacVerifier(WebhookHmacVerifier hmacVerifier) {
+        this.hmacVerifier = hmacVerifier;
     }
 
-    public PaymentResponse makePayment(PaymentDTO payment, Object paymentDetails, String amount, String currency, String referenceNumber, String returnUrl) throws IOException, ApiException {
-        PaymentRequest paymentRequest = new PaymentRequest();
+    /**
+     * Bulkhead and circuit breaker for the PaymentsApi calls, without it every call is sent.
+     */
+    public void setAdyenCallGuard(AdyenCallGuard adyenCallGuard) {
+        this.adyenCallGuard = adyenCallGuard;
+    }
+
+    /**
+     * Executor for the blocking steps of a payment (insert, Adyen call, status update) in async mode.
+     */
+    public void setIoExecutor(Executor ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Executor for blocking stages that depend on the *Async futures, the I/O executor in async mode, otherwise
+     * the calling thread. A timed out future completes on the JDK timer thread, which must not block.
+     */
+    public Executor getIoExecutor() {
+        return asyncEnabled ? ioExecutor : Runnable::run;
+    }
+
+    /**
+     * In async mode the *Async methods run on the I/O executor, otherwise on the calling thread.
+     */
+    public void setAsyncEnabled(boolean asyncEnabled) {
+        this.asyncEnabled = asyncEnabled;
+    }
+
+    /**
+     * Time an async Adyen call may take, including the wait for an executor thread. 0 for no limit.
+     */
+    public void setApiTimeoutMillis(long apiTimeoutMillis) {
+        if (apiTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Api timeout must not be negative");
+        }
+        this.apiTimeoutMillis = apiTimeoutMillis;
+    }
+
+    /**
+     * Stores /pay outcomes by idempotency key, without it every /pay is processed.
+     */
+    public void setPaymentIdempotencyDao(PaymentIdempotencyDao paymentIdempotencyDao) {
+        this.paymentIdempotencyDao = paymentIdempotencyDao;
+    }
+
+    public void setPaymentIdempotencyCache(PaymentIdempotencyCache paymentIdempotencyCache) {
+        this.paymentIdempotencyCache = paymentIdempotencyCache;
+    }
+
+    /**
+     * How long a /pay request holds its idempotency key, keep it above the api timeout. A request that
+     * did not finish by then (e.g. crashed instance) is taken over by the next retry.
+     */
+    public void setIdempotencyLeaseMillis(long idempotencyLeaseMillis) {
+        this.idempotencyLeaseMillis = idempotencyLeaseMillis;
+    }
+
+    /**
+     * Adyen calls of one /pay/batch request running at a time, see {@link #runBatchAsync}.
+     */
+    public void setBatchMaxConcurrency(int batchMaxConcurrency) {
+        if (batchMaxConcurrency < 1) {
+            throw new IllegalArgumentException("Batch max concurrency must be greater then 0");
+        }
+        this.batchMaxConcurrency = batchMaxConcurrency;
+    }
+
+    /**
+     * Idempotency key of a payment, the same for every retry of the same reference number.
+     */
+    public String getPaymentIdempotencyKey(String referenceNumber) {
+        return nameKey("payment", adyenConfig.getMerchantAccount(), referenceNumber);
+    }
+
+    /**
+     * Fingerprint of the fields sent to Adyen, a retry with the same reference number but a different
+     * fingerprint is a different payment.
+     */
+    public String getPaymentRequestFingerprint(PaymentRequestDTO paymentRequestDTO, String paymentType) {
+        long amount = PaymentMethodHelper.toMinorUnits(paymentRequestDTO.getAmount(), paymentRequestDTO.getCurrency());
+        return nameKey(String.valueOf(amount), paymentRequestDTO.getCurrency(), paymentType, paymentRequestDTO.getReturnURL());
+    }
+
+    /**
+     * Claims the idempotency key of a payment. A completed outcome is served from the cache without a
+     * database round trip, see {@link PaymentIdempotencyDao#claim} for the rest.
+     */
+    public CompletableFuture<PaymentIdempotencyDTO> claimPaymentAsync(String idempotencyKey, String requestFingerprint) {
+        if (paymentIdempotencyDao == null) {
+            PaymentIdempotencyDTO idempotency = new PaymentIdempotencyDTO();
+            idempotency.setIdempotencyKey(idempotencyKey);
+            idempotency.setRequestFingerprint(requestFingerprint);
+            idempotency.setStatus(PaymentIdempotencyStatusEnum.PROCESSING);
+            idempotency.setClaimed(true);
+            return CompletableFuture.completedFuture(idempotency);
+        }
+
+        if (paymentIdempotencyCache != null) {
+            Optional<PaymentIdempotencyDTO> cached = paymentIdempotencyCache.get(idempotencyKey);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(cached.get());
+            }
+        }
+
+        return supplyAsync(() -> {
+            PaymentIdempotencyDTO idempotency = paymentIdempotencyDao.claim(idempotencyKey, requestFingerprint, idempotencyLeaseMillis);
+            if (paymentIdempotencyCache != null) {
+                paymentIdempotencyCache.put(idempotency);
+            }
+            return idempotency;
+        }, 0);
+    }
+
+    /**
+     * Inserts the payment of a claimed key, or loads the payment of the earlier attempt the key was taken over
+     * from, so the retry sends the same request to Adyen under the same idempotency key. The insert and storing
+     * its id on the key are two statements, an attempt that failed in between left an unsent payment without
+     * the key knowing it, the retry finds it by reference.
+     */
+    public CompletableFuture<PaymentDTO> createPaymentAsync(PaymentRequestDTO paymentRequestDTO, String paymentType, PaymentIdempotencyDTO idempotency) {
+        return supplyAsync(() -> {
+            if (idempotency.getPaymentId() != null) {
+                PaymentDTO payment = getPaymentByID(idempotency.getPaymentId());
+                if (payment != null) {
+                    logger.info(String.format("Retrying payment %d of idempotency key %s", payment.getId(), idempotency.getIdempotencyKey()));
+                    return payment;
+                }
+            }
+
+            PaymentDTO payment;
+            try {
+                payment = createPayment(paymentRequestDTO, paymentType);
+            } catch (DuplicateKeyException e) {
+                payment = findUnsentPayment(paymentRequestDTO.getReferenceNumber()).orElseThrow(() -> e);
+                logger.info(String.format("Retrying unsent payment %d of idempotency key %s", payment.getId(), idempotency.getIdempotencyKey()));
+            }
+
+            if (paymentIdempotencyDao != null) {
+                paymentIdempotencyDao.updatePaymentId(idempotency.getIdempotencyKey(), payment.getId());
+            }
+            idempotency.setPaymentId(payment.getId());
+            return payment;
+        }, 0);
+    }
+
+    /**
+     * Payment of this merchant account with the reference that was inserted but never sent to Adyen.
+     */
+    private Optional<PaymentDTO> findUnsentPayment(String referenceNumber) {
+        return paymentDao.findByReference(referenceNumber)
+                .filter(payment -> adyenConfig.getMerchantAccount().equals(payment.getMerchantReference()) && isUnsent(payment));
+    }
+
+    private boolean isUnsent(PaymentDTO payment) {
+        return payment.getStatus() == PaymentStatusEnum.INITIATED;
+    }
+
+    // Payments of this merchant account by reference, for the keys that do not know their payment yet
+    private Map<String, PaymentDTO> findPaymentsOfUnknownKeys(List<PaymentRequestDTO> paymentRequestDTOs, List<PaymentIdempotencyDTO> idempotencies) {
+        List<String> references = new ArrayList<>();
+        for (int i = 0; i < paymentRequestDTOs.size(); i++) {
+            if (idempotencies.get(i).getPaymentId() == null) {
+                references.add(paymentRequestDTOs.get(i).getReferenceNumber());
+            }
+        }
+
+        Map<String, PaymentDTO> payments = new HashMap<>();
+        for (PaymentDTO payment : paymentDao.findByReferences(references)) {
+            if (adyenConfig.getMerchantAccount().equals(payment.getMerchantReference())) {
+                payments.put(payment.getReference(), payment);
+            }
+        }
+        return payments;
+    }
+
+    /**
+     * {@link #createPaymentAsync} for the claimed payments of a batch, the new payments are inserted in one JDBC
+     * batch and their ids stored on the idempotency keys in another. Payments an earlier attempt inserted without
+     * storing their ids are looked up by reference first and reused while unsent. Returns the payments in request
+     * order, {@code null} for a reference that belongs to a payment already sent, only that one fails.
+     */
+    public CompletableFuture<List<PaymentDTO>> createPaymentsAsync(List<PaymentRequestDTO> paymentRequestDTOs, List<String> paymentTypes,
+                                                                  List<PaymentIdempotencyDTO> idempotencies) {
+        return supplyAsync(() -> {
+            List<PaymentDTO> payments = new ArrayList<>(paymentRequestDTOs.size());
+            List<PaymentDTO> newPayments = new ArrayList<>();
+            List<PaymentIdempotencyDTO> newIdempotencies = new ArrayList<>();
+            Map<String, Long> paymentIdsByKey = new LinkedHashMap<>();
+            Map<String, PaymentDTO> existingPayments = findPaymentsOfUnknownKeys(paymentRequestDTOs, idempotencies);
+
+            for (int i = 0; i < paymentRequestDTOs.size(); i++) {
+                PaymentIdempotencyDTO idempotency = idempotencies.get(i);
+                PaymentDTO payment = idempotency.getPaymentId() != null ? getPaymentByID(idempotency.getPaymentId()) : null;
+                PaymentDTO existing = payment == null ? existingPayments.get(paymentRequestDTOs.get(i).getReferenceNumber()) : null;
+                if (payment != null) {
+                    logger.info(String.format("Retrying payment %d of idempotency key %s", payment.getId(), idempotency.getIdempotencyKey()));
+                } else if (existing != null && isUnsent(existing)) {
+                    payment = existing;
+                    idempotency.setPaymentId(payment.getId());
+                    paymentIdsByKey.put(idempotency.getIdempotencyKey(), payment.getId());
+                    logger.info(String.format("Retrying unsent payment %d of idempotency key %s", payment.getId(), idempotency.getIdempotencyKey()));
+                } else if (existing != null) {
+                    logger.error(String.format("Payment %d with reference %s was already sent", existing.getId(), existing.getReference()));
+                } else {
+                    payment = newPayment(paymentRequestDTOs.get(i), paymentTypes.get(i));
+                    newPayments.add(payment);
+                    newIdempotencies.add(idempotency);
+                }
+                payments.add(payment);
+            }
+
+            paymentDao.insertBatch(newPayments);
+
+            for (int i = 0; i < newPayments.size(); i++) {
+                newIdempotencies.get(i).setPaymentId(newPayments.get(i).getId());
+                paymentIdsByKey.put(newIdempotencies.get(i).getIdempotencyKey(), newPayments.get(i).getId());
+            }
+            if (paymentIdempotencyDao != null) {
+                paymentIdempotencyDao.updatePaymentIds(paymentIdsByKey);
+            }
+            return payments;
+        }, 0);
+    }
+
+    /**
+     * Async request timeout of a batch of {@code size} payments: each round of batch max concurrency payments
+     * takes at most the api timeout, one round more covers claims and inserts. -1 (none) without api timeout.
+     */
+    public long getBatchTimeoutMillis(int size) {
+        if (apiTimeoutMillis == 0) {
+            return -1;
+        }
+        long rounds = (size + batchMaxConcurrency - 1) / batchMaxConcurrency;
+        return (rounds + 1) * apiTimeoutMillis;
+    }
+
+    /**
+     * Starts {@code task} for the indexes 0 to {@code size - 1} in order, at most batch max concurrency at a time,
+     * the next one when a running one completes. The returned future completes when all of them did, the tasks
+     * handle their own failures.
+     */
+    public CompletableFuture<Void> runBatchAsync(int size, IntFunction<CompletableFuture<?>> task) {
+        BatchRun batchRun = new BatchRun(size, task);
+        if (size == 0) {
+            batchRun.done.complete(null);
+        }
+        for (int i = 0; i < Math.min(batchMaxConcurrency, size); i++) {
+            runNextBatchTask(batchRun);
+        }
+        return batchRun.done;
+    }
+
+    private void runNextBatchTask(BatchRun batchRun) {
+        int index = batchRun.next.getAndIncrement();
+        if (index >= batchRun.size) {
+            return;
+        }
+
+        CompletableFuture<?> future;
+        try {
+            future = batchRun.task.apply(index);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, error) -> {
+            if (batchRun.remaining.decrementAndGet() == 0) {
+                batchRun.done.complete(null);
+            } else {
+                runNextBatchTask(batchRun);
+            }
+        });
+    }
+
+    /**
+     * Stores the response of a payment, later requests with the same key get it without calling Adyen.
+     */
+    public void completePaymentIdempotency(PaymentIdempotencyDTO idempotency, int responseStatus, String responseBody) {
+        if (paymentIdempotencyDao == null) {
+            return;
+        }
+
+        idempotency.setClaimed(false);
+        if (!paymentIdempotencyDao.complete(idempotency.getIdempotencyKey(), idempotency.getLockedUntil(), responseStatus, responseBody)) {
+            logger.error(String.format("Response of idempotency key %s not stored, its lease ran out and another request took it over.",
+                    idempotency.getIdempotencyKey()));
+            return;
+        }
+        idempotency.setStatus(PaymentIdempotencyStatusEnum.COMPLETED);
+        idempotency.setResponseStatus(responseStatus);
+        idempotency.setResponseBody(responseBody);
+        if (paymentIdempotencyCache != null) {
+            paymentIdempotencyCache.put(idempotency);
+        }
+    }
+
+    /**
+     * Releases the key of a payment without a definite outcome (timeout, Adyen 5xx), the next retry takes it over.
+     */
+    public void releasePaymentIdempotency(PaymentIdempotencyDTO idempotency) {
+        if (paymentIdempotencyDao == null) {
+            return;
+        }
+
+        if (!paymentIdempotencyDao.release(idempotency.getIdempotencyKey(), idempotency.getLockedUntil())) {
+            logger.error(String.format("Idempotency key %s not released, its lease ran out and another request took it over.",
+                    idempotency.getIdempotencyKey()));
+        }
+    }
+
+    /**
+     * {@link #makePayment} on the I/O executor. Fails with a {@link TimeoutException} if Adyen does not answer
+     * within the api timeout, a call still waiting for a thread by then is not sent at all. The timeout fires
+     * on the JDK timer thread even when the I/O executor is saturated, so blocking dependent stages have to run
+     * on {@link #getIoExecutor()}.
+     */
+    public CompletableFuture<PaymentResponse> makePaymentAsync(PaymentDTO payment, Object paymentDetails, String referenceNumber, String returnUrl) {
+        return supplyAsync(() -> makePayment(payment, paymentDetails, referenceNumber, returnUrl), apiTimeoutMillis);
+    }
+
+    private static String nameKey(String... parts) {
+        return UUID.nameUUIDFromBytes(String.join("|", parts).getBytes(StandardCharsets.UTF_8)).toString();
+    }
 
-        long amountInMinorUnits = PaymentMethodHelper.toMinorUnits(Double.parseDouble(amount), currency);
+    private <T> CompletableFuture<T> supplyAsync(Callable<T> call, long timeoutMillis) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Executor executor = getIoExecutor();
 
-        Amount paymentAmount = new Amount().currency(currency).value(amountInMinorUnits);
+        // Not on the I/O executor, a saturated pool would hold back the timeout and it would take a slot
+        if (asyncEnabled && timeoutMillis > 0) {
+            CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS).execute(() ->
+                    future.completeExceptionally(new TimeoutException("No response from Adyen within " + timeoutMillis + " ms")));
+        }
+
+        try {
+            executor.execute(() -> {
+                // Timed out while waiting for a thread
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(call.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public PaymentResponse makePayment(PaymentDTO payment, Object paymentDetails, String referenceNumber, String returnUrl) throws IOException, ApiException {
+        PaymentRequest paymentRequest = new PaymentRequest();
+
+        // Amount of the payment is already in minor units
+        Amount paymentAmount = new Amount().currency(payment.getCurrency()).value(payment.getAmount());
         CheckoutPaymentMethod checkoutPaymentMethod = PaymentMethodHelper.createCheckoutPaymentMethod(paymentDetails);
 
         String encodePaymentId = URLEncoder.encode(payment.getId().toString(), StandardCharsets.UTF_8);
@@ -71,32 +449,40 @@ public class PaymentService {
         paymentRequest.setPaymentMethod(checkoutPaymentMethod);
         paymentRequest.setReturnUrl(completeReturnUrl);
         RequestOptions requestOptions = new RequestOptions();
-        requestOptions.setIdempotencyKey(UUID.randomUUID().toString());
-        return paymentsApi.payments(paymentRequest, requestOptions);
+        requestOptions.setIdempotencyKey(getPaymentIdempotencyKey(referenceNumber));
+        return callAdyen(() -> paymentsApi.payments(paymentRequest, requestOptions));
     }
 
     public PaymentDetailsResponse checkPayment(String redirectResult) throws IOException, ApiException {
         DetailsRequest detailsRequest = new DetailsRequest();
         detailsRequest.setDetails(new PaymentCompletionDetails().redirectResult(redirectResult));
 
+        // A repeated return with the same redirectResult is the same details call
         RequestOptions requestOptions = new RequestOptions();
-        requestOptions.setIdempotencyKey(UUID.randomUUID().toString());
-        return paymentsApi.paymentsDetails(detailsRequest, requestOptions);
+        requestOptions.setIdempotencyKey(nameKey("details", adyenConfig.getMerchantAccount(), redirectResult));
+        return callAdyen(() -> paymentsApi.paymentsDetails(detailsRequest, requestOptions));
+    }
+
+    private <T> T callAdyen(AdyenCallGuard.AdyenCall<T> call) throws IOException, ApiException {
+        return adyenCallGuard != null ? adyenCallGuard.call(call) : call.call();
     }
 
     public PaymentDTO createPayment(PaymentRequestDTO paymentRequestDTO, String paymentType) throws PaymentNotFoundException {
+        return paymentDao.insert(newPayment(paymentRequestDTO, paymentType)).orElseThrow(() -> new PaymentNotFoundException());
+    }
+
+    private PaymentDTO newPayment(PaymentRequestDTO paymentRequestDTO, String paymentType) {
         PaymentDTO payment = new PaymentDTO();
         Date currentDate = new Date();
         payment.setMerchantReference(adyenConfig.getMerchantAccount());
-        payment.setAmount(Double.parseDouble(paymentRequestDTO.getAmount()));
+        payment.setAmount(PaymentMethodHelper.toMinorUnits(paymentRequestDTO.getAmount(), paymentRequestDTO.getCurrency()));
         payment.setCurrency(paymentRequestDTO.getCurrency());
         payment.setReference(paymentRequestDTO.getReferenceNumber());
         payment.setPaymentMethod(paymentType);
         payment.setStatus(PaymentStatusEnum.INITIATED);
         payment.setCreateAt(currentDate);
         payment.setUpdateAt(currentDate);
-
-        return paymentDao.insert(payment).orElseThrow(() -> new PaymentNotFoundException());
+        return payment;
     }
 
     public void updatePaymentSuccess(PaymentDTO payment, String pspReference, String authCode) {
@@ -143,6 +529,17 @@ public class PaymentService {
         paymentDao.updatePspReferenceStatusAndCode(payment);
     }
 
+    /**
+     * The payment was not sent, Adyen is unavailable (see {@link AdyenCallGuard}). A retry with the same
+     * reference number sends it.
+     */
+    public void updatePaymentUnavailable(PaymentDTO payment, String errorMessage) {
+        payment.setStatus(PaymentStatusEnum.UNAVAILABLE);
+        payment.setFailureMessage(errorMessage);
+
+        paymentDao.updateStatusAndSetMessage(payment);
+    }
+
     public PaymentDTO getPaymentByID(Long paymentId) {
         return paymentDao.findById(paymentId).orElse(null);
     }
@@ -156,20 +553,26 @@ public class PaymentService {
     }
 
     public void handleNotification(NotificationRequestItem item) {
+        handleNotification(new NotificationItemDTO(item, null));
+    }
+
+    public void handleNotification(NotificationItemDTO notification) {
+        NotificationRequestItem item = notification.getItem();
         try {
             String eventCode = item.getEventCode();
-            boolean isSuccess = item.isSuccess();
             String pspReference = item.getPspReference();
-            Date eventDate = item.getEventDate();
-            String reason = item.getReason();
+            Date receivedAt = new Date();
 
-            Optional<PaymentDTO> paymentOpt = paymentDao.findByPspReference(pspReference);
-            if (paymentOpt.isEmpty()) {
-                logger.error(String.format("Payment with pspReference %s not exist", pspReference));
+            // Adyen redelivers notifications, a recorded key means this item was applied before
+            if (!paymentWebhookDao.insertKey(createWebhookKey(item, receivedAt))) {
+                logger.info(String.format("Skipping duplicate %s notification for pspReference %s", eventCode, pspReference));
                 return;
             }
 
-            PaymentDTO payment = paymentOpt.get();
+            // The webhook can arrive before the payment has its pspReference, failing rolls the key back
+            // so a retry or redelivery applies it later
+            PaymentDTO payment = paymentDao.findByPspReference(pspReference).orElseThrow(() ->
+                    new PaymentNotFoundException(String.format("Payment with pspReference %s not exist", pspReference)));
 
             List<String> errorsOnWebhookValidations = WebhookValidator.validateBeforeInsert(payment, item);
             if (!errorsOnWebhookValidations.isEmpty()) {
@@ -178,57 +581,202 @@ public class PaymentService {
                 return;
             }
 
-            PaymentWebhookDTO paymentWebhook = new PaymentWebhookDTO();
-            paymentWebhook.setPaymentId(payment.getId());
-            paymentWebhook.setEventCode(eventCode);
-            paymentWebhook.setPspReference(pspReference);
-            paymentWebhook.setSuccess(isSuccess);
-            paymentWebhook.setReceivedAt(new Date());
-            paymentWebhook.setEventDate(eventDate);
-            paymentWebhook.setRawNotification(toJson(item));
-
-            paymentWebhookDao.insert(paymentWebhook);
-
-            String authCode;
-            switch (eventCode) {
-                case "AUTHORISATION":
-                    authCode = "AUTHORISED";
-                    break;
-                case "REFUND":
-                    authCode = "REFUNDED";
-                    break;
-                case "CANCELLATION":
-                    authCode = "CANCELLED";
-                    break;
-                case "EXPIRE":
-                    authCode = "EXPIRED";
-                    break;
-                default:
-                    throw new RuntimeException("Unknown event code");
+            paymentWebhookDao.insert(createPaymentWebhook(payment, notification, receivedAt));
+
+            String authCode = getAuthCodeForEvent(eventCode);
+            if (authCode == null) {
+                throw new RuntimeException("Unknown event code");
             }
 
-            payment.setAuthCode(authCode);
+            updatePaymentStatus(payment, item, authCode);
 
-            if (isSuccess) {
-                payment.setStatus(PaymentStatusEnum.SUCCESS);
-                paymentDao.updateStatusAndAuth(payment);
-            } else {
-                payment.setStatus(PaymentStatusEnum.FAILED);
-                payment.setFailureMessage(reason);
-                paymentDao.updateStatusAuthCodeAndSetMessage(payment);
+
+        } catch (Exception e) {
+            logger.error("Error when receive new notification: " + e.getMessage(), item);
+
+            throw new RuntimeException("Set for rollback", e);
+        }
+    }
+
+    /**
+     * Applies a stored notification again, e.g. after an incident. Unlike {@link #handleNotification} the item
+     * is not checked against or recorded as a webhook key and not stored again, only the payment is updated.
+     * Returns false if the item can not be applied: unknown payment, failed validation or unknown event code.
+     */
+    public boolean handleNotificationReplay(NotificationRequestItem item) {
+        try {
+            String pspReference = item.getPspReference();
+            Optional<PaymentDTO> paymentOpt = paymentDao.findByPspReference(pspReference);
+            if (paymentOpt.isEmpty()) {
+                logger.error(String.format("Payment with pspReference %s not exist", pspReference));
+                return false;
             }
 
+            PaymentDTO payment = paymentOpt.get();
+
+            List<String> errorsOnWebhookValidations = WebhookValidator.validateBeforeInsert(payment, item);
+            if (!errorsOnWebhookValidations.isEmpty()) {
+                logger.error("Error on validate replayed webhook and payment", errorsOnWebhookValidations);
+                return false;
+            }
 
+            String authCode = getAuthCodeForEvent(item.getEventCode());
+            if (authCode == null) {
+                logger.error(String.format("Unknown event code %s on replayed webhook for pspReference %s", item.getEventCode(), pspReference));
+                return false;
+            }
+
+            updatePaymentStatus(payment, item, authCode);
+            return true;
         } catch (Exception e) {
-            logger.error("Error when receive new notification: " + e.getMessage(), item);
+            logger.error("Error when replaying notification: " + e.getMessage(), item);
 
             throw new RuntimeException("Set for rollback", e);
         }
     }
 
+    private void updatePaymentStatus(PaymentDTO payment, NotificationRequestItem item, String authCode) {
+        payment.setAuthCode(authCode);
+
+        if (item.isSuccess()) {
+            payment.setStatus(PaymentStatusEnum.SUCCESS);
+            paymentDao.updateStatusAndAuth(payment);
+        } else {
+            payment.setStatus(PaymentStatusEnum.FAILED);
+            payment.setFailureMessage(item.getReason());
+            paymentDao.updateStatusAuthCodeAndSetMessage(payment);
+        }
+    }
+
+    /**
+     * Applies a chunk of notification items with one payment lookup, one batched webhook insert and one
+     * batched status update. Items which can not be applied in the batch (unknown payment, failed validation,
+     * unknown event code) are returned and have to be handled one by one with {@link #handleNotification}. Once an item of
+     * a payment is returned, all following items of the same payment are returned too, so the order of
+     * events per payment is kept. Items whose key is already recorded are redeliveries and are skipped.
+     */
+    public List<NotificationItemDTO> handleNotificationBatch(List<NotificationItemDTO> notifications) {
+        try {
+            Date receivedAt = new Date();
+
+            List<PaymentWebhookDTO> webhookKeys = new ArrayList<>(notifications.size());
+            for (NotificationItemDTO notification : notifications) {
+                webhookKeys.add(createWebhookKey(notification.getItem(), receivedAt));
+            }
+            boolean[] newKeys = paymentWebhookDao.insertKeys(webhookKeys);
+
+            Set<String> pspReferences = new HashSet<>();
+            for (int i = 0; i < notifications.size(); i++) {
+                if (newKeys[i]) {
+                    pspReferences.add(notifications.get(i).getItem().getPspReference());
+                }
+            }
+
+            Map<String, PaymentDTO> paymentsByPspReference = new HashMap<>();
+            for (PaymentDTO payment : paymentDao.findByPspReferences(pspReferences)) {
+                paymentsByPspReference.put(payment.getPspReference(), payment);
+            }
+
+            List<NotificationItemDTO> fallbackItems = new ArrayList<>();
+            Set<String> deferredPspReferences = new HashSet<>();
+            List<PaymentWebhookDTO> paymentWebhooks = new ArrayList<>();
+            List<PaymentDTO> paymentUpdates = new ArrayList<>();
+            List<PaymentWebhookDTO> fallbackKeys = new ArrayList<>();
+
+            for (int i = 0; i < notifications.size(); i++) {
+                NotificationItemDTO notification = notifications.get(i);
+                NotificationRequestItem item = notification.getItem();
+                String pspReference = item.getPspReference();
+                if (!newKeys[i]) {
+                    logger.info(String.format("Skipping duplicate %s notification for pspReference %s", item.getEventCode(), pspReference));
+                    continue;
+                }
+
+                PaymentDTO payment = paymentsByPspReference.get(pspReference);
+                String authCode = getAuthCodeForEvent(item.getEventCode());
+                if (payment == null || deferredPspReferences.contains(pspReference) || authCode == null
+                        || !WebhookValidator.validateBeforeInsert(payment, item).isEmpty()) {
+                    deferredPspReferences.add(pspReference);
+                    fallbackItems.add(notification);
+                    fallbackKeys.add(webhookKeys.get(i));
+                    continue;
+                }
+
+                paymentWebhooks.add(createPaymentWebhook(payment, notification, receivedAt));
+
+                payment.setAuthCode(authCode);
+                if (item.isSuccess()) {
+                    payment.setStatus(PaymentStatusEnum.SUCCESS);
+                } else {
+                    payment.setStatus(PaymentStatusEnum.FAILED);
+                    payment.setFailureMessage(item.getReason());
+                }
+
+                // Snapshot, the same payment can be changed again by a later item in this chunk
+                PaymentDTO paymentUpdate = new PaymentDTO();
+                paymentUpdate.setId(payment.getId());
+                paymentUpdate.setStatus(payment.getStatus());
+                paymentUpdate.setAuthCode(payment.getAuthCode());
+                paymentUpdate.setFailureMessage(payment.getFailureMessage());
+                paymentUpdates.add(paymentUpdate);
+            }
+
+            paymentWebhookDao.insertBatch(paymentWebhooks);
+            paymentDao.updateStatusAuthCodeAndSetMessageBatch(paymentUpdates);
+
+            // Fallback items record their keys again when handled one by one
+            paymentWebhookDao.deleteKeys(fallbackKeys);
+
+            return fallbackItems;
+        } catch (Exception e) {
+            logger.error("Error when receive new notification batch: " + e.getMessage());
+
+            throw new RuntimeException("Set for rollback", e);
+        }
+    }
+
+    private PaymentWebhookDTO createPaymentWebhook(PaymentDTO payment, NotificationItemDTO notification, Date receivedAt) {
+        NotificationRequestItem item = notification.getItem();
+        String rawNotification = notification.getRawNotification() != null ? notification.getRawNotification() : toJson(item);
+
+        PaymentWebhookDTO paymentWebhook = new PaymentWebhookDTO();
+        paymentWebhook.setPaymentId(payment.getId());
+        paymentWebhook.setEventCode(item.getEventCode());
+        paymentWebhook.setPspReference(item.getPspReference());
+        paymentWebhook.setSuccess(item.isSuccess());
+        paymentWebhook.setReceivedAt(receivedAt);
+        paymentWebhook.setEventDate(item.getEventDate());
+        paymentWebhook.setRawNotification(rawNotification);
+        return paymentWebhook;
+    }
+
+    private PaymentWebhookDTO createWebhookKey(NotificationRequestItem item, Date receivedAt) {
+        PaymentWebhookDTO webhookKey = new PaymentWebhookDTO();
+        webhookKey.setEventCode(item.getEventCode());
+        webhookKey.setPspReference(item.getPspReference());
+        webhookKey.setSuccess(item.isSuccess());
+        webhookKey.setEventDate(item.getEventDate());
+        webhookKey.setReceivedAt(receivedAt);
+        return webhookKey;
+    }
+
+    private String getAuthCodeForEvent(String eventCode) {
+        if (eventCode == null) {
+            return null;
+        }
+
+        return switch (eventCode) {
+            case "AUTHORISATION" -> "AUTHORISED";
+            case "REFUND" -> "REFUNDED";
+            case "CANCELLATION" -> "CANCELLED";
+            case "EXPIRE" -> "EXPIRED";
+            default -> null;
+        };
+    }
+
     private String toJson(NotificationRequestItem item) {
         try {
-            return new ObjectMapper().writeValueAsString(item);
+            return objectMapper.writeValueAsString(item);
         } catch (JsonProcessingException e) {
             logger.error("Error on convert json to string.", e);
             return "{}";
@@ -262,7 +810,7 @@ public class PaymentService {
     public boolean checkAdyenHMAC(NotificationRequest notificationRequest) {
         try {
             for (NotificationRequestItem item : notificationRequest.getNotificationItems()) {
-                if (!hmacValidator.validateHMAC(item, adyenConfig.getWebhookHMAC())) {
+                if (!hmacVerifier.verify(item)) {
                     throw new RuntimeException("Wrong HMAC for request.");
                 }
             }
@@ -273,4 +821,18 @@ public class PaymentService {
 
         return true;
     }
+
+    private static final class BatchRun {
+        private final int size;
+        private final IntFunction<CompletableFuture<?>> task;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private BatchRun(int size, IntFunction<CompletableFuture<?>> task) {
+            this.size = size;
+            this.task = task;
+            this.remaining = new AtomicInteger(size);
+        }
+    }
 }
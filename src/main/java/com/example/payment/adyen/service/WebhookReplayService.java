@@ -0,0 +1,233 @@
+package com.example.payment.adyen.service;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.adyen.dao.PaymentWebhookDao;
+import com.example.payment.adyen.dto.PaymentWebhookDTO;
+import com.example.payment.adyen.dto.WebhookReplayFilterDTO;
+import com.example.payment.adyen.dto.WebhookReplayProgressDTO;
+import com.example.payment.helper.NotificationJsonHelper;
+import com.example.payment.helper.WebhookReplayStatusEnum;
+import com.example.payment.logging.MyLogger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies stored payment_webhook rows again through {@link PaymentService#handleNotificationReplay}, e.g. after
+ * an incident. Rows are read in keyset pages in id order. The rows of one page are grouped by payment and the
+ * groups run in parallel on the replay executor, each group in order, and a page is finished before the next
+ * one is read, so the events of a payment are applied in the order they were stored.
+ * One replay runs at a time.
+ */
+public class WebhookReplayService {
+
+    private static final MyLogger logger = new MyLogger(LoggerFactory.getLogger(WebhookReplayService.class));
+
+    private final PaymentWebhookDao paymentWebhookDao;
+    private final PaymentService paymentService;
+    private final TaskExecutor jobExecutor;
+    private final TaskExecutor replayExecutor;
+
+    private int pageSize = 500;
+
+    private final AtomicReference<ReplayJob> currentJob = new AtomicReference<>();
+
+    public WebhookReplayService(PaymentWebhookDao paymentWebhookDao, PaymentService paymentService,
+                                TaskExecutor jobExecutor, TaskExecutor replayExecutor) {
+        this.paymentWebhookDao = paymentWebhookDao;
+        this.paymentService = paymentService;
+        this.jobExecutor = jobExecutor;
+        this.replayExecutor = replayExecutor;
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be greater then 0");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Starts a replay of the webhooks matching the filter in the background and returns its progress. A dry run
+     * reads and parses the rows but applies nothing. {@code maxPerSecond} limits the rate of replayed rows,
+     * 0 for no limit. Throws {@link IllegalStateException} if a replay is running already.
+     */
+    public WebhookReplayProgressDTO start(WebhookReplayFilterDTO filter, boolean dryRun, int maxPerSecond) {
+        ReplayJob job = new ReplayJob(filter, dryRun, maxPerSecond);
+
+        ReplayJob previous = currentJob.get();
+        if (previous != null && previous.status == WebhookReplayStatusEnum.RUNNING) {
+            throw new IllegalStateException("A webhook replay is already running");
+        }
+        if (!currentJob.compareAndSet(previous, job)) {
+            throw new IllegalStateException("A webhook replay is already running");
+        }
+
+        logger.info(String.format("Starting webhook replay, dry run %b, max %d per second.", dryRun, maxPerSecond));
+        try {
+            jobExecutor.execute(() -> run(job));
+        } catch (RuntimeException e) {
+            job.finish(WebhookReplayStatusEnum.FAILED, e.getMessage());
+            throw e;
+        }
+        return job.toProgress();
+    }
+
+    /**
+     * Progress of the running or last replay, null if there was none since startup.
+     */
+    public WebhookReplayProgressDTO getProgress() {
+        ReplayJob job = currentJob.get();
+        return job != null ? job.toProgress() : null;
+    }
+
+    /**
+     * Stops the running replay after its current page. Returns false if no replay is running.
+     */
+    public boolean cancel() {
+        ReplayJob job = currentJob.get();
+        if (job == null || job.status != WebhookReplayStatusEnum.RUNNING) {
+            return false;
+        }
+        job.cancelled = true;
+        return true;
+    }
+
+    private void run(ReplayJob job) {
+        try {
+            long afterId = 0;
+            while (!job.cancelled) {
+                List<PaymentWebhookDTO> page = paymentWebhookDao.findReplayPage(job.filter, afterId, pageSize);
+                if (page.isEmpty()) {
+                    break;
+                }
+
+                replayPage(job, page);
+
+                afterId = page.get(page.size() - 1).getId();
+                job.lastId = afterId;
+                logger.info(String.format("Webhook replay at id %d: %d read, %d applied, %d skipped, %d failed.",
+                        afterId, job.read.get(), job.applied.get(), job.skipped.get(), job.failed.get()));
+
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+
+            job.finish(job.cancelled ? WebhookReplayStatusEnum.CANCELLED : WebhookReplayStatusEnum.DONE, null);
+            logger.info(String.format("Webhook replay %s: %d read, %d applied, %d skipped, %d failed.",
+                    job.status, job.read.get(), job.applied.get(), job.skipped.get(), job.failed.get()));
+        } catch (Exception e) {
+            logger.error("Error on webhook replay: " + e.getMessage());
+            job.finish(WebhookReplayStatusEnum.FAILED, e.getMessage());
+        }
+    }
+
+    private void replayPage(ReplayJob job, List<PaymentWebhookDTO> page) {
+        Map<Long, List<PaymentWebhookDTO>> webhooksByPayment = new LinkedHashMap<>();
+        for (PaymentWebhookDTO webhook : page) {
+            webhooksByPayment.computeIfAbsent(webhook.getPaymentId(), key -> new ArrayList<>()).add(webhook);
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(webhooksByPayment.size());
+        for (List<PaymentWebhookDTO> webhooks : webhooksByPayment.values()) {
+            futures.add(CompletableFuture.runAsync(() -> replayWebhooks(job, webhooks), replayExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private void replayWebhooks(ReplayJob job, List<PaymentWebhookDTO> webhooks) {
+        for (PaymentWebhookDTO webhook : webhooks) {
+            job.acquirePermit();
+            job.read.incrementAndGet();
+
+            try {
+                NotificationRequestItem item = NotificationJsonHelper.readNotificationItem(webhook.getRawNotification());
+                if (job.dryRun) {
+                    job.skipped.incrementAndGet();
+                } else if (paymentService.handleNotificationReplay(item)) {
+                    job.applied.incrementAndGet();
+                } else {
+                    job.skipped.incrementAndGet();
+                }
+            } catch (Exception e) {
+                logger.error(String.format("Error on replaying payment_webhook %d: %s", webhook.getId(), e.getMessage()));
+                job.failed.incrementAndGet();
+            }
+        }
+    }
+
+    private static final class ReplayJob {
+        private final WebhookReplayFilterDTO filter;
+        private final boolean dryRun;
+        private final int maxPerSecond;
+        private final long permitIntervalNanos;
+        private final Date startedAt = new Date();
+
+        private final AtomicLong nextPermitNanos = new AtomicLong(System.nanoTime());
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong applied = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        private volatile WebhookReplayStatusEnum status = WebhookReplayStatusEnum.RUNNING;
+        private volatile boolean cancelled;
+        private volatile long lastId;
+        private volatile Date finishedAt;
+        private volatile String error;
+
+        ReplayJob(WebhookReplayFilterDTO filter, boolean dryRun, int maxPerSecond) {
+            this.filter = filter;
+            this.dryRun = dryRun;
+            this.maxPerSecond = maxPerSecond;
+            this.permitIntervalNanos = maxPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxPerSecond : 0;
+        }
+
+        /**
+         * Spaces rows {@code 1 / maxPerSecond} apart over all replay threads, each caller reserves the next slot.
+         */
+        void acquirePermit() {
+            if (permitIntervalNanos == 0) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            long slot = Math.max(nextPermitNanos.getAndUpdate(next -> Math.max(next, now) + permitIntervalNanos), now);
+            if (slot > now) {
+                LockSupport.parkNanos(slot - now);
+            }
+        }
+
+        void finish(WebhookReplayStatusEnum finalStatus, String finalError) {
+            error = finalError;
+            finishedAt = new Date();
+            status = finalStatus;
+        }
+
+        WebhookReplayProgressDTO toProgress() {
+            WebhookReplayProgressDTO progress = new WebhookReplayProgressDTO();
+            progress.setStatus(status);
+            progress.setDryRun(dryRun);
+            progress.setMaxPerSecond(maxPerSecond);
+            progress.setStartedAt(startedAt);
+            progress.setFinishedAt(finishedAt);
+            progress.setLastId(lastId);
+            progress.setRead(read.get());
+            progress.setApplied(applied.get());
+            progress.setSkipped(skipped.get());
+            progress.setFailed(failed.get());
+            progress.setError(error);
+            return progress;
+        }
+    }
+}
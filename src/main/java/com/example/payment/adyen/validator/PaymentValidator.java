@@ -2,16 +2,35 @@ package com.example.payment.adyen.validator;
 
 import com.adyen.model.checkout.CardDetails;
 import com.adyen.model.checkout.IdealDetails;
+import com.adyen.util.Util;
+import com.example.payment.adyen.dto.PaymentBatchRequestDTO;
 import com.example.payment.adyen.dto.PaymentRequestDTO;
+import com.example.payment.helper.DateTimeHelper;
+import com.example.payment.helper.PaymentExportFormatEnum;
 import com.example.payment.helper.PaymentMethodHelper;
+import com.example.payment.helper.PaymentStatusEnum;
 import jakarta.servlet.http.HttpServletRequest;
 import org.apache.commons.lang3.StringUtils;
 
+import java.time.LocalDateTime;
 import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class PaymentValidator {
+
+    private int maxBatchItems = 100;
+
+    public void setMaxBatchItems(int maxBatchItems) {
+        if (maxBatchItems < 1) {
+            throw new IllegalArgumentException("Max batch items must be greater then 0");
+        }
+        this.maxBatchItems = maxBatchItems;
+    }
+
     public List<String> validateOnPay(PaymentRequestDTO paymentRequestDTO) {
         List<String> errors = new ArrayList<>();
 
@@ -31,21 +50,26 @@ public class PaymentValidator {
         }
 
         String amountStr = paymentRequestDTO.getAmount();
+        String currency = paymentRequestDTO.getCurrency();
         if (StringUtils.isNotBlank(amountStr)) {
+            // Most currencies have 2 fraction digits, missing currency is reported below
+            int fractionDigits = StringUtils.isNotBlank(currency) ? Util.getDecimalPlaces(currency) : 2;
             try {
-                Double amount = Double.parseDouble(amountStr);
+                long amount = PaymentMethodHelper.toMinorUnits(amountStr, fractionDigits);
 
                 if (amount <= 0) {
                     errors.add("An amount must be greater then 0");
                 }
             } catch (NumberFormatException e) {
                 errors.add("An amount value must be numeric");
+            } catch (ArithmeticException e) {
+                errors.add("An amount can have at most " + fractionDigits + " decimal places");
             }
         } else {
             errors.add("An amount is required");
         }
 
-        if (StringUtils.isBlank(paymentRequestDTO.getCurrency())) {
+        if (StringUtils.isBlank(currency)) {
             errors.add("Currency is required");
         }
 
@@ -60,6 +84,44 @@ public class PaymentValidator {
         return errors;
     }
 
+    /**
+     * Every payment of the batch is validated like a /pay request, errors are prefixed with its index.
+     * Reference numbers must be unique within the batch.
+     */
+    public List<String> validateOnPayBatch(PaymentBatchRequestDTO paymentBatchRequestDTO) {
+        List<String> errors = new ArrayList<>();
+
+        List<PaymentRequestDTO> payments = paymentBatchRequestDTO != null ? paymentBatchRequestDTO.getPayments() : null;
+        if (payments == null || payments.isEmpty()) {
+            errors.add("At least one payment is required");
+            return errors;
+        }
+
+        if (payments.size() > maxBatchItems) {
+            errors.add("A batch can have at most " + maxBatchItems + " payments");
+            return errors;
+        }
+
+        Set<String> referenceNumbers = new HashSet<>();
+        for (int i = 0; i < payments.size(); i++) {
+            PaymentRequestDTO payment = payments.get(i);
+            if (payment == null) {
+                errors.add("Payment " + i + ": Payment is required");
+                continue;
+            }
+
+            for (String error : validateOnPay(payment)) {
+                errors.add("Payment " + i + ": " + error);
+            }
+
+            if (StringUtils.isNotBlank(payment.getReferenceNumber()) && !referenceNumbers.add(payment.getReferenceNumber())) {
+                errors.add("Payment " + i + ": Reference number is used more than once in the batch");
+            }
+        }
+
+        return errors;
+    }
+
     private List<String> validateCardDetails(CardDetails cardDetails) {
         List<String> errors = new ArrayList<>();
 
@@ -175,4 +237,138 @@ public class PaymentValidator {
 
         return errors;
     }
+
+    public List<String> validateOnStatus(HttpServletRequest request) {
+        List<String> errors = new ArrayList<>();
+
+        String wait = request.getParameter("wait");
+        String after = request.getParameter("after");
+
+        if (wait != null) {
+            try {
+                if (Integer.parseInt(wait) < 0) {
+                    errors.add("Parameter wait must not be negative");
+                }
+            } catch (NumberFormatException e) {
+                errors.add("Parameter wait must be a number");
+            }
+        }
+
+        if (after != null) {
+            try {
+                PaymentStatusEnum.fromValue(after);
+            } catch (IllegalArgumentException e) {
+                errors.add("Invalid payment status: " + after);
+            }
+        }
+
+        return errors;
+    }
+
+    public List<String> validateOnExport(HttpServletRequest request) {
+        List<String> errors = new ArrayList<>();
+
+        String format = request.getParameter("format");
+        String status = request.getParameter("status");
+        String from = request.getParameter("from");
+        String to = request.getParameter("to");
+
+        if (format != null) {
+            try {
+                PaymentExportFormatEnum.fromValue(format);
+            } catch (IllegalArgumentException e) {
+                errors.add("Parameter format must be one of: ndjson, csv");
+            }
+        }
+
+        if (status != null) {
+            try {
+                PaymentStatusEnum.fromValue(status);
+            } catch (IllegalArgumentException e) {
+                errors.add("Invalid payment status: " + status);
+            }
+        }
+
+        LocalDateTime createdFrom = parseExportDate("from", from, errors);
+        LocalDateTime createdTo = parseExportDate("to", to, errors);
+
+        if (createdFrom != null && createdTo != null && !createdFrom.isBefore(createdTo)) {
+            errors.add("Parameter from must be before parameter to");
+        }
+
+        return errors;
+    }
+
+    public List<String> validateOnWebhookReplay(HttpServletRequest request) {
+        List<String> errors = new ArrayList<>();
+
+        String from = request.getParameter("from");
+        String to = request.getParameter("to");
+        String paymentIdFrom = request.getParameter("paymentIdFrom");
+        String paymentIdTo = request.getParameter("paymentIdTo");
+        String dryRun = request.getParameter("dryRun");
+        String maxPerSecond = request.getParameter("maxPerSecond");
+
+        if (from == null && to == null && paymentIdFrom == null && paymentIdTo == null) {
+            errors.add("At least one of the parameters from, to, paymentIdFrom or paymentIdTo is required");
+        }
+
+        LocalDateTime receivedFrom = parseExportDate("from", from, errors);
+        LocalDateTime receivedTo = parseExportDate("to", to, errors);
+        if (receivedFrom != null && receivedTo != null && !receivedFrom.isBefore(receivedTo)) {
+            errors.add("Parameter from must be before parameter to");
+        }
+
+        Long idFrom = parsePositiveNumber("paymentIdFrom", paymentIdFrom, errors);
+        Long idTo = parsePositiveNumber("paymentIdTo", paymentIdTo, errors);
+        if (idFrom != null && idTo != null && idFrom > idTo) {
+            errors.add("Parameter paymentIdFrom must not be greater than paymentIdTo");
+        }
+
+        if (dryRun != null && !"true".equalsIgnoreCase(dryRun) && !"false".equalsIgnoreCase(dryRun)) {
+            errors.add("Parameter dryRun must be true or false");
+        }
+
+        if (maxPerSecond != null) {
+            try {
+                if (Integer.parseInt(maxPerSecond) < 0) {
+                    errors.add("Parameter maxPerSecond must not be negative");
+                }
+            } catch (NumberFormatException e) {
+                errors.add("Parameter maxPerSecond must be a number");
+            }
+        }
+
+        return errors;
+    }
+
+    private Long parsePositiveNumber(String name, String value, List<String> errors) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            long number = Long.parseLong(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        errors.add("Parameter " + name + " must be a positive number");
+        return null;
+    }
+
+    private LocalDateTime parseExportDate(String name, String value, List<String> errors) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return DateTimeHelper.parseDateTime(value);
+        } catch (DateTimeParseException e) {
+            errors.add("Parameter " + name + " must be an ISO-8601 date or date-time");
+            return null;
+        }
+    }
 }
@@ -0,0 +1,244 @@
+package com.example.payment.adyen.validator;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.metrics.MetricsSource;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies the {@code hmacSignature} of webhook notification items, same signing string as Adyen's
+ * {@code HMACValidator} (pspReference, originalReference, merchantAccountCode, merchantReference, amount value,
+ * currency, eventCode and success joined by ':', empty for missing values).
+ * <p>
+ * Keys are decoded once. Every thread keeps its own initialized {@link Mac} instances and signing buffer, so
+ * verifying an item allocates no intermediate Strings. Signatures are compared in constant time. For key
+ * rotation a secondary key can be configured, an item is valid if it matches either key.
+ */
+public class WebhookHmacVerifier implements MetricsSource {
+
+    private static final String HMAC_SHA256_ALGORITHM = "HmacSHA256";
+    private static final String HMAC_SIGNATURE = "hmacSignature";
+    private static final byte DATA_SEPARATOR = ':';
+
+    private final SecretKeySpec primaryKey;
+    private volatile SecretKeySpec secondaryKey;
+
+    private final ThreadLocal<Signer> signers = ThreadLocal.withInitial(Signer::new);
+
+    private final LongAdder primaryMatches = new LongAdder();
+    private final LongAdder secondaryMatches = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder missingSignatures = new LongAdder();
+
+    public WebhookHmacVerifier(String hmacKey) {
+        this.primaryKey = toKey(hmacKey);
+    }
+
+    /**
+     * Second key accepted during rotation, blank for none. Add the new key here, switch it to the primary once
+     * Adyen signs with it, then remove the old one. The secondary match count shows when it is still in use.
+     */
+    public void setSecondaryHmacKey(String secondaryHmacKey) {
+        this.secondaryKey = StringUtils.isBlank(secondaryHmacKey) ? null : toKey(secondaryHmacKey);
+    }
+
+    public boolean verify(NotificationRequestItem item) {
+        Map<String, String> additionalData = item.getAdditionalData();
+        String signature = additionalData != null ? additionalData.get(HMAC_SIGNATURE) : null;
+        if (StringUtils.isEmpty(signature)) {
+            missingSignatures.increment();
+            return false;
+        }
+
+        byte[] expected;
+        try {
+            expected = Base64.getDecoder().decode(signature);
+        } catch (IllegalArgumentException e) {
+            mismatches.increment();
+            return false;
+        }
+
+        Signer signer = signers.get();
+        int length = signer.writeDataToSign(item);
+
+        if (signer.matches(0, primaryKey, length, expected)) {
+            primaryMatches.increment();
+            return true;
+        }
+        if (secondaryKey != null && signer.matches(1, secondaryKey, length, expected)) {
+            secondaryMatches.increment();
+            return true;
+        }
+
+        mismatches.increment();
+        return false;
+    }
+
+    private static SecretKeySpec toKey(String hmacKey) {
+        if (StringUtils.isBlank(hmacKey)) {
+            throw new IllegalArgumentException("HMAC key is empty");
+        }
+
+        SecretKeySpec key = new SecretKeySpec(HexFormat.of().parseHex(hmacKey.trim()), HMAC_SHA256_ALGORITHM);
+        // Fail on startup instead of on the first webhook
+        newMac(key);
+        return key;
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can not initialize " + HMAC_SHA256_ALGORITHM + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "webhookHmac";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("secondaryKeyConfigured", secondaryKey != null);
+        metrics.put("primaryMatches", primaryMatches.sum());
+        metrics.put("secondaryMatches", secondaryMatches.sum());
+        metrics.put("mismatches", mismatches.sum());
+        metrics.put("missingSignatures", missingSignatures.sum());
+        return metrics;
+    }
+
+    /**
+     * Per-thread state, the Macs of both keys (created on first use) and the UTF-8 signing string buffer.
+     */
+    private static final class Signer {
+        private final Mac[] macs = new Mac[2];
+        private final SecretKeySpec[] macKeys = new SecretKeySpec[2];
+        private final byte[] computed = new byte[32];
+        private byte[] data = new byte[256];
+        private int position;
+
+        int writeDataToSign(NotificationRequestItem item) {
+            position = 0;
+            Amount amount = item.getAmount();
+
+            append(item.getPspReference());
+            appendSeparator();
+            append(item.getOriginalReference());
+            appendSeparator();
+            append(item.getMerchantAccountCode());
+            appendSeparator();
+            append(item.getMerchantReference());
+            appendSeparator();
+            if (amount != null && amount.getValue() != null) {
+                append(amount.getValue());
+            }
+            appendSeparator();
+            append(amount != null ? amount.getCurrency() : null);
+            appendSeparator();
+            append(item.getEventCode());
+            appendSeparator();
+            append(item.isSuccess() ? "true" : "false");
+            return position;
+        }
+
+        boolean matches(int slot, SecretKeySpec key, int length, byte[] expected) {
+            Mac mac = macs[slot];
+            if (mac == null || macKeys[slot] != key) {
+                mac = newMac(key);
+                macs[slot] = mac;
+                macKeys[slot] = key;
+            }
+
+            mac.update(data, 0, length);
+            try {
+                mac.doFinal(computed, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            return MessageDigest.isEqual(expected, computed);
+        }
+
+        private void appendSeparator() {
+            ensureCapacity(1);
+            data[position++] = DATA_SEPARATOR;
+        }
+
+        private void append(long value) {
+            ensureCapacity(20);
+            if (value < 0) {
+                data[position++] = '-';
+            }
+
+            // Digits of the negative value, Long.MIN_VALUE has no positive counterpart
+            long remaining = value < 0 ? value : -value;
+            int start = position;
+            do {
+                data[position++] = (byte) ('0' - remaining % 10);
+                remaining /= 10;
+            } while (remaining != 0);
+
+            for (int i = start, j = position - 1; i < j; i++, j--) {
+                byte digit = data[i];
+                data[i] = data[j];
+                data[j] = digit;
+            }
+        }
+
+        private void append(String value) {
+            if (value == null) {
+                return;
+            }
+
+            int length = value.length();
+            // A char takes at most 3 bytes in UTF-8, a surrogate pair 4 bytes for 2 chars
+            ensureCapacity(length * 3);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    data[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    data[position++] = (byte) (0xC0 | (c >> 6));
+                    data[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                        data[position++] = (byte) (0xF0 | (codePoint >> 18));
+                        data[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        data[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        data[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                    } else {
+                        // Same replacement as String.getBytes(UTF_8) for a lone surrogate
+                        data[position++] = '?';
+                    }
+                } else {
+                    data[position++] = (byte) (0xE0 | (c >> 12));
+                    data[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    data[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void ensureCapacity(int additional) {
+            if (position + additional > data.length) {
+                byte[] grown = new byte[Math.max(data.length * 2, position + additional)];
+                System.arraycopy(data, 0, grown, 0, position);
+                data = grown;
+            }
+        }
+    }
+}
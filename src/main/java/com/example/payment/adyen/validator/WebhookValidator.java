@@ -16,7 +16,7 @@ public class WebhookValidator {
     public static List<String> validateBeforeInsert(PaymentDTO paymentDTO, NotificationRequestItem notificationRequestItem) {
         List<String> errors = new ArrayList<>();
 
-        Double amount = paymentDTO.getAmount();
+        long amount = paymentDTO.getAmount();
         String currency = paymentDTO.getCurrency();
         String merchantReference = paymentDTO.getMerchantReference();
 
@@ -25,7 +25,9 @@ public class WebhookValidator {
         if (StringUtils.isBlank(currency) || !currency.equals(amountFromRequest.getCurrency())) {
             errors.add("Currency from payment data and notification request is not equal!");
         }
-        if (!amount.equals(amountFromRequest.getDecimalValue().doubleValue())) {
+        // Both amounts are in minor units
+        Long amountValue = amountFromRequest.getValue();
+        if (amountValue == null || amount != amountValue) {
             errors.add("Amount from payment data and notification request is not equal!");
         }
 
@@ -0,0 +1,20 @@
+package com.example.payment.exceptions;
+
+import java.io.IOException;
+
+/**
+ * An Adyen call that was not sent, because the circuit breaker is open or the bulkhead is full.
+ */
+public class AdyenUnavailableException extends IOException {
+
+    private final long retryAfterMillis;
+
+    public AdyenUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
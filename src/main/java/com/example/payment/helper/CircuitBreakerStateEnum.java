@@ -0,0 +1,31 @@
+package com.example.payment.helper;
+
+public enum CircuitBreakerStateEnum {
+    CLOSED("Closed"),
+    OPEN("Open"),
+    HALF_OPEN("HalfOpen");
+
+    private final String value;
+
+    CircuitBreakerStateEnum(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    public static CircuitBreakerStateEnum fromValue(String value) {
+        for (CircuitBreakerStateEnum state : values()) {
+            if (state.value.equalsIgnoreCase(value)) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected value: " + value);
+    }
+}
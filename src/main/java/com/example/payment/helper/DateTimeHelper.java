@@ -0,0 +1,31 @@
+package com.example.payment.helper;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+public class DateTimeHelper {
+    private DateTimeHelper() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Parses an ISO-8601 date ({@code 2024-05-01}, start of that day) or date-time ({@code 2024-05-01T12:30:00}).
+     */
+    public static LocalDateTime parseDateTime(String value) {
+        try {
+            return LocalDate.parse(value).atStartOfDay();
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(value);
+        }
+    }
+
+    /**
+     * Timestamp of a date-time in UTC, API date filters are UTC whatever the JVM time zone.
+     */
+    public static Timestamp toUtcTimestamp(LocalDateTime value) {
+        return Timestamp.from(value.toInstant(ZoneOffset.UTC));
+    }
+}
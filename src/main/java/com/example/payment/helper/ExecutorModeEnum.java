@@ -0,0 +1,30 @@
+package com.example.payment.helper;
+
+public enum ExecutorModeEnum {
+    PLATFORM("platform"),
+    VIRTUAL("virtual");
+
+    private final String value;
+
+    ExecutorModeEnum(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    public static ExecutorModeEnum fromValue(String value) {
+        for (ExecutorModeEnum mode : values()) {
+            if (mode.value.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected value: " + value);
+    }
+}
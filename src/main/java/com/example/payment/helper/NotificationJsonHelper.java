@@ -0,0 +1,242 @@
+package com.example.payment.helper;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.exceptions.PayloadTooLargeException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class NotificationJsonHelper {
+    private NotificationJsonHelper() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    // The caller owns the stream, e.g. the servlet request
+    private static final JsonFactory streamJsonFactory = JsonFactory.builder()
+            .disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+            .build();
+
+    /**
+     * Reads the {@code NotificationRequestItem}s of a webhook body token by token straight from the stream,
+     * without building a String or a tree of the whole body. More than {@code maxItems} items fail with
+     * {@link PayloadTooLargeException}.
+     */
+    public static List<NotificationRequestItem> readNotificationItems(InputStream in, int maxItems) throws IOException {
+        List<NotificationRequestItem> items = new ArrayList<>();
+
+        try (JsonParser parser = streamJsonFactory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Notification request must be a JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                if ("notificationItems".equals(fieldName) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readItem(parser, items);
+                        if (items.size() > maxItems) {
+                            throw new PayloadTooLargeException("Notification request has more than " + maxItems + " items");
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (parser.nextToken() != null) {
+                throw new IOException("Unexpected content after notification request");
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * Reads a single {@code NotificationRequestItem} object, e.g. one returned by {@link #extractRawItems}.
+     */
+    public static NotificationRequestItem readNotificationItem(String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Notification item must be a JSON object");
+            }
+            NotificationRequestItem item = readItemFields(parser);
+            if (parser.nextToken() != null) {
+                throw new IOException("Unexpected content after notification item");
+            }
+            return item;
+        }
+    }
+
+    private static void readItem(JsonParser parser, List<NotificationRequestItem> items) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if ("NotificationRequestItem".equals(fieldName) && value == JsonToken.START_OBJECT) {
+                items.add(readItemFields(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static NotificationRequestItem readItemFields(JsonParser parser) throws IOException {
+        NotificationRequestItem item = new NotificationRequestItem();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            switch (fieldName) {
+                case "pspReference" -> item.setPspReference(parser.getValueAsString());
+                case "originalReference" -> item.setOriginalReference(parser.getValueAsString());
+                case "merchantAccountCode" -> item.setMerchantAccountCode(parser.getValueAsString());
+                case "merchantReference" -> item.setMerchantReference(parser.getValueAsString());
+                case "eventCode" -> item.setEventCode(parser.getValueAsString());
+                // Items serialized with Jackson defaults carry the date as epoch millis
+                case "eventDate" -> item.setEventDate(value == JsonToken.VALUE_NUMBER_INT
+                        ? new Date(parser.getLongValue()) : parseEventDate(parser.getValueAsString()));
+                case "success" -> item.setSuccess(value == JsonToken.VALUE_TRUE || "true".equals(parser.getValueAsString()));
+                case "reason" -> item.setReason(parser.getValueAsString());
+                case "paymentMethod" -> item.setPaymentMethod(parser.getValueAsString());
+                case "amount" -> item.setAmount(readAmount(parser));
+                case "operations" -> item.setOperations(readStrings(parser));
+                case "additionalData" -> item.setAdditionalData(readStringMap(parser));
+                default -> parser.skipChildren();
+            }
+        }
+
+        return item;
+    }
+
+    private static Amount readAmount(JsonParser parser) throws IOException {
+        Amount amount = new Amount();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Notification amount must be a JSON object");
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if ("value".equals(fieldName) && value == JsonToken.VALUE_NUMBER_INT) {
+                amount.setValue(parser.getLongValue());
+            } else if ("currency".equals(fieldName) && value == JsonToken.VALUE_STRING) {
+                amount.setCurrency(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return amount;
+    }
+
+    private static List<String> readStrings(JsonParser parser) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return values;
+        }
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken().isScalarValue()) {
+                values.add(parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    private static Map<String, String> readStringMap(JsonParser parser) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return values;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+                values.put(fieldName, parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    private static Date parseEventDate(String eventDate) throws IOException {
+        try {
+            return Date.from(OffsetDateTime.parse(eventDate).toInstant());
+        } catch (DateTimeParseException e) {
+            throw new IOException("Invalid eventDate " + eventDate);
+        }
+    }
+
+    /**
+     * Returns the JSON of every {@code NotificationRequestItem} in the webhook body, in order, cut out of the
+     * original bytes instead of being serialized again.
+     */
+    public static List<String> extractRawItems(byte[] body) throws IOException {
+        List<String> rawItems = new ArrayList<>();
+
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Notification request must be a JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                if ("notificationItems".equals(fieldName) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readItemContainer(parser, body, rawItems);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        return rawItems;
+    }
+
+    private static void readItemContainer(JsonParser parser, byte[] body, List<String> rawItems) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if ("NotificationRequestItem".equals(fieldName) && value == JsonToken.START_OBJECT) {
+                int start = (int) parser.currentTokenLocation().getByteOffset();
+                parser.skipChildren();
+                int end = (int) parser.currentTokenLocation().getByteOffset() + 1;
+                rawItems.add(new String(body, start, end - start, StandardCharsets.UTF_8));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.payment.helper;
+
+public enum PaymentExportFormatEnum {
+    NDJSON("ndjson", "application/x-ndjson"),
+    CSV("csv", "text/csv");
+
+    private final String value;
+    private final String contentType;
+
+    PaymentExportFormatEnum(String value, String contentType) {
+        this.value = value;
+        this.contentType = contentType;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    public static PaymentExportFormatEnum fromValue(String value) {
+        for (PaymentExportFormatEnum format : values()) {
+            if (format.value.equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected value: " + value);
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.payment.helper;
+
+public enum PaymentIdempotencyStatusEnum {
+    PROCESSING("Processing"),
+    COMPLETED("Completed"),
+    FAILED("Failed");
+
+    private final String value;
+
+    PaymentIdempotencyStatusEnum(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    public static PaymentIdempotencyStatusEnum fromValue(String value) {
+        for (PaymentIdempotencyStatusEnum status : values()) {
+            if (status.value.equalsIgnoreCase(value)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected value: " + value);
+    }
+}
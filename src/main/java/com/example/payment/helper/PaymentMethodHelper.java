@@ -5,9 +5,6 @@ import com.adyen.model.checkout.CheckoutPaymentMethod;
 import com.adyen.model.checkout.IdealDetails;
 import com.adyen.util.Util;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-
 public class PaymentMethodHelper {
     private PaymentMethodHelper() {
         throw new IllegalStateException("Utility class");
@@ -67,12 +64,63 @@ public class PaymentMethodHelper {
         return checkoutPaymentMethod;
     }
 
-    public static long toMinorUnits(Double amount, String currencyCode)
-    {
-        int fractionDigits = Util.getDecimalPlaces(currencyCode);
+    public static long toMinorUnits(String amount, String currencyCode) {
+        return toMinorUnits(amount, Util.getDecimalPlaces(currencyCode));
+    }
+
+    /**
+     * Parses a decimal amount such as {@code "10.5"} into minor units ({@code 1050} with 2 fraction digits)
+     * without going through double or BigDecimal.
+     *
+     * @throws NumberFormatException if the amount is not a plain decimal number
+     * @throws ArithmeticException   if the amount has more non-zero fraction digits than the currency allows
+     *                               or does not fit into a long
+     */
+    public static long toMinorUnits(String amount, int fractionDigits) {
+        int length = amount.length();
+        int index = 0;
+        boolean negative = false;
+
+        if (length > 0 && (amount.charAt(0) == '-' || amount.charAt(0) == '+')) {
+            negative = amount.charAt(0) == '-';
+            index++;
+        }
+
+        long minorUnits = 0;
+        int digits = 0;
+        // Number of fraction digits read so far, -1 before the decimal point
+        int fraction = -1;
+
+        for (; index < length; index++) {
+            char c = amount.charAt(index);
+
+            if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+                if (fraction == fractionDigits) {
+                    if (c != '0') {
+                        throw new ArithmeticException("Amount has more than " + fractionDigits + " decimal places: " + amount);
+                    }
+                    continue;
+                }
+                if (fraction >= 0) {
+                    fraction++;
+                }
+                minorUnits = Math.addExact(Math.multiplyExact(minorUnits, 10), c - '0');
+            } else {
+                throw new NumberFormatException("For input string: \"" + amount + "\"");
+            }
+        }
+
+        if (digits == 0) {
+            throw new NumberFormatException("For input string: \"" + amount + "\"");
+        }
+
+        for (int i = Math.max(fraction, 0); i < fractionDigits; i++) {
+            minorUnits = Math.multiplyExact(minorUnits, 10);
+        }
 
-        BigDecimal amountBD = BigDecimal.valueOf(amount);
-        BigDecimal minorUnits = amountBD.movePointRight(fractionDigits);
-        return minorUnits.setScale(0, RoundingMode.HALF_UP).longValueExact();
+        return negative ? -minorUnits : minorUnits;
     }
 }
@@ -4,7 +4,8 @@ public enum PaymentStatusEnum {
     SUCCESS("Success"),
     PENDING("Pending"),
     FAILED("Failed"),
-    INITIATED("Initiated");
+    INITIATED("Initiated"),
+    UNAVAILABLE("Unavailable");
 
     private final String value;
 
@@ -16,6 +17,13 @@ public enum PaymentStatusEnum {
         return value;
     }
 
+    /**
+     * Success and Failed do not change any more, except through a later webhook event like a refund.
+     */
+    public boolean isFinal() {
+        return this == SUCCESS || this == FAILED;
+    }
+
     @Override
     public String toString() {
         return value;
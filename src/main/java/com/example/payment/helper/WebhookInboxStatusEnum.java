@@ -0,0 +1,32 @@
+package com.example.payment.helper;
+
+public enum WebhookInboxStatusEnum {
+    PENDING("Pending"),
+    PROCESSING("Processing"),
+    DONE("Done"),
+    FAILED("Failed");
+
+    private final String value;
+
+    WebhookInboxStatusEnum(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    public static WebhookInboxStatusEnum fromValue(String value) {
+        for (WebhookInboxStatusEnum status : values()) {
+            if (status.value.equalsIgnoreCase(value)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected value: " + value);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.payment.helper;
+
+public enum WebhookReplayStatusEnum {
+    RUNNING("Running"),
+    DONE("Done"),
+    CANCELLED("Cancelled"),
+    FAILED("Failed");
+
+    private final String value;
+
+    WebhookReplayStatusEnum(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    public static WebhookReplayStatusEnum fromValue(String value) {
+        for (WebhookReplayStatusEnum status : values()) {
+            if (status.value.equalsIgnoreCase(value)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected value: " + value);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.payment.helper;
+
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.adyen.dto.WebhookRequestDTO;
+import com.example.payment.exceptions.PayloadTooLargeException;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a webhook request body once, straight from the servlet stream. Items are parsed while the bytes
+ * stream in and a copy of the same bytes is kept, it is decoded into the payload String for the inbox
+ * once parsing is done. There is no String of the whole body to parse from, so at most the raw bytes and
+ * the payload are held. Bodies over {@code maxBodyBytes} or with more than {@code maxItems} items
+ * fail with {@link PayloadTooLargeException} as soon as the limit is crossed.
+ */
+public class WebhookRequestReader {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final int maxBodyBytes;
+    private final int maxItems;
+
+    public WebhookRequestReader(int maxBodyBytes, int maxItems) {
+        if (maxBodyBytes < 1 || maxItems < 1) {
+            throw new IllegalArgumentException("Webhook body and item limits must be greater then 0");
+        }
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxItems = maxItems;
+    }
+
+    public WebhookRequestDTO read(HttpServletRequest request) throws IOException {
+        long contentLength = request.getContentLengthLong();
+        if (contentLength > maxBodyBytes) {
+            throw new PayloadTooLargeException("Webhook body of " + contentLength + " bytes exceeds " + maxBodyBytes + " bytes");
+        }
+
+        int initialSize = contentLength > 0 ? (int) contentLength : INITIAL_BUFFER_SIZE;
+        CapturingInputStream body = new CapturingInputStream(request.getInputStream(), initialSize, maxBodyBytes);
+
+        List<NotificationRequestItem> items = NotificationJsonHelper.readNotificationItems(body, maxItems);
+
+        NotificationRequest notificationRequest = new NotificationRequest();
+        notificationRequest.setNotificationItems(items);
+        return new WebhookRequestDTO(body.captured(), notificationRequest);
+    }
+
+    /**
+     * Keeps a copy of every byte read through it, up to {@code maxBytes}.
+     */
+    private static final class CapturingInputStream extends FilterInputStream {
+        private final int maxBytes;
+        private byte[] buffer;
+        private int count;
+
+        private CapturingInputStream(InputStream in, int initialSize, int maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+            this.buffer = new byte[Math.min(initialSize, maxBytes)];
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                ensureCapacity(1);
+                buffer[count++] = (byte) b;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                ensureCapacity(read);
+                System.arraycopy(b, off, buffer, count, read);
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the payload
+            if (n <= 0) {
+                return 0;
+            }
+            return Math.max(read(new byte[(int) Math.min(n, INITIAL_BUFFER_SIZE)]), 0);
+        }
+
+        private void ensureCapacity(int additional) throws PayloadTooLargeException {
+            if (count + additional > maxBytes) {
+                throw new PayloadTooLargeException("Webhook body exceeds " + maxBytes + " bytes");
+            }
+            if (count + additional > buffer.length) {
+                int newSize = (int) Math.min(maxBytes, Math.max(2L * buffer.length, count + additional));
+                buffer = Arrays.copyOf(buffer, newSize);
+            }
+        }
+
+        private String captured() {
+            return new String(buffer, 0, count, StandardCharsets.UTF_8);
+        }
+    }
+}
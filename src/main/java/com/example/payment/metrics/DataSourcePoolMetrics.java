@@ -0,0 +1,98 @@
+package com.example.payment.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hikari metrics tracker factory which keeps connection pool counters (active, idle, pending, wait time)
+ * so they can be read from {@code /api/metrics/datasource}.
+ */
+public class DataSourcePoolMetrics implements MetricsTrackerFactory, MetricsSource {
+
+    private volatile String poolName;
+    private volatile PoolStats poolStats;
+
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder acquiredNanosTotal = new LongAdder();
+    private final AtomicLong acquiredNanosMax = new AtomicLong();
+    private final LongAdder usageCount = new LongAdder();
+    private final LongAdder usageMillisTotal = new LongAdder();
+    private final AtomicLong usageMillisMax = new AtomicLong();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolName = poolName;
+        this.poolStats = poolStats;
+
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                createdCount.increment();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquiredCount.increment();
+                acquiredNanosTotal.add(elapsedAcquiredNanos);
+                acquiredNanosMax.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageCount.increment();
+                usageMillisTotal.add(elapsedBorrowedMillis);
+                usageMillisMax.accumulateAndGet(elapsedBorrowedMillis, Math::max);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeoutCount.increment();
+            }
+        };
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "datasource";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("pool", poolName);
+
+        PoolStats stats = poolStats;
+        if (stats != null) {
+            metrics.put("active", stats.getActiveConnections());
+            metrics.put("idle", stats.getIdleConnections());
+            metrics.put("total", stats.getTotalConnections());
+            metrics.put("pending", stats.getPendingThreads());
+            metrics.put("min", stats.getMinConnections());
+            metrics.put("max", stats.getMaxConnections());
+        }
+
+        long acquired = acquiredCount.sum();
+        long usages = usageCount.sum();
+        metrics.put("acquired", acquired);
+        metrics.put("waitAvgMillis", acquired == 0 ? 0.0 : toMillis(acquiredNanosTotal.sum()) / acquired);
+        metrics.put("waitMaxMillis", toMillis(acquiredNanosMax.get()));
+        metrics.put("usageAvgMillis", usages == 0 ? 0.0 : (double) usageMillisTotal.sum() / usages);
+        metrics.put("usageMaxMillis", usageMillisMax.get());
+        metrics.put("created", createdCount.sum());
+        metrics.put("timeouts", timeoutCount.sum());
+        return metrics;
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
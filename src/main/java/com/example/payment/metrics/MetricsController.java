@@ -0,0 +1,41 @@
+package com.example.payment.metrics;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+
+    private final List<MetricsSource> metricsSources;
+
+    public MetricsController(List<MetricsSource> metricsSources) {
+        this.metricsSources = metricsSources;
+    }
+
+    @GetMapping
+    public Map<String, Map<String, Object>> getAllMetrics() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (MetricsSource source : metricsSources) {
+            result.put(source.getMetricsName(), source.getMetrics());
+        }
+        return result;
+    }
+
+    @GetMapping("/{name}")
+    public ResponseEntity<Map<String, Object>> getMetrics(@PathVariable("name") String name) {
+        for (MetricsSource source : metricsSources) {
+            if (source.getMetricsName().equals(name)) {
+                return ResponseEntity.ok(source.getMetrics());
+            }
+        }
+        return ResponseEntity.notFound().build();
+    }
+}
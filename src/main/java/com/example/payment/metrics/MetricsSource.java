@@ -0,0 +1,13 @@
+package com.example.payment.metrics;
+
+import java.util.Map;
+
+/**
+ * Component that exposes a snapshot of its runtime counters on {@code /api/metrics}.
+ */
+public interface MetricsSource {
+
+    String getMetricsName();
+
+    Map<String, Object> getMetrics();
+}
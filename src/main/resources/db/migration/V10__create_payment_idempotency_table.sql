@@ -0,0 +1,20 @@
+-- Outcomes of /pay requests by idempotency key, derived from merchant account and reference number. A client
+-- retry gets the stored response instead of a second payment row and a second Adyen call.
+--
+-- Processing rows are held by one request until locked_until, so a crashed instance does not block the key.
+-- Failed rows ended without a definite answer (timeout, Adyen 5xx) and are taken over by the next retry,
+-- which reuses payment_id and the same Adyen idempotency key.
+-- Rows older than the retention period are deleted by PartitionMaintenanceJob.
+CREATE TABLE payment_idempotency (
+    idempotency_key VARCHAR(64) PRIMARY KEY,
+    request_fingerprint VARCHAR(255) NOT NULL,
+    payment_id BIGINT,
+    status VARCHAR(20) NOT NULL,
+    response_status INT,
+    response_body TEXT,
+    locked_until TIMESTAMP,
+    created_at TIMESTAMP NOT NULL DEFAULT now(),
+    updated_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX ix_payment_idempotency_created_at ON payment_idempotency (created_at);
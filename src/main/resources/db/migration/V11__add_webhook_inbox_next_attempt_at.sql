@@ -0,0 +1,3 @@
+-- Released inbox rows are not claimed again before next_attempt_at, WebhookInboxWorker backs off per attempt.
+-- NULL for rows that were never released.
+ALTER TABLE webhook_inbox ADD COLUMN next_attempt_at TIMESTAMP;
@@ -0,0 +1,2 @@
+-- New notification items look up the waiting retry rows of their payment, so they are queued behind them
+CREATE INDEX ix_webhook_retry_psp_reference ON webhook_retry (psp_reference);
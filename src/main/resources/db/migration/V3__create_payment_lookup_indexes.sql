@@ -0,0 +1,52 @@
+-- Unique lookup indexes for payment. Webhooks resolve payments by psp_reference and
+-- returns resolve them by reference, both used to end up in a sequential scan.
+--
+-- Indexes are built CONCURRENTLY so the payment table stays writable during the build.
+-- CREATE INDEX CONCURRENTLY cannot run inside a transaction, see the .conf file next to this script.
+-- If a build is interrupted Postgres leaves an INVALID index behind; drop it before re-running.
+--
+-- Client retries could insert the same reference twice before this index existed. A unique build over such
+-- rows fails halfway, so duplicates are checked first and the migration stops before any index is built.
+-- To clean up, list them with
+--   SELECT reference, merchant_reference, array_agg(id ORDER BY id) FROM payment
+--   GROUP BY reference, merchant_reference HAVING count(*) > 1;
+-- and delete (or give a new reference to) all but the row that was sent to Adyen, usually the one with a
+-- psp_reference, then run the migration again. The same holds for psp_reference.
+
+DO $$
+DECLARE
+    duplicates text;
+BEGIN
+    SELECT string_agg(format('%s/%s (ids %s)', reference, merchant_reference, ids), ', ')
+    INTO duplicates
+    FROM (SELECT reference, merchant_reference, array_agg(id ORDER BY id) AS ids
+          FROM payment
+          GROUP BY reference, merchant_reference
+          HAVING count(*) > 1
+          LIMIT 20) d;
+    IF duplicates IS NOT NULL THEN
+        RAISE EXCEPTION 'payment has duplicate (reference, merchant_reference) rows, clean them up before V3 (see the script): %', duplicates;
+    END IF;
+
+    SELECT string_agg(format('%s (ids %s)', psp_reference, ids), ', ')
+    INTO duplicates
+    FROM (SELECT psp_reference, array_agg(id ORDER BY id) AS ids
+          FROM payment
+          WHERE psp_reference IS NOT NULL
+          GROUP BY psp_reference
+          HAVING count(*) > 1
+          LIMIT 20) d;
+    IF duplicates IS NOT NULL THEN
+        RAISE EXCEPTION 'payment has duplicate psp_reference rows, clean them up before V3 (see the script): %', duplicates;
+    END IF;
+END;
+$$;
+
+-- psp_reference is only known after the Adyen call, so rows without it are left out
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS ux_payment_psp_reference
+    ON payment (psp_reference)
+    WHERE psp_reference IS NOT NULL;
+
+-- reference leads so that lookups by reference alone can use the index too
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS ux_payment_reference_merchant_reference
+    ON payment (reference, merchant_reference);
@@ -0,0 +1,105 @@
+-- Monthly range partitioning of payment_webhook (by received_at).
+--
+-- The existing table is renamed to payment_webhook_legacy and attached as the first partition, holding every
+-- row up to the start of next month, so no rows are copied. Monthly partitions after that are created by
+-- create_monthly_partitions() and old ones are detached into the archive schema by archive_partitions(),
+-- both called from PartitionMaintenanceJob.
+--
+-- payment is not partitioned. Unique indexes of a partitioned table have to contain the partition key, so
+-- ux_payment_psp_reference and ux_payment_reference_merchant_reference (V3) would only be unique within one
+-- month, and lookups by psp_reference or reference carry no create_at to prune partitions with.
+--
+-- Postgres 11 limitations shape this migration:
+--  * primary keys of partitioned tables have to contain the partition key
+--  * foreign keys have to be created on the partitioned table, so fk_payment is created again after the attach
+
+CREATE SCHEMA IF NOT EXISTS archive;
+
+-- Partition keys can not be NULL
+UPDATE payment_webhook SET received_at = COALESCE(event_date, now()) WHERE received_at IS NULL;
+ALTER TABLE payment_webhook ALTER COLUMN received_at SET NOT NULL;
+
+ALTER TABLE payment_webhook DROP CONSTRAINT fk_payment;
+
+ALTER TABLE payment_webhook DROP CONSTRAINT payment_webhook_pkey;
+ALTER TABLE payment_webhook ADD CONSTRAINT payment_webhook_legacy_pkey PRIMARY KEY (id, received_at);
+ALTER TABLE payment_webhook RENAME TO payment_webhook_legacy;
+
+-- Same columns and id sequence as before, so PaymentWebhookDao queries do not change
+CREATE TABLE payment_webhook (LIKE payment_webhook_legacy INCLUDING DEFAULTS) PARTITION BY RANGE (received_at);
+ALTER TABLE payment_webhook ADD CONSTRAINT payment_webhook_pkey PRIMARY KEY (id, received_at);
+ALTER SEQUENCE payment_webhook_id_seq OWNED BY payment_webhook.id;
+
+DO $$
+DECLARE
+    legacy_end timestamptz := (date_trunc('month', now() AT TIME ZONE 'UTC') + interval '1 month') AT TIME ZONE 'UTC';
+BEGIN
+    EXECUTE format('ALTER TABLE payment_webhook ATTACH PARTITION payment_webhook_legacy FOR VALUES FROM (MINVALUE) TO (%L)', legacy_end);
+END;
+$$;
+
+ALTER TABLE payment_webhook ADD CONSTRAINT fk_payment FOREIGN KEY (payment_id) REFERENCES payment (id) ON DELETE CASCADE;
+
+-- Creates the monthly partitions of payment_webhook from the current month up to months_ahead months
+-- in the future (UTC month boundaries). Returns the names of created partitions.
+CREATE OR REPLACE FUNCTION create_monthly_partitions(months_ahead integer)
+RETURNS SETOF text AS $$
+DECLARE
+    current_month timestamp := date_trunc('month', now() AT TIME ZONE 'UTC');
+    month_start timestamp;
+    suffix text;
+BEGIN
+    -- Several application instances may run the maintenance at the same time
+    PERFORM pg_advisory_xact_lock(hashtext('create_monthly_partitions'));
+
+    FOR i IN 0..months_ahead LOOP
+        month_start := current_month + make_interval(months => i);
+        suffix := to_char(month_start, '"p"YYYY_MM');
+
+        IF to_regclass('payment_webhook_' || suffix) IS NULL THEN
+            BEGIN
+                EXECUTE format('CREATE TABLE %I PARTITION OF payment_webhook FOR VALUES FROM (%L) TO (%L)',
+                               'payment_webhook_' || suffix,
+                               month_start AT TIME ZONE 'UTC',
+                               (month_start + interval '1 month') AT TIME ZONE 'UTC');
+                EXECUTE format('CREATE INDEX %I ON %I (payment_id)',
+                               'ix_payment_webhook_' || suffix || '_payment_id', 'payment_webhook_' || suffix);
+                RETURN NEXT 'payment_webhook_' || suffix;
+            EXCEPTION WHEN invalid_object_definition THEN
+                -- month is still covered by the legacy partition
+                NULL;
+            END;
+        END IF;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Detaches partitions of payment_webhook whose upper bound is older than retention_months and moves them
+-- to the archive schema, from where they can be dumped and dropped.
+-- Returns the names of archived partitions.
+CREATE OR REPLACE FUNCTION archive_partitions(retention_months integer)
+RETURNS SETOF text AS $$
+DECLARE
+    cutoff timestamptz := (date_trunc('month', now() AT TIME ZONE 'UTC') - make_interval(months => retention_months)) AT TIME ZONE 'UTC';
+    part record;
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('archive_partitions'));
+
+    FOR part IN
+        SELECT child.relname AS partition_name
+        FROM pg_inherits i
+                 JOIN pg_class parent ON parent.oid = i.inhparent
+                 JOIN pg_class child ON child.oid = i.inhrelid
+        WHERE parent.relname = 'payment_webhook'
+          AND parent.relnamespace = 'public'::regnamespace
+          AND (regexp_match(pg_get_expr(child.relpartbound, child.oid), 'TO \(''([^'']+)''\)'))[1]::timestamptz <= cutoff
+        ORDER BY child.relname
+    LOOP
+        EXECUTE format('ALTER TABLE payment_webhook DETACH PARTITION %I', part.partition_name);
+        EXECUTE format('ALTER TABLE %I SET SCHEMA archive', part.partition_name);
+        RETURN NEXT part.partition_name;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_monthly_partitions(3);
@@ -0,0 +1,10 @@
+-- raw_notification holds the notification item JSON exactly as Adyen sent it.
+-- jsonb keeps EXTENDED storage, so large payloads are compressed and moved out of line by TOAST.
+ALTER TABLE payment_webhook
+    ALTER COLUMN raw_notification TYPE jsonb USING raw_notification::jsonb;
+
+-- Containment queries such as raw_notification @> '{"eventCode": "REFUND"}' or
+-- raw_notification @> '{"merchantReference": "ref12345"}' use this index instead of a full scan.
+-- Created on the partitioned table, so it is added to every existing and future partition.
+CREATE INDEX ix_payment_webhook_raw_notification
+    ON payment_webhook USING GIN (raw_notification jsonb_path_ops);
@@ -0,0 +1,12 @@
+-- amount was DECIMAL(255) with scale 0, so fractional amounts were rounded to whole major units on insert.
+-- From now on it holds the amount in minor units (e.g. cents), the same value Adyen sends in notifications.
+-- Fraction digits per currency match com.adyen.util.Util.getDecimalPlaces, everything else has 2.
+ALTER TABLE payment
+    ALTER COLUMN amount TYPE BIGINT USING (amount * CASE
+        WHEN currency IN ('CVE', 'DJF', 'GNF', 'IDR', 'JPY', 'KMF', 'KRW', 'PYG',
+                          'RWF', 'UGX', 'VND', 'VUV', 'XAF', 'XOF', 'XPF') THEN 1
+        WHEN currency IN ('BHD', 'IQD', 'JOD', 'KWD', 'LYD', 'OMR', 'TND') THEN 1000
+        ELSE 100
+    END)::bigint;
+
+COMMENT ON COLUMN payment.amount IS 'Amount in minor units of currency';
@@ -0,0 +1,20 @@
+-- Durable inbox for incoming Adyen webhooks. The controller only inserts the raw request body,
+-- WebhookInboxWorker instances claim rows with FOR UPDATE SKIP LOCKED and apply them.
+CREATE TABLE webhook_inbox (
+    id BIGSERIAL PRIMARY KEY,
+    payload TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'Pending',
+    attempts INT NOT NULL DEFAULT 0,
+    locked_until TIMESTAMP,
+    last_error TEXT,
+    received_at TIMESTAMP NOT NULL DEFAULT now(),
+    processed_at TIMESTAMP
+);
+
+-- Claim query only looks at open rows, so the index stays small however many rows are done
+CREATE INDEX ix_webhook_inbox_open ON webhook_inbox (id) WHERE status IN ('Pending', 'Processing');
+
+CREATE INDEX ix_webhook_inbox_processed_at ON webhook_inbox (processed_at) WHERE processed_at IS NOT NULL;
+
+-- Rows are updated twice right after insert, vacuum the table more often than the default 20%
+ALTER TABLE webhook_inbox SET (autovacuum_vacuum_scale_factor = 0.02, autovacuum_analyze_scale_factor = 0.02);
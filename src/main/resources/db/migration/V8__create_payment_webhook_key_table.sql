@@ -0,0 +1,23 @@
+-- Natural keys of applied webhook items, used to detect Adyen redeliveries.
+--
+-- payment_webhook is partitioned by received_at, so a unique index on it has to contain received_at and
+-- would never see a redelivery (it arrives later). The keys live in this small unpartitioned table instead,
+-- inserted with ON CONFLICT DO NOTHING in the same transaction as the payment_webhook row.
+-- Keys older than the redelivery window are deleted by PartitionMaintenanceJob.
+CREATE TABLE payment_webhook_key (
+    psp_reference VARCHAR(255) NOT NULL,
+    event_code VARCHAR(255) NOT NULL,
+    success BOOLEAN NOT NULL,
+    event_date TIMESTAMPTZ NOT NULL,
+    received_at TIMESTAMPTZ NOT NULL,
+    CONSTRAINT payment_webhook_key_pkey PRIMARY KEY (psp_reference, event_code, success, event_date)
+);
+
+CREATE INDEX ix_payment_webhook_key_received_at ON payment_webhook_key (received_at);
+
+-- Webhooks received so far count as applied
+INSERT INTO payment_webhook_key (psp_reference, event_code, success, event_date, received_at)
+SELECT psp_reference, event_code, success, event_date, max(received_at)
+FROM payment_webhook
+WHERE psp_reference IS NOT NULL AND event_code IS NOT NULL AND success IS NOT NULL AND event_date IS NOT NULL
+GROUP BY psp_reference, event_code, success, event_date;
@@ -0,0 +1,28 @@
+-- Notification items that failed while being applied. WebhookRetryScheduler retries them with exponential
+-- backoff, next_attempt_at is pushed ahead by a lease while an instance works on a row.
+CREATE TABLE webhook_retry (
+    id BIGSERIAL PRIMARY KEY,
+    psp_reference VARCHAR(255),
+    event_code VARCHAR(255),
+    notification TEXT NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP NOT NULL,
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX ix_webhook_retry_next_attempt_at ON webhook_retry (next_attempt_at);
+
+-- Items that ran out of attempts, kept until they are replayed into webhook_retry
+CREATE TABLE webhook_dead_letter (
+    id BIGSERIAL PRIMARY KEY,
+    psp_reference VARCHAR(255),
+    event_code VARCHAR(255),
+    notification TEXT NOT NULL,
+    attempts INT NOT NULL,
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL,
+    failed_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX ix_webhook_dead_letter_psp_reference ON webhook_dead_letter (psp_reference);
@@ -0,0 +1,211 @@
+package com.example.payment.adyen.async;
+
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.adyen.cache.WebhookKeyCache;
+import com.example.payment.adyen.dao.WebhookRetryDao;
+import com.example.payment.adyen.dto.NotificationItemDTO;
+import com.example.payment.adyen.dto.WebhookRetryDTO;
+import com.example.payment.adyen.service.PaymentService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+class AsyncWebhookProcessorTest {
+
+    private PaymentService paymentService;
+    private AsyncWebhookProcessor webhookProcessor;
+
+    @BeforeEach
+    void setUp() {
+        paymentService = mock(PaymentService.class);
+        webhookProcessor = new AsyncWebhookProcessor(paymentService);
+        webhookProcessor.setBatchEnabled(true);
+        webhookProcessor.setBatchSize(2);
+    }
+
+    @Test
+    void testProcessSplitsItemsIntoChunks() {
+        NotificationItemDTO first = new NotificationItemDTO(new NotificationRequestItem(), "{}");
+        NotificationItemDTO second = new NotificationItemDTO(new NotificationRequestItem(), "{}");
+        NotificationItemDTO third = new NotificationItemDTO(new NotificationRequestItem(), "{}");
+
+        when(paymentService.handleNotificationBatch(anyList())).thenReturn(Collections.emptyList());
+
+        webhookProcessor.process(List.of(first, second, third));
+
+        verify(paymentService, times(1)).handleNotificationBatch(List.of(first, second));
+        verify(paymentService, times(1)).handleNotificationBatch(List.of(third));
+        verify(paymentService, never()).handleNotification(any(NotificationItemDTO.class));
+    }
+
+    @Test
+    void testProcessFallsBackToSingleItems() {
+        NotificationItemDTO first = new NotificationItemDTO(new NotificationRequestItem(), "{}");
+        NotificationItemDTO second = new NotificationItemDTO(new NotificationRequestItem(), "{}");
+
+        when(paymentService.handleNotificationBatch(anyList())).thenReturn(List.of(second));
+
+        webhookProcessor.process(List.of(first, second));
+
+        verify(paymentService, never()).handleNotification(first);
+        verify(paymentService, times(1)).handleNotification(second);
+    }
+
+    @Test
+    void testProcessRetriesWholeChunkWhenBatchFails() {
+        NotificationItemDTO first = new NotificationItemDTO(createItem("psp123", "UNKNOWN"), "{}");
+        NotificationItemDTO second = new NotificationItemDTO(createItem("psp456", "AUTHORISATION"), "{}");
+        NotificationItemDTO third = new NotificationItemDTO(createItem("psp789", "AUTHORISATION"), "{}");
+
+        when(paymentService.handleNotificationBatch(anyList())).thenThrow(new RuntimeException("Set for rollback"));
+        doThrow(new RuntimeException("Unknown event code")).when(paymentService).handleNotification(first);
+
+        // The failed item fails the call, so the inbox row is not marked done, later chunks wait for the retry
+        RuntimeException e = assertThrows(RuntimeException.class, () -> webhookProcessor.process(List.of(first, second, third)));
+
+        assertEquals("Unknown event code", e.getMessage());
+        verify(paymentService, times(1)).handleNotification(first);
+        verify(paymentService, times(1)).handleNotification(second);
+        verify(paymentService, never()).handleNotification(third);
+    }
+
+    @Test
+    void testProcessSingleItemWithoutBatch() {
+        NotificationRequestItem item = new NotificationRequestItem();
+
+        webhookProcessor.process(createRequest(List.of(item)));
+
+        verify(paymentService, never()).handleNotificationBatch(anyList());
+        verify(paymentService, times(1)).handleNotification(argThat((NotificationItemDTO notification) -> notification.getItem() == item));
+    }
+
+    @Test
+    void testProcessSkipsCachedDuplicates() {
+        webhookProcessor.setWebhookKeyCache(new WebhookKeyCache(100));
+        NotificationItemDTO applied = new NotificationItemDTO(createItem("psp123", "AUTHORISATION"), "{}");
+        NotificationItemDTO fallback = new NotificationItemDTO(createItem("psp456", "UNKNOWN"), "{}");
+        doThrow(new RuntimeException("Unknown event code")).when(paymentService).handleNotification(fallback);
+        when(paymentService.handleNotificationBatch(anyList())).thenReturn(List.of(fallback));
+
+        assertThrows(RuntimeException.class, () -> webhookProcessor.process(List.of(applied, fallback)));
+        webhookProcessor.process(List.of(new NotificationItemDTO(createItem("psp123", "AUTHORISATION"), "{}")));
+        webhookProcessor.process(List.of(new NotificationItemDTO(createItem("psp456", "UNKNOWN"), "{}")));
+
+        verify(paymentService, times(1)).handleNotificationBatch(anyList());
+        // The item applied in the batch is not handled again, the one that failed is
+        verify(paymentService, never()).handleNotification(argThat((NotificationItemDTO notification) ->
+                "psp123".equals(notification.getItem().getPspReference())));
+        verify(paymentService, times(2)).handleNotification(argThat((NotificationItemDTO notification) ->
+                "psp456".equals(notification.getItem().getPspReference())));
+    }
+
+    @Test
+    void testProcessSchedulesFailedItemWithLaterItemsOfSamePayment() {
+        WebhookRetryScheduler retryScheduler = mock(WebhookRetryScheduler.class);
+        webhookProcessor.setRetryScheduler(retryScheduler);
+        webhookProcessor.setBatchEnabled(false);
+
+        NotificationItemDTO authorisation = new NotificationItemDTO(createItem("psp123", "AUTHORISATION"), "{}");
+        NotificationItemDTO other = new NotificationItemDTO(createItem("psp456", "AUTHORISATION"), "{}");
+        NotificationItemDTO refund = new NotificationItemDTO(createItem("psp123", "REFUND"), "{}");
+        RuntimeException error = new RuntimeException("Set for rollback");
+        doThrow(error).when(paymentService).handleNotification(authorisation);
+
+        webhookProcessor.process(List.of(authorisation, other, refund));
+
+        verify(paymentService, times(1)).handleNotification(other);
+        verify(paymentService, never()).handleNotification(refund);
+        verify(retryScheduler, times(1)).schedule(List.of(authorisation, refund), error);
+    }
+
+    @Test
+    void testNewEventWaitsBehindRetryOfEarlierEvent() {
+        WebhookRetryDao webhookRetryDao = mock(WebhookRetryDao.class);
+        List<WebhookRetryDTO> stored = new ArrayList<>();
+        when(webhookRetryDao.insert(anyList())).thenAnswer(invocation -> {
+            List<WebhookRetryDTO> retries = invocation.getArgument(0);
+            List<Long> ids = new ArrayList<>();
+            for (WebhookRetryDTO retry : retries) {
+                retry.setId((long) stored.size() + 1);
+                stored.add(retry);
+                ids.add(retry.getId());
+            }
+            return ids;
+        });
+        when(webhookRetryDao.findNextAttemptAt(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> pspReferences = invocation.getArgument(0);
+            Map<String, Timestamp> waiting = new HashMap<>();
+            for (WebhookRetryDTO retry : stored) {
+                if (pspReferences.contains(retry.getPspReference())) {
+                    waiting.put(retry.getPspReference(), new Timestamp(retry.getNextAttemptAt().getTime()));
+                }
+            }
+            return waiting;
+        });
+        WebhookRetryScheduler retryScheduler = new WebhookRetryScheduler(webhookRetryDao, paymentService, mock(ThreadPoolTaskExecutor.class));
+        webhookProcessor.setRetryScheduler(retryScheduler);
+        webhookProcessor.setBatchEnabled(false);
+
+        List<String> applied = new ArrayList<>();
+        doThrow(new RuntimeException("Set for rollback")).doAnswer(invocation -> {
+            NotificationItemDTO item = invocation.getArgument(0);
+            applied.add(item.getItem().getEventCode());
+            return null;
+        }).when(paymentService).handleNotification(any(NotificationItemDTO.class));
+
+        // Event 1 fails, event 2 of the same payment arrives before event 1 is retried
+        webhookProcessor.process(List.of(new NotificationItemDTO(createItem("psp123", "AUTHORISATION"),
+                "{\"pspReference\":\"psp123\",\"eventCode\":\"AUTHORISATION\"}")));
+        webhookProcessor.process(List.of(new NotificationItemDTO(createItem("psp123", "CAPTURE"),
+                "{\"pspReference\":\"psp123\",\"eventCode\":\"CAPTURE\"}")));
+
+        assertEquals(List.of(), applied);
+        assertEquals(2, stored.size());
+        assertEquals(WebhookRetryScheduler.WAITING_ERROR, stored.get(1).getLastError());
+        assertEquals(stored.get(0).getNextAttemptAt(), stored.get(1).getNextAttemptAt());
+
+        retryScheduler.processRetries(stored, new HashMap<>());
+
+        assertEquals(List.of("AUTHORISATION", "CAPTURE"), applied);
+        verify(webhookRetryDao, times(1)).delete(1L);
+        verify(webhookRetryDao, times(1)).delete(2L);
+    }
+
+    @Test
+    void testProcessThrowsWithoutRetryScheduler() {
+        webhookProcessor.setBatchEnabled(false);
+        NotificationItemDTO item = new NotificationItemDTO(createItem("psp123", "AUTHORISATION"), "{}");
+        doThrow(new RuntimeException("Set for rollback")).when(paymentService).handleNotification(item);
+
+        assertThrows(RuntimeException.class, () -> webhookProcessor.process(List.of(item)));
+    }
+
+    private NotificationRequestItem createItem(String pspReference, String eventCode) {
+        NotificationRequestItem item = new NotificationRequestItem();
+        item.setPspReference(pspReference);
+        item.setEventCode(eventCode);
+        item.setSuccess(true);
+        item.setEventDate(new Date(1700000000000L));
+        return item;
+    }
+
+    private NotificationRequest createRequest(List<NotificationRequestItem> items) {
+        NotificationRequest request = new NotificationRequest();
+        request.setNotificationItems(items);
+        return request;
+    }
+}
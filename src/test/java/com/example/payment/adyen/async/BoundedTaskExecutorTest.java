@@ -0,0 +1,69 @@
+package com.example.payment.adyen.async;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedTaskExecutorTest {
+
+    @Test
+    void testPlatformModeLimitsConcurrency() throws Exception {
+        BoundedTaskExecutor executor = new BoundedTaskExecutor("test", "platform", 2);
+        try {
+            assertMaxConcurrency(executor, 2);
+            assertEquals("platform", executor.getMetrics().get("mode"));
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void testVirtualModeLimitsConcurrency() throws Exception {
+        BoundedTaskExecutor executor = new BoundedTaskExecutor("test", "virtual", 2);
+
+        assertMaxConcurrency(executor, 2);
+        assertEquals("virtual", executor.getMetrics().get("mode"));
+    }
+
+    @Test
+    void testUnknownModeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedTaskExecutor("test", "fibers", 2));
+    }
+
+    @Test
+    void testMaxConcurrencyMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedTaskExecutor("test", "platform", 0));
+    }
+
+    private void assertMaxConcurrency(BoundedTaskExecutor executor, int maxConcurrency) throws InterruptedException {
+        int tasks = 20;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= maxConcurrency);
+        assertEquals((long) tasks, executor.getMetrics().get("submitted"));
+    }
+}
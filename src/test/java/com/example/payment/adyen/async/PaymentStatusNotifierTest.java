@@ -0,0 +1,70 @@
+package com.example.payment.adyen.async;
+
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentStatusDTO;
+import com.example.payment.helper.PaymentStatusEnum;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentStatusNotifierTest {
+
+    @Test
+    void testPublishWakesWaitersOfThePayment() {
+        PaymentStatusNotifier paymentStatusNotifier = new PaymentStatusNotifier();
+        List<PaymentStatusDTO> received = new ArrayList<>();
+        List<PaymentStatusDTO> receivedOther = new ArrayList<>();
+
+        paymentStatusNotifier.subscribe(1L, received::add);
+        paymentStatusNotifier.subscribe(2L, receivedOther::add);
+        paymentStatusNotifier.publish(createPayment(1L, PaymentStatusEnum.SUCCESS));
+
+        assertEquals(1, received.size());
+        assertEquals("Success", received.get(0).getStatus());
+        assertTrue(received.get(0).isCompleted());
+        assertTrue(receivedOther.isEmpty());
+    }
+
+    @Test
+    void testUnsubscribeRemovesWaiter() {
+        PaymentStatusNotifier paymentStatusNotifier = new PaymentStatusNotifier();
+        List<PaymentStatusDTO> received = new ArrayList<>();
+
+        Runnable unsubscribe = paymentStatusNotifier.subscribe(1L, received::add);
+        assertEquals(1, paymentStatusNotifier.getMetrics().get("waiting"));
+
+        unsubscribe.run();
+        unsubscribe.run();
+        paymentStatusNotifier.publish(createPayment(1L, PaymentStatusEnum.PENDING));
+
+        assertTrue(received.isEmpty());
+        assertEquals(0, paymentStatusNotifier.getMetrics().get("waiting"));
+        assertEquals(0, paymentStatusNotifier.getMetrics().get("payments"));
+        assertEquals(1L, paymentStatusNotifier.getMetrics().get("published"));
+    }
+
+    @Test
+    void testFailingWaiterDoesNotStopOthers() {
+        PaymentStatusNotifier paymentStatusNotifier = new PaymentStatusNotifier();
+        List<PaymentStatusDTO> received = new ArrayList<>();
+
+        paymentStatusNotifier.subscribe(1L, status -> {
+            throw new IllegalStateException("Response already committed");
+        });
+        paymentStatusNotifier.subscribe(1L, received::add);
+        paymentStatusNotifier.publish(createPayment(1L, PaymentStatusEnum.FAILED));
+
+        assertEquals(1, received.size());
+        assertEquals(1L, paymentStatusNotifier.getMetrics().get("delivered"));
+    }
+
+    private PaymentDTO createPayment(Long id, PaymentStatusEnum status) {
+        PaymentDTO payment = new PaymentDTO();
+        payment.setId(id);
+        payment.setStatus(status);
+        return payment;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.payment.adyen.async;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    @Test
+    void testAdvanceReturnsExpiredTimers() {
+        TimerWheel<String> timerWheel = new TimerWheel<>(10, 8, 1000);
+        timerWheel.add("first", 1005);
+        timerWheel.add("second", 1050);
+
+        assertEquals(List.of("first"), timerWheel.advance(1010));
+        assertEquals(List.of(), timerWheel.advance(1049));
+        assertEquals(List.of("second"), timerWheel.advance(1050));
+        assertEquals(0, timerWheel.size());
+    }
+
+    @Test
+    void testTimerBeyondOneTurnWaitsForItsRound() {
+        TimerWheel<String> timerWheel = new TimerWheel<>(10, 8, 1000);
+        // 30 ticks ahead on a wheel of 8 slots
+        timerWheel.add("late", 1300);
+
+        assertEquals(List.of(), timerWheel.advance(1100));
+        assertEquals(List.of(), timerWheel.advance(1290));
+        assertEquals(List.of("late"), timerWheel.advance(1300));
+    }
+
+    @Test
+    void testPastDeadlineExpiresOnNextTick() {
+        TimerWheel<String> timerWheel = new TimerWheel<>(10, 8, 1000);
+        timerWheel.add("overdue", 500);
+
+        assertEquals(1, timerWheel.size());
+        assertEquals(List.of("overdue"), timerWheel.advance(1010));
+    }
+
+    @Test
+    void testAdvanceAfterLongPauseExpiresEverything() {
+        TimerWheel<String> timerWheel = new TimerWheel<>(10, 8, 1000);
+        timerWheel.add("first", 1020);
+        timerWheel.add("second", 1500);
+
+        List<String> expired = timerWheel.advance(100000);
+
+        assertEquals(2, expired.size());
+        assertTrue(expired.containsAll(List.of("first", "second")));
+    }
+}
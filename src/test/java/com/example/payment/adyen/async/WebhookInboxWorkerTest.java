@@ -0,0 +1,195 @@
+package com.example.payment.adyen.async;
+
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.WebhookHandler;
+import com.example.payment.adyen.dao.WebhookInboxDao;
+import com.example.payment.adyen.dto.NotificationItemDTO;
+import com.example.payment.adyen.dto.WebhookInboxDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class WebhookInboxWorkerTest {
+
+    private static final String PAYLOAD = "{\"live\":\"false\",\"notificationItems\":[{\"NotificationRequestItem\":{\"eventCode\":\"AUTHORISATION\"}}]}";
+
+    private WebhookInboxDao webhookInboxDao;
+    private AsyncWebhookProcessor webhookProcessor;
+    private WebhookHandler webhookHandler;
+    private WebhookInboxWorker webhookInboxWorker;
+
+    @BeforeEach
+    void setUp() {
+        webhookInboxDao = mock(WebhookInboxDao.class);
+        webhookProcessor = mock(AsyncWebhookProcessor.class);
+        webhookHandler = mock(WebhookHandler.class);
+
+        webhookInboxWorker = new WebhookInboxWorker(webhookInboxDao, webhookProcessor, webhookHandler, mock(ThreadPoolTaskExecutor.class));
+        webhookInboxWorker.setClaimSize(10);
+        webhookInboxWorker.setLeaseMillis(60000);
+        webhookInboxWorker.setMaxAttempts(3);
+    }
+
+    @Test
+    void testProcessNextMarksRowDone() throws IOException {
+        NotificationRequestItem item = new NotificationRequestItem();
+        when(webhookInboxDao.claim(10, 60000)).thenReturn(List.of(createEntry(1L, 1)));
+        when(webhookHandler.handleNotificationJson(PAYLOAD)).thenReturn(createRequest(item));
+
+        int claimed = webhookInboxWorker.processNext();
+
+        assertEquals(1, claimed);
+        verify(webhookProcessor, times(1)).process(argThat((List<NotificationItemDTO> items) -> items.size() == 1
+                && items.get(0).getItem() == item
+                && "{\"eventCode\":\"AUTHORISATION\"}".equals(items.get(0).getRawNotification())));
+        verify(webhookInboxDao, times(1)).markDone(1L);
+    }
+
+    @Test
+    void testProcessNextReleasesRowOnError() throws IOException {
+        when(webhookInboxDao.claim(10, 60000)).thenReturn(List.of(createEntry(1L, 1)));
+        when(webhookHandler.handleNotificationJson(PAYLOAD)).thenReturn(createRequest(new NotificationRequestItem()));
+        doThrow(new RuntimeException("Connection refused")).when(webhookProcessor).process(anyList());
+
+        long before = System.currentTimeMillis();
+        webhookInboxWorker.processNext();
+
+        ArgumentCaptor<Timestamp> nextAttemptAt = ArgumentCaptor.forClass(Timestamp.class);
+        verify(webhookInboxDao, times(1)).release(eq(1L), eq("Connection refused"), nextAttemptAt.capture());
+        assertTrue(nextAttemptAt.getValue().getTime() >= before + 1000);
+        verify(webhookInboxDao, never()).markDone(anyLong());
+        verify(webhookInboxDao, never()).markFailed(anyLong(), anyString());
+    }
+
+    @Test
+    void testProcessNextMarksRowFailedAfterMaxAttempts() throws IOException {
+        when(webhookInboxDao.claim(10, 60000)).thenReturn(List.of(createEntry(1L, 3)));
+        when(webhookHandler.handleNotificationJson(PAYLOAD)).thenThrow(new IOException("Malformed JSON"));
+
+        webhookInboxWorker.processNext();
+
+        verify(webhookInboxDao, times(1)).markFailed(1L, "Malformed JSON");
+        verify(webhookInboxDao, never()).release(anyLong(), anyString(), any());
+    }
+
+    @Test
+    void testProcessNextOnLanesMarksRowsByOutcome() throws IOException {
+        NotificationRequestItem item = new NotificationRequestItem();
+        item.setPspReference("PSP1");
+        when(webhookInboxDao.claim(10, 60000)).thenReturn(List.of(createEntry(1L, 1), createEntry(2L, 1)));
+        when(webhookHandler.handleNotificationJson(PAYLOAD)).thenReturn(createRequest(item));
+        doNothing().doThrow(new RuntimeException("Connection refused")).when(webhookProcessor).process(anyList());
+        webhookInboxWorker.setLaneDispatcher(new WebhookLaneDispatcher(webhookProcessor, new SyncTaskExecutor(), 4));
+
+        int claimed = webhookInboxWorker.processNext();
+
+        assertEquals(2, claimed);
+        verify(webhookInboxDao, times(1)).markDone(1L);
+        verify(webhookInboxDao, times(1)).release(eq(2L), eq("Connection refused"), any(Timestamp.class));
+    }
+
+    @Test
+    void testRetryDelayDoublesPerAttemptUpToMax() {
+        webhookInboxWorker.setRetryDelayMillis(1000);
+        webhookInboxWorker.setMaxRetryDelayMillis(5000);
+
+        assertEquals(1000, webhookInboxWorker.getRetryDelayMillis(1));
+        assertEquals(2000, webhookInboxWorker.getRetryDelayMillis(2));
+        assertEquals(4000, webhookInboxWorker.getRetryDelayMillis(3));
+        assertEquals(5000, webhookInboxWorker.getRetryDelayMillis(4));
+        assertEquals(5000, webhookInboxWorker.getRetryDelayMillis(100));
+    }
+
+    @Test
+    void testWorkersQueueClaimsOnLanesInClaimOrder() throws Exception {
+        CountDownLatch firstClaimed = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        AtomicInteger claims = new AtomicInteger();
+        when(webhookInboxDao.claim(10, 60000)).thenAnswer(invocation -> {
+            if (claims.incrementAndGet() == 1) {
+                firstClaimed.countDown();
+                releaseFirst.await();
+                return List.of(createEntry(1L, 1));
+            }
+            return List.of(createEntry(2L, 1));
+        });
+        NotificationRequestItem authorisation = createItem("AUTHORISATION");
+        NotificationRequestItem capture = createItem("CAPTURE");
+        when(webhookHandler.handleNotificationJson(PAYLOAD)).thenReturn(createRequest(authorisation), createRequest(capture));
+        List<String> applied = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            List<NotificationItemDTO> items = invocation.getArgument(0);
+            applied.add(items.get(0).getItem().getEventCode());
+            return null;
+        }).when(webhookProcessor).process(anyList());
+        webhookInboxWorker.setLaneDispatcher(new WebhookLaneDispatcher(webhookProcessor, new SyncTaskExecutor(), 4));
+
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = workers.submit(webhookInboxWorker::processNext);
+            assertTrue(firstClaimed.await(5, TimeUnit.SECONDS));
+            Future<Integer> second = workers.submit(webhookInboxWorker::processNext);
+
+            // The second worker does not claim before the first one queued its rows
+            Thread.sleep(100);
+            assertEquals(1, claims.get());
+
+            releaseFirst.countDown();
+            assertEquals(1, first.get(5, TimeUnit.SECONDS));
+            assertEquals(1, second.get(5, TimeUnit.SECONDS));
+        } finally {
+            workers.shutdownNow();
+        }
+
+        assertEquals(List.of("AUTHORISATION", "CAPTURE"), applied);
+        verify(webhookInboxDao, times(1)).markDone(1L);
+        verify(webhookInboxDao, times(1)).markDone(2L);
+    }
+
+    @Test
+    void testProcessNextWithEmptyInbox() {
+        when(webhookInboxDao.claim(10, 60000)).thenReturn(Collections.emptyList());
+
+        assertEquals(0, webhookInboxWorker.processNext());
+        verifyNoInteractions(webhookProcessor);
+    }
+
+    private WebhookInboxDTO createEntry(Long id, int attempts) {
+        WebhookInboxDTO entry = new WebhookInboxDTO();
+        entry.setId(id);
+        entry.setPayload(PAYLOAD);
+        entry.setAttempts(attempts);
+        return entry;
+    }
+
+    private NotificationRequestItem createItem(String eventCode) {
+        NotificationRequestItem item = new NotificationRequestItem();
+        item.setPspReference("PSP1");
+        item.setEventCode(eventCode);
+        return item;
+    }
+
+    private NotificationRequest createRequest(NotificationRequestItem item) {
+        NotificationRequest request = new NotificationRequest();
+        request.setNotificationItems(List.of(item));
+        return request;
+    }
+}
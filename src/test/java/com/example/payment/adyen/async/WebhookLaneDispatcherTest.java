@@ -0,0 +1,133 @@
+package com.example.payment.adyen.async;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.adyen.dto.NotificationItemDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class WebhookLaneDispatcherTest {
+
+    @Test
+    void testEventsOfOnePaymentAreAppliedInOrder() throws Exception {
+        Map<String, List<String>> applied = new ConcurrentHashMap<>();
+        AsyncWebhookProcessor webhookProcessor = mock(AsyncWebhookProcessor.class);
+        doAnswer(invocation -> {
+            List<NotificationItemDTO> items = invocation.getArgument(0);
+            for (NotificationItemDTO item : items) {
+                Thread.sleep(1);
+                applied.computeIfAbsent(item.getItem().getPspReference(), key -> new CopyOnWriteArrayList<>())
+                        .add(item.getItem().getEventCode());
+            }
+            return null;
+        }).when(webhookProcessor).process(anyList());
+
+        BoundedTaskExecutor executor = new BoundedTaskExecutor("test", "platform", 4);
+        try {
+            WebhookLaneDispatcher dispatcher = new WebhookLaneDispatcher(webhookProcessor, executor, 4);
+
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (String eventCode : List.of("AUTHORISATION", "CAPTURE", "REFUND")) {
+                List<NotificationItemDTO> items = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    items.add(createItem("PSP" + i, eventCode));
+                }
+                futures.add(dispatcher.dispatch(items));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+            assertEquals(20, applied.size());
+            for (List<String> eventCodes : applied.values()) {
+                assertEquals(List.of("AUTHORISATION", "CAPTURE", "REFUND"), eventCodes);
+            }
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    void testFailedLaneFailsDispatch() {
+        AsyncWebhookProcessor webhookProcessor = mock(AsyncWebhookProcessor.class);
+        doThrow(new RuntimeException("Connection refused")).when(webhookProcessor).process(anyList());
+        WebhookLaneDispatcher dispatcher = new WebhookLaneDispatcher(webhookProcessor, new SyncTaskExecutor(), 4);
+
+        CompletableFuture<Void> future = dispatcher.dispatch(List.of(createItem("PSP1", "AUTHORISATION")));
+
+        CompletionException exception = assertThrows(CompletionException.class, future::join);
+        assertEquals("Connection refused", exception.getCause().getMessage());
+    }
+
+    @Test
+    void testLaneGoesOnAfterError() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        AsyncWebhookProcessor webhookProcessor = mock(AsyncWebhookProcessor.class);
+        doAnswer(invocation -> {
+            firstStarted.countDown();
+            releaseFirst.await();
+            throw new StackOverflowError();
+        }).doNothing().when(webhookProcessor).process(anyList());
+
+        BoundedTaskExecutor executor = new BoundedTaskExecutor("test", "platform", 2);
+        try {
+            WebhookLaneDispatcher dispatcher = new WebhookLaneDispatcher(webhookProcessor, executor, 1);
+
+            CompletableFuture<Void> first = dispatcher.dispatch(List.of(createItem("PSP1", "AUTHORISATION")));
+            assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Void> second = dispatcher.dispatch(List.of(createItem("PSP1", "CAPTURE")));
+            releaseFirst.countDown();
+
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(StackOverflowError.class, exception.getCause());
+            second.get(5, TimeUnit.SECONDS);
+            assertEquals(0, dispatcher.getMetrics().get("depth"));
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    void testMetricsArePerLane() {
+        AsyncWebhookProcessor webhookProcessor = mock(AsyncWebhookProcessor.class);
+        WebhookLaneDispatcher dispatcher = new WebhookLaneDispatcher(webhookProcessor, new SyncTaskExecutor(), 4);
+
+        dispatcher.dispatch(List.of(createItem("PSP1", "AUTHORISATION"), createItem("PSP1", "CAPTURE"))).join();
+
+        Map<String, Object> metrics = dispatcher.getMetrics();
+        assertEquals(4, metrics.get("lanes"));
+        assertEquals(0, metrics.get("depth"));
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> perLane = (List<Map<String, Object>>) metrics.get("perLane");
+        assertEquals(4, perLane.size());
+        int lane = WebhookLaneDispatcher.laneFor("PSP1", 4);
+        assertEquals(1L, perLane.get(lane).get("processed"));
+        verify(webhookProcessor, times(1)).process(argThat((List<NotificationItemDTO> items) -> items.size() == 2));
+    }
+
+    @Test
+    void testLaneCountMustBePositive() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new WebhookLaneDispatcher(mock(AsyncWebhookProcessor.class), new SyncTaskExecutor(), 0));
+    }
+
+    private NotificationItemDTO createItem(String pspReference, String eventCode) {
+        NotificationRequestItem item = new NotificationRequestItem();
+        item.setPspReference(pspReference);
+        item.setEventCode(eventCode);
+        return new NotificationItemDTO(item, null);
+    }
+}
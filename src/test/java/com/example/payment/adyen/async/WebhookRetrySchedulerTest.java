@@ -0,0 +1,152 @@
+package com.example.payment.adyen.async;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.adyen.dao.WebhookRetryDao;
+import com.example.payment.adyen.dto.NotificationItemDTO;
+import com.example.payment.adyen.dto.WebhookRetryDTO;
+import com.example.payment.adyen.service.PaymentService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class WebhookRetrySchedulerTest {
+
+    private static final String NOTIFICATION = "{\"eventCode\":\"AUTHORISATION\",\"pspReference\":\"psp123\",\"success\":\"true\"}";
+
+    private WebhookRetryDao webhookRetryDao;
+    private PaymentService paymentService;
+    private WebhookRetryScheduler retryScheduler;
+
+    @BeforeEach
+    void setUp() {
+        webhookRetryDao = mock(WebhookRetryDao.class);
+        paymentService = mock(PaymentService.class);
+
+        retryScheduler = new WebhookRetryScheduler(webhookRetryDao, paymentService, mock(ThreadPoolTaskExecutor.class));
+        retryScheduler.setMaxAttempts(3);
+        retryScheduler.setBaseDelayMillis(1000);
+        retryScheduler.setMaxDelayMillis(8000);
+        retryScheduler.setClaimSize(2);
+    }
+
+    @Test
+    void testScheduleStoresFailedItemAndWaitingItems() {
+        NotificationItemDTO failed = new NotificationItemDTO(createItem("psp123", "AUTHORISATION"), NOTIFICATION);
+        NotificationItemDTO waiting = new NotificationItemDTO(createItem("psp123", "REFUND"), "{\"eventCode\":\"REFUND\"}");
+        when(webhookRetryDao.insert(anyList())).thenReturn(List.of(1L, 2L));
+
+        retryScheduler.schedule(List.of(failed, waiting), new RuntimeException("Set for rollback", new RuntimeException("Unknown event code")));
+
+        verify(webhookRetryDao, times(1)).insert(argThat((List<WebhookRetryDTO> retries) -> retries.size() == 2
+                && retries.get(0).getAttempts() == 1
+                && "Unknown event code".equals(retries.get(0).getLastError())
+                && NOTIFICATION.equals(retries.get(0).getNotification())
+                && retries.get(1).getAttempts() == 0
+                && WebhookRetryScheduler.WAITING_ERROR.equals(retries.get(1).getLastError())
+                && retries.get(0).getNextAttemptAt().equals(retries.get(1).getNextAttemptAt())));
+    }
+
+    @Test
+    void testProcessRetriesDeletesAppliedRow() {
+        retryScheduler.processRetries(List.of(createRetry(1L, "psp123", 1)), new HashMap<>());
+
+        verify(paymentService, times(1)).handleNotification(argThat((NotificationItemDTO notification) ->
+                NOTIFICATION.equals(notification.getRawNotification())));
+        verify(webhookRetryDao, times(1)).delete(1L);
+    }
+
+    @Test
+    void testProcessRetriesKeepsLaterRowsOfFailedPaymentWaiting() {
+        doThrow(new RuntimeException("Set for rollback", new RuntimeException("Connection is not available")))
+                .doNothing()
+                .when(paymentService).handleNotification(any(NotificationItemDTO.class));
+
+        retryScheduler.processRetries(List.of(createRetry(1L, "psp123", 1), createRetry(2L, "psp123", 0), createRetry(3L, "psp456", 1)), new HashMap<>());
+
+        verify(webhookRetryDao, times(1)).reschedule(eq(1L), eq(2), any(Timestamp.class), eq("Connection is not available"));
+        verify(webhookRetryDao, times(1)).reschedule(eq(2L), eq(0), any(Timestamp.class), eq(WebhookRetryScheduler.WAITING_ERROR));
+        verify(webhookRetryDao, times(1)).delete(3L);
+        verify(paymentService, times(2)).handleNotification(any(NotificationItemDTO.class));
+    }
+
+    @Test
+    void testSweepKeepsLaterRowOfFailedPaymentWaitingInNextChunk() {
+        doThrow(new RuntimeException("Set for rollback", new RuntimeException("Connection is not available")))
+                .doNothing()
+                .when(paymentService).handleNotification(any(NotificationItemDTO.class));
+        when(webhookRetryDao.claimDue(2, 60000))
+                .thenReturn(List.of(createRetry(1L, "psp123", 1), createRetry(2L, "psp456", 1)))
+                .thenReturn(List.of(createRetry(3L, "psp123", 1)));
+        retryScheduler.setLeaseMillis(60000);
+        retryScheduler.start();
+
+        retryScheduler.sweep();
+        retryScheduler.stop();
+
+        verify(webhookRetryDao, times(2)).claimDue(2, 60000);
+        verify(webhookRetryDao, times(1)).reschedule(eq(1L), eq(2), any(Timestamp.class), eq("Connection is not available"));
+        verify(webhookRetryDao, times(1)).delete(2L);
+        verify(webhookRetryDao, times(1)).reschedule(eq(3L), eq(1), any(Timestamp.class), eq(WebhookRetryScheduler.WAITING_ERROR));
+        verify(paymentService, times(2)).handleNotification(any(NotificationItemDTO.class));
+    }
+
+    @Test
+    void testProcessRetriesMovesRowToDeadLetterAfterMaxAttempts() {
+        doThrow(new RuntimeException("Set for rollback", new RuntimeException("Unknown event code")))
+                .when(paymentService).handleNotification(any(NotificationItemDTO.class));
+
+        retryScheduler.processRetries(List.of(createRetry(1L, "psp123", 2)), new HashMap<>());
+
+        verify(webhookRetryDao, times(1)).moveToDeadLetter(1L, 3, "Unknown event code");
+        verify(webhookRetryDao, never()).reschedule(anyLong(), anyInt(), any(Timestamp.class), anyString());
+    }
+
+    @Test
+    void testBackoffGrowsWithAttemptsUpToMaxDelay() {
+        for (int i = 0; i < 100; i++) {
+            long first = retryScheduler.backoffMillis(1);
+            long third = retryScheduler.backoffMillis(3);
+            long tenth = retryScheduler.backoffMillis(10);
+
+            assertTrue(first >= 500 && first <= 1000);
+            assertTrue(third >= 2000 && third <= 4000);
+            assertTrue(tenth >= 4000 && tenth <= 8000);
+        }
+    }
+
+    @Test
+    void testReplayDeadLettersInBatches() {
+        when(webhookRetryDao.replayDeadLetters(2)).thenReturn(2, 2, 1);
+
+        int replayed = retryScheduler.replayDeadLetters(10);
+
+        assertEquals(5, replayed);
+        verify(webhookRetryDao, times(3)).replayDeadLetters(2);
+    }
+
+    private WebhookRetryDTO createRetry(Long id, String pspReference, int attempts) {
+        WebhookRetryDTO retry = new WebhookRetryDTO();
+        retry.setId(id);
+        retry.setPspReference(pspReference);
+        retry.setEventCode("AUTHORISATION");
+        retry.setNotification(NOTIFICATION);
+        retry.setAttempts(attempts);
+        retry.setNextAttemptAt(new Timestamp(System.currentTimeMillis()));
+        return retry;
+    }
+
+    private NotificationRequestItem createItem(String pspReference, String eventCode) {
+        NotificationRequestItem item = new NotificationRequestItem();
+        item.setPspReference(pspReference);
+        item.setEventCode(eventCode);
+        item.setSuccess(true);
+        return item;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.payment.adyen.cache;
+
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.helper.PaymentStatusEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentCacheTest {
+
+    private PaymentCache paymentCache;
+
+    @BeforeEach
+    void setUp() {
+        paymentCache = new PaymentCache(2, 60000);
+    }
+
+    @Test
+    void testLookupByAllKeys() {
+        paymentCache.put(createPayment(1L, "REF1", "PSP1"), paymentCache.stamp());
+
+        assertTrue(paymentCache.getById(1L).isPresent());
+        assertEquals(1L, paymentCache.getByReference("REF1").orElseThrow().getId());
+        assertEquals(1L, paymentCache.getByPspReference("PSP1").orElseThrow().getId());
+        assertTrue(paymentCache.getByPspReference("PSP2").isEmpty());
+
+        Map<String, Object> metrics = paymentCache.getMetrics();
+        assertEquals(3L, metrics.get("hits"));
+        assertEquals(1L, metrics.get("misses"));
+    }
+
+    @Test
+    void testReturnsCopy() {
+        paymentCache.put(createPayment(1L, "REF1", "PSP1"), paymentCache.stamp());
+
+        PaymentDTO cached = paymentCache.getById(1L).orElseThrow();
+        cached.setStatus(PaymentStatusEnum.FAILED);
+
+        assertEquals(PaymentStatusEnum.INITIATED, paymentCache.getById(1L).orElseThrow().getStatus());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        paymentCache.put(createPayment(1L, "REF1", "PSP1"), paymentCache.stamp());
+        paymentCache.put(createPayment(2L, "REF2", "PSP2"), paymentCache.stamp());
+        paymentCache.getById(1L);
+        paymentCache.put(createPayment(3L, "REF3", "PSP3"), paymentCache.stamp());
+
+        assertTrue(paymentCache.getById(1L).isPresent());
+        assertTrue(paymentCache.getByPspReference("PSP2").isEmpty());
+        assertTrue(paymentCache.getById(3L).isPresent());
+        assertEquals(1L, paymentCache.getMetrics().get("evictions"));
+    }
+
+    @Test
+    void testExpiresAfterTtl() {
+        paymentCache = new PaymentCache(10, 0);
+        paymentCache.put(createPayment(1L, "REF1", "PSP1"), paymentCache.stamp());
+
+        assertTrue(paymentCache.getById(1L).isEmpty());
+        assertEquals(1L, paymentCache.getMetrics().get("expirations"));
+    }
+
+    @Test
+    void testInvalidateRemovesAllKeys() {
+        paymentCache.put(createPayment(1L, "REF1", "PSP1"), paymentCache.stamp());
+
+        paymentCache.invalidate(1L);
+
+        assertTrue(paymentCache.getById(1L).isEmpty());
+        assertTrue(paymentCache.getByReference("REF1").isEmpty());
+        assertTrue(paymentCache.getByPspReference("PSP1").isEmpty());
+    }
+
+    @Test
+    void testPutIgnoredAfterInvalidation() {
+        long stamp = paymentCache.stamp();
+        paymentCache.invalidate(1L);
+
+        paymentCache.put(createPayment(1L, "REF1", "PSP1"), stamp);
+
+        Optional<PaymentDTO> cached = paymentCache.getById(1L);
+        assertTrue(cached.isEmpty());
+    }
+
+    @Test
+    void testPutInsideTransactionCachesOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            paymentCache.put(createPayment(1L, "REF1", "PSP1"), paymentCache.stamp());
+
+            assertTrue(paymentCache.getById(1L).isEmpty());
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertTrue(paymentCache.getByReference("REF1").isPresent());
+    }
+
+    @Test
+    void testPutInsideRolledBackTransactionIsNotCached() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            paymentCache.put(createPayment(1L, "REF1", "PSP1"), paymentCache.stamp());
+        } finally {
+            // Rollback, afterCommit is never called
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertTrue(paymentCache.getById(1L).isEmpty());
+        assertTrue(paymentCache.getByReference("REF1").isEmpty());
+    }
+
+    private PaymentDTO createPayment(Long id, String reference, String pspReference) {
+        PaymentDTO payment = new PaymentDTO();
+        payment.setId(id);
+        payment.setReference(reference);
+        payment.setPspReference(pspReference);
+        payment.setStatus(PaymentStatusEnum.INITIATED);
+        return payment;
+    }
+}
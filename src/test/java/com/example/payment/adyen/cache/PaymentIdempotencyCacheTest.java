@@ -0,0 +1,43 @@
+package com.example.payment.adyen.cache;
+
+import com.example.payment.adyen.dto.PaymentIdempotencyDTO;
+import com.example.payment.helper.PaymentIdempotencyStatusEnum;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentIdempotencyCacheTest {
+
+    @Test
+    void testKeepsOnlyCompletedOutcomes() {
+        PaymentIdempotencyCache paymentIdempotencyCache = new PaymentIdempotencyCache(10);
+        paymentIdempotencyCache.put(createIdempotency("key1", PaymentIdempotencyStatusEnum.COMPLETED));
+        paymentIdempotencyCache.put(createIdempotency("key2", PaymentIdempotencyStatusEnum.PROCESSING));
+        paymentIdempotencyCache.put(createIdempotency("key3", PaymentIdempotencyStatusEnum.FAILED));
+
+        assertTrue(paymentIdempotencyCache.get("key1").isPresent());
+        assertTrue(paymentIdempotencyCache.get("key2").isEmpty());
+        assertTrue(paymentIdempotencyCache.get("key3").isEmpty());
+        assertEquals(1L, paymentIdempotencyCache.getMetrics().get("hits"));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedOutcome() {
+        PaymentIdempotencyCache paymentIdempotencyCache = new PaymentIdempotencyCache(2);
+        paymentIdempotencyCache.put(createIdempotency("key1", PaymentIdempotencyStatusEnum.COMPLETED));
+        paymentIdempotencyCache.put(createIdempotency("key2", PaymentIdempotencyStatusEnum.COMPLETED));
+        paymentIdempotencyCache.get("key1");
+        paymentIdempotencyCache.put(createIdempotency("key3", PaymentIdempotencyStatusEnum.COMPLETED));
+
+        assertTrue(paymentIdempotencyCache.get("key1").isPresent());
+        assertTrue(paymentIdempotencyCache.get("key2").isEmpty());
+        assertEquals(1L, paymentIdempotencyCache.getMetrics().get("evictions"));
+    }
+
+    private PaymentIdempotencyDTO createIdempotency(String idempotencyKey, PaymentIdempotencyStatusEnum status) {
+        PaymentIdempotencyDTO idempotency = new PaymentIdempotencyDTO();
+        idempotency.setIdempotencyKey(idempotencyKey);
+        idempotency.setStatus(status);
+        return idempotency;
+    }
+}
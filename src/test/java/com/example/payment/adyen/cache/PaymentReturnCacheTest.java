@@ -0,0 +1,104 @@
+package com.example.payment.adyen.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentReturnCacheTest {
+
+    @Test
+    void testRepeatedReturnGetsKeptResponse() {
+        PaymentReturnCache paymentReturnCache = new PaymentReturnCache(10, 60000);
+        AtomicInteger loads = new AtomicInteger();
+
+        ResponseEntity<?> first = paymentReturnCache.get(1L, "redirect1", () -> ResponseEntity.ok("Loaded " + loads.incrementAndGet()));
+        ResponseEntity<?> second = paymentReturnCache.get(1L, "redirect1", () -> ResponseEntity.ok("Loaded " + loads.incrementAndGet()));
+        ResponseEntity<?> other = paymentReturnCache.get(1L, "redirect2", () -> ResponseEntity.ok("Loaded " + loads.incrementAndGet()));
+
+        assertEquals("Loaded 1", first.getBody());
+        assertEquals("Loaded 1", second.getBody());
+        assertEquals("Loaded 2", other.getBody());
+        assertEquals(1L, paymentReturnCache.getMetrics().get("hits"));
+        assertEquals(2L, paymentReturnCache.getMetrics().get("misses"));
+    }
+
+    @Test
+    void testConcurrentReturnsShareOneLoad() throws Exception {
+        PaymentReturnCache paymentReturnCache = new PaymentReturnCache(10, 60000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<ResponseEntity<?>> first = CompletableFuture.supplyAsync(() -> paymentReturnCache.get(1L, "redirect1", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            awaitRelease(release);
+            return ResponseEntity.ok("Loaded");
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<ResponseEntity<?>> second = CompletableFuture.supplyAsync(() -> paymentReturnCache.get(1L, "redirect1", () -> {
+            loads.incrementAndGet();
+            return ResponseEntity.ok("Loaded again");
+        }));
+        while (!paymentReturnCache.getMetrics().get("coalesced").equals(1L)) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertEquals("Loaded", first.get(5, TimeUnit.SECONDS).getBody());
+        assertEquals("Loaded", second.get(5, TimeUnit.SECONDS).getBody());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testServerErrorIsNotKept() {
+        PaymentReturnCache paymentReturnCache = new PaymentReturnCache(10, 60000);
+
+        paymentReturnCache.get(1L, "redirect1", () -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Unavailable"));
+        ResponseEntity<?> response = paymentReturnCache.get(1L, "redirect1", () -> ResponseEntity.ok("Loaded"));
+
+        assertEquals("Loaded", response.getBody());
+        assertEquals(0L, paymentReturnCache.getMetrics().get("hits"));
+    }
+
+    @Test
+    void testResponseExpires() throws Exception {
+        PaymentReturnCache paymentReturnCache = new PaymentReturnCache(10, 20);
+
+        paymentReturnCache.get(1L, "redirect1", () -> ResponseEntity.ok("First"));
+        Thread.sleep(30);
+        ResponseEntity<?> response = paymentReturnCache.get(1L, "redirect1", () -> ResponseEntity.ok("Second"));
+
+        assertEquals("Second", response.getBody());
+        assertEquals(1L, paymentReturnCache.getMetrics().get("expirations"));
+    }
+
+    @Test
+    void testFailedLoadIsNotKept() {
+        PaymentReturnCache paymentReturnCache = new PaymentReturnCache(10, 60000);
+
+        assertThrows(IllegalArgumentException.class, () -> paymentReturnCache.get(1L, "redirect1", () -> {
+            throw new IllegalArgumentException("Unknown result code");
+        }));
+        ResponseEntity<?> response = paymentReturnCache.get(1L, "redirect1", () -> ResponseEntity.ok("Loaded"));
+
+        assertEquals("Loaded", response.getBody());
+        assertEquals(1, paymentReturnCache.getMetrics().get("size"));
+    }
+
+    private void awaitRelease(CountDownLatch release) {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.payment.adyen.cache;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookKeyCacheTest {
+
+    @Test
+    void testContainsAddedKey() {
+        WebhookKeyCache webhookKeyCache = new WebhookKeyCache(10);
+        webhookKeyCache.add(createItem("PSP1", "AUTHORISATION", true, 1000L));
+
+        assertTrue(webhookKeyCache.contains(createItem("PSP1", "AUTHORISATION", true, 1000L)));
+        assertFalse(webhookKeyCache.contains(createItem("PSP1", "AUTHORISATION", false, 1000L)));
+        assertFalse(webhookKeyCache.contains(createItem("PSP1", "AUTHORISATION", true, 2000L)));
+        assertFalse(webhookKeyCache.contains(createItem("PSP1", "REFUND", true, 1000L)));
+
+        Map<String, Object> metrics = webhookKeyCache.getMetrics();
+        assertEquals(1L, metrics.get("hits"));
+        assertEquals(3L, metrics.get("misses"));
+    }
+
+    @Test
+    void testEvictsLeastRecentlySeenKey() {
+        WebhookKeyCache webhookKeyCache = new WebhookKeyCache(2);
+        webhookKeyCache.add(createItem("PSP1", "AUTHORISATION", true, 1000L));
+        webhookKeyCache.add(createItem("PSP2", "AUTHORISATION", true, 1000L));
+        webhookKeyCache.contains(createItem("PSP1", "AUTHORISATION", true, 1000L));
+        webhookKeyCache.add(createItem("PSP3", "AUTHORISATION", true, 1000L));
+
+        assertTrue(webhookKeyCache.contains(createItem("PSP1", "AUTHORISATION", true, 1000L)));
+        assertFalse(webhookKeyCache.contains(createItem("PSP2", "AUTHORISATION", true, 1000L)));
+        assertEquals(1L, webhookKeyCache.getMetrics().get("evictions"));
+    }
+
+    @Test
+    void testDisabledWithZeroSize() {
+        WebhookKeyCache webhookKeyCache = new WebhookKeyCache(0);
+        webhookKeyCache.add(createItem("PSP1", "AUTHORISATION", true, 1000L));
+
+        assertFalse(webhookKeyCache.contains(createItem("PSP1", "AUTHORISATION", true, 1000L)));
+    }
+
+    private NotificationRequestItem createItem(String pspReference, String eventCode, boolean success, long eventDate) {
+        NotificationRequestItem item = new NotificationRequestItem();
+        item.setPspReference(pspReference);
+        item.setEventCode(eventCode);
+        item.setSuccess(success);
+        item.setEventDate(new Date(eventDate));
+        return item;
+    }
+}
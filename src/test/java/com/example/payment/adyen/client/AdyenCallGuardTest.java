@@ -0,0 +1,158 @@
+package com.example.payment.adyen.client;
+
+import com.adyen.service.exception.ApiException;
+import com.example.payment.exceptions.AdyenUnavailableException;
+import com.example.payment.helper.CircuitBreakerStateEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdyenCallGuardTest {
+
+    private AdyenCallGuard guard;
+
+    @BeforeEach
+    void setUp() {
+        guard = new AdyenCallGuard("adyenCalls", 2);
+        guard.setWindowSize(4);
+        guard.setMinimumCalls(4);
+        guard.setFailureRateThreshold(50);
+        guard.setOpenMillis(50);
+        guard.setHalfOpenCalls(2);
+    }
+
+    @Test
+    void testOpensAtFailureRateAndFailsFast() throws Exception {
+        assertEquals("ok", guard.call(() -> "ok"));
+        assertEquals("ok", guard.call(() -> "ok"));
+        failCalls(1);
+        assertEquals(CircuitBreakerStateEnum.CLOSED, guard.getState());
+        failCalls(1);
+        assertEquals(CircuitBreakerStateEnum.OPEN, guard.getState());
+
+        AtomicInteger sent = new AtomicInteger();
+        AdyenUnavailableException e = assertThrows(AdyenUnavailableException.class, () -> guard.call(sent::incrementAndGet));
+        assertTrue(e.getRetryAfterMillis() > 0);
+        assertEquals(0, sent.get());
+
+        assertEquals("Open", guard.getMetrics().get("state"));
+        assertEquals(1L, guard.getMetrics().get("opened"));
+        assertEquals(1L, guard.getMetrics().get("rejectedOpen"));
+    }
+
+    @Test
+    void testHalfOpenClosesAfterSuccessfulTrialCalls() throws Exception {
+        failCalls(4);
+        assertEquals(CircuitBreakerStateEnum.OPEN, guard.getState());
+
+        Thread.sleep(60);
+        assertEquals("ok", guard.call(() -> "ok"));
+        assertEquals(CircuitBreakerStateEnum.HALF_OPEN, guard.getState());
+        assertEquals("ok", guard.call(() -> "ok"));
+        assertEquals(CircuitBreakerStateEnum.CLOSED, guard.getState());
+
+        assertEquals(1L, guard.getMetrics().get("halfOpened"));
+        assertEquals(1L, guard.getMetrics().get("closed"));
+        assertEquals(0, guard.getMetrics().get("windowCalls"));
+    }
+
+    @Test
+    void testHalfOpenReopensOnFailedTrialCall() throws Exception {
+        failCalls(4);
+        Thread.sleep(60);
+
+        failCalls(1);
+        assertEquals(CircuitBreakerStateEnum.OPEN, guard.getState());
+        assertThrows(AdyenUnavailableException.class, () -> guard.call(() -> "ok"));
+        assertEquals(2L, guard.getMetrics().get("opened"));
+    }
+
+    @Test
+    void testClientErrorsDoNotOpen() {
+        for (int i = 0; i < 4; i++) {
+            assertThrows(ApiException.class, () -> guard.call(() -> {
+                throw new ApiException("Invalid card number", 422);
+            }));
+        }
+
+        assertEquals(CircuitBreakerStateEnum.CLOSED, guard.getState());
+        assertEquals(0L, guard.getMetrics().get("failures"));
+    }
+
+    @Test
+    void testSlowCallsCountAsFailed() throws Exception {
+        guard.setSlowCallMillis(5);
+
+        for (int i = 0; i < 4; i++) {
+            guard.call(() -> {
+                sleep(10);
+                return "ok";
+            });
+        }
+
+        assertEquals(CircuitBreakerStateEnum.OPEN, guard.getState());
+        assertEquals(4L, guard.getMetrics().get("slowCalls"));
+    }
+
+    @Test
+    void testBulkheadRejectsCallsAboveMaxConcurrency() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<?>[] running = new CompletableFuture<?>[2];
+        for (int i = 0; i < running.length; i++) {
+            running[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    guard.call(() -> {
+                        started.countDown();
+                        awaitRelease(release);
+                        return "ok";
+                    });
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertThrows(AdyenUnavailableException.class, () -> guard.call(() -> "ok"));
+        assertEquals(1L, guard.getMetrics().get("rejectedBulkhead"));
+        assertEquals(2, guard.getMetrics().get("running"));
+
+        release.countDown();
+        CompletableFuture.allOf(running).get(10, TimeUnit.SECONDS);
+        assertEquals("ok", guard.call(() -> "ok"));
+        assertEquals(CircuitBreakerStateEnum.CLOSED, guard.getState());
+    }
+
+    private void awaitRelease(CountDownLatch release) {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void failCalls(int calls) {
+        for (int i = 0; i < calls; i++) {
+            assertThrows(IOException.class, () -> guard.call(() -> {
+                throw new IOException("Read timed out");
+            }));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.payment.adyen.client;
+
+import com.adyen.Config;
+import com.adyen.constants.ApiConstants;
+import com.adyen.httpclient.HTTPClientException;
+import com.adyen.model.RequestOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PooledAdyenHttpClientTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledAdyenHttpClient httpClient;
+    private Config config;
+
+    private final AtomicInteger status = new AtomicInteger(200);
+    private final AtomicReference<HttpExchange> lastExchange = new AtomicReference<>();
+    private final AtomicReference<String> lastBody = new AtomicReference<>();
+    private final Set<InetSocketAddress> remoteAddresses = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        httpClient = new PooledAdyenHttpClient(4, 2, 1000, 1000, 30000);
+        config = new Config();
+        config.setApiKey("test-api-key");
+        config.setReadTimeoutMillis(2000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClient.destroy();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            lastExchange.set(exchange);
+            lastBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            remoteAddresses.add(exchange.getRemoteAddress());
+
+            byte[] response = "{\"resultCode\":\"Authorised\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status.get(), response.length);
+            exchange.getResponseBody().write(response);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Test
+    void testPostsJsonWithAdyenHeaders() throws Exception {
+        RequestOptions requestOptions = new RequestOptions();
+        requestOptions.setIdempotencyKey("key-1");
+
+        String response = httpClient.request(baseUrl + "/payments", "{\"amount\":1}", config, true, requestOptions,
+                ApiConstants.HttpMethod.POST);
+
+        assertEquals("{\"resultCode\":\"Authorised\"}", response);
+        HttpExchange exchange = lastExchange.get();
+        assertEquals("POST", exchange.getRequestMethod());
+        assertEquals("/payments", exchange.getRequestURI().getPath());
+        assertEquals("{\"amount\":1}", lastBody.get());
+        assertEquals("test-api-key", exchange.getRequestHeaders().getFirst("x-api-key"));
+        assertEquals("key-1", exchange.getRequestHeaders().getFirst("Idempotency-Key"));
+        assertTrue(exchange.getRequestHeaders().getFirst("Content-Type").startsWith("application/json"));
+    }
+
+    @Test
+    void testGetSendsQueryParameters() throws Exception {
+        httpClient.request(baseUrl + "/payments/details", null, config, true, null, ApiConstants.HttpMethod.GET,
+                Map.of("reference", "ref 1"));
+
+        HttpExchange exchange = lastExchange.get();
+        assertEquals("GET", exchange.getRequestMethod());
+        assertEquals("reference=ref%201", exchange.getRequestURI().getRawQuery());
+        assertEquals("", lastBody.get());
+    }
+
+    @Test
+    void testNon2xxThrowsHttpClientException() {
+        status.set(422);
+
+        HTTPClientException e = assertThrows(HTTPClientException.class,
+                () -> httpClient.request(baseUrl + "/payments", "{}", config, true, null));
+
+        assertEquals(422, e.getCode());
+        assertEquals("{\"resultCode\":\"Authorised\"}", e.getResponseBody());
+        assertEquals(1L, httpClient.getMetrics().get("httpErrors"));
+    }
+
+    @Test
+    void testReusesKeptAliveConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            httpClient.request(baseUrl + "/payments", "{}", config, true, null);
+        }
+
+        assertEquals(1, remoteAddresses.size());
+
+        Map<String, Object> metrics = httpClient.getMetrics();
+        assertEquals("adyenHttp", httpClient.getMetricsName());
+        assertEquals(5L, metrics.get("requests"));
+        assertEquals(0, metrics.get("leased"));
+        assertEquals(1, metrics.get("available"));
+        assertEquals(4, metrics.get("maxConnections"));
+        assertEquals(2, metrics.get("maxPerRoute"));
+    }
+
+    @Test
+    void testReadTimeoutOfConfigApplies() {
+        server.removeContext("/");
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handle(exchange);
+        });
+        config.setReadTimeoutMillis(100);
+
+        assertThrows(SocketTimeoutException.class, () -> httpClient.request(baseUrl + "/payments", "{}", config, true));
+        assertEquals(1L, httpClient.getMetrics().get("ioErrors"));
+    }
+
+    @Test
+    void testConnectionErrorCountsIoError() throws Exception {
+        server.stop(0);
+
+        assertThrows(IOException.class, () -> httpClient.request(baseUrl + "/payments", "{}", config, true, null));
+        assertEquals(1L, httpClient.getMetrics().get("ioErrors"));
+    }
+
+    @Test
+    void testInvalidPoolSize() {
+        assertThrows(IllegalArgumentException.class, () -> new PooledAdyenHttpClient(0, 1, 1000, 1000, 30000));
+    }
+}
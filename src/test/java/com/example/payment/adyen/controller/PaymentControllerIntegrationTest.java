@@ -13,8 +13,11 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -59,9 +62,13 @@ class PaymentControllerIntegrationTest {
 
         String requestJson = objectMapper.writeValueAsString(dto);
 
-        mockMvc.perform(post("/api/payments/adyen/pay")
+        MvcResult result = mockMvc.perform(post("/api/payments/adyen/pay")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(requestJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
                 .andExpect(content().string(containsString("The payment successfully processed")));
 
@@ -69,13 +76,93 @@ class PaymentControllerIntegrationTest {
         assertEquals(1, countPayment.intValue());
     }
 
+    @Test
+    void testRepeatedPaymentReturnsStoredResponse() throws Exception {
+        PaymentRequestDTO dto = new PaymentRequestDTO();
+        dto.setAmount("500");
+        dto.setCurrency("USD");
+        dto.setReferenceNumber("ref-repeated");
+        dto.setReturnURL("http://example.com/return");
+        CardDetails cardDetails = new CardDetails();
+        cardDetails.setEncryptedCardNumber("test_4111111111111111");
+        cardDetails.setEncryptedSecurityCode("test_737");
+        cardDetails.setEncryptedExpiryYear("test_2030");
+        cardDetails.setEncryptedExpiryMonth("test_03");
+        dto.setPaymentMethodDetails(cardDetails);
+
+        String requestJson = objectMapper.writeValueAsString(dto);
+
+        for (int i = 0; i < 2; i++) {
+            MvcResult result = mockMvc.perform(post("/api/payments/adyen/pay")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(requestJson))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+
+            mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(containsString("The payment successfully processed")));
+        }
+
+        Integer countPayment = databaseHelper.countPayment();
+        assertEquals(1, countPayment.intValue());
+    }
+
+    @Test
+    void testPaymentBatchStreamsResultPerPayment() throws Exception {
+        String requestJson = objectMapper.writeValueAsString(Map.of("payments",
+                List.of(createCardPayment("ref-batch-1"), createCardPayment("ref-batch-2"))));
+
+        MvcResult result = mockMvc.perform(post("/api/payments/adyen/pay/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(requestJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk());
+
+        String[] lines = result.getResponse().getContentAsString().trim().split("\n");
+        assertEquals(2, lines.length);
+        for (String line : lines) {
+            Map<?, ?> batchResult = objectMapper.readValue(line, Map.class);
+            assertEquals(200, batchResult.get("status"));
+        }
+
+        Integer countPayment = databaseHelper.countPayment();
+        assertEquals(2, countPayment.intValue());
+    }
+
+    @Test
+    void testPaymentBatchValidationErrors() throws Exception {
+        String requestJson = objectMapper.writeValueAsString(Map.of("payments",
+                List.of(createCardPayment("ref-batch-1"), createCardPayment("ref-batch-1"))));
+
+        MvcResult result = mockMvc.perform(post("/api/payments/adyen/pay/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(requestJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0]").value("Payment 1: Reference number is used more than once in the batch"));
+
+        Integer countPayment = databaseHelper.countPayment();
+        assertEquals(0, countPayment.intValue());
+    }
+
     @Test
     void testInvalidJsonPayload() throws Exception {
         String invalidJson = "{ this is not valid json }";
 
-        mockMvc.perform(post("/api/payments/adyen/pay")
+        MvcResult result = mockMvc.perform(post("/api/payments/adyen/pay")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(invalidJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isBadRequest())
                 .andExpect(content().string(containsString("Invalid request payload")));
 
@@ -89,10 +176,14 @@ class PaymentControllerIntegrationTest {
 
         String json = objectMapper.writeValueAsString(dto);
 
-        mockMvc.perform(post("/api/payments/adyen/pay")
+        MvcResult result = mockMvc.perform(post("/api/payments/adyen/pay")
                         .contentType(MediaType.APPLICATION_JSON)
                         .accept(MediaType.APPLICATION_JSON)
                         .content(json))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$.errors").isArray())
                 .andExpect(jsonPath("$.errors.length()").value(greaterThan(0)));
@@ -100,4 +191,19 @@ class PaymentControllerIntegrationTest {
         Integer countPayment = databaseHelper.countPayment();
         assertEquals(0, countPayment.intValue());
     }
+
+    private PaymentRequestDTO createCardPayment(String referenceNumber) {
+        PaymentRequestDTO dto = new PaymentRequestDTO();
+        dto.setAmount("500");
+        dto.setCurrency("USD");
+        dto.setReferenceNumber(referenceNumber);
+        dto.setReturnURL("http://example.com/return");
+        CardDetails cardDetails = new CardDetails();
+        cardDetails.setEncryptedCardNumber("test_4111111111111111");
+        cardDetails.setEncryptedSecurityCode("test_737");
+        cardDetails.setEncryptedExpiryYear("test_2030");
+        cardDetails.setEncryptedExpiryMonth("test_03");
+        dto.setPaymentMethodDetails(cardDetails);
+        return dto;
+    }
 }
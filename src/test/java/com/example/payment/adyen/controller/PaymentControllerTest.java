@@ -6,22 +6,33 @@ import com.adyen.model.checkout.PaymentDetailsResponse;
 import com.adyen.model.checkout.PaymentResponse;
 import com.adyen.model.checkout.PaymentResponseAction;
 import com.adyen.service.exception.ApiException;
+import com.example.payment.adyen.cache.PaymentReturnCache;
 import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentIdempotencyDTO;
 import com.example.payment.adyen.dto.PaymentRequestDTO;
 import com.example.payment.adyen.service.PaymentService;
 import com.example.payment.adyen.validator.PaymentValidator;
+import com.example.payment.exceptions.AdyenUnavailableException;
+import com.example.payment.helper.PaymentIdempotencyStatusEnum;
 import com.example.payment.helper.PaymentMethodHelper;
+import com.example.payment.helper.PaymentStatusEnum;
 import com.example.payment.helper.RequestJsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -37,7 +48,18 @@ class PaymentControllerTest {
         paymentService = mock(PaymentService.class);
         paymentValidator = mock(PaymentValidator.class);
 
-        paymentController = new PaymentController(paymentService, paymentValidator);
+        paymentController = new PaymentController(paymentService, paymentValidator, new PaymentReturnCache(100, 60000));
+
+        // Every payment request is new unless a test says otherwise
+        PaymentIdempotencyDTO idempotency = new PaymentIdempotencyDTO();
+        idempotency.setIdempotencyKey("key-12345");
+        idempotency.setRequestFingerprint("fingerprint");
+        idempotency.setStatus(PaymentIdempotencyStatusEnum.PROCESSING);
+        idempotency.setClaimed(true);
+        when(paymentService.getPaymentIdempotencyKey(any())).thenReturn("key-12345");
+        when(paymentService.getPaymentRequestFingerprint(any(), any())).thenReturn("fingerprint");
+        when(paymentService.claimPaymentAsync("key-12345", "fingerprint")).thenReturn(CompletableFuture.completedFuture(idempotency));
+        when(paymentService.getIoExecutor()).thenReturn(Runnable::run);
     }
 
     @Test
@@ -48,7 +70,7 @@ class PaymentControllerTest {
             mockedParser.when(() -> RequestJsonParser.parse(eq(request), eq(PaymentRequestDTO.class)))
                     .thenThrow(new IOException("Malformed JSON"));
 
-            ResponseEntity<?> response = paymentController.processingPayment(request);
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
 
             assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
             assertTrue(response.getBody().toString().contains("Invalid request payload"));
@@ -71,7 +93,7 @@ class PaymentControllerTest {
             List<String> validationErrors = List.of("Invalid amount", "Invalid payment method");
             when(paymentValidator.validateOnPay(paymentRequestDTO)).thenReturn(validationErrors);
 
-            ResponseEntity<?> response = paymentController.processingPayment(request);
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
 
             assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
 
@@ -111,14 +133,15 @@ class PaymentControllerTest {
             mockedParser.when(() -> RequestJsonParser.parse(request, PaymentRequestDTO.class)).thenReturn(paymentRequestDTO);
             helper.when(() -> PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethod)).thenReturn("card");
 
-            when(paymentService.createPayment(paymentRequestDTO, "card")).thenReturn(paymentDTO);
-            when(paymentService.makePayment(paymentDTO, paymentMethod, amount, currency, referenceNumber, returnUrl)).thenReturn(paymentResponse);
+            when(paymentService.createPaymentAsync(eq(paymentRequestDTO), eq("card"), any(PaymentIdempotencyDTO.class))).thenReturn(CompletableFuture.completedFuture(paymentDTO));
+            when(paymentService.makePaymentAsync(paymentDTO, paymentMethod, referenceNumber, returnUrl)).thenReturn(CompletableFuture.completedFuture(paymentResponse));
 
-            ResponseEntity<?> response = paymentController.processingPayment(request);
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
             assertTrue(response.getBody().toString().contains("successfully"));
             verify(paymentService).updatePaymentSuccess(paymentDTO, "psp-123", PaymentResponse.ResultCodeEnum.AUTHORISED.getValue());
+            verify(paymentService).completePaymentIdempotency(any(PaymentIdempotencyDTO.class), eq(200), eq("\"The payment successfully processed\""));
         }
     }
 
@@ -157,10 +180,10 @@ class PaymentControllerTest {
             mockedParser.when(() -> RequestJsonParser.parse(request, PaymentRequestDTO.class)).thenReturn(paymentRequestDTO);
             helper.when(() -> com.example.payment.helper.PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethod)).thenReturn("card");
 
-            when(paymentService.createPayment(paymentRequestDTO, "card")).thenReturn(paymentDTO);
-            when(paymentService.makePayment(paymentDTO, paymentMethod, amount, currency, referenceNumber, returnUrl)).thenReturn(paymentResponse);
+            when(paymentService.createPaymentAsync(eq(paymentRequestDTO), eq("card"), any(PaymentIdempotencyDTO.class))).thenReturn(CompletableFuture.completedFuture(paymentDTO));
+            when(paymentService.makePaymentAsync(paymentDTO, paymentMethod, referenceNumber, returnUrl)).thenReturn(CompletableFuture.completedFuture(paymentResponse));
 
-            ResponseEntity<?> response = paymentController.processingPayment(request);
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
             assertTrue(response.getBody().toString().contains("Redirect to: https://redirect.example.com"));
@@ -200,14 +223,186 @@ class PaymentControllerTest {
             mockedParser.when(() -> RequestJsonParser.parse(request, PaymentRequestDTO.class)).thenReturn(paymentRequestDTO);
             helper.when(() -> com.example.payment.helper.PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethod)).thenReturn("card");
 
-            when(paymentService.createPayment(paymentRequestDTO, "card")).thenReturn(paymentDTO);
-            when(paymentService.makePayment(paymentDTO, paymentMethod, amount, currency, referenceNumber, returnUrl)).thenThrow(apiException);
+            when(paymentService.createPaymentAsync(eq(paymentRequestDTO), eq("card"), any(PaymentIdempotencyDTO.class))).thenReturn(CompletableFuture.completedFuture(paymentDTO));
+            when(paymentService.makePaymentAsync(paymentDTO, paymentMethod, referenceNumber, returnUrl)).thenReturn(CompletableFuture.failedFuture(apiException));
 
-            ResponseEntity<?> response = paymentController.processingPayment(request);
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
 
             assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
             assertTrue(response.getBody().toString().contains("API error occurred"));
             verify(paymentService).updatePaymentFailure(paymentDTO, "API error occurred", "validation");
+            verify(paymentService).completePaymentIdempotency(any(PaymentIdempotencyDTO.class), eq(400), eq("\"API error occurred\""));
+        }
+    }
+
+    @Test
+    void testProcessingPaymentTimeout() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        PaymentRequestDTO paymentRequestDTO = mock(PaymentRequestDTO.class);
+        PaymentDTO paymentDTO = mock(PaymentDTO.class);
+        Object paymentMethod = new Object();
+        String referenceNumber = "12345";
+        String returnUrl = "https://example.com";
+
+        when(paymentRequestDTO.getPaymentMethodDetails()).thenReturn(paymentMethod);
+        when(paymentRequestDTO.getReferenceNumber()).thenReturn(referenceNumber);
+        when(paymentRequestDTO.getReturnURL()).thenReturn(returnUrl);
+        when(paymentValidator.validateOnPay(paymentRequestDTO)).thenReturn(List.of());
+
+        try (MockedStatic<RequestJsonParser> mockedParser = mockStatic(RequestJsonParser.class);
+             MockedStatic<PaymentMethodHelper> helper = mockStatic(PaymentMethodHelper.class)) {
+
+            mockedParser.when(() -> RequestJsonParser.parse(request, PaymentRequestDTO.class)).thenReturn(paymentRequestDTO);
+            helper.when(() -> PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethod)).thenReturn("card");
+
+            when(paymentService.createPaymentAsync(eq(paymentRequestDTO), eq("card"), any(PaymentIdempotencyDTO.class))).thenReturn(CompletableFuture.completedFuture(paymentDTO));
+            when(paymentService.makePaymentAsync(paymentDTO, paymentMethod, referenceNumber, returnUrl))
+                    .thenReturn(CompletableFuture.failedFuture(new TimeoutException("No response from Adyen within 100 ms")));
+
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
+
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            assertEquals("Error: No response from Adyen within 100 ms", response.getBody());
+            verify(paymentService).updatePaymentFailure(paymentDTO, "Error: No response from Adyen within 100 ms");
+            verify(paymentService).releasePaymentIdempotency(any(PaymentIdempotencyDTO.class));
+            verify(paymentService, never()).completePaymentIdempotency(any(), anyInt(), any());
+        }
+    }
+
+    @Test
+    void testProcessingPaymentAdyenUnavailable() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        PaymentRequestDTO paymentRequestDTO = mock(PaymentRequestDTO.class);
+        PaymentDTO paymentDTO = mock(PaymentDTO.class);
+        Object paymentMethod = new Object();
+        String referenceNumber = "12345";
+        String returnUrl = "https://example.com";
+
+        when(paymentRequestDTO.getPaymentMethodDetails()).thenReturn(paymentMethod);
+        when(paymentRequestDTO.getReferenceNumber()).thenReturn(referenceNumber);
+        when(paymentRequestDTO.getReturnURL()).thenReturn(returnUrl);
+        when(paymentValidator.validateOnPay(paymentRequestDTO)).thenReturn(List.of());
+
+        try (MockedStatic<RequestJsonParser> mockedParser = mockStatic(RequestJsonParser.class);
+             MockedStatic<PaymentMethodHelper> helper = mockStatic(PaymentMethodHelper.class)) {
+
+            mockedParser.when(() -> RequestJsonParser.parse(request, PaymentRequestDTO.class)).thenReturn(paymentRequestDTO);
+            helper.when(() -> PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethod)).thenReturn("card");
+
+            when(paymentService.createPaymentAsync(eq(paymentRequestDTO), eq("card"), any(PaymentIdempotencyDTO.class))).thenReturn(CompletableFuture.completedFuture(paymentDTO));
+            when(paymentService.makePaymentAsync(paymentDTO, paymentMethod, referenceNumber, returnUrl))
+                    .thenReturn(CompletableFuture.failedFuture(new AdyenUnavailableException("Adyen circuit breaker is open", 2500)));
+
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
+
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+            assertEquals("3", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+            assertEquals("Error: Adyen circuit breaker is open", response.getBody());
+            verify(paymentService).updatePaymentUnavailable(paymentDTO, "Error: Adyen circuit breaker is open");
+            verify(paymentService, never()).updatePaymentFailure(any(), any());
+            verify(paymentService).releasePaymentIdempotency(any(PaymentIdempotencyDTO.class));
+            verify(paymentService, never()).completePaymentIdempotency(any(), anyInt(), any());
+        }
+    }
+
+    @Test
+    void testProcessingPaymentRepeatedRequest() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        PaymentRequestDTO paymentRequestDTO = mock(PaymentRequestDTO.class);
+        Object paymentMethod = new Object();
+        when(paymentRequestDTO.getPaymentMethodDetails()).thenReturn(paymentMethod);
+        when(paymentRequestDTO.getReferenceNumber()).thenReturn("12345");
+        when(paymentValidator.validateOnPay(paymentRequestDTO)).thenReturn(List.of());
+
+        PaymentIdempotencyDTO stored = new PaymentIdempotencyDTO();
+        stored.setIdempotencyKey("key-12345");
+        stored.setRequestFingerprint("fingerprint");
+        stored.setStatus(PaymentIdempotencyStatusEnum.COMPLETED);
+        stored.setResponseStatus(200);
+        stored.setResponseBody("\"The payment successfully processed\"");
+
+        try (MockedStatic<RequestJsonParser> mockedParser = mockStatic(RequestJsonParser.class);
+             MockedStatic<PaymentMethodHelper> helper = mockStatic(PaymentMethodHelper.class)) {
+
+            mockedParser.when(() -> RequestJsonParser.parse(request, PaymentRequestDTO.class)).thenReturn(paymentRequestDTO);
+            helper.when(() -> PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethod)).thenReturn("card");
+
+            when(paymentService.claimPaymentAsync("key-12345", "fingerprint")).thenReturn(CompletableFuture.completedFuture(stored));
+
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals("The payment successfully processed", response.getBody());
+            verify(paymentService, never()).createPaymentAsync(any(), any(), any());
+            verify(paymentService, never()).makePaymentAsync(any(), any(), any(), any());
+        }
+    }
+
+    @Test
+    void testProcessingPaymentRepeatedRequestReplaysStoredErrors() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        PaymentRequestDTO paymentRequestDTO = mock(PaymentRequestDTO.class);
+        Object paymentMethod = new Object();
+        when(paymentRequestDTO.getPaymentMethodDetails()).thenReturn(paymentMethod);
+        when(paymentRequestDTO.getReferenceNumber()).thenReturn("12345");
+        when(paymentValidator.validateOnPay(paymentRequestDTO)).thenReturn(List.of());
+
+        PaymentIdempotencyDTO stored = new PaymentIdempotencyDTO();
+        stored.setIdempotencyKey("key-12345");
+        stored.setRequestFingerprint("fingerprint");
+        stored.setStatus(PaymentIdempotencyStatusEnum.COMPLETED);
+        stored.setResponseStatus(400);
+        stored.setResponseBody("{\"errors\":[\"Payment failed\"]}");
+
+        try (MockedStatic<RequestJsonParser> mockedParser = mockStatic(RequestJsonParser.class);
+             MockedStatic<PaymentMethodHelper> helper = mockStatic(PaymentMethodHelper.class)) {
+
+            mockedParser.when(() -> RequestJsonParser.parse(request, PaymentRequestDTO.class)).thenReturn(paymentRequestDTO);
+            helper.when(() -> PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethod)).thenReturn("card");
+
+            when(paymentService.claimPaymentAsync("key-12345", "fingerprint")).thenReturn(CompletableFuture.completedFuture(stored));
+
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
+
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            assertEquals(Map.of("errors", List.of("Payment failed")), response.getBody());
+            // Written as JSON again, not as the toString of the map
+            JsonNode body = new ObjectMapper().readTree(new ObjectMapper().writeValueAsString(response.getBody()));
+            assertEquals("Payment failed", body.get("errors").get(0).asText());
+        }
+    }
+
+    @Test
+    void testProcessingPaymentReferenceReusedForDifferentPayment() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        PaymentRequestDTO paymentRequestDTO = mock(PaymentRequestDTO.class);
+        Object paymentMethod = new Object();
+        when(paymentRequestDTO.getPaymentMethodDetails()).thenReturn(paymentMethod);
+        when(paymentRequestDTO.getReferenceNumber()).thenReturn("12345");
+        when(paymentValidator.validateOnPay(paymentRequestDTO)).thenReturn(List.of());
+
+        PaymentIdempotencyDTO stored = new PaymentIdempotencyDTO();
+        stored.setIdempotencyKey("key-12345");
+        stored.setRequestFingerprint("other-fingerprint");
+        stored.setStatus(PaymentIdempotencyStatusEnum.COMPLETED);
+
+        try (MockedStatic<RequestJsonParser> mockedParser = mockStatic(RequestJsonParser.class);
+             MockedStatic<PaymentMethodHelper> helper = mockStatic(PaymentMethodHelper.class)) {
+
+            mockedParser.when(() -> RequestJsonParser.parse(request, PaymentRequestDTO.class)).thenReturn(paymentRequestDTO);
+            helper.when(() -> PaymentMethodHelper.getTypeFromPaymentMethod(paymentMethod)).thenReturn("card");
+
+            when(paymentService.claimPaymentAsync("key-12345", "fingerprint")).thenReturn(CompletableFuture.completedFuture(stored));
+
+            ResponseEntity<?> response = paymentController.processingPayment(request).join();
+
+            assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+            verify(paymentService, never()).makePaymentAsync(any(), any(), any(), any());
         }
     }
 
@@ -254,4 +449,94 @@ class PaymentControllerTest {
 
         verify(paymentService).updatePaymentSuccess(payment, "psp123", resultCode.getValue());
     }
+
+    @Test
+    void testProcessingCheckoutAdyenUnavailable() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("payment_id", "123");
+        request.setParameter("reference_number", "ref123");
+        request.setParameter("redirectResult", "redirectValue");
+
+        when(paymentValidator.validateOnReturn(request)).thenReturn(List.of());
+
+        PaymentDTO payment = mock(PaymentDTO.class);
+        when(paymentService.getPaymentByID(123L)).thenReturn(payment);
+        when(paymentService.checkPayment("redirectValue")).thenThrow(new AdyenUnavailableException("Too many concurrent Adyen calls", 1000));
+
+        ResponseEntity<?> response = paymentController.processingCheckout(request);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        verify(paymentService, never()).updatePaymentFailure(any(), any());
+        verify(paymentService, never()).updatePaymentFailure(any(), any(), any());
+    }
+
+    @Test
+    void testProcessingCheckoutRepeatedReturnChecksOnce() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("payment_id", "123");
+        request.setParameter("reference_number", "ref123");
+        request.setParameter("redirectResult", "redirectValue");
+
+        when(paymentValidator.validateOnReturn(request)).thenReturn(List.of());
+
+        PaymentDTO payment = mock(PaymentDTO.class);
+        PaymentDetailsResponse responseMock = mock(PaymentDetailsResponse.class);
+        when(paymentService.getPaymentByID(123L)).thenReturn(payment);
+        when(paymentService.checkPayment("redirectValue")).thenReturn(responseMock);
+        when(responseMock.getPspReference()).thenReturn("psp123");
+        when(responseMock.getResultCode()).thenReturn(PaymentDetailsResponse.ResultCodeEnum.AUTHORISED);
+
+        ResponseEntity<?> first = paymentController.processingCheckout(request);
+        ResponseEntity<?> second = paymentController.processingCheckout(request);
+
+        assertEquals(HttpStatus.OK, second.getStatusCode());
+        assertEquals(first.getBody(), second.getBody());
+        verify(paymentService, times(1)).checkPayment("redirectValue");
+        verify(paymentService, times(1)).updatePaymentSuccess(payment, "psp123", "Authorised");
+    }
+
+    @Test
+    void testProcessingCheckoutFinalStatusAnsweredLocally() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("payment_id", "123");
+        request.setParameter("reference_number", "ref123");
+        request.setParameter("redirectResult", "redirectValue");
+
+        when(paymentValidator.validateOnReturn(request)).thenReturn(List.of());
+
+        PaymentDTO payment = new PaymentDTO();
+        payment.setId(123L);
+        payment.setStatus(PaymentStatusEnum.FAILED);
+        payment.setFailureMessage("Refused");
+        when(paymentService.getPaymentByID(123L)).thenReturn(payment);
+
+        ResponseEntity<?> response = paymentController.processingCheckout(request);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("Payment failed: Refused", response.getBody());
+        verify(paymentService, never()).checkPayment(any());
+    }
+
+    @Test
+    void testProcessingCheckoutAdyenUnavailableIsNotCached() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("payment_id", "123");
+        request.setParameter("reference_number", "ref123");
+        request.setParameter("redirectResult", "redirectValue");
+
+        when(paymentValidator.validateOnReturn(request)).thenReturn(List.of());
+
+        PaymentDTO payment = mock(PaymentDTO.class);
+        PaymentDetailsResponse responseMock = mock(PaymentDetailsResponse.class);
+        when(paymentService.getPaymentByID(123L)).thenReturn(payment);
+        when(paymentService.checkPayment("redirectValue"))
+                .thenThrow(new AdyenUnavailableException("Too many concurrent Adyen calls", 1000))
+                .thenReturn(responseMock);
+        when(responseMock.getResultCode()).thenReturn(PaymentDetailsResponse.ResultCodeEnum.AUTHORISED);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, paymentController.processingCheckout(request).getStatusCode());
+        assertEquals(HttpStatus.OK, paymentController.processingCheckout(request).getStatusCode());
+        verify(paymentService, times(2)).checkPayment("redirectValue");
+    }
 }
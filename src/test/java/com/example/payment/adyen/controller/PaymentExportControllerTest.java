@@ -0,0 +1,119 @@
+package com.example.payment.adyen.controller;
+
+import com.example.payment.adyen.dto.PaymentExportFilterDTO;
+import com.example.payment.adyen.service.PaymentExportService;
+import com.example.payment.adyen.validator.PaymentValidator;
+import com.example.payment.helper.PaymentExportFormatEnum;
+import com.example.payment.helper.PaymentStatusEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class PaymentExportControllerTest {
+    private PaymentExportService paymentExportService;
+    private PaymentValidator paymentValidator;
+    private PaymentExportController paymentExportController;
+
+    @BeforeEach
+    void setUp() {
+        paymentExportService = mock(PaymentExportService.class);
+        paymentValidator = mock(PaymentValidator.class);
+
+        paymentExportController = new PaymentExportController(paymentExportService, paymentValidator);
+    }
+
+    @Test
+    void testExportPaymentsValidationFails() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("format", "xml");
+
+        when(paymentValidator.validateOnExport(request)).thenReturn(List.of("Parameter format must be one of: ndjson, csv"));
+
+        ResponseEntity<StreamingResponseBody> response = paymentExportController.exportPayments(request);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.getBody().writeTo(output);
+        assertTrue(output.toString().contains("Parameter format must be one of"));
+        verifyNoInteractions(paymentExportService);
+    }
+
+    @Test
+    void testExportPaymentsStreamsWithFilter() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("format", "csv");
+        request.setParameter("status", "Success");
+        request.setParameter("currency", "EUR");
+        request.setParameter("from", "2024-05-01");
+        request.setParameter("to", "2024-06-01T00:00:00");
+
+        when(paymentValidator.validateOnExport(request)).thenReturn(Collections.emptyList());
+
+        ResponseEntity<StreamingResponseBody> response = paymentExportController.exportPayments(request);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("text/csv", response.getHeaders().getContentType().toString());
+        assertTrue(response.getHeaders().getFirst("Content-Disposition").contains("payments.csv"));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.getBody().writeTo(output);
+
+        verify(paymentExportService, times(1)).export(argThat((PaymentExportFilterDTO filter) ->
+                        filter.getStatus() == PaymentStatusEnum.SUCCESS
+                                && "EUR".equals(filter.getCurrency())
+                                && LocalDateTime.of(2024, 5, 1, 0, 0).equals(filter.getCreatedFrom())
+                                && LocalDateTime.of(2024, 6, 1, 0, 0).equals(filter.getCreatedTo())),
+                eq(PaymentExportFormatEnum.CSV), eq(output));
+    }
+
+    @Test
+    void testExportPaymentsDefaultsToNdjson() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        when(paymentValidator.validateOnExport(request)).thenReturn(Collections.emptyList());
+
+        ResponseEntity<StreamingResponseBody> response = paymentExportController.exportPayments(request);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("application/x-ndjson", response.getHeaders().getContentType().toString());
+    }
+
+    @Test
+    void testExportPaymentsSetsItsOwnAsyncTimeout() throws Exception {
+        when(paymentValidator.validateOnExport(any())).thenReturn(Collections.emptyList());
+        when(paymentExportService.getTimeoutMillis()).thenReturn(3600000L);
+        CountDownLatch exported = new CountDownLatch(1);
+        when(paymentExportService.export(any(), any(), any())).thenAnswer(invocation -> {
+            exported.await(5, TimeUnit.SECONDS);
+            return 0L;
+        });
+
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(paymentExportController)
+                .setAsyncRequestTimeout(60000)
+                .build();
+        MvcResult result = mockMvc.perform(get("/api/payments/adyen/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertEquals(3600000L, result.getRequest().getAsyncContext().getTimeout());
+        exported.countDown();
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.payment.adyen.controller;
+
+import com.example.payment.adyen.async.PaymentStatusNotifier;
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentStatusDTO;
+import com.example.payment.adyen.service.PaymentService;
+import com.example.payment.adyen.validator.PaymentValidator;
+import com.example.payment.helper.PaymentStatusEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PaymentStatusControllerTest {
+    private PaymentService paymentService;
+    private PaymentStatusNotifier paymentStatusNotifier;
+    private PaymentStatusController paymentStatusController;
+
+    @BeforeEach
+    void setUp() {
+        paymentService = mock(PaymentService.class);
+        paymentStatusNotifier = new PaymentStatusNotifier();
+
+        paymentStatusController = new PaymentStatusController(paymentService, new PaymentValidator(), paymentStatusNotifier);
+    }
+
+    @Test
+    void testStatusWithoutWaitIsReturnedImmediately() {
+        when(paymentService.getPaymentByID(1L)).thenReturn(createPayment(1L, PaymentStatusEnum.PENDING));
+
+        DeferredResult<ResponseEntity<?>> result = paymentStatusController.getPaymentStatus(1L, new MockHttpServletRequest());
+
+        ResponseEntity<?> response = (ResponseEntity<?>) result.getResult();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("Pending", ((PaymentStatusDTO) response.getBody()).getStatus());
+    }
+
+    @Test
+    void testLongPollIsWokenByStatusChange() {
+        when(paymentService.getPaymentByID(1L)).thenReturn(createPayment(1L, PaymentStatusEnum.PENDING));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("wait", "20");
+
+        DeferredResult<ResponseEntity<?>> result = paymentStatusController.getPaymentStatus(1L, request);
+
+        assertFalse(result.hasResult());
+        assertEquals(1, paymentStatusNotifier.getMetrics().get("waiting"));
+
+        paymentStatusNotifier.publish(createPayment(1L, PaymentStatusEnum.SUCCESS));
+
+        ResponseEntity<?> response = (ResponseEntity<?>) result.getResult();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("Success", ((PaymentStatusDTO) response.getBody()).getStatus());
+        assertEquals(0, paymentStatusNotifier.getMetrics().get("waiting"));
+    }
+
+    @Test
+    void testLongPollReturnsImmediatelyWhenStatusDiffersFromAfter() {
+        when(paymentService.getPaymentByID(1L)).thenReturn(createPayment(1L, PaymentStatusEnum.PENDING));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("wait", "20");
+        request.setParameter("after", "initiated");
+
+        DeferredResult<ResponseEntity<?>> result = paymentStatusController.getPaymentStatus(1L, request);
+
+        ResponseEntity<?> response = (ResponseEntity<?>) result.getResult();
+        assertEquals("Pending", ((PaymentStatusDTO) response.getBody()).getStatus());
+        assertEquals(0, paymentStatusNotifier.getMetrics().get("waiting"));
+    }
+
+    @Test
+    void testLongPollOnFinalStatusReturnsImmediately() {
+        when(paymentService.getPaymentByID(1L)).thenReturn(createPayment(1L, PaymentStatusEnum.FAILED));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("wait", "20");
+
+        DeferredResult<ResponseEntity<?>> result = paymentStatusController.getPaymentStatus(1L, request);
+
+        ResponseEntity<?> response = (ResponseEntity<?>) result.getResult();
+        assertTrue(((PaymentStatusDTO) response.getBody()).isCompleted());
+        assertEquals(0, paymentStatusNotifier.getMetrics().get("waiting"));
+    }
+
+    @Test
+    void testStreamEventsAreSentOnStreamExecutor() {
+        List<Runnable> tasks = new ArrayList<>();
+        paymentStatusNotifier.setStreamExecutor(tasks::add);
+        when(paymentService.getPaymentByID(1L)).thenReturn(createPayment(1L, PaymentStatusEnum.PENDING));
+
+        ResponseEntity<SseEmitter> response = paymentStatusController.streamPaymentStatus(1L);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1, tasks.size());
+
+        // The publishing thread only queues the change behind the current status, the queued task sends both
+        paymentStatusNotifier.publish(createPayment(1L, PaymentStatusEnum.SUCCESS));
+        assertEquals(1, tasks.size());
+
+        tasks.remove(0).run();
+
+        // The stream is completed by the final status, later changes are not sent
+        paymentStatusNotifier.publish(createPayment(1L, PaymentStatusEnum.FAILED));
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    void testStatusOfUnknownPaymentReturns404() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("wait", "20");
+
+        DeferredResult<ResponseEntity<?>> result = paymentStatusController.getPaymentStatus(1L, request);
+
+        assertEquals(HttpStatus.NOT_FOUND, ((ResponseEntity<?>) result.getResult()).getStatusCode());
+        assertEquals(0, paymentStatusNotifier.getMetrics().get("waiting"));
+        assertEquals(HttpStatus.NOT_FOUND, paymentStatusController.streamPaymentStatus(1L).getStatusCode());
+    }
+
+    @Test
+    void testStatusValidationErrors() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("wait", "-1");
+        request.setParameter("after", "Unknown");
+
+        DeferredResult<ResponseEntity<?>> result = paymentStatusController.getPaymentStatus(1L, request);
+
+        ResponseEntity<?> response = (ResponseEntity<?>) result.getResult();
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(Map.of("errors", List.of("Parameter wait must not be negative", "Invalid payment status: Unknown")), response.getBody());
+        verifyNoInteractions(paymentService);
+    }
+
+    private PaymentDTO createPayment(Long id, PaymentStatusEnum status) {
+        PaymentDTO payment = new PaymentDTO();
+        payment.setId(id);
+        payment.setStatus(status);
+        return payment;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.payment.adyen.controller;
+
+import com.example.payment.adyen.async.WebhookRetryScheduler;
+import com.example.payment.adyen.dto.WebhookReplayFilterDTO;
+import com.example.payment.adyen.dto.WebhookReplayProgressDTO;
+import com.example.payment.adyen.service.PaymentService;
+import com.example.payment.adyen.service.WebhookReplayService;
+import com.example.payment.adyen.validator.PaymentValidator;
+import com.example.payment.helper.WebhookReplayStatusEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class WebhookAdminControllerTest {
+    private WebhookRetryScheduler webhookRetryScheduler;
+    private WebhookReplayService webhookReplayService;
+    private PaymentService paymentService;
+    private PaymentValidator paymentValidator;
+    private WebhookAdminController webhookAdminController;
+
+    @BeforeEach
+    void setUp() {
+        webhookRetryScheduler = mock(WebhookRetryScheduler.class);
+        webhookReplayService = mock(WebhookReplayService.class);
+        paymentService = mock(PaymentService.class);
+        paymentValidator = mock(PaymentValidator.class);
+        when(paymentService.checkBasicAuthValid(any())).thenReturn(true);
+
+        webhookAdminController = new WebhookAdminController(webhookRetryScheduler, webhookReplayService, paymentService, paymentValidator);
+    }
+
+    @Test
+    void testReplayDeadLetters() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("limit", "50");
+
+        when(webhookRetryScheduler.replayDeadLetters(50)).thenReturn(12);
+
+        ResponseEntity<?> response = webhookAdminController.replayDeadLetters(request);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(Map.of("replayed", 12), response.getBody());
+    }
+
+    @Test
+    void testReplayDeadLettersInvalidLimit() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("limit", "-1");
+
+        ResponseEntity<?> response = webhookAdminController.replayDeadLetters(request);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        verify(webhookRetryScheduler, never()).replayDeadLetters(anyInt());
+    }
+
+    @Test
+    void testStartReplay() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("paymentIdFrom", "10");
+        request.setParameter("paymentIdTo", "20");
+        request.setParameter("dryRun", "true");
+        request.setParameter("maxPerSecond", "50");
+
+        WebhookReplayProgressDTO progress = new WebhookReplayProgressDTO();
+        progress.setStatus(WebhookReplayStatusEnum.RUNNING);
+
+        when(paymentValidator.validateOnWebhookReplay(request)).thenReturn(List.of());
+        when(webhookReplayService.start(argThat(filter -> filter.getPaymentIdFrom() == 10L && filter.getPaymentIdTo() == 20L
+                && filter.getReceivedFrom() == null), eq(true), eq(50))).thenReturn(progress);
+
+        ResponseEntity<?> response = webhookAdminController.startReplay(request);
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertSame(progress, response.getBody());
+    }
+
+    @Test
+    void testStartReplayValidationError() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        when(paymentValidator.validateOnWebhookReplay(request)).thenReturn(List.of("At least one of the parameters from, to, paymentIdFrom or paymentIdTo is required"));
+
+        ResponseEntity<?> response = webhookAdminController.startReplay(request);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        verifyNoInteractions(webhookReplayService);
+    }
+
+    @Test
+    void testStartReplayWhileRunning() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("paymentIdFrom", "10");
+
+        when(paymentValidator.validateOnWebhookReplay(request)).thenReturn(List.of());
+        when(webhookReplayService.start(any(WebhookReplayFilterDTO.class), anyBoolean(), anyInt()))
+                .thenThrow(new IllegalStateException("A webhook replay is already running"));
+
+        ResponseEntity<?> response = webhookAdminController.startReplay(request);
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+    }
+
+    @Test
+    void testAdminEndpointsRejectRequestsWithoutBasicAuth() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("paymentIdFrom", "10");
+        when(paymentService.checkBasicAuthValid(request)).thenReturn(false);
+
+        assertEquals(HttpStatus.UNAUTHORIZED, webhookAdminController.replayDeadLetters(request).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, webhookAdminController.startReplay(request).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, webhookAdminController.getReplayProgress(request).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, webhookAdminController.cancelReplay(request).getStatusCode());
+        verifyNoInteractions(webhookRetryScheduler, webhookReplayService, paymentValidator);
+    }
+
+    @Test
+    void testReplayProgressWithoutReplay() {
+        when(webhookReplayService.getProgress()).thenReturn(null);
+
+        ResponseEntity<?> response = webhookAdminController.getReplayProgress(new MockHttpServletRequest());
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.payment.adyen.controller;
 
+import com.example.payment.adyen.cache.WebhookKeyCache;
 import com.example.payment.adyen.dao.PaymentDao;
 import com.example.payment.adyen.dao.PaymentWebhookDao;
 import com.example.payment.adyen.dto.PaymentDTO;
@@ -37,6 +38,38 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ContextConfiguration(locations = "classpath:test-config.xml")
 class WebhookControllerIntegrationTest {
 
+    private static final String AUTHORISATION_PAYLOAD = """
+            {
+              "live": "false",
+              "notificationItems": [
+                {
+                  "NotificationRequestItem": {
+                    "additionalData": {
+                      "hmacSignature": "lEqHAW/V47OEL996uB0tmZMPJcCJaFf6zG/VrZF1v6E="
+                    },
+                    "amount": {
+                      "currency": "EUR",
+                      "value": 100000
+                    },
+                    "eventCode": "AUTHORISATION",
+                    "eventDate": "2025-04-17T18:04:17+02:00",
+                    "merchantAccountCode": "TestMerchant",
+                    "merchantReference": "REF123",
+                    "operations": [
+                      "CANCEL",
+                      "CAPTURE",
+                      "REFUND"
+                    ],
+                    "paymentMethod": "visa",
+                    "pspReference": "PSP123456",
+                    "reason": "055025:1111:03/2030",
+                    "success": "true"
+                  }
+                }
+              ]
+            }
+            """;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -52,6 +85,9 @@ class WebhookControllerIntegrationTest {
     @Autowired
     private AdyenConfig adyenConfig;
 
+    @Autowired
+    private WebhookKeyCache webhookKeyCache;
+
     @SpyBean
     private PaymentService paymentService;
 
@@ -59,54 +95,16 @@ class WebhookControllerIntegrationTest {
     void setUp() throws SQLException {
         databaseHelper.printInfo();
         databaseHelper.cleanDatabase();
+        // Keys applied by an earlier test are gone from the database, not from the cache
+        webhookKeyCache.clear();
     }
 
     @Test
     void testWebhookAuthorisationSuccessful() throws Exception {
-        PaymentDTO payment = new PaymentDTO();
-        payment.setReference("REF123");
-        payment.setPspReference("PSP123456");
-        payment.setCurrency("EUR");
-        payment.setAmount(1000.00);
-        payment.setStatus(PaymentStatusEnum.INITIATED);
-        payment.setPaymentMethod("ideal");
-        payment.setCreateAt(new Date());
-        payment.setUpdateAt(new Date());
-        payment.setMerchantReference("TestMerchant");
-
+        PaymentDTO payment = createPayment();
         paymentDao.insert(payment);
 
-        String jsonPayload = """
-                {
-                  "live": "false",
-                  "notificationItems": [
-                    {
-                      "NotificationRequestItem": {
-                        "additionalData": {
-                          "hmacSignature": "lEqHAW/V47OEL996uB0tmZMPJcCJaFf6zG/VrZF1v6E="
-                        },
-                        "amount": {
-                          "currency": "EUR",
-                          "value": 100000
-                        },
-                        "eventCode": "AUTHORISATION",
-                        "eventDate": "2025-04-17T18:04:17+02:00",
-                        "merchantAccountCode": "TestMerchant",
-                        "merchantReference": "REF123",
-                        "operations": [
-                          "CANCEL",
-                          "CAPTURE",
-                          "REFUND"
-                        ],
-                        "paymentMethod": "visa",
-                        "pspReference": "PSP123456",
-                        "reason": "055025:1111:03/2030",
-                        "success": "true"
-                      }
-                    }
-                  ]
-                }
-                """;
+
 
 
         when(paymentService.checkAdyenHMAC(any())).thenReturn(true);
@@ -114,7 +112,7 @@ class WebhookControllerIntegrationTest {
         mockMvc.perform(post("/api/webhook/adyen")
                         .header("Authorization", "Basic " + HttpHeaders.encodeBasicAuth(adyenConfig.getWebhookUsername(), adyenConfig.getWebhookPassword(), Charset.defaultCharset()))
                         .contentType(MediaType.APPLICATION_JSON)
-                        .content(jsonPayload))
+                        .content(AUTHORISATION_PAYLOAD))
                 .andExpect(status().isAccepted())
                 .andExpect(content().string("\"OK\""));
 
@@ -128,4 +126,57 @@ class WebhookControllerIntegrationTest {
         assertEquals(1, webhooks.size());
         assertEquals("AUTHORISATION", webhooks.get(0).getEventCode());
     }
+
+    @Test
+    void testWebhookBeforePaymentIsAppliedOnRedelivery() throws Exception {
+        when(paymentService.checkAdyenHMAC(any())).thenReturn(true);
+
+        // Adyen can notify before the payment has its pspReference
+        postAuthorisationWebhook();
+        Thread.sleep(3000);
+
+        assertTrue(paymentDao.findByPspReference("PSP123456").isEmpty());
+
+        PaymentDTO payment = createPayment();
+        paymentDao.insert(payment);
+
+        // The redelivery waits behind the retry of the first one, which is applied on its next attempt
+        postAuthorisationWebhook();
+        PaymentDTO updatedPayment = awaitPaymentStatus("PSP123456", PaymentStatusEnum.SUCCESS, 15000);
+
+        assertEquals(PaymentStatusEnum.SUCCESS, updatedPayment.getStatus());
+        assertEquals(1, paymentWebhookDao.getAllWebhooksByPaymentId(updatedPayment.getId()).size());
+    }
+
+    private PaymentDTO awaitPaymentStatus(String pspReference, PaymentStatusEnum status, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        PaymentDTO payment = paymentDao.findByPspReference(pspReference).orElseThrow();
+        while (payment.getStatus() != status && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            payment = paymentDao.findByPspReference(pspReference).orElseThrow();
+        }
+        return payment;
+    }
+
+    private void postAuthorisationWebhook() throws Exception {
+        mockMvc.perform(post("/api/webhook/adyen")
+                        .header("Authorization", "Basic " + HttpHeaders.encodeBasicAuth(adyenConfig.getWebhookUsername(), adyenConfig.getWebhookPassword(), Charset.defaultCharset()))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(AUTHORISATION_PAYLOAD))
+                .andExpect(status().isAccepted());
+    }
+
+    private PaymentDTO createPayment() {
+        PaymentDTO payment = new PaymentDTO();
+        payment.setReference("REF123");
+        payment.setPspReference("PSP123456");
+        payment.setCurrency("EUR");
+        payment.setAmount(100000L);
+        payment.setStatus(PaymentStatusEnum.INITIATED);
+        payment.setPaymentMethod("ideal");
+        payment.setCreateAt(new Date());
+        payment.setUpdateAt(new Date());
+        payment.setMerchantReference("TestMerchant");
+        return payment;
+    }
 }
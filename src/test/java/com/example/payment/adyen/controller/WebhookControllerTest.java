@@ -1,37 +1,34 @@
 package com.example.payment.adyen.controller;
 
 import com.adyen.model.notification.NotificationRequest;
-import com.adyen.notification.WebhookHandler;
-import com.example.payment.adyen.async.AsyncWebhookProcessor;
+import com.example.payment.adyen.async.WebhookInboxWorker;
+import com.example.payment.adyen.dao.WebhookInboxDao;
 import com.example.payment.adyen.service.PaymentService;
+import com.example.payment.helper.WebhookRequestReader;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.io.IOException;
-import java.util.Collections;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class WebhookControllerTest {
-    private ThreadPoolTaskExecutor taskExecutor;
-    private AsyncWebhookProcessor webhookProcessor;
+    private WebhookInboxDao webhookInboxDao;
+    private WebhookInboxWorker webhookInboxWorker;
     private PaymentService paymentService;
-    private WebhookHandler webhookHandler;
     private WebhookController webhookController;
 
     @BeforeEach
     void setUp() {
-        taskExecutor = mock(ThreadPoolTaskExecutor.class);
-        webhookProcessor = mock(AsyncWebhookProcessor.class);
+        webhookInboxDao = mock(WebhookInboxDao.class);
+        webhookInboxWorker = mock(WebhookInboxWorker.class);
         paymentService = mock(PaymentService.class);
-        webhookHandler = mock(WebhookHandler.class);
 
-        webhookController = new WebhookController(taskExecutor, webhookProcessor, paymentService, webhookHandler);
+        webhookController = new WebhookController(webhookInboxDao, webhookInboxWorker, paymentService, new WebhookRequestReader(1024, 2));
     }
 
     @Test
@@ -42,13 +39,7 @@ class WebhookControllerTest {
         MockHttpServletRequest request = new MockHttpServletRequest();
         request.setContent(payload.getBytes());
 
-        NotificationRequest mockNotification = new NotificationRequest();
-        mockNotification.setLive("true");
-        mockNotification.setNotificationItems(Collections.emptyList());
-
-        when(webhookHandler.handleNotificationJson(payload)).thenReturn(mockNotification);
-
-        when(paymentService.checkAdyenHMAC(mockNotification)).thenReturn(true);
+        when(paymentService.checkAdyenHMAC(any(NotificationRequest.class))).thenReturn(true);
         when(paymentService.checkBasicAuthValid(request)).thenReturn(true);
 
         // Act
@@ -58,23 +49,36 @@ class WebhookControllerTest {
         assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
         assertEquals("OK", response.getBody());
 
-        verify(taskExecutor, times(1)).execute(any(Runnable.class));
+        verify(webhookInboxDao, times(1)).insert(payload);
+        verify(webhookInboxWorker, times(1)).wakeUp();
     }
 
     @Test
-    void testHandleAdyenWebhookUnauthorized() throws Exception {
-        // Arrange
+    void testHandleAdyenWebhookInboxUnavailable() throws IOException {
         String payload = "{ \"live\": \"true\", \"notificationItems\": [] }";
+
         MockHttpServletRequest request = new MockHttpServletRequest();
         request.setContent(payload.getBytes());
 
-        NotificationRequest mockNotification = new NotificationRequest();
-        mockNotification.setLive("true");
-        mockNotification.setNotificationItems(Collections.emptyList());
+        when(paymentService.checkAdyenHMAC(any(NotificationRequest.class))).thenReturn(true);
+        when(paymentService.checkBasicAuthValid(request)).thenReturn(true);
+        doThrow(new RuntimeException("Connection is not available")).when(webhookInboxDao).insert(payload);
+
+        ResponseEntity<String> response = webhookController.handleAdyenWebhook(request);
+
+        // Not accepted, so Adyen sends the webhook again
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        verify(webhookInboxWorker, never()).wakeUp();
+    }
 
-        when(webhookHandler.handleNotificationJson(payload)).thenReturn(mockNotification);
+    @Test
+    void testHandleAdyenWebhookUnauthorized() throws Exception {
+        // Arrange
+        String payload = "{ \"live\": \"true\", \"notificationItems\": [] }";
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContent(payload.getBytes());
 
-        when(paymentService.checkAdyenHMAC(mockNotification)).thenReturn(false);
+        when(paymentService.checkBasicAuthValid(request)).thenReturn(false);
 
         // Act
         ResponseEntity<String> response = webhookController.handleAdyenWebhook(request);
@@ -83,7 +87,8 @@ class WebhookControllerTest {
         assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
         assertEquals("Unauthorized", response.getBody());
 
-        verify(taskExecutor, never()).execute(any());
+        verify(webhookInboxDao, never()).insert(anyString());
+        verify(paymentService, never()).checkAdyenHMAC(any(NotificationRequest.class));
     }
 
     @Test
@@ -93,8 +98,7 @@ class WebhookControllerTest {
         MockHttpServletRequest request = new MockHttpServletRequest();
         request.setContent(invalidPayload.getBytes());
 
-        when(webhookHandler.handleNotificationJson(anyString()))
-                .thenThrow(new RuntimeException("Failed to parse payload"));
+        when(paymentService.checkBasicAuthValid(request)).thenReturn(true);
 
         // Act
         ResponseEntity<String> response = webhookController.handleAdyenWebhook(request);
@@ -121,4 +125,34 @@ class WebhookControllerTest {
         assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
         assertTrue(response.getBody().contains("Unauthorized"));
     }
+
+    @Test
+    void testHandleAdyenWebhookTooManyItems() {
+        String payload = "{ \"live\": \"false\", \"notificationItems\": ["
+                + "{ \"NotificationRequestItem\": { \"pspReference\": \"1\" } },"
+                + "{ \"NotificationRequestItem\": { \"pspReference\": \"2\" } },"
+                + "{ \"NotificationRequestItem\": { \"pspReference\": \"3\" } }] }";
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContent(payload.getBytes());
+
+        when(paymentService.checkBasicAuthValid(request)).thenReturn(true);
+
+        ResponseEntity<String> response = webhookController.handleAdyenWebhook(request);
+
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, response.getStatusCode());
+        verify(webhookInboxDao, never()).insert(anyString());
+    }
+
+    @Test
+    void testHandleAdyenWebhookBodyTooLarge() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContent(("{ \"live\": \"" + "x".repeat(2048) + "\" }").getBytes());
+
+        when(paymentService.checkBasicAuthValid(request)).thenReturn(true);
+
+        ResponseEntity<String> response = webhookController.handleAdyenWebhook(request);
+
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, response.getStatusCode());
+        verify(webhookInboxDao, never()).insert(anyString());
+    }
 }
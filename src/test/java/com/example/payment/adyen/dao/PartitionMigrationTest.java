@@ -0,0 +1,133 @@
+package com.example.payment.adyen.dao;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the Flyway migrations on a real Postgres, skipped without Docker.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class PartitionMigrationTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static NamedParameterJdbcTemplate jdbc;
+    private static PartitionDao partitionDao;
+
+    @BeforeAll
+    static void migrate() {
+        Flyway.configure()
+                .dataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword())
+                .locations("classpath:db/migration")
+                .configuration(Map.of("flyway.postgresql.transactional.lock", "false"))
+                .load()
+                .migrate();
+
+        jdbc = new NamedParameterJdbcTemplate(new DriverManagerDataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword()));
+        partitionDao = new PartitionDao(jdbc);
+    }
+
+    @Test
+    void testOnlyPaymentWebhookIsPartitioned() {
+        assertEquals("r", relkind("payment"));
+        assertEquals("p", relkind("payment_webhook"));
+    }
+
+    @Test
+    void testPspReferenceIsUniqueAcrossMonths() {
+        insertPayment("merchant-1", "psp-unique", "2024-01-15T10:00:00Z");
+
+        assertThrows(DuplicateKeyException.class, () -> insertPayment("merchant-2", "psp-unique", "2024-06-15T10:00:00Z"));
+    }
+
+    @Test
+    void testReferenceIsUniqueAcrossMonths() {
+        insertPayment("merchant-ref", null, "2024-01-15T10:00:00Z");
+
+        assertThrows(DuplicateKeyException.class, () -> insertPayment("merchant-ref", null, "2024-06-15T10:00:00Z"));
+    }
+
+    @Test
+    void testLookupIndexesStopOnDuplicateReferences() {
+        Flyway flyway = Flyway.configure()
+                .dataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword())
+                .locations("classpath:db/migration")
+                .schemas("v3_duplicates")
+                .configuration(Map.of("flyway.postgresql.transactional.lock", "false"))
+                .target("2")
+                .load();
+        flyway.migrate();
+        jdbc.update("INSERT INTO v3_duplicates.payment (merchant_reference, amount, currency, reference, status, create_at) " +
+                "VALUES ('merchant-dup', 1000, 'EUR', 'reference', 'Initiated', now()), ('merchant-dup', 1000, 'EUR', 'reference', 'Initiated', now())",
+                new MapSqlParameterSource());
+
+        FlywayException exception = assertThrows(FlywayException.class, () -> Flyway.configure()
+                .configuration(flyway.getConfiguration())
+                .target("3")
+                .load()
+                .migrate());
+
+        assertTrue(exception.getMessage().contains("duplicate (reference, merchant_reference) rows"));
+        assertEquals(0, jdbc.queryForObject("SELECT count(*) FROM pg_indexes WHERE schemaname = 'v3_duplicates' AND indexname LIKE 'ux_payment_%'",
+                new MapSqlParameterSource(), Integer.class));
+    }
+
+    @Test
+    void testWebhookNeedsExistingPayment() {
+        long paymentId = insertPayment("merchant-webhook", "psp-webhook", "2024-01-15T10:00:00Z");
+
+        insertWebhook(paymentId);
+
+        assertThrows(DataIntegrityViolationException.class, () -> insertWebhook(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testMaintenanceOnlyTouchesWebhookPartitions() {
+        List<String> created = partitionDao.createMonthlyPartitions(6);
+
+        assertFalse(created.isEmpty());
+        assertTrue(created.stream().allMatch(name -> name.startsWith("payment_webhook_p")));
+        assertEquals(List.of(), partitionDao.archivePartitions(24));
+        assertEquals("r", relkind("payment"));
+    }
+
+    private String relkind(String table) {
+        return jdbc.queryForObject("SELECT relkind::text FROM pg_class WHERE relname = :table AND relnamespace = 'public'::regnamespace",
+                new MapSqlParameterSource("table", table), String.class);
+    }
+
+    private long insertPayment(String merchantReference, String pspReference, String createAt) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("merchantReference", merchantReference)
+                .addValue("pspReference", pspReference)
+                .addValue("createAt", Timestamp.from(Instant.parse(createAt)));
+        return jdbc.queryForObject("INSERT INTO payment (merchant_reference, psp_reference, amount, currency, reference, status, create_at) " +
+                "VALUES (:merchantReference, :pspReference, 1000, 'EUR', 'reference', 'Pending', :createAt) RETURNING id", params, Long.class);
+    }
+
+    private void insertWebhook(long paymentId) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("paymentId", paymentId)
+                .addValue("receivedAt", Timestamp.from(Instant.now()));
+        jdbc.update("INSERT INTO payment_webhook (payment_id, event_code, success, psp_reference, received_at) " +
+                "VALUES (:paymentId, 'AUTHORISATION', true, 'psp-webhook', :receivedAt)", params);
+    }
+}
@@ -1,16 +1,18 @@
 package com.example.payment.adyen.dao;
 
+import com.example.payment.adyen.cache.PaymentCache;
 import com.example.payment.adyen.dto.PaymentDTO;
 import com.example.payment.helper.PaymentStatusEnum;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.support.KeyHolder;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -31,7 +33,7 @@ class PaymentDaoTest {
         paymentDTO = new PaymentDTO();
         paymentDTO.setMerchantReference("merchant-123");
         paymentDTO.setPspReference("psp-123");
-        paymentDTO.setAmount(1000.00);
+        paymentDTO.setAmount(100000L);
         paymentDTO.setCurrency("USD");
         paymentDTO.setReference("reference-123");
         paymentDTO.setPaymentMethod("credit_card");
@@ -46,17 +48,43 @@ class PaymentDaoTest {
     void testInsertPayment() {
         when(jdbcTemplate.queryForObject(anyString(), any(SqlParameterSource.class), any(RowMapper.class))).thenReturn(paymentDTO);
 
-        doAnswer(invocation -> {
-            Object[] args = invocation.getArguments();
-            KeyHolder keyHolder = (KeyHolder) args[2];
-            keyHolder.getKeyList().add(new MapSqlParameterSource("id", 1L).getValues());
-            return 1;
-        }).when(jdbcTemplate).update(anyString(), any(), any(KeyHolder.class), any(String[].class));
-
         Optional<PaymentDTO> insertedPayment = paymentDao.insert(paymentDTO);
 
         assertTrue(insertedPayment.isPresent());
         assertEquals(paymentDTO, insertedPayment.get());
+
+        verify(jdbcTemplate, times(1)).queryForObject(endsWith("RETURNING *"), any(SqlParameterSource.class), any(RowMapper.class));
+        verify(jdbcTemplate, never()).update(anyString(), any(SqlParameterSource.class), any(KeyHolder.class), any(String[].class));
+    }
+
+    @Test
+    void testInsertPaymentWithoutReturningSupport() {
+        paymentDao.setReturningSupported(false);
+        when(jdbcTemplate.queryForObject(anyString(), any(SqlParameterSource.class), any(RowMapper.class))).thenReturn(paymentDTO);
+
+        Optional<PaymentDTO> insertedPayment = paymentDao.insert(paymentDTO);
+
+        assertTrue(insertedPayment.isPresent());
+        verify(jdbcTemplate, times(1)).queryForObject(startsWith("SELECT * FROM FINAL TABLE (INSERT INTO payment"), any(SqlParameterSource.class), any(RowMapper.class));
+    }
+
+    @Test
+    void testInsertBatchSetsGeneratedIds() {
+        PaymentDTO secondPayment = new PaymentDTO();
+        secondPayment.setStatus(PaymentStatusEnum.INITIATED);
+        doAnswer(invocation -> {
+            KeyHolder keyHolder = invocation.getArgument(2);
+            keyHolder.getKeyList().add(Map.of("id", 7L));
+            keyHolder.getKeyList().add(Map.of("id", 8L));
+            return new int[]{1, 1};
+        }).when(jdbcTemplate).batchUpdate(anyString(), any(SqlParameterSource[].class), any(KeyHolder.class), any(String[].class));
+
+        paymentDao.insertBatch(List.of(paymentDTO, secondPayment));
+
+        assertEquals(7L, paymentDTO.getId());
+        assertEquals(8L, secondPayment.getId());
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("INSERT INTO payment"),
+                argThat((SqlParameterSource[] params) -> params.length == 2), any(KeyHolder.class), eq(new String[]{"id"}));
     }
 
     @Test
@@ -77,4 +105,31 @@ class PaymentDaoTest {
 
         assertFalse(result.isPresent());
     }
+
+    @Test
+    void testFindPaymentByPspReferenceUsesCache() {
+        paymentDao.setPaymentCache(new PaymentCache(10, 60000));
+        paymentDTO.setId(1L);
+        when(jdbcTemplate.queryForObject(anyString(), any(SqlParameterSource.class), any(RowMapper.class))).thenReturn(paymentDTO);
+
+        paymentDao.findByPspReference("psp-123");
+        Optional<PaymentDTO> result = paymentDao.findByPspReference("psp-123");
+
+        assertTrue(result.isPresent());
+        assertEquals(1L, result.get().getId());
+        verify(jdbcTemplate, times(1)).queryForObject(anyString(), any(SqlParameterSource.class), any(RowMapper.class));
+    }
+
+    @Test
+    void testUpdateInvalidatesCache() {
+        paymentDao.setPaymentCache(new PaymentCache(10, 60000));
+        paymentDTO.setId(1L);
+        when(jdbcTemplate.queryForObject(anyString(), any(SqlParameterSource.class), any(RowMapper.class))).thenReturn(paymentDTO);
+
+        paymentDao.findById(1L);
+        paymentDao.updateStatus(paymentDTO);
+        paymentDao.findById(1L);
+
+        verify(jdbcTemplate, times(2)).queryForObject(anyString(), any(SqlParameterSource.class), any(RowMapper.class));
+    }
 }
@@ -0,0 +1,85 @@
+package com.example.payment.adyen.maintenance;
+
+import com.example.payment.adyen.dao.PartitionDao;
+import com.example.payment.adyen.dao.PaymentIdempotencyDao;
+import com.example.payment.adyen.dao.PaymentWebhookDao;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+class PartitionMaintenanceJobTest {
+
+    private PartitionDao partitionDao;
+
+    @BeforeEach
+    void setUp() {
+        partitionDao = mock(PartitionDao.class);
+    }
+
+    @Test
+    void testRunCreatesAndArchivesPartitions() {
+        when(partitionDao.createMonthlyPartitions(3)).thenReturn(List.of("payment_webhook_p2026_11", "payment_webhook_p2026_12"));
+        when(partitionDao.archivePartitions(24)).thenReturn(List.of("payment_webhook_legacy"));
+
+        new PartitionMaintenanceJob(partitionDao, 3, 24).run();
+
+        verify(partitionDao, times(1)).createMonthlyPartitions(3);
+        verify(partitionDao, times(1)).archivePartitions(24);
+    }
+
+    @Test
+    void testRunWithoutRetentionKeepsPartitions() {
+        when(partitionDao.createMonthlyPartitions(3)).thenReturn(List.of());
+
+        new PartitionMaintenanceJob(partitionDao, 3, 0).run();
+
+        verify(partitionDao, never()).archivePartitions(anyInt());
+    }
+
+    @Test
+    void testRunArchivesWhenCreateFails() {
+        when(partitionDao.createMonthlyPartitions(3)).thenThrow(new RuntimeException("Connection refused"));
+        when(partitionDao.archivePartitions(24)).thenReturn(List.of());
+
+        new PartitionMaintenanceJob(partitionDao, 3, 24).run();
+
+        verify(partitionDao, times(1)).archivePartitions(24);
+    }
+
+    @Test
+    void testRunDeletesOldWebhookKeys() {
+        PaymentWebhookDao paymentWebhookDao = mock(PaymentWebhookDao.class);
+        when(partitionDao.createMonthlyPartitions(3)).thenReturn(List.of());
+
+        PartitionMaintenanceJob job = new PartitionMaintenanceJob(partitionDao, 3, 0);
+        job.setPaymentWebhookDao(paymentWebhookDao);
+        job.setWebhookKeyRetentionDays(35);
+        long before = System.currentTimeMillis();
+        job.run();
+
+        long retention = TimeUnit.DAYS.toMillis(35);
+        verify(paymentWebhookDao, times(1)).deleteKeysReceivedBefore(argThat((Timestamp cutoff) ->
+                cutoff.getTime() >= before - retention && cutoff.getTime() <= System.currentTimeMillis() - retention));
+    }
+
+    @Test
+    void testRunDeletesOldPaymentIdempotencyKeys() {
+        PaymentIdempotencyDao paymentIdempotencyDao = mock(PaymentIdempotencyDao.class);
+        when(partitionDao.createMonthlyPartitions(3)).thenReturn(List.of());
+
+        PartitionMaintenanceJob job = new PartitionMaintenanceJob(partitionDao, 3, 0);
+        job.setPaymentIdempotencyDao(paymentIdempotencyDao);
+        job.setPaymentIdempotencyRetentionDays(30);
+        long before = System.currentTimeMillis();
+        job.run();
+
+        long retention = TimeUnit.DAYS.toMillis(30);
+        verify(paymentIdempotencyDao, times(1)).deleteCreatedBefore(argThat((Timestamp cutoff) ->
+                cutoff.getTime() >= before - retention && cutoff.getTime() <= System.currentTimeMillis() - retention));
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.payment.adyen.service;
+
+import com.example.payment.adyen.dao.PaymentExportDao;
+import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentExportFilterDTO;
+import com.example.payment.helper.PaymentExportFormatEnum;
+import com.example.payment.helper.PaymentStatusEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PaymentExportServiceTest {
+
+    private PaymentExportDao paymentExportDao;
+    private PaymentExportService paymentExportService;
+
+    private PaymentExportFilterDTO filter;
+
+    @BeforeEach
+    void setUp() {
+        paymentExportDao = mock(PaymentExportDao.class);
+        paymentExportService = new PaymentExportService(paymentExportDao);
+        paymentExportService.setPageSize(2);
+
+        filter = new PaymentExportFilterDTO();
+    }
+
+    @Test
+    void testExportReadsPagesAfterLastId() throws IOException {
+        mockPage(0L, List.of(createPayment(1L, "ref-1"), createPayment(2L, "ref-2")));
+        mockPage(2L, List.of(createPayment(5L, "ref-5")));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long exported = paymentExportService.export(filter, PaymentExportFormatEnum.NDJSON, output);
+
+        assertEquals(3, exported);
+        verify(paymentExportDao, times(1)).streamPage(eq(filter), eq(0L), eq(2), any());
+        verify(paymentExportDao, times(1)).streamPage(eq(filter), eq(2L), eq(2), any());
+        verify(paymentExportDao, never()).streamPage(eq(filter), eq(5L), anyInt(), any());
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("{\"id\":1,"));
+        assertTrue(lines[2].contains("\"reference\":\"ref-5\""));
+    }
+
+    @Test
+    void testExportStopsOnEmptyFullPage() throws IOException {
+        mockPage(0L, List.of(createPayment(1L, "ref-1"), createPayment(2L, "ref-2")));
+        mockPage(2L, List.of());
+
+        long exported = paymentExportService.export(filter, PaymentExportFormatEnum.NDJSON, new ByteArrayOutputStream());
+
+        assertEquals(2, exported);
+        verify(paymentExportDao, times(2)).streamPage(eq(filter), anyLong(), eq(2), any());
+    }
+
+    @Test
+    void testExportCsvEscapesValues() throws IOException {
+        PaymentDTO payment = createPayment(1L, "ref-1");
+        payment.setFailureMessage("Refused, \"insufficient funds\"");
+        mockPage(0L, List.of(payment));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        paymentExportService.export(filter, PaymentExportFormatEnum.CSV, output);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("id,merchant_reference,psp_reference,amount"));
+        assertTrue(lines[1].startsWith("1,merchant-1,psp-1,100000,EUR,ref-1,scheme,Failed,auth-1,"));
+        assertTrue(lines[1].contains(",\"Refused, \"\"insufficient funds\"\"\","));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockPage(long afterId, List<PaymentDTO> payments) {
+        when(paymentExportDao.streamPage(eq(filter), eq(afterId), anyInt(), any())).thenAnswer(invocation -> {
+            Consumer<PaymentDTO> consumer = invocation.getArgument(3);
+            payments.forEach(consumer);
+            return payments.size();
+        });
+    }
+
+    private PaymentDTO createPayment(Long id, String reference) {
+        PaymentDTO payment = new PaymentDTO();
+        payment.setId(id);
+        payment.setMerchantReference("merchant-" + id);
+        payment.setPspReference("psp-" + id);
+        payment.setAmount(100000L);
+        payment.setCurrency("EUR");
+        payment.setReference(reference);
+        payment.setPaymentMethod("scheme");
+        payment.setStatus(PaymentStatusEnum.FAILED);
+        payment.setAuthCode("auth-" + id);
+        payment.setCreateAt(new java.sql.Timestamp(System.currentTimeMillis()));
+        payment.setUpdateAt(new java.sql.Timestamp(System.currentTimeMillis()));
+        return payment;
+    }
+}
@@ -2,6 +2,7 @@ package com.example.payment.adyen.service;
 
 import com.adyen.model.RequestOptions;
 import com.adyen.model.checkout.CheckoutPaymentMethod;
+import com.adyen.model.checkout.DetailsRequest;
 import com.adyen.model.checkout.PaymentRequest;
 import com.adyen.model.checkout.PaymentResponse;
 import com.adyen.model.notification.Amount;
@@ -9,23 +10,40 @@ import com.adyen.model.notification.NotificationRequest;
 import com.adyen.model.notification.NotificationRequestItem;
 import com.adyen.service.checkout.PaymentsApi;
 import com.adyen.service.exception.ApiException;
-import com.adyen.util.HMACValidator;
+import com.example.payment.adyen.async.BoundedTaskExecutor;
+import com.example.payment.adyen.cache.PaymentIdempotencyCache;
+import com.example.payment.adyen.client.AdyenCallGuard;
 import com.example.payment.adyen.dao.PaymentDao;
+import com.example.payment.adyen.dao.PaymentIdempotencyDao;
 import com.example.payment.adyen.dao.PaymentWebhookDao;
+import com.example.payment.adyen.dto.NotificationItemDTO;
 import com.example.payment.adyen.dto.PaymentDTO;
+import com.example.payment.adyen.dto.PaymentIdempotencyDTO;
 import com.example.payment.adyen.dto.PaymentRequestDTO;
+import com.example.payment.adyen.validator.WebhookHmacVerifier;
 import com.example.payment.config.AdyenConfig;
+import com.example.payment.exceptions.AdyenUnavailableException;
 import com.example.payment.exceptions.PaymentNotFoundException;
+import com.example.payment.helper.PaymentIdempotencyStatusEnum;
 import com.example.payment.helper.PaymentMethodHelper;
 import com.example.payment.helper.PaymentStatusEnum;
 import jakarta.servlet.http.HttpServletRequest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpHeaders;
 
 import java.io.IOException;
-import java.security.SignatureException;
+import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -46,6 +64,14 @@ class PaymentServiceTest {
         paymentWebhookDao = mock(PaymentWebhookDao.class);
 
         paymentService = new PaymentService(paymentsApi, adyenConfig, paymentDao, paymentWebhookDao);
+
+        // Every webhook key is new unless a test says otherwise
+        when(paymentWebhookDao.insertKey(any())).thenReturn(true);
+        when(paymentWebhookDao.insertKeys(anyList())).thenAnswer(invocation -> {
+            boolean[] inserted = new boolean[invocation.<List<?>>getArgument(0).size()];
+            Arrays.fill(inserted, true);
+            return inserted;
+        });
     }
 
     @Test
@@ -85,34 +111,30 @@ class PaymentServiceTest {
     }
 
     @Test
-    void testCheckAdyenHMACSuccess() throws SignatureException {
-        HMACValidator mockHMACValidator = mock(HMACValidator.class);
-        when(mockHMACValidator.validateHMAC(any(NotificationRequestItem.class), eq("mockedHMACKey"))).thenReturn(true);
-        paymentService.setHmacValidator(mockHMACValidator);
+    void testCheckAdyenHMACSuccess() {
+        WebhookHmacVerifier mockHmacVerifier = mock(WebhookHmacVerifier.class);
+        when(mockHmacVerifier.verify(any(NotificationRequestItem.class))).thenReturn(true);
+        paymentService.setHmacVerifier(mockHmacVerifier);
 
         NotificationRequest notificationRequest = mock(NotificationRequest.class);
         NotificationRequestItem notificationRequestItem = mock(NotificationRequestItem.class);
         when(notificationRequest.getNotificationItems()).thenReturn(Collections.singletonList(notificationRequestItem));
 
-        when(adyenConfig.getWebhookHMAC()).thenReturn("mockedHMACKey");
-
         boolean result = paymentService.checkAdyenHMAC(notificationRequest);
 
         assertTrue(result);
     }
 
     @Test
-    void testCheckAdyenHMACFailure() throws SignatureException {
-        HMACValidator mockHMACValidator = mock(HMACValidator.class);
-        when(mockHMACValidator.validateHMAC(any(NotificationRequestItem.class), eq("mockedHMACKey"))).thenReturn(false);
-        paymentService.setHmacValidator(mockHMACValidator);
+    void testCheckAdyenHMACFailure() {
+        WebhookHmacVerifier mockHmacVerifier = mock(WebhookHmacVerifier.class);
+        when(mockHmacVerifier.verify(any(NotificationRequestItem.class))).thenReturn(false);
+        paymentService.setHmacVerifier(mockHmacVerifier);
 
         NotificationRequest notificationRequest = mock(NotificationRequest.class);
         NotificationRequestItem notificationItem = mock(NotificationRequestItem.class);
         when(notificationRequest.getNotificationItems()).thenReturn(Collections.singletonList(notificationItem));
 
-        when(adyenConfig.getWebhookHMAC()).thenReturn("mockedHMACKey");
-
         boolean result = paymentService.checkAdyenHMAC(notificationRequest);
 
         assertFalse(result);
@@ -179,68 +201,353 @@ class PaymentServiceTest {
         });
     }
 
+    @Test
+    void testCreatePaymentStoresMinorUnits() throws PaymentNotFoundException {
+        PaymentRequestDTO dto = new PaymentRequestDTO();
+        dto.setAmount("10.50");
+        dto.setCurrency("EUR");
+        dto.setReferenceNumber("REF111");
+
+        when(paymentDao.insert(any(PaymentDTO.class))).thenAnswer(invocation -> Optional.of(invocation.getArgument(0)));
+
+        PaymentDTO result = paymentService.createPayment(dto, "IDEAL");
+
+        assertEquals(1050L, result.getAmount());
+    }
+
     @Test
     void testMakePaymentSuccess() throws IOException, ApiException {
         PaymentDTO paymentDTO = new PaymentDTO();
         paymentDTO.setId(1L);
+        paymentDTO.setAmount(100000L);
+        paymentDTO.setCurrency("EUR");
 
-        String amount = "1000";
-        String currency = "EUR";
         String referenceNumber = "REF123";
         String returnUrl = "https://return.url";
 
         Object paymentDetails = new Object();
 
         CheckoutPaymentMethod mockPaymentMethod = mock(CheckoutPaymentMethod.class);
-        mockStatic(PaymentMethodHelper.class);
-        when(PaymentMethodHelper.createCheckoutPaymentMethod(paymentDetails)).thenReturn(mockPaymentMethod);
+        try (MockedStatic<PaymentMethodHelper> mockedHelper = mockStatic(PaymentMethodHelper.class)) {
+            mockedHelper.when(() -> PaymentMethodHelper.createCheckoutPaymentMethod(paymentDetails)).thenReturn(mockPaymentMethod);
+
+            when(adyenConfig.getMerchantAccount()).thenReturn("TestMerchant");
+
+            PaymentResponse mockResponse = new PaymentResponse();
+            when(paymentsApi.payments(any(PaymentRequest.class), any(RequestOptions.class))).thenReturn(mockResponse);
+
+            PaymentResponse result = paymentService.makePayment(paymentDTO, paymentDetails, referenceNumber, returnUrl);
+
+            assertNotNull(result);
+            verify(paymentsApi).payments(argThat(request -> request.getAmount().getValue() == 100000L
+                    && "EUR".equals(request.getAmount().getCurrency())), any(RequestOptions.class));
+        }
+    }
+
+    @Test
+    void testMakePaymentAsyncTimesOutOnSaturatedExecutor() throws Exception {
+        BoundedTaskExecutor ioExecutor = new BoundedTaskExecutor("test-io", "platform", 1);
+        CountDownLatch releaseSlot = new CountDownLatch(1);
+        try {
+            paymentService.setAsyncEnabled(true);
+            paymentService.setIoExecutor(ioExecutor);
+            paymentService.setApiTimeoutMillis(50);
+
+            // The only slot is busy until the timeout is over, the call waits for it
+            ioExecutor.execute(() -> {
+                try {
+                    releaseSlot.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<PaymentResponse> future = paymentService.makePaymentAsync(new PaymentDTO(), new Object(), "REF123", "https://return.url");
+
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, exception.getCause());
+
+            // The queued call sees the timeout once it gets the slot and is not sent
+            releaseSlot.countDown();
+            CompletableFuture<Void> drained = new CompletableFuture<>();
+            ioExecutor.execute(() -> drained.complete(null));
+            drained.get(5, TimeUnit.SECONDS);
+            verifyNoInteractions(paymentsApi);
+        } finally {
+            releaseSlot.countDown();
+            ioExecutor.destroy();
+        }
+    }
+
+    @Test
+    void testCheckPaymentFailsFastWhileCircuitOpen() throws Exception {
+        AdyenCallGuard adyenCallGuard = new AdyenCallGuard("adyenCalls", 10);
+        adyenCallGuard.setWindowSize(2);
+        adyenCallGuard.setMinimumCalls(2);
+        paymentService.setAdyenCallGuard(adyenCallGuard);
+
+        when(paymentsApi.paymentsDetails(any(DetailsRequest.class), any(RequestOptions.class)))
+                .thenThrow(new IOException("Read timed out"));
+
+        assertThrows(IOException.class, () -> paymentService.checkPayment("redirect-1"));
+        assertThrows(IOException.class, () -> paymentService.checkPayment("redirect-2"));
+        assertThrows(AdyenUnavailableException.class, () -> paymentService.checkPayment("redirect-3"));
+
+        verify(paymentsApi, times(2)).paymentsDetails(any(DetailsRequest.class), any(RequestOptions.class));
+    }
+
+    @Test
+    void testUpdatePaymentUnavailable() {
+        PaymentDTO payment = new PaymentDTO();
+        payment.setId(1L);
+
+        paymentService.updatePaymentUnavailable(payment, "Error: Adyen circuit breaker is open");
+
+        assertEquals(PaymentStatusEnum.UNAVAILABLE, payment.getStatus());
+        assertEquals("Error: Adyen circuit breaker is open", payment.getFailureMessage());
+        verify(paymentDao).updateStatusAndSetMessage(payment);
+    }
 
+    @Test
+    void testPaymentIdempotencyKeyIsDeterministic() {
         when(adyenConfig.getMerchantAccount()).thenReturn("TestMerchant");
 
-        PaymentResponse mockResponse = new PaymentResponse();
-        when(paymentsApi.payments(any(PaymentRequest.class), any(RequestOptions.class))).thenReturn(mockResponse);
+        String key = paymentService.getPaymentIdempotencyKey("REF123");
 
-        PaymentResponse result = paymentService.makePayment(paymentDTO, paymentDetails, amount, currency, referenceNumber, returnUrl);
+        assertEquals(key, paymentService.getPaymentIdempotencyKey("REF123"));
+        assertNotEquals(key, paymentService.getPaymentIdempotencyKey("REF124"));
+        assertTrue(key.length() <= 64);
+    }
 
-        assertNotNull(result);
-        verify(paymentsApi).payments(any(PaymentRequest.class), any(RequestOptions.class));
+    @Test
+    void testClaimPaymentAsyncServesCompletedPaymentFromCache() {
+        PaymentIdempotencyDao paymentIdempotencyDao = mock(PaymentIdempotencyDao.class);
+        PaymentIdempotencyCache paymentIdempotencyCache = new PaymentIdempotencyCache(10);
+        paymentService.setPaymentIdempotencyDao(paymentIdempotencyDao);
+        paymentService.setPaymentIdempotencyCache(paymentIdempotencyCache);
+
+        PaymentIdempotencyDTO claimed = new PaymentIdempotencyDTO();
+        claimed.setIdempotencyKey("key");
+        claimed.setRequestFingerprint("fingerprint");
+        claimed.setStatus(PaymentIdempotencyStatusEnum.PROCESSING);
+        claimed.setLockedUntil(new Timestamp(1000L));
+        claimed.setClaimed(true);
+        when(paymentIdempotencyDao.claim("key", "fingerprint", 60000)).thenReturn(claimed);
+        when(paymentIdempotencyDao.complete("key", new Timestamp(1000L), 200, "The payment successfully processed")).thenReturn(true);
+
+        assertTrue(paymentService.claimPaymentAsync("key", "fingerprint").join().isClaimed());
+        paymentService.completePaymentIdempotency(claimed, 200, "The payment successfully processed");
+
+        PaymentIdempotencyDTO repeated = paymentService.claimPaymentAsync("key", "fingerprint").join();
+
+        assertFalse(repeated.isClaimed());
+        assertEquals(200, repeated.getResponseStatus());
+        verify(paymentIdempotencyDao, times(1)).claim(any(), any(), anyLong());
+        verify(paymentIdempotencyDao).complete("key", new Timestamp(1000L), 200, "The payment successfully processed");
+    }
+
+    @Test
+    void testCompletePaymentIdempotencyAfterTakeOverKeepsOutcomeOfNewOwner() {
+        PaymentIdempotencyDao paymentIdempotencyDao = mock(PaymentIdempotencyDao.class);
+        PaymentIdempotencyCache paymentIdempotencyCache = new PaymentIdempotencyCache(10);
+        paymentService.setPaymentIdempotencyDao(paymentIdempotencyDao);
+        paymentService.setPaymentIdempotencyCache(paymentIdempotencyCache);
+
+        PaymentIdempotencyDTO claimed = new PaymentIdempotencyDTO();
+        claimed.setIdempotencyKey("key");
+        claimed.setRequestFingerprint("fingerprint");
+        claimed.setStatus(PaymentIdempotencyStatusEnum.PROCESSING);
+        claimed.setLockedUntil(new Timestamp(1000L));
+        claimed.setClaimed(true);
+        // The lease ran out and another request took the key over
+        when(paymentIdempotencyDao.complete(any(), any(), anyInt(), any())).thenReturn(false);
+        when(paymentIdempotencyDao.claim("key", "fingerprint", 60000)).thenReturn(claimed);
+
+        paymentService.completePaymentIdempotency(claimed, 200, "The payment successfully processed");
+        paymentService.releasePaymentIdempotency(claimed);
+
+        assertEquals(PaymentIdempotencyStatusEnum.PROCESSING, claimed.getStatus());
+        assertNull(claimed.getResponseBody());
+        verify(paymentIdempotencyDao).release("key", new Timestamp(1000L));
+
+        // Not served from the cache, the stored row of the new owner decides
+        paymentService.claimPaymentAsync("key", "fingerprint").join();
+        verify(paymentIdempotencyDao, times(1)).claim("key", "fingerprint", 60000);
+    }
+
+    @Test
+    void testCreatePaymentAsyncReusesPaymentOfEarlierAttempt() {
+        PaymentIdempotencyDao paymentIdempotencyDao = mock(PaymentIdempotencyDao.class);
+        paymentService.setPaymentIdempotencyDao(paymentIdempotencyDao);
+
+        PaymentDTO payment = createPayment(5L, null);
+        when(paymentDao.findById(5L)).thenReturn(Optional.of(payment));
+
+        PaymentIdempotencyDTO idempotency = new PaymentIdempotencyDTO();
+        idempotency.setIdempotencyKey("key");
+        idempotency.setPaymentId(5L);
+        idempotency.setClaimed(true);
+
+        PaymentDTO result = paymentService.createPaymentAsync(new PaymentRequestDTO(), "SCHEME", idempotency).join();
+
+        assertSame(payment, result);
+        verify(paymentDao, never()).insert(any());
+        verify(paymentIdempotencyDao, never()).updatePaymentId(any(), any());
+    }
+
+    @Test
+    void testCreatePaymentAsyncReusesUnsentPaymentFoundByReference() {
+        PaymentIdempotencyDao paymentIdempotencyDao = mock(PaymentIdempotencyDao.class);
+        paymentService.setPaymentIdempotencyDao(paymentIdempotencyDao);
+        when(adyenConfig.getMerchantAccount()).thenReturn("merchantRef");
+
+        // The earlier attempt inserted the payment and failed before storing its id on the key
+        PaymentDTO payment = createPayment(7L, null);
+        payment.setStatus(PaymentStatusEnum.INITIATED);
+        when(paymentDao.insert(any(PaymentDTO.class))).thenThrow(new DuplicateKeyException("ux_payment_reference_merchant_reference"));
+        when(paymentDao.findByReference("ref1")).thenReturn(Optional.of(payment));
+
+        PaymentIdempotencyDTO idempotency = new PaymentIdempotencyDTO();
+        idempotency.setIdempotencyKey("key");
+        idempotency.setClaimed(true);
+
+        PaymentDTO result = paymentService.createPaymentAsync(createPaymentRequest("ref1"), "SCHEME", idempotency).join();
+
+        assertSame(payment, result);
+        assertEquals(7L, idempotency.getPaymentId());
+        verify(paymentIdempotencyDao).updatePaymentId("key", 7L);
+    }
+
+    @Test
+    void testCreatePaymentAsyncDoesNotReuseSentPayment() {
+        PaymentIdempotencyDao paymentIdempotencyDao = mock(PaymentIdempotencyDao.class);
+        paymentService.setPaymentIdempotencyDao(paymentIdempotencyDao);
+        when(adyenConfig.getMerchantAccount()).thenReturn("merchantRef");
+
+        PaymentDTO payment = createPayment(7L, "PSP7");
+        payment.setStatus(PaymentStatusEnum.SUCCESS);
+        when(paymentDao.insert(any(PaymentDTO.class))).thenThrow(new DuplicateKeyException("ux_payment_reference_merchant_reference"));
+        when(paymentDao.findByReference("ref1")).thenReturn(Optional.of(payment));
+
+        PaymentIdempotencyDTO idempotency = new PaymentIdempotencyDTO();
+        idempotency.setIdempotencyKey("key");
+        idempotency.setClaimed(true);
+
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> paymentService.createPaymentAsync(createPaymentRequest("ref1"), "SCHEME", idempotency).join());
+
+        assertInstanceOf(DuplicateKeyException.class, exception.getCause());
+        verify(paymentIdempotencyDao, never()).updatePaymentId(any(), any());
+    }
+
+    @Test
+    void testCreatePaymentsAsyncInsertsNewPaymentsInOneBatch() {
+        PaymentIdempotencyDao paymentIdempotencyDao = mock(PaymentIdempotencyDao.class);
+        paymentService.setPaymentIdempotencyDao(paymentIdempotencyDao);
+        when(adyenConfig.getMerchantAccount()).thenReturn("merchant");
+
+        PaymentDTO earlierPayment = createPayment(5L, null);
+        when(paymentDao.findById(5L)).thenReturn(Optional.of(earlierPayment));
+        doAnswer(invocation -> {
+            List<PaymentDTO> payments = invocation.getArgument(0);
+            for (int i = 0; i < payments.size(); i++) {
+                payments.get(i).setId(10L + i);
+            }
+            return null;
+        }).when(paymentDao).insertBatch(anyList());
+
+        PaymentIdempotencyDTO retried = new PaymentIdempotencyDTO();
+        retried.setIdempotencyKey("key1");
+        retried.setPaymentId(5L);
+        PaymentIdempotencyDTO first = new PaymentIdempotencyDTO();
+        first.setIdempotencyKey("key2");
+        PaymentIdempotencyDTO second = new PaymentIdempotencyDTO();
+        second.setIdempotencyKey("key3");
+
+        List<PaymentDTO> payments = paymentService.createPaymentsAsync(
+                List.of(createPaymentRequest("ref1"), createPaymentRequest("ref2"), createPaymentRequest("ref3")),
+                List.of("SCHEME", "SCHEME", "IDEAL"), List.of(retried, first, second)).join();
+
+        assertSame(earlierPayment, payments.get(0));
+        assertEquals(10L, payments.get(1).getId());
+        assertEquals("ref3", payments.get(2).getReference());
+        assertEquals(11L, second.getPaymentId());
+        verify(paymentDao, times(1)).insertBatch(argThat(inserted -> inserted.size() == 2));
+        verify(paymentDao, never()).insert(any());
+        verify(paymentIdempotencyDao).updatePaymentIds(Map.of("key2", 10L, "key3", 11L));
+    }
+
+    @Test
+    void testBatchTimeoutCoversEveryRound() {
+        paymentService.setApiTimeoutMillis(1000);
+        paymentService.setBatchMaxConcurrency(10);
+
+        assertEquals(2000L, paymentService.getBatchTimeoutMillis(10));
+        assertEquals(3000L, paymentService.getBatchTimeoutMillis(11));
+
+        paymentService.setApiTimeoutMillis(0);
+        assertEquals(-1L, paymentService.getBatchTimeoutMillis(11));
+    }
+
+    @Test
+    void testRunBatchAsyncLimitsConcurrency() {
+        paymentService.setBatchMaxConcurrency(2);
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            tasks.add(new CompletableFuture<>());
+        }
+        List<Integer> started = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> done = paymentService.runBatchAsync(5, i -> {
+            started.add(i);
+            return tasks.get(i);
+        });
+
+        assertEquals(List.of(0, 1), started);
+        tasks.get(1).complete(null);
+        assertEquals(List.of(0, 1, 2), started);
+        tasks.get(0).completeExceptionally(new IOException("Adyen unavailable"));
+        tasks.get(2).complete(null);
+        assertEquals(List.of(0, 1, 2, 3, 4), started);
+        assertFalse(done.isDone());
+
+        tasks.get(3).complete(null);
+        tasks.get(4).complete(null);
+        assertTrue(done.isDone());
     }
 
     @Test
     void testMakePayment_ApiExceptionThrown() throws Exception {
         PaymentDTO paymentDTO = new PaymentDTO();
         paymentDTO.setId(1L);
+        paymentDTO.setAmount(100000L);
+        paymentDTO.setCurrency("EUR");
 
         Object paymentDetails = new Object();
-        String amount = "1000";
-        String currency = "EUR";
         String referenceNumber = "REF123";
         String returnUrl = "https://return.url";
 
-//        mockStatic(PaymentMethodHelper.class);
-        when(PaymentMethodHelper.createCheckoutPaymentMethod(paymentDetails)).thenReturn(mock(CheckoutPaymentMethod.class));
-        when(adyenConfig.getMerchantAccount()).thenReturn("TestMerchant");
+        try (MockedStatic<PaymentMethodHelper> mockedHelper = mockStatic(PaymentMethodHelper.class)) {
+            mockedHelper.when(() -> PaymentMethodHelper.createCheckoutPaymentMethod(paymentDetails)).thenReturn(mock(CheckoutPaymentMethod.class));
+            when(adyenConfig.getMerchantAccount()).thenReturn("TestMerchant");
 
-        when(paymentsApi.payments(any(PaymentRequest.class), any(RequestOptions.class)))
-                .thenThrow(new ApiException("Adyen API error", 500, Map.of()));
+            when(paymentsApi.payments(any(PaymentRequest.class), any(RequestOptions.class)))
+                    .thenThrow(new ApiException("Adyen API error", 500, Map.of()));
 
-        assertThrows(ApiException.class, () ->
-                paymentService.makePayment(paymentDTO, paymentDetails, amount, currency, referenceNumber, returnUrl));
+            assertThrows(ApiException.class, () ->
+                    paymentService.makePayment(paymentDTO, paymentDetails, referenceNumber, returnUrl));
+        }
     }
 
     @Test
-    void testMakePayment_InvalidAmount_ThrowsNumberFormatException() {
-        PaymentDTO paymentDTO = new PaymentDTO();
-        paymentDTO.setId(1L);
-
-        Object paymentDetails = new Object();
-        String amount = "abc"; // Invalid amount
-        String currency = "EUR";
-        String referenceNumber = "REF789";
-        String returnUrl = "https://example.com/return";
+    void testCreatePayment_InvalidAmount_ThrowsNumberFormatException() {
+        PaymentRequestDTO dto = new PaymentRequestDTO();
+        dto.setAmount("abc"); // Invalid amount
+        dto.setCurrency("EUR");
+        dto.setReferenceNumber("REF789");
 
-        assertThrows(NumberFormatException.class, () ->
-                paymentService.makePayment(paymentDTO, paymentDetails, amount, currency, referenceNumber, returnUrl));
+        assertThrows(NumberFormatException.class, () -> paymentService.createPayment(dto, "SCHEME"));
+        verify(paymentDao, never()).insert(any(PaymentDTO.class));
     }
 
     @Test
@@ -285,7 +592,7 @@ class PaymentServiceTest {
         payment.setPspReference("psp123");
         payment.setMerchantReference("merchantRef");
         payment.setCurrency("EUR");
-        payment.setAmount(50.00);
+        payment.setAmount(5000L);
 
         when(paymentDao.findByPspReference("psp123")).thenReturn(Optional.of(payment));
         doNothing().when(paymentWebhookDao).insert(any());
@@ -298,6 +605,18 @@ class PaymentServiceTest {
         verify(paymentWebhookDao, times(1)).insert(any());
     }
 
+    @Test
+    void testHandleNotificationSkipsDuplicate() {
+        NotificationRequestItem item = createNotificationItem("AUTHORISATION", true, "psp123");
+        when(paymentWebhookDao.insertKey(argThat(key -> "psp123".equals(key.getPspReference())
+                && "AUTHORISATION".equals(key.getEventCode()) && Boolean.TRUE.equals(key.getSuccess())))).thenReturn(false);
+
+        paymentService.handleNotification(item);
+
+        verifyNoInteractions(paymentDao);
+        verify(paymentWebhookDao, never()).insert(any());
+    }
+
     @Test
     void testHandleNotificationPaymentNotFound() {
         NotificationRequestItem item = new NotificationRequestItem();
@@ -307,7 +626,9 @@ class PaymentServiceTest {
 
         when(paymentDao.findByPspReference("nonExistentPspReference")).thenReturn(Optional.empty());
 
-        paymentService.handleNotification(item);
+        // Fails so the transaction rolls back the recorded webhook key
+        RuntimeException e = assertThrows(RuntimeException.class, () -> paymentService.handleNotification(item));
+        assertInstanceOf(PaymentNotFoundException.class, e.getCause());
 
         // Ensure that no further actions were taken
         verify(paymentDao, times(0)).updateStatusAndAuth(any());
@@ -328,7 +649,7 @@ class PaymentServiceTest {
         payment.setPspReference("psp123");
         payment.setMerchantReference("merchantRef");
         payment.setCurrency("EUR");
-        payment.setAmount(50.00);
+        payment.setAmount(5000L);
 
         when(paymentDao.findByPspReference("psp123")).thenReturn(Optional.of(payment));
         doNothing().when(paymentWebhookDao).insert(any());
@@ -341,4 +662,179 @@ class PaymentServiceTest {
         verify(paymentWebhookDao, times(1)).insert(any());
     }
 
+    @Test
+    void testHandleNotificationBatch() {
+        NotificationRequestItem authorisation = createNotificationItem("AUTHORISATION", true, "psp123");
+        NotificationRequestItem refund = createNotificationItem("REFUND", false, "psp456");
+        refund.setReason("Refund refused");
+
+        PaymentDTO firstPayment = createPayment(1L, "psp123");
+        PaymentDTO secondPayment = createPayment(2L, "psp456");
+
+        when(paymentDao.findByPspReferences(anyCollection())).thenReturn(List.of(firstPayment, secondPayment));
+
+        List<NotificationItemDTO> fallbackItems = paymentService.handleNotificationBatch(List.of(
+                new NotificationItemDTO(authorisation, "{\"eventCode\":\"AUTHORISATION\"}"),
+                new NotificationItemDTO(refund, null)));
+
+        assertTrue(fallbackItems.isEmpty());
+        assertEquals(PaymentStatusEnum.SUCCESS, firstPayment.getStatus());
+        assertEquals("AUTHORISED", firstPayment.getAuthCode());
+        assertEquals(PaymentStatusEnum.FAILED, secondPayment.getStatus());
+        assertEquals("Refund refused", secondPayment.getFailureMessage());
+
+        verify(paymentDao, times(1)).findByPspReferences(anyCollection());
+        verify(paymentWebhookDao, times(1)).insertBatch(argThat(webhooks -> webhooks.size() == 2
+                && webhooks.get(0).getRawNotification().equals("{\"eventCode\":\"AUTHORISATION\"}")
+                && webhooks.get(1).getRawNotification().contains("REFUND")));
+        verify(paymentDao, times(1)).updateStatusAuthCodeAndSetMessageBatch(argThat(updates -> updates.size() == 2));
+        verify(paymentWebhookDao, never()).insert(any());
+    }
+
+    @Test
+    void testHandleNotificationBatchReturnsFailingItemsInOrder() {
+        NotificationRequestItem unknownEvent = createNotificationItem("UNKNOWN", true, "psp123");
+        NotificationRequestItem laterEvent = createNotificationItem("AUTHORISATION", true, "psp123");
+        NotificationRequestItem otherPayment = createNotificationItem("AUTHORISATION", true, "psp456");
+
+        when(paymentDao.findByPspReferences(anyCollection())).thenReturn(List.of(createPayment(1L, "psp123"), createPayment(2L, "psp456")));
+
+        NotificationItemDTO unknownNotification = new NotificationItemDTO(unknownEvent, null);
+        NotificationItemDTO laterNotification = new NotificationItemDTO(laterEvent, null);
+        NotificationItemDTO otherNotification = new NotificationItemDTO(otherPayment, null);
+
+        List<NotificationItemDTO> fallbackItems = paymentService.handleNotificationBatch(List.of(unknownNotification, laterNotification, otherNotification));
+
+        assertEquals(List.of(unknownNotification, laterNotification), fallbackItems);
+        verify(paymentWebhookDao, times(1)).insertBatch(argThat(webhooks -> webhooks.size() == 1));
+        verify(paymentDao, times(1)).updateStatusAuthCodeAndSetMessageBatch(argThat(updates -> updates.size() == 1 && updates.get(0).getId() == 2L));
+        verify(paymentWebhookDao, times(1)).deleteKeys(argThat(keys -> keys.size() == 2));
+    }
+
+    @Test
+    void testHandleNotificationBatchReturnsItemsOfUnknownPayment() {
+        NotificationRequestItem early = createNotificationItem("AUTHORISATION", true, "psp123");
+        NotificationRequestItem known = createNotificationItem("AUTHORISATION", true, "psp456");
+        when(paymentDao.findByPspReferences(anyCollection())).thenReturn(List.of(createPayment(2L, "psp456")));
+
+        NotificationItemDTO earlyNotification = new NotificationItemDTO(early, null);
+        List<NotificationItemDTO> fallbackItems = paymentService.handleNotificationBatch(List.of(earlyNotification, new NotificationItemDTO(known, null)));
+
+        // Not applied, so its key must not stay recorded
+        assertEquals(List.of(earlyNotification), fallbackItems);
+        verify(paymentWebhookDao, times(1)).deleteKeys(argThat(keys -> keys.size() == 1 && "psp123".equals(keys.get(0).getPspReference())));
+        verify(paymentDao, times(1)).updateStatusAuthCodeAndSetMessageBatch(argThat(updates -> updates.size() == 1 && updates.get(0).getId() == 2L));
+    }
+
+    @Test
+    void testHandleNotificationBatchSkipsDuplicates() {
+        NotificationRequestItem duplicate = createNotificationItem("AUTHORISATION", true, "psp123");
+        NotificationRequestItem refund = createNotificationItem("REFUND", true, "psp456");
+        when(paymentWebhookDao.insertKeys(anyList())).thenReturn(new boolean[]{false, true});
+        when(paymentDao.findByPspReferences(Set.of("psp456"))).thenReturn(List.of(createPayment(2L, "psp456")));
+
+        List<NotificationItemDTO> fallbackItems = paymentService.handleNotificationBatch(List.of(
+                new NotificationItemDTO(duplicate, null), new NotificationItemDTO(refund, null)));
+
+        assertTrue(fallbackItems.isEmpty());
+        verify(paymentDao, times(1)).findByPspReferences(Set.of("psp456"));
+        verify(paymentWebhookDao, times(1)).insertBatch(argThat(webhooks -> webhooks.size() == 1
+                && "psp456".equals(webhooks.get(0).getPspReference())));
+        verify(paymentDao, times(1)).updateStatusAuthCodeAndSetMessageBatch(argThat(updates -> updates.size() == 1 && updates.get(0).getId() == 2L));
+    }
+
+    @Test
+    void testHandleNotificationReplayUpdatesPaymentOnly() {
+        NotificationRequestItem item = createNotificationItem("AUTHORISATION", true, "psp123");
+        PaymentDTO payment = createPayment(1L, "psp123");
+        when(paymentDao.findByPspReference("psp123")).thenReturn(Optional.of(payment));
+
+        boolean applied = paymentService.handleNotificationReplay(item);
+
+        assertTrue(applied);
+        assertEquals(PaymentStatusEnum.SUCCESS, payment.getStatus());
+        verify(paymentDao, times(1)).updateStatusAndAuth(payment);
+        // Stored webhook and its key exist already
+        verify(paymentWebhookDao, never()).insertKey(any());
+        verify(paymentWebhookDao, never()).insert(any());
+    }
+
+    @Test
+    void testHandleNotificationReplaySkipsUnknownEventCode() {
+        NotificationRequestItem item = createNotificationItem("UNKNOWN", true, "psp123");
+        when(paymentDao.findByPspReference("psp123")).thenReturn(Optional.of(createPayment(1L, "psp123")));
+
+        boolean applied = paymentService.handleNotificationReplay(item);
+
+        assertFalse(applied);
+        verify(paymentDao, never()).updateStatusAndAuth(any());
+    }
+
+    private NotificationRequestItem createNotificationItem(String eventCode, boolean success, String pspReference) {
+        NotificationRequestItem item = new NotificationRequestItem();
+        item.setEventCode(eventCode);
+        item.setSuccess(success);
+        item.setPspReference(pspReference);
+        item.setMerchantAccountCode("merchantRef");
+        item.setAmount(new Amount().currency("EUR").value(5000L));
+        item.setEventDate(new Date());
+        return item;
+    }
+
+    @Test
+    void testCreatePaymentsAsyncResolvesPaymentsOfEarlierAttemptByReference() {
+        PaymentIdempotencyDao paymentIdempotencyDao = mock(PaymentIdempotencyDao.class);
+        paymentService.setPaymentIdempotencyDao(paymentIdempotencyDao);
+        when(adyenConfig.getMerchantAccount()).thenReturn("merchantRef");
+
+        // ref1 was inserted by an attempt that failed before storing its id, ref2 was already sent
+        PaymentDTO unsent = createPayment(20L, null);
+        unsent.setReference("ref1");
+        unsent.setStatus(PaymentStatusEnum.INITIATED);
+        PaymentDTO sent = createPayment(21L, "PSP21");
+        sent.setReference("ref2");
+        sent.setStatus(PaymentStatusEnum.SUCCESS);
+        when(paymentDao.findByReferences(List.of("ref1", "ref2", "ref3"))).thenReturn(List.of(unsent, sent));
+        doAnswer(invocation -> {
+            List<PaymentDTO> payments = invocation.getArgument(0);
+            payments.get(0).setId(30L);
+            return null;
+        }).when(paymentDao).insertBatch(anyList());
+
+        PaymentIdempotencyDTO first = new PaymentIdempotencyDTO();
+        first.setIdempotencyKey("key1");
+        PaymentIdempotencyDTO second = new PaymentIdempotencyDTO();
+        second.setIdempotencyKey("key2");
+        PaymentIdempotencyDTO third = new PaymentIdempotencyDTO();
+        third.setIdempotencyKey("key3");
+
+        List<PaymentDTO> payments = paymentService.createPaymentsAsync(
+                List.of(createPaymentRequest("ref1"), createPaymentRequest("ref2"), createPaymentRequest("ref3")),
+                List.of("SCHEME", "SCHEME", "SCHEME"), List.of(first, second, third)).join();
+
+        assertSame(unsent, payments.get(0));
+        assertNull(payments.get(1));
+        assertEquals(30L, payments.get(2).getId());
+        assertNull(second.getPaymentId());
+        verify(paymentDao, times(1)).insertBatch(argThat(inserted -> inserted.size() == 1 && "ref3".equals(inserted.get(0).getReference())));
+        verify(paymentIdempotencyDao).updatePaymentIds(Map.of("key1", 20L, "key3", 30L));
+    }
+
+    private PaymentDTO createPayment(Long id, String pspReference) {
+        PaymentDTO payment = new PaymentDTO();
+        payment.setId(id);
+        payment.setPspReference(pspReference);
+        payment.setMerchantReference("merchantRef");
+        payment.setCurrency("EUR");
+        payment.setAmount(5000L);
+        return payment;
+    }
+
+    private PaymentRequestDTO createPaymentRequest(String referenceNumber) {
+        PaymentRequestDTO dto = new PaymentRequestDTO();
+        dto.setAmount("10.00");
+        dto.setCurrency("EUR");
+        dto.setReferenceNumber(referenceNumber);
+        return dto;
+    }
 }
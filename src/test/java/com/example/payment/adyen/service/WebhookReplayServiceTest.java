@@ -0,0 +1,102 @@
+package com.example.payment.adyen.service;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.adyen.dao.PaymentWebhookDao;
+import com.example.payment.adyen.dto.PaymentWebhookDTO;
+import com.example.payment.adyen.dto.WebhookReplayFilterDTO;
+import com.example.payment.adyen.dto.WebhookReplayProgressDTO;
+import com.example.payment.helper.WebhookReplayStatusEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class WebhookReplayServiceTest {
+
+    private PaymentWebhookDao paymentWebhookDao;
+    private PaymentService paymentService;
+    private WebhookReplayService webhookReplayService;
+    private WebhookReplayFilterDTO filter;
+
+    @BeforeEach
+    void setUp() {
+        paymentWebhookDao = mock(PaymentWebhookDao.class);
+        paymentService = mock(PaymentService.class);
+
+        webhookReplayService = new WebhookReplayService(paymentWebhookDao, paymentService, new SyncTaskExecutor(), new SyncTaskExecutor());
+        webhookReplayService.setPageSize(2);
+        filter = new WebhookReplayFilterDTO();
+        filter.setPaymentIdFrom(1L);
+    }
+
+    @Test
+    void testReplayReadsPagesAndAppliesInOrder() {
+        PaymentWebhookDTO authorisation = createWebhook(1L, 10L, "AUTHORISATION");
+        PaymentWebhookDTO refund = createWebhook(2L, 10L, "REFUND");
+        PaymentWebhookDTO other = createWebhook(3L, 11L, "AUTHORISATION");
+        when(paymentWebhookDao.findReplayPage(filter, 0L, 2)).thenReturn(List.of(authorisation, refund));
+        when(paymentWebhookDao.findReplayPage(filter, 2L, 2)).thenReturn(List.of(other));
+        when(paymentService.handleNotificationReplay(any(NotificationRequestItem.class))).thenReturn(true, true, false);
+
+        WebhookReplayProgressDTO progress = webhookReplayService.start(filter, false, 0);
+
+        assertEquals(WebhookReplayStatusEnum.DONE, progress.getStatus());
+        assertEquals(3, progress.getRead());
+        assertEquals(2, progress.getApplied());
+        assertEquals(1, progress.getSkipped());
+        assertEquals(3L, progress.getLastId());
+        InOrder inOrder = inOrder(paymentService);
+        inOrder.verify(paymentService).handleNotificationReplay(argThat(item -> "AUTHORISATION".equals(item.getEventCode())));
+        inOrder.verify(paymentService).handleNotificationReplay(argThat(item -> "REFUND".equals(item.getEventCode())));
+    }
+
+    @Test
+    void testDryRunAppliesNothing() {
+        when(paymentWebhookDao.findReplayPage(filter, 0L, 2)).thenReturn(List.of(createWebhook(1L, 10L, "AUTHORISATION")));
+
+        WebhookReplayProgressDTO progress = webhookReplayService.start(filter, true, 0);
+
+        assertTrue(progress.isDryRun());
+        assertEquals(1, progress.getRead());
+        assertEquals(0, progress.getApplied());
+        verifyNoInteractions(paymentService);
+    }
+
+    @Test
+    void testReplayCountsUnreadableRowsAsFailed() {
+        PaymentWebhookDTO broken = createWebhook(1L, 10L, "AUTHORISATION");
+        broken.setRawNotification("not json");
+        when(paymentWebhookDao.findReplayPage(filter, 0L, 2)).thenReturn(List.of(broken));
+
+        WebhookReplayProgressDTO progress = webhookReplayService.start(filter, false, 0);
+
+        assertEquals(WebhookReplayStatusEnum.DONE, progress.getStatus());
+        assertEquals(1, progress.getFailed());
+        verifyNoInteractions(paymentService);
+    }
+
+    @Test
+    void testReplayFailsWhenPageCanNotBeRead() {
+        when(paymentWebhookDao.findReplayPage(filter, 0L, 2)).thenThrow(new RuntimeException("Connection is not available"));
+
+        WebhookReplayProgressDTO progress = webhookReplayService.start(filter, false, 0);
+
+        assertEquals(WebhookReplayStatusEnum.FAILED, progress.getStatus());
+        assertEquals("Connection is not available", progress.getError());
+        assertFalse(webhookReplayService.cancel());
+    }
+
+    private PaymentWebhookDTO createWebhook(Long id, Long paymentId, String eventCode) {
+        PaymentWebhookDTO webhook = new PaymentWebhookDTO();
+        webhook.setId(id);
+        webhook.setPaymentId(paymentId);
+        webhook.setEventCode(eventCode);
+        webhook.setRawNotification("{\"eventCode\":\"" + eventCode + "\",\"pspReference\":\"psp" + paymentId + "\",\"success\":\"true\"}");
+        return webhook;
+    }
+}
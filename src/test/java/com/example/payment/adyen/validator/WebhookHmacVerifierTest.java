@@ -0,0 +1,105 @@
+package com.example.payment.adyen.validator;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookHmacVerifierTest {
+
+    private static final String KEY = "112CC0FBF85B6EA575B25DB0F425900E8F15ACCA024FC63B6ACF4F591158977F";
+    private static final String NEW_KEY = "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
+
+    @Test
+    void testVerifyMatchesAdyenHmacValidator() throws Exception {
+        NotificationRequestItem item = createItem("PSP123456", "ORIG1", "TestMerchant", "REF123", 100000L);
+        setSignature(item, new HMACValidator().calculateHMAC(item, KEY));
+
+        assertTrue(new WebhookHmacVerifier(KEY).verify(item));
+    }
+
+    @Test
+    void testVerifyWithMissingAndNonAsciiValues() throws Exception {
+        NotificationRequestItem item = createItem("PSP123456", null, "Trgovina Čebelica", "REF-€", -5L);
+        setSignature(item, sign(KEY, "PSP123456::Trgovina Čebelica:REF-€:-5:EUR:AUTHORISATION:true"));
+
+        assertTrue(new WebhookHmacVerifier(KEY).verify(item));
+    }
+
+    @Test
+    void testVerifyRejectsWrongOrMissingSignature() throws Exception {
+        WebhookHmacVerifier verifier = new WebhookHmacVerifier(KEY);
+        NotificationRequestItem item = createItem("PSP123456", null, "TestMerchant", "REF123", 100000L);
+
+        assertFalse(verifier.verify(item));
+
+        setSignature(item, sign(NEW_KEY, "PSP123456::TestMerchant:REF123:100000:EUR:AUTHORISATION:true"));
+        assertFalse(verifier.verify(item));
+
+        setSignature(item, "not base64!");
+        assertFalse(verifier.verify(item));
+
+        Map<String, Object> metrics = verifier.getMetrics();
+        assertEquals(2L, metrics.get("mismatches"));
+        assertEquals(1L, metrics.get("missingSignatures"));
+    }
+
+    @Test
+    void testVerifyAcceptsSecondaryKeyDuringRotation() throws Exception {
+        WebhookHmacVerifier verifier = new WebhookHmacVerifier(KEY);
+        verifier.setSecondaryHmacKey(NEW_KEY);
+
+        NotificationRequestItem oldKeyItem = createItem("PSP1", null, "TestMerchant", "REF1", 100L);
+        setSignature(oldKeyItem, sign(KEY, "PSP1::TestMerchant:REF1:100:EUR:AUTHORISATION:true"));
+        NotificationRequestItem newKeyItem = createItem("PSP2", null, "TestMerchant", "REF2", 100L);
+        setSignature(newKeyItem, sign(NEW_KEY, "PSP2::TestMerchant:REF2:100:EUR:AUTHORISATION:true"));
+
+        assertTrue(verifier.verify(oldKeyItem));
+        assertTrue(verifier.verify(newKeyItem));
+
+        Map<String, Object> metrics = verifier.getMetrics();
+        assertEquals(1L, metrics.get("primaryMatches"));
+        assertEquals(1L, metrics.get("secondaryMatches"));
+    }
+
+    @Test
+    void testInvalidKeyIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new WebhookHmacVerifier("not hex"));
+        assertThrows(IllegalArgumentException.class, () -> new WebhookHmacVerifier(""));
+    }
+
+    private NotificationRequestItem createItem(String pspReference, String originalReference, String merchantAccountCode,
+                                               String merchantReference, long value) {
+        NotificationRequestItem item = new NotificationRequestItem();
+        item.setPspReference(pspReference);
+        item.setOriginalReference(originalReference);
+        item.setMerchantAccountCode(merchantAccountCode);
+        item.setMerchantReference(merchantReference);
+        item.setAmount(new Amount().currency("EUR").value(value));
+        item.setEventCode("AUTHORISATION");
+        item.setSuccess(true);
+        return item;
+    }
+
+    private void setSignature(NotificationRequestItem item, String signature) {
+        Map<String, String> additionalData = new HashMap<>();
+        additionalData.put("hmacSignature", signature);
+        item.setAdditionalData(additionalData);
+    }
+
+    private String sign(String key, String data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(HexFormat.of().parseHex(key), "HmacSHA256"));
+        return Base64.getEncoder().encodeToString(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+    }
+}
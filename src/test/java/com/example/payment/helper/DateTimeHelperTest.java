@@ -0,0 +1,31 @@
+package com.example.payment.helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DateTimeHelperTest {
+
+    @Test
+    void testParseDateTime() {
+        assertEquals(LocalDateTime.of(2024, 5, 1, 0, 0), DateTimeHelper.parseDateTime("2024-05-01"));
+        assertEquals(LocalDateTime.of(2024, 5, 1, 12, 30), DateTimeHelper.parseDateTime("2024-05-01T12:30:00"));
+    }
+
+    @Test
+    void testToUtcTimestampIgnoresDefaultTimeZone() {
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Europe/Ljubljana"));
+
+            assertEquals(Instant.parse("2024-05-01T00:00:00Z"),
+                    DateTimeHelper.toUtcTimestamp(LocalDateTime.of(2024, 5, 1, 0, 0)).toInstant());
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+}
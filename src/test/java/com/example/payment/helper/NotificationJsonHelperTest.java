@@ -0,0 +1,92 @@
+package com.example.payment.helper;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.example.payment.exceptions.PayloadTooLargeException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationJsonHelperTest {
+
+    @Test
+    void testExtractRawItemsKeepsOriginalBytes() throws IOException {
+        String first = "{\"eventCode\" : \"AUTHORISATION\", \"amount\":{\"value\":1000,\"currency\":\"EUR\"},\"reason\":\"Zürich\"}";
+        String second = "{\"eventCode\":\"REFUND\"}";
+        String body = "{\"live\":\"false\",\"notificationItems\":[{\"NotificationRequestItem\":" + first + "},"
+                + "{\"NotificationRequestItem\":" + second + "}]}";
+
+        List<String> rawItems = NotificationJsonHelper.extractRawItems(body.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of(first, second), rawItems);
+    }
+
+    @Test
+    void testExtractRawItemsWithoutItems() throws IOException {
+        List<String> rawItems = NotificationJsonHelper.extractRawItems("{\"live\":\"false\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(rawItems.isEmpty());
+    }
+
+    @Test
+    void testExtractRawItemsRejectsNonObjectBody() {
+        assertThrows(IOException.class, () -> NotificationJsonHelper.extractRawItems("[]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testReadNotificationItemsMapsFields() throws IOException {
+        String body = "{\"live\":\"false\",\"notificationItems\":[{\"NotificationRequestItem\":{"
+                + "\"additionalData\":{\"hmacSignature\":\"abc=\"},"
+                + "\"amount\":{\"currency\":\"EUR\",\"value\":1000},"
+                + "\"eventCode\":\"AUTHORISATION\",\"eventDate\":\"2025-04-17T18:04:17+02:00\","
+                + "\"merchantAccountCode\":\"TestMerchant\",\"merchantReference\":\"order-1\","
+                + "\"operations\":[\"CANCEL\",\"CAPTURE\"],\"pspReference\":\"PSP1\",\"success\":\"true\"}}]}";
+
+        List<NotificationRequestItem> items = NotificationJsonHelper.readNotificationItems(stream(body), 10);
+
+        assertEquals(1, items.size());
+        NotificationRequestItem item = items.get(0);
+        assertEquals("PSP1", item.getPspReference());
+        assertEquals("AUTHORISATION", item.getEventCode());
+        assertEquals("order-1", item.getMerchantReference());
+        assertTrue(item.isSuccess());
+        assertEquals(1000L, item.getAmount().getValue());
+        assertEquals("EUR", item.getAmount().getCurrency());
+        assertEquals(List.of("CANCEL", "CAPTURE"), item.getOperations());
+        assertEquals("abc=", item.getAdditionalData().get("hmacSignature"));
+        assertNotNull(item.getEventDate());
+    }
+
+    @Test
+    void testReadNotificationItemsRejectsTooManyItems() {
+        String body = "{\"notificationItems\":[{\"NotificationRequestItem\":{}},{\"NotificationRequestItem\":{}}]}";
+
+        assertThrows(PayloadTooLargeException.class, () -> NotificationJsonHelper.readNotificationItems(stream(body), 1));
+    }
+
+    @Test
+    void testReadNotificationItemsRejectsTrailingContent() {
+        assertThrows(IOException.class, () -> NotificationJsonHelper.readNotificationItems(stream("{\"notificationItems\":[]} {}"), 10));
+    }
+
+    @Test
+    void testReadNotificationItemWithEpochEventDate() throws IOException {
+        NotificationRequestItem item = NotificationJsonHelper.readNotificationItem(
+                "{\"eventCode\":\"REFUND\",\"eventDate\":1700000000000,\"pspReference\":\"PSP1\",\"success\":true}");
+
+        assertEquals("REFUND", item.getEventCode());
+        assertEquals("PSP1", item.getPspReference());
+        assertEquals(1700000000000L, item.getEventDate().getTime());
+        assertTrue(item.isSuccess());
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.payment.helper;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentMethodHelperTest {
+
+    @Test
+    void testToMinorUnits() {
+        assertEquals(1050L, PaymentMethodHelper.toMinorUnits("10.5", 2));
+        assertEquals(1050L, PaymentMethodHelper.toMinorUnits("10.50", 2));
+        assertEquals(1000L, PaymentMethodHelper.toMinorUnits("10", 2));
+        assertEquals(1L, PaymentMethodHelper.toMinorUnits("0.01", 2));
+        assertEquals(-320L, PaymentMethodHelper.toMinorUnits("-3.2", 2));
+    }
+
+    @Test
+    void testToMinorUnitsByCurrency() {
+        assertEquals(1050L, PaymentMethodHelper.toMinorUnits("10.50", "EUR"));
+        assertEquals(1000L, PaymentMethodHelper.toMinorUnits("1000", "JPY"));
+        assertEquals(1234L, PaymentMethodHelper.toMinorUnits("1.234", "KWD"));
+    }
+
+    @Test
+    void testToMinorUnitsAllowsTrailingZeros() {
+        assertEquals(1050L, PaymentMethodHelper.toMinorUnits("10.5000", 2));
+    }
+
+    @Test
+    void testToMinorUnitsRejectsExtraDecimalPlaces() {
+        assertThrows(ArithmeticException.class, () -> PaymentMethodHelper.toMinorUnits("10.555", 2));
+        assertThrows(ArithmeticException.class, () -> PaymentMethodHelper.toMinorUnits("10.5", 0));
+    }
+
+    @Test
+    void testToMinorUnitsRejectsOverflow() {
+        assertThrows(ArithmeticException.class, () -> PaymentMethodHelper.toMinorUnits("92233720368547758.08", 2));
+    }
+
+    @Test
+    void testToMinorUnitsRejectsInvalidInput() {
+        assertThrows(NumberFormatException.class, () -> PaymentMethodHelper.toMinorUnits("abc", 2));
+        assertThrows(NumberFormatException.class, () -> PaymentMethodHelper.toMinorUnits("", 2));
+        assertThrows(NumberFormatException.class, () -> PaymentMethodHelper.toMinorUnits(".", 2));
+        assertThrows(NumberFormatException.class, () -> PaymentMethodHelper.toMinorUnits("1.2.3", 2));
+        assertThrows(NumberFormatException.class, () -> PaymentMethodHelper.toMinorUnits("1e3", 2));
+    }
+}
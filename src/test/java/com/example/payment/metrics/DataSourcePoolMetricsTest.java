@@ -0,0 +1,67 @@
+package com.example.payment.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DataSourcePoolMetricsTest {
+
+    private DataSourcePoolMetrics poolMetrics;
+    private PoolStats poolStats;
+
+    @BeforeEach
+    void setUp() {
+        poolMetrics = new DataSourcePoolMetrics();
+        poolStats = mock(PoolStats.class);
+    }
+
+    @Test
+    void testMetricsContainPoolStats() {
+        when(poolStats.getActiveConnections()).thenReturn(3);
+        when(poolStats.getIdleConnections()).thenReturn(2);
+        when(poolStats.getTotalConnections()).thenReturn(5);
+        when(poolStats.getPendingThreads()).thenReturn(1);
+
+        poolMetrics.create("payment-pool", poolStats);
+
+        Map<String, Object> metrics = poolMetrics.getMetrics();
+
+        assertEquals("payment-pool", metrics.get("pool"));
+        assertEquals(3, metrics.get("active"));
+        assertEquals(2, metrics.get("idle"));
+        assertEquals(5, metrics.get("total"));
+        assertEquals(1, metrics.get("pending"));
+    }
+
+    @Test
+    void testRecordWaitTimeAndTimeouts() {
+        IMetricsTracker tracker = poolMetrics.create("payment-pool", poolStats);
+
+        tracker.recordConnectionAcquiredNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        tracker.recordConnectionAcquiredNanos(TimeUnit.MILLISECONDS.toNanos(4));
+        tracker.recordConnectionTimeout();
+
+        Map<String, Object> metrics = poolMetrics.getMetrics();
+
+        assertEquals(2L, metrics.get("acquired"));
+        assertEquals(3.0, (Double) metrics.get("waitAvgMillis"), 0.001);
+        assertEquals(4.0, (Double) metrics.get("waitMaxMillis"), 0.001);
+        assertEquals(1L, metrics.get("timeouts"));
+    }
+
+    @Test
+    void testMetricsBeforePoolStarted() {
+        Map<String, Object> metrics = poolMetrics.getMetrics();
+
+        assertNull(metrics.get("pool"));
+        assertFalse(metrics.containsKey("active"));
+        assertEquals(0L, metrics.get("acquired"));
+    }
+}
@@ -2,7 +2,7 @@ CREATE TABLE payment (
     id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     merchant_reference VARCHAR(255),
     psp_reference VARCHAR(255),
-    amount NUMERIC(20),
+    amount BIGINT,
     currency VARCHAR(10),
     reference VARCHAR(255),
     payment_method VARCHAR(100),
@@ -25,4 +25,69 @@ CREATE TABLE payment_webhook (
     CONSTRAINT fk_payment FOREIGN KEY (payment_id) REFERENCES payment(id) ON DELETE CASCADE
 );
 
-CREATE INDEX idx_payment_id ON payment_webhook (payment_id);
\ No newline at end of file
+CREATE INDEX idx_payment_id ON payment_webhook (payment_id);
+
+CREATE TABLE payment_webhook_key (
+    psp_reference VARCHAR(255) NOT NULL,
+    event_code VARCHAR(255) NOT NULL,
+    success BOOLEAN NOT NULL,
+    event_date TIMESTAMP NOT NULL,
+    received_at TIMESTAMP NOT NULL,
+    CONSTRAINT payment_webhook_key_pkey PRIMARY KEY (psp_reference, event_code, success, event_date)
+);
+
+CREATE UNIQUE INDEX ux_payment_psp_reference ON payment (psp_reference);
+CREATE UNIQUE INDEX ux_payment_reference_merchant_reference ON payment (reference, merchant_reference);
+
+CREATE TABLE webhook_inbox (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    payload TEXT NOT NULL,
+    status VARCHAR(20) DEFAULT 'Pending' NOT NULL,
+    attempts INT DEFAULT 0 NOT NULL,
+    locked_until TIMESTAMP,
+    last_error TEXT,
+    received_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    processed_at TIMESTAMP,
+    next_attempt_at TIMESTAMP
+);
+
+CREATE INDEX ix_webhook_inbox_status ON webhook_inbox (status, id);
+
+CREATE TABLE webhook_retry (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    psp_reference VARCHAR(255),
+    event_code VARCHAR(255),
+    notification TEXT NOT NULL,
+    attempts INT DEFAULT 0 NOT NULL,
+    next_attempt_at TIMESTAMP NOT NULL,
+    last_error TEXT,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
+
+CREATE INDEX ix_webhook_retry_next_attempt_at ON webhook_retry (next_attempt_at);
+CREATE INDEX ix_webhook_retry_psp_reference ON webhook_retry (psp_reference);
+
+CREATE TABLE webhook_dead_letter (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    psp_reference VARCHAR(255),
+    event_code VARCHAR(255),
+    notification TEXT NOT NULL,
+    attempts INT NOT NULL,
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL,
+    failed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
+
+CREATE TABLE payment_idempotency (
+    idempotency_key VARCHAR(64) PRIMARY KEY,
+    request_fingerprint VARCHAR(255) NOT NULL,
+    payment_id BIGINT,
+    status VARCHAR(20) NOT NULL,
+    response_status INT,
+    response_body TEXT,
+    locked_until TIMESTAMP,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
+
+CREATE INDEX ix_payment_idempotency_created_at ON payment_idempotency (created_at);